@@ -23,10 +23,6 @@ import se.tillvaxtverket.tsltrust.weblogic.models.RequestModel;
 import java.io.IOException;
 import java.math.BigInteger;
 import java.security.Provider;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Random;
-import java.util.Set;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
 import javax.servlet.http.Cookie;
@@ -36,13 +32,12 @@ import javax.servlet.http.HttpServletResponse;
 import se.tillvaxtverket.tsltrust.weblogic.models.SessionModel;
 import se.tillvaxtverket.tsltrust.weblogic.models.TslTrustModel;
 import java.security.Security;
-import java.util.ArrayList;
-import java.util.List;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import se.tillvaxtverket.tsltrust.weblogic.MainMenuProvider;
 import se.tillvaxtverket.tsltrust.weblogic.MainTslTrust;
 import se.tillvaxtverket.tsltrust.weblogic.models.TslTrustConfig;
 import se.tillvaxtverket.tsltrust.webservice.daemon.ContextParameters;
+import se.tillvaxtverket.tsltrust.webservice.utility.SessionStore;
 
 /**
  * This class is the main provider of the TSL Trust administration service servlet.
@@ -51,8 +46,10 @@ import se.tillvaxtverket.tsltrust.webservice.daemon.ContextParameters;
 public class HtmlProvider extends HttpServlet {
 //    private ServletContext context;
 
-    Map<BigInteger, SessionModel> sessionMap;
-    long day;
+    private static final long SESSION_LIFETIME = 1000 * 60 * 60 * 24;
+    private static final long SESSION_SWEEP_INTERVAL = 1000 * 60 * 10;
+    private static final int MAX_SESSIONS = 10000;
+    private SessionStore sessionStore;
     private String superAdminID, superAdminAttribute, superAdminIdP;
     private MainTslTrust tslTrust;
     private TslTrustModel model;
@@ -72,9 +69,7 @@ public class HtmlProvider extends HttpServlet {
         // Insert the BC provider in a preferred position
         Security.insertProviderAt(new BouncyCastleProvider(), 1);
 
-        sessionMap = new HashMap<BigInteger, SessionModel>();
-        day = 1000 * 60 * 60 * 24;
-                
+        sessionStore = new SessionStore(MAX_SESSIONS, SESSION_LIFETIME, SESSION_SWEEP_INTERVAL);
 
         model = ContextParameters.getModel();
         conf = (TslTrustConfig) model.getConf();
@@ -88,6 +83,17 @@ public class HtmlProvider extends HttpServlet {
 
     }
 
+    /**
+     * Releases the session store when the servlet is taken out of service
+     */
+    @Override
+    public void destroy() {
+        if (sessionStore != null) {
+            sessionStore.shutdown();
+        }
+        super.destroy();
+    }
+
     /** 
      * Processes requests for both HTTP <code>GET</code> and <code>POST</code> methods.
      * @param request servlet request
@@ -153,8 +159,7 @@ public class HtmlProvider extends HttpServlet {
         }
 
         response.setContentType("text/html;charset=UTF-8");
-        String htmlResponse = tslTrust.loadData(req);
-        response.getWriter().write(htmlResponse);
+        tslTrust.writeData(req, response.getWriter());
 
     }
 
@@ -195,7 +200,7 @@ public class HtmlProvider extends HttpServlet {
     }// </editor-fold>
 
     private SessionModel getSession(HttpServletRequest request, HttpServletResponse response) {
-        BigInteger sessionID = new BigInteger(32, new Random(System.currentTimeMillis()));
+        BigInteger sessionID = null;
         Cookie[] cookies = request.getCookies();
         try {
             for (Cookie cookie : cookies) {
@@ -205,39 +210,8 @@ public class HtmlProvider extends HttpServlet {
             }
         } catch (Exception ex) {
         }
-        response.addCookie(new Cookie("ttSession", sessionID.toString()));
-        return getSessionFromID(sessionID);
-    }
-
-    private SessionModel getSessionFromID(BigInteger sessionID) {
-        SessionModel session = null;
-        if (sessionMap == null) {
-            sessionMap = new HashMap<BigInteger, SessionModel>();
-        }
-        List<BigInteger> removeList = new ArrayList<BigInteger>();
-        if (!sessionMap.isEmpty()) {
-            Set<BigInteger> idSet = sessionMap.keySet();
-            for (BigInteger id : idSet) {
-                SessionModel storedSession = sessionMap.get(id);
-                long lastUse = storedSession.getLastUsed();
-                if ((lastUse + day) < System.currentTimeMillis()) {
-                    removeList.add(id);
-                    continue;
-                }
-                if (id.equals(sessionID)) {
-                    storedSession.setLastUsed(System.currentTimeMillis());
-                    session = storedSession;
-                }
-            }
-        }
-        for (BigInteger id : removeList) {
-            sessionMap.remove(id);
-        }
-        if (session == null) {
-            session = new SessionModel(sessionID);
-            session.setLastUsed(System.currentTimeMillis());
-            sessionMap.put(sessionID, session);
-        }
+        SessionModel session = sessionStore.getSession(sessionID);
+        response.addCookie(new Cookie("ttSession", session.getSessionID().toString()));
         return session;
     }
 
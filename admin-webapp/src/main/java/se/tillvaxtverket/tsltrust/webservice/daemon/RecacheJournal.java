@@ -0,0 +1,180 @@
+/*
+ * Copyright 2017 Swedish E-identification Board (E-legitimationsnämnden)
+ *  		 
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.tillvaxtverket.tsltrust.webservice.daemon;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import se.tillvaxtverket.tsltrust.common.utils.general.FileOps;
+
+/**
+ * Durable checkpoint record of the TSL recache pipeline. The journal holds the
+ * last completed stage of the current recache run and whether the trust
+ * service database is awaiting a rebuild. Every change is written to disk
+ * before the next stage starts, by replacing the journal file atomically.
+ * One journal instance is shared by all recache runs and the background
+ * database rebuild, so that none of them overwrites the state of another.
+ */
+class RecacheJournal {
+
+    private static final Logger LOG = Logger.getLogger(RecacheJournal.class.getName());
+    private static final String RUN_STARTED = "runStarted";
+    private static final String COMPLETED_STAGE = "completedStage";
+    private static final String REBUILD_PENDING = "rebuildPending";
+    private static final Map<String, RecacheJournal> journals = new HashMap<String, RecacheJournal>();
+
+    /**
+     * Stages of the recache pipeline, in execution order
+     */
+    enum Stage {
+
+        STARTED, LOTL, TSLS, PURGE, UPDATE, DONE
+    }
+    private final File journalFile;
+    private long runStarted;
+    private Stage completedStage = Stage.DONE;
+    private boolean rebuildPending;
+
+    private RecacheJournal(File journalFile) {
+        this.journalFile = journalFile;
+    }
+
+    /**
+     * Returns the shared journal of a journal file. The journal is loaded from
+     * the file the first time it is requested.
+     * @param journalFile the journal file
+     * @return recache journal
+     */
+    static RecacheJournal getInstance(File journalFile) {
+        synchronized (journals) {
+            String key = journalFile.getAbsolutePath();
+            RecacheJournal journal = journals.get(key);
+            if (journal == null) {
+                journal = load(journalFile);
+                journals.put(key, journal);
+            }
+            return journal;
+        }
+    }
+
+    /**
+     * Loads the journal, or returns an empty journal of a completed run if no
+     * journal file is present or it can not be read.
+     * @param journalFile the journal file
+     * @return recache journal
+     */
+    static RecacheJournal load(File journalFile) {
+        RecacheJournal journal = new RecacheJournal(journalFile);
+        if (!journalFile.canRead()) {
+            return journal;
+        }
+        Properties props = new Properties();
+        InputStream is = null;
+        try {
+            is = new FileInputStream(journalFile);
+            props.load(is);
+            journal.runStarted = Long.parseLong(props.getProperty(RUN_STARTED, "0"));
+            journal.completedStage = Stage.valueOf(props.getProperty(COMPLETED_STAGE, Stage.DONE.name()));
+            journal.rebuildPending = Boolean.parseBoolean(props.getProperty(REBUILD_PENDING, "false"));
+        } catch (Exception ex) {
+            LOG.log(Level.WARNING, "Unable to read recache journal " + journalFile.getAbsolutePath(), ex);
+            journal.runStarted = 0;
+            journal.completedStage = Stage.DONE;
+        } finally {
+            if (is != null) {
+                try {
+                    is.close();
+                } catch (IOException ex) {
+                }
+            }
+        }
+        return journal;
+    }
+
+    /**
+     * Tells if the journal holds an unfinished run that is recent enough to be
+     * resumed rather than started over.
+     * @param maxAge maximum age in milliseconds of a resumable run
+     * @return true if the run should be resumed
+     */
+    synchronized boolean isResumable(long maxAge) {
+        return completedStage != Stage.DONE && System.currentTimeMillis() - runStarted < maxAge;
+    }
+
+    /**
+     * Starts a new recache run
+     */
+    synchronized void begin() {
+        runStarted = System.currentTimeMillis();
+        completedStage = Stage.STARTED;
+        save();
+    }
+
+    synchronized boolean isCompleted(Stage stage) {
+        return completedStage.compareTo(stage) >= 0;
+    }
+
+    synchronized Stage getCompletedStage() {
+        return completedStage;
+    }
+
+    synchronized long getRunStarted() {
+        return runStarted;
+    }
+
+    /**
+     * Records the completion of a stage
+     * @param stage the completed stage
+     */
+    synchronized void complete(Stage stage) {
+        completedStage = stage;
+        save();
+    }
+
+    synchronized boolean isRebuildPending() {
+        return rebuildPending;
+    }
+
+    synchronized void setRebuildPending(boolean rebuildPending) {
+        this.rebuildPending = rebuildPending;
+        save();
+    }
+
+    private void save() {
+        Properties props = new Properties();
+        props.setProperty(RUN_STARTED, String.valueOf(runStarted));
+        props.setProperty(COMPLETED_STAGE, completedStage.name());
+        props.setProperty(REBUILD_PENDING, String.valueOf(rebuildPending));
+        StringWriter writer = new StringWriter();
+        try {
+            props.store(writer, "TSL recache journal");
+        } catch (IOException ex) {
+            LOG.log(Level.WARNING, "Unable to store recache journal", ex);
+            return;
+        }
+        if (!FileOps.saveTxtFileAtomic(journalFile, writer.toString())) {
+            LOG.warning("Unable to save recache journal " + journalFile.getAbsolutePath());
+        }
+    }
+}
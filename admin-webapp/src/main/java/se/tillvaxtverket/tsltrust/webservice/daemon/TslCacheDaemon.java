@@ -22,30 +22,37 @@ import se.tillvaxtverket.tsltrust.weblogic.data.TslCertificates;
 import se.tillvaxtverket.tsltrust.weblogic.data.TslMetaData;
 import se.tillvaxtverket.tsltrust.weblogic.db.LogDbUtil;
 import se.tillvaxtverket.tsltrust.weblogic.db.TslCertDb;
-import se.tillvaxtverket.tsltrust.weblogic.db.TslCertDbSqlite;
 import se.tillvaxtverket.tsltrust.weblogic.models.TslTrustModel;
 import java.io.File;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.apache.commons.io.FileUtils;
 import se.tillvaxtverket.tsltrust.common.tsl.TSLFactory;
 import se.tillvaxtverket.tsltrust.weblogic.data.ConsoleLogRecord;
 import se.tillvaxtverket.tsltrust.weblogic.data.MajorLogRecord;
 import se.tillvaxtverket.tsltrust.weblogic.utils.TslCache;
+import se.tillvaxtverket.tsltrust.webservice.daemon.RecacheJournal.Stage;
 
 /**
- * Daemon class for caching trust information in the form of EU Trusted Lists
+ * Daemon class for caching trust information in the form of EU Trusted Lists.
+ * The recache is performed as a pipeline of stages, where the completion of
+ * each stage is recorded in a journal. A run that is interrupted or fails is
+ * resumed from the last completed stage by the next run.
  */
 public class TslCacheDaemon implements WebXmlConstants {
 
     private static final Logger LOG = Logger.getLogger(TslCacheDaemon.class.getName());
+    private static final AtomicBoolean rebuilding = new AtomicBoolean(false);
     private final LogDbUtil logDb;
     private List<TslCertificates> newCertList;
     private List<TslCertificates> changedCertList;
     private final File recacheFile;
+    private final RecacheJournal journal;
     private final TslTrustModel model;
     private TslCertDb certDb;
     private List<TslMetaData> tslList = null;
@@ -65,6 +72,7 @@ public class TslCacheDaemon implements WebXmlConstants {
         this.certDb = model.getTslCertDb();
         this.logDb = model.getLogDb();
         recacheFile = new File(model.getDataLocation() + "cfg/recacheTime");
+        journal = RecacheJournal.getInstance(new File(model.getDataLocation() + "cfg/recacheJournal"));
         tslCache = new TslCache(model);
         this.taskComplete = taskComplete;
         this.threadSleep = threadSleep;
@@ -83,6 +91,8 @@ public class TslCacheDaemon implements WebXmlConstants {
         long startTime = System.currentTimeMillis();
 
         getTslData();
+        // Drop certificates cached by the admin pages, the recache may have changed the records
+        certDb.clearCache();
         logDb.deleteExcessEventRecords();
         logDb.deleteOldAccessRecords();
         if (!recacheFile.canRead()) {
@@ -98,10 +108,20 @@ public class TslCacheDaemon implements WebXmlConstants {
     }
 
     private void getTslData() {
-        con("Root TSL", "Downloading root TSL");
-        if (!tslCache.recacheLotl()) {
-            con("Error", "Failed to obtain valid EU root TSL and no one in cache.. Aborting");
-            return;
+        // Only a run interrupted well before the next scheduled run is resumed
+        if (journal.isResumable(threadSleep / 2)) {
+            con("Resuming interrupted TSL recache after stage: " + journal.getCompletedStage());
+        } else {
+            journal.begin();
+        }
+
+        if (!journal.isCompleted(Stage.LOTL) || tslCache.getLotl() == null) {
+            con("Root TSL", "Downloading root TSL");
+            if (!tslCache.recacheLotl()) {
+                con("Error", "Failed to obtain valid EU root TSL and no one in cache.. Aborting");
+                return;
+            }
+            journal.complete(Stage.LOTL);
         }
 
         //Signature check of Lotl
@@ -112,43 +132,125 @@ public class TslCacheDaemon implements WebXmlConstants {
 
         //Recache Tsls from lotl (never returns null - at minimum an empty list)
         taskComplete = true;
-        con("Downloading national TSLs...");
-        tslCache.recacheTsl();
+        if (!journal.isCompleted(Stage.TSLS)) {
+            con("Downloading national TSLs...");
+            tslCache.recacheTsl();
+        } else {
+            con("Loading cached national TSLs...");
+            tslCache.loadTslData();
+        }
         tslList = tslCache.getCachedTslList();
 
         if (tslList.isEmpty()) {
             return;
         }
+        journal.complete(Stage.TSLS);
 
-        //Update trust service certificate database
+        //Update trust service certificate database. A pending rebuild does not stop the update, so that status
+        //changes and revocations still reach the current database if the rebuild keeps failing
         taskComplete = false;
-        con("Updating TSL database records...");
-        int deletedRecords = certDb.deleteAbsentStatusRecords(tslList, logDb);
-        if (deletedRecords > 0) {
-            model.getLogDb().addMajorEvent(new MajorLogRecord("Tsl DB Update", "Deleted "
-                    + String.valueOf(deletedRecords) + " un-listed Trust Services", "TSL Extractor"));
+        if (!journal.isCompleted(Stage.PURGE)) {
+            con("Updating TSL database records...");
+            int deletedRecords = certDb.deleteAbsentStatusRecords(tslList, logDb);
+            if (deletedRecords > 0) {
+                model.getLogDb().addMajorEvent(new MajorLogRecord("Tsl DB Update", "Deleted "
+                        + String.valueOf(deletedRecords) + " un-listed Trust Services", "TSL Extractor"));
+            }
+            journal.complete(Stage.PURGE);
         }
-        boolean updated = checkForUpdates();
 
-        // if db was updated. check that update is complete
-        if (updated) {
-            updated = checkForUpdates();
+        if (!journal.isCompleted(Stage.UPDATE)) {
+            boolean updated = checkForUpdates();
+
+            // if db was updated. check that update is complete
             if (updated) {
-                // db is corrupt. Recreate database
-                File dbFile = new File(model.getDataLocation() + "db/tslCertDb");
-                dbFile.delete();
-                model.getLogDb().addMajorEvent(new MajorLogRecord("Tsl DB Error", "Database is corrupt. Recreating database...", "TSL Extractor"));
-                certDb = new TslCertDbSqlite(model.getDataLocation());
-                checkForUpdates();
+                updated = checkForUpdates();
+                if (updated) {
+                    // db is corrupt. Rebuild it in the background from the cached TSLs
+                    model.getLogDb().addMajorEvent(new MajorLogRecord("Tsl DB Error", "Database is corrupt. Rebuilding database...", "TSL Extractor"));
+                    journal.setRebuildPending(true);
+                }
             }
+            journal.complete(Stage.UPDATE);
         }
 
+        if (journal.isRebuildPending()) {
+            // Keep serving the updated current database until the rebuild is promoted
+            startRebuild();
+        }
 
-
+        journal.complete(Stage.DONE);
         con("TSL recache complete");
         taskComplete = true;
     }
 
+    /**
+     * Starts a background rebuild of the trust service database from the
+     * current TSL list, unless a rebuild is already running.
+     */
+    private void startRebuild() {
+        if (!rebuilding.compareAndSet(false, true)) {
+            con("DB Rebuild", "Database rebuild already in progress");
+            return;
+        }
+        final List<TslMetaData> rebuildTslList = tslList;
+        Thread rebuildThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    rebuildDatabase(rebuildTslList);
+                } catch (Exception ex) {
+                    LOG.log(Level.WARNING, "Database rebuild failed", ex);
+                } finally {
+                    rebuilding.set(false);
+                }
+            }
+        }, "TslCertDb-rebuild");
+        rebuildThread.setDaemon(true);
+        rebuildThread.start();
+    }
+
+    /**
+     * Builds a new trust service database in a staging file and promotes it to
+     * replace the current database when it is complete. A failed rebuild leaves
+     * the rebuild pending in the journal and is retried by the next run, while
+     * the current database is still updated inline by each run.
+     */
+    private void rebuildDatabase(List<TslMetaData> rebuildTslList) {
+        con("DB Rebuild", "Rebuilding TSL database from cached TSLs...");
+        TslCertDb stagingDb = certDb.createStagingDb();
+        if (stagingDb == null) {
+            rebuildFailed("Unable to create staging database. Rebuild aborted");
+            return;
+        }
+        List<TslCertificates> dbCerts = stagingDb.getAllTslCertificate(true);
+        if (dbCerts == null) {
+            rebuildFailed("DB Connection failure. Rebuild aborted");
+            return;
+        }
+        List<TslCertificates> addCerts = stagingDb.getNewCertificates(dbCerts, rebuildTslList, logDb);
+        stagingDb.addCertificates(addCerts, logDb);
+
+        // A complete build leaves no trust services to add
+        dbCerts = stagingDb.getAllTslCertificate(true);
+        if (dbCerts == null || !stagingDb.getNewCertificates(dbCerts, rebuildTslList, logDb).isEmpty()) {
+            rebuildFailed("Rebuilt database is incomplete. Keeping current database");
+            return;
+        }
+        if (!certDb.promote(stagingDb)) {
+            rebuildFailed("Unable to replace current database. Keeping current database");
+            return;
+        }
+        journal.setRebuildPending(false);
+        model.getLogDb().addMajorEvent(new MajorLogRecord("Tsl DB Update", "Database rebuilt with "
+                + String.valueOf(dbCerts.size()) + " Trust Services", "TSL Extractor"));
+    }
+
+    private void rebuildFailed(String reason) {
+        con("DB Rebuild", reason);
+        model.getLogDb().addMajorEvent(new MajorLogRecord("Tsl DB Error", "Database rebuild failed: " + reason, "TSL Extractor"));
+    }
+
     private boolean checkForUpdates() {
         boolean update = false;
         certDb.updateAbsentStatus(tslList, logDb);
@@ -35,14 +35,23 @@ import se.tillvaxtverket.tsltrust.weblogic.utils.PolicyUtils;
 import java.io.File;
 import java.io.IOException;
 import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.cert.CertificateEncodingException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.FileUtils;
 import org.bouncycastle.cms.CMSException;
 import se.tillvaxtverket.tsltrust.weblogic.data.ConsoleLogRecord;
@@ -64,7 +73,10 @@ public class CertAuthOperations implements WebXmlConstants {
     private final PolicyUtils policyUtils;
     private Map<String, Map<BigInteger, AaaCertificate>> tslCertsMap = new HashMap<String, Map<BigInteger, AaaCertificate>>();
     private Map<String, String> caDirectories = new HashMap<String, String>();
-    ;
+    // SHA-256 digest of the exported certificate set of each policy
+    private Map<String, String> certDigests = new HashMap<String, String>();
+    // Policies where certificates were issued or revoked during this run
+    private Set<String> changedPolicies = new HashSet<String>();
     private List<ValidationPolicy> validationPolicies;
     private Map<String, CertificationAuthority> caMap;
 
@@ -244,6 +256,7 @@ public class CertAuthOperations implements WebXmlConstants {
                 }
                 if (count > 0) {
                     con("Revocation", "Revoking " + String.valueOf(count) + " certificates from " + vp.getPolicyName());
+                    changedPolicies.add(pName);
                 }
                 ca.revokeCertificates();
             }
@@ -274,8 +287,9 @@ public class CertAuthOperations implements WebXmlConstants {
                 }
                 if (count > 0) {
                     con("Issue", String.valueOf(count) + " new certificates issued for " + vp.getPolicyName());
+                    changedPolicies.add(pName);
                 }
-                exportCerts(ca);
+                exportCerts(ca, changedPolicies.contains(pName));
             }
         }
     }
@@ -290,36 +304,87 @@ public class CertAuthOperations implements WebXmlConstants {
         return dbCertIDs;
     }
 
-    private void exportCerts(CertificationAuthority ca) {
+    /**
+     * Exports the PKCS7 bundle of the certificates issued by a policy CA. The
+     * bundle is only rewritten when the digest of the certificate set differs
+     * from the digest recorded at the last export, so that consumers do not
+     * see new file timestamps for unchanged policies.
+     *
+     * @param ca the policy CA
+     * @param changed true if certificates were issued or revoked by the CA during this run
+     */
+    private void exportCerts(CertificationAuthority ca, boolean changed) {
+        File localCertFile = new File(ca.getCaDir(), ca.getCaID() + ".p7b");
+        File exportCertFile = new File(FileOps.getfileNameString(conf.getCaFileStorageLocation(), "certs"), ca.getCaID() + ".p7b");
+        File digestFile = new File(ca.getCaDir(), ca.getCaID() + ".p7b.sha256");
+        String recordedDigest = digestFile.canRead() ? FileOps.readTextFile(digestFile).trim() : null;
+        boolean exported = recordedDigest != null && localCertFile.canRead() && exportCertFile.canRead();
+        if (exported && !changed) {
+            certDigests.put(ca.getCaName(), recordedDigest);
+            return;
+        }
+
         List<DbCert> isssueList = ca.getAllCertificates(false);
         List<AaaCertificate> certList = new ArrayList<>();
-//        AaaCertificate[] certificates = new AaaCertificate[isssueList.size()];
         for (int i = 0; i < isssueList.size(); i++) {
             DbCert dbCert = isssueList.get(i);
             certList.add(dbCert.getCertificate());
-//            certificates[i] = dbCert.getCertificate();
         }
 
         try {
+            String digest = getCertSetDigest(certList);
+            certDigests.put(ca.getCaName(), digest);
+            if (exported && digest.equals(recordedDigest)) {
+                return;
+            }
             byte[] pkcs7 = CertUtils.getPKCS7(certList);
-            File localCertFile = new File(ca.getCaDir(), ca.getCaID() + ".p7b");
-            File exportCertFile = new File(FileOps.getfileNameString(conf.getCaFileStorageLocation(), "certs"), ca.getCaID() + ".p7b");
-            FileOps.saveByteFile(pkcs7, localCertFile);
-            FileOps.saveByteFile(pkcs7, exportCertFile);
-        } catch (CMSException | IOException ex) {
+            if (FileOps.saveByteFileAtomic(pkcs7, localCertFile) && FileOps.saveByteFileAtomic(pkcs7, exportCertFile)) {
+                // The digest is recorded last, a failed export is retried in the next run
+                FileOps.saveTxtFileAtomic(digestFile, digest);
+                con("Publish", "Exported " + certList.size() + " certificates for " + ca.getCaName());
+            }
+        } catch (CMSException | IOException | CertificateEncodingException ex) {
             LOG.log(Level.WARNING, null, ex);
         }
     }
 
+    /**
+     * Calculates an order independent SHA-256 digest of a set of certificates
+     */
+    private static String getCertSetDigest(List<AaaCertificate> certList) throws CertificateEncodingException {
+        List<String> certHashes = new ArrayList<String>(certList.size());
+        for (AaaCertificate cert : certList) {
+            certHashes.add(DigestUtils.sha256Hex(cert.getEncoded()));
+        }
+        Collections.sort(certHashes);
+        MessageDigest md = DigestUtils.getSha256Digest();
+        for (String certHash : certHashes) {
+            md.update(certHash.getBytes());
+        }
+        return Hex.encodeHexString(md.digest());
+    }
+
     private void publishRootXMLFile() {
         List<CertificationAuthority> caList = new ArrayList<CertificationAuthority>();
         Set<String> keySet = caMap.keySet();
         for (String caKey : keySet) {
             caList.add(caMap.get(caKey));
         }
-        String rootXML = RootXMLFactory.generateRootInfo(caList, validationPolicies);
+        // Keep a stable order so that unchanged trust data gives an identical file
+        Collections.sort(caList, new Comparator<CertificationAuthority>() {
+            @Override
+            public int compare(CertificationAuthority ca1, CertificationAuthority ca2) {
+                return ca1.getCaName().compareTo(ca2.getCaName());
+            }
+        });
+        String rootXML = RootXMLFactory.generateRootInfo(caList, validationPolicies, certDigests);
         File xmlFile = new File(conf.getCaFileStorageLocation(), "rootlist.xml");
-        FileOps.saveTxtFile(xmlFile, rootXML);
+        if (xmlFile.canRead() && Arrays.equals(rootXML.getBytes(Charset.defaultCharset()), FileOps.readBinaryFile(xmlFile))) {
+            return;
+        }
+        if (FileOps.saveTxtFileAtomic(xmlFile, rootXML)) {
+            con("Publish", "Published updated rootlist.xml");
+        }
     }
 
     private BigInteger key(byte[] data) {
@@ -20,19 +20,11 @@ import com.aaasec.lib.aaacert.AaaCertificate;
 import java.io.IOException;
 import se.tillvaxtverket.tsltrust.common.utils.core.PEM;
 import se.tillvaxtverket.tsltrust.common.utils.general.URIComponentCoder;
+import se.tillvaxtverket.tsltrust.common.utils.general.XmlUtils;
 import se.tillvaxtverket.tsltrust.weblogic.data.ValidationPolicy;
 import java.security.cert.CertificateEncodingException;
 import java.util.List;
-import java.util.logging.Level;
-import java.util.logging.Logger;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
+import java.util.Map;
 import org.w3c.dom.DOMImplementation;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -41,65 +33,57 @@ import org.w3c.dom.Element;
  * Factory class for creation of rootlist.xml files for export of trust information
  */
 public class RootXMLFactory {
-    private static final Logger LOG = Logger.getLogger(RootXMLFactory.class.getName());
+    public static final String SHA256_ALGORITHM = "http://www.w3.org/2001/04/xmlenc#sha256";
+
     public static String generateRootInfo(List<CertificationAuthority> caList, List<ValidationPolicy> vpList) {
-        try {
-            DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder builder = dbFactory.newDocumentBuilder();
-            DOMImplementation impl = builder.getDOMImplementation();
+        return generateRootInfo(caList, vpList, null);
+    }
 
-            Document doc = impl.createDocument(null, null, null);
-            doc.setXmlStandalone(true);
-            Element e1 = doc.createElement("tslt:TSLTrustRootList");
-            e1.setAttribute("xmlns:tslt", "http://3xasecurity.com/2011/TSLTrust");
-            doc.appendChild(e1);
+    /**
+     * Generates the rootlist.xml content
+     * @param caList policy CAs
+     * @param vpList validation policies
+     * @param certDigests digest of the exported certificate set of each policy, or null
+     * @return rootlist.xml content
+     */
+    public static String generateRootInfo(List<CertificationAuthority> caList, List<ValidationPolicy> vpList, Map<String, String> certDigests) {
+        DOMImplementation impl = XmlUtils.getDocumentBuilder().getDOMImplementation();
 
-            for (CertificationAuthority ca : caList) {
+        Document doc = impl.createDocument(null, null, null);
+        doc.setXmlStandalone(true);
+        Element e1 = doc.createElement("tslt:TSLTrustRootList");
+        e1.setAttribute("xmlns:tslt", "http://3xasecurity.com/2011/TSLTrust");
+        doc.appendChild(e1);
 
-                AaaCertificate cert = getRoot(ca);
-                Element root = doc.createElement("tslt:Root");
-                e1.appendChild(root);
-                Element rootName = doc.createElement("tslt:PolicyName");
-                rootName.setTextContent(ca.getCaName());
-                root.appendChild(rootName);
-                Element policyDescription = doc.createElement("tslt:PolicyDescription");
-                policyDescription.setTextContent(URIComponentCoder.encodeURIComponent(getPolicyDescription(ca,vpList)));
-                root.appendChild(policyDescription);
-                Element rootCert = doc.createElement("tslt:RootCertificate");
-                String pemCert = PEM.getPemCert(cert.getEncoded());
-                rootCert.setTextContent(PEM.trimPemCert(pemCert).trim());
-                root.appendChild(rootCert);
-            }
+        for (CertificationAuthority ca : caList) {
 
-            //System.out.println("The new XML document:\n" + getDocText(doc));
-            return getDocText(doc);
-        } catch (ParserConfigurationException ex) {
-            LOG.log(Level.WARNING, null, ex);
+            AaaCertificate cert = getRoot(ca);
+            Element root = doc.createElement("tslt:Root");
+            e1.appendChild(root);
+            Element rootName = doc.createElement("tslt:PolicyName");
+            rootName.setTextContent(ca.getCaName());
+            root.appendChild(rootName);
+            Element policyDescription = doc.createElement("tslt:PolicyDescription");
+            policyDescription.setTextContent(URIComponentCoder.encodeURIComponent(getPolicyDescription(ca,vpList)));
+            root.appendChild(policyDescription);
+            Element rootCert = doc.createElement("tslt:RootCertificate");
+            String pemCert = PEM.getPemCert(cert.getEncoded());
+            rootCert.setTextContent(PEM.trimPemCert(pemCert).trim());
+            root.appendChild(rootCert);
+            if (certDigests != null && certDigests.containsKey(ca.getCaName())) {
+                Element certDigest = doc.createElement("tslt:CertificatesDigest");
+                certDigest.setAttribute("Algorithm", SHA256_ALGORITHM);
+                certDigest.setTextContent(certDigests.get(ca.getCaName()));
+                root.appendChild(certDigest);
+            }
         }
-        return "No XML Created";
+
+        //System.out.println("The new XML document:\n" + getDocText(doc));
+        return getDocText(doc);
     }
 
     public static String getDocText(Document doc) {
-        DOMSource domSource = new DOMSource(doc);
-        TransformerFactory tf = TransformerFactory.newInstance();
-        Transformer transformer;
-        try {
-            transformer = tf.newTransformer();
-            transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "no");
-            //transformer.setOutputProperty(OutputKeys.STANDALONE, "no");
-            transformer.setOutputProperty(OutputKeys.METHOD, "xml");
-            transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
-            transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "4");
-            transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-            java.io.StringWriter sw = new java.io.StringWriter();
-            StreamResult sr = new StreamResult(sw);
-            transformer.transform(domSource, sr);
-            String xml = sw.toString();
-            return xml;
-        } catch (Exception ex) {
-            LOG.log(Level.WARNING, null, ex);
-        }
-        return "";
+        return XmlUtils.getDocText(doc);
     }
 
     private static AaaCertificate getRoot(CertificationAuthority ca) {
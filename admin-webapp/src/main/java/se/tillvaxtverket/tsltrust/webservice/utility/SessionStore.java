@@ -0,0 +1,152 @@
+/*
+ * Copyright 2017 Swedish E-identification Board (E-legitimationsnämnden)
+ *  		 
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.tillvaxtverket.tsltrust.webservice.utility;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import se.tillvaxtverket.tsltrust.weblogic.models.SessionModel;
+
+/**
+ * Thread safe registry of admin user sessions. Sessions are kept in access order,
+ * making lookup constant time and allowing the least recently used session to be
+ * evicted when the maximum number of sessions is reached. Sessions that have not
+ * been used within the session lifetime are removed by a background sweeper.
+ */
+public class SessionStore {
+
+    private static final Logger LOG = Logger.getLogger(SessionStore.class.getName());
+    private static final int SESSION_ID_BITS = 128;
+    private final Map<BigInteger, SessionModel> sessionMap;
+    private final SecureRandom rng = new SecureRandom();
+    private final long maxIdleTime;
+    private final ScheduledExecutorService sweeper;
+
+    /**
+     * Constructor
+     * @param maxSessions maximum number of stored sessions
+     * @param maxIdleTime time in milliseconds after which an unused session expires
+     * @param sweepInterval interval in milliseconds between removal of expired sessions
+     */
+    public SessionStore(final int maxSessions, long maxIdleTime, long sweepInterval) {
+        this.maxIdleTime = maxIdleTime;
+        this.sessionMap = new LinkedHashMap<BigInteger, SessionModel>(16, 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<BigInteger, SessionModel> eldest) {
+                return size() > maxSessions;
+            }
+        };
+        sweeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "SessionStore-sweeper");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        sweeper.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+                removeExpiredSessions();
+            }
+        }, sweepInterval, sweepInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the session with the specified ID and marks it as used. If no such
+     * session exists, a new session is created under a new random session ID.
+     * @param sessionID the session ID presented by the client, or null
+     * @return the user session
+     */
+    public SessionModel getSession(BigInteger sessionID) {
+        long now = System.currentTimeMillis();
+        synchronized (sessionMap) {
+            SessionModel session = sessionID == null ? null : sessionMap.get(sessionID);
+            if (session != null && session.getLastUsed() + maxIdleTime < now) {
+                sessionMap.remove(sessionID);
+                session = null;
+            }
+            if (session == null) {
+                BigInteger newID = getNewSessionID();
+                while (sessionMap.containsKey(newID)) {
+                    newID = getNewSessionID();
+                }
+                session = new SessionModel(newID);
+                sessionMap.put(newID, session);
+            }
+            session.setLastUsed(now);
+            return session;
+        }
+    }
+
+    /**
+     * Removes all sessions that have not been used within the session lifetime
+     * @return the number of removed sessions
+     */
+    public int removeExpiredSessions() {
+        long expiryTime = System.currentTimeMillis() - maxIdleTime;
+        int removed = 0;
+        synchronized (sessionMap) {
+            // Iteration starts with the least recently used session
+            Iterator<SessionModel> sessions = sessionMap.values().iterator();
+            while (sessions.hasNext()) {
+                if (sessions.next().getLastUsed() >= expiryTime) {
+                    break;
+                }
+                sessions.remove();
+                removed++;
+            }
+        }
+        if (removed > 0) {
+            LOG.fine("Removed " + removed + " expired sessions");
+        }
+        return removed;
+    }
+
+    /**
+     * @return the number of stored sessions
+     */
+    public int size() {
+        synchronized (sessionMap) {
+            return sessionMap.size();
+        }
+    }
+
+    /**
+     * Stops the background sweeper and removes all sessions
+     */
+    public void shutdown() {
+        sweeper.shutdownNow();
+        synchronized (sessionMap) {
+            sessionMap.clear();
+        }
+    }
+
+    private BigInteger getNewSessionID() {
+        return new BigInteger(SESSION_ID_BITS, rng);
+    }
+}
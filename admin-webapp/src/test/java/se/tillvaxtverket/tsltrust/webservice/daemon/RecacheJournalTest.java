@@ -0,0 +1,91 @@
+/*
+ * Copyright 2017 Swedish E-identification Board (E-legitimationsnämnden)
+ *  		 
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.tillvaxtverket.tsltrust.webservice.daemon;
+
+import java.io.File;
+import java.io.FileWriter;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import se.tillvaxtverket.tsltrust.webservice.daemon.RecacheJournal.Stage;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the recache journal
+ */
+public class RecacheJournalTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testMissingJournalIsCompletedRun() throws Exception {
+        RecacheJournal journal = RecacheJournal.load(new File(tempFolder.getRoot(), "cfg/recacheJournal"));
+        assertEquals(Stage.DONE, journal.getCompletedStage());
+        assertFalse(journal.isResumable(Long.MAX_VALUE));
+        assertFalse(journal.isRebuildPending());
+    }
+
+    @Test
+    public void testStagesAreDurable() throws Exception {
+        File journalFile = new File(tempFolder.getRoot(), "cfg/recacheJournal");
+        RecacheJournal journal = RecacheJournal.load(journalFile);
+        journal.begin();
+        journal.complete(Stage.TSLS);
+
+        RecacheJournal reloaded = RecacheJournal.load(journalFile);
+        assertEquals(Stage.TSLS, reloaded.getCompletedStage());
+        assertEquals(journal.getRunStarted(), reloaded.getRunStarted());
+        assertTrue(reloaded.isCompleted(Stage.LOTL));
+        assertFalse(reloaded.isCompleted(Stage.PURGE));
+        assertTrue(reloaded.isResumable(60000));
+        assertFalse(new File(journalFile.getAbsolutePath() + ".tmp").exists());
+    }
+
+    @Test
+    public void testOldRunIsNotResumed() throws Exception {
+        RecacheJournal journal = RecacheJournal.load(new File(tempFolder.getRoot(), "recacheJournal"));
+        journal.begin();
+        Thread.sleep(5);
+        assertFalse(journal.isResumable(1));
+    }
+
+    @Test
+    public void testSharedInstanceKeepsRebuildState() throws Exception {
+        File journalFile = new File(tempFolder.getRoot(), "recacheJournal");
+        RecacheJournal run1 = RecacheJournal.getInstance(journalFile);
+        run1.setRebuildPending(true);
+
+        // The background rebuild of run 1 completes after run 2 has obtained the journal
+        RecacheJournal run2 = RecacheJournal.getInstance(journalFile);
+        assertSame(run1, run2);
+        run1.setRebuildPending(false);
+        run2.complete(Stage.DONE);
+
+        assertFalse(run2.isRebuildPending());
+        assertFalse(RecacheJournal.load(journalFile).isRebuildPending());
+    }
+
+    @Test
+    public void testUnreadableJournalIsIgnored() throws Exception {
+        File journalFile = tempFolder.newFile("recacheJournal");
+        FileWriter writer = new FileWriter(journalFile);
+        writer.write("completedStage=NO_SUCH_STAGE\n");
+        writer.close();
+        assertEquals(Stage.DONE, RecacheJournal.load(journalFile).getCompletedStage());
+    }
+}
@@ -16,6 +16,8 @@
  */
 package se.tillvaxtverket.tsltrust.weblogic;
 
+import java.io.IOException;
+import java.io.Writer;
 import se.tillvaxtverket.tsltrust.weblogic.workareas.AreaHandlerLoader;
 import se.tillvaxtverket.tsltrust.weblogic.workareas.WorkArea;
 import se.tillvaxtverket.tsltrust.weblogic.models.RequestModel;
@@ -46,4 +48,15 @@ public class MainTslTrust {
         String data = area.getHtmlData(req);
         return data;
     }
+
+    /**
+     * Process a http request from a user and writes an appropriate html response.
+     * @param req model holding data related to the http request.
+     * @param out writer for the html data response.
+     * @throws IOException if writing the response fails
+     */
+    public void writeData(RequestModel req, Writer out) throws IOException {
+        WorkArea area = areaLoader.getWorkAreaHandler(req);
+        area.writeHtmlData(req, out);
+    }
 }
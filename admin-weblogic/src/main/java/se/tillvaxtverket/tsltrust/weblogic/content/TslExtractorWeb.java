@@ -36,11 +36,10 @@ import java.util.List;
 import java.util.Locale;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
+import se.tillvaxtverket.tsltrust.common.html.elements.ButtonElement;
 import se.tillvaxtverket.tsltrust.common.html.elements.CheckboxElement;
 import se.tillvaxtverket.tsltrust.common.html.elements.DivElement;
 import se.tillvaxtverket.tsltrust.common.html.elements.GenericHtmlElement;
@@ -64,6 +63,7 @@ import se.tillvaxtverket.tsltrust.common.utils.general.FileOps;
 import java.math.BigInteger;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.Map;
 import org.etsi.uri.x02231.v2.TrustStatusListType;
@@ -89,6 +89,7 @@ public class TslExtractorWeb implements HtmlConstants, TTConstants {
     private static final Logger LOG = Logger.getLogger(TslExtractorWeb.class.getName());
     static final String[] TS_TABLE_CLASS = new String[]{TABLE_HEAD_CLASS, TABLE_NEUTRAL_CLASS, TABLE_STRIPED_CLASS};
     static final Locale SWEDISH = new Locale("sv");
+    static final int DB_PAGE_SIZE = 100;
     File recacheFile;
     List<TslMetaData> tslList;
     int logHash = 0;
@@ -163,6 +164,23 @@ public class TslExtractorWeb implements HtmlConstants, TTConstants {
      */
     public String getDBTable(SessionModel session, int winHeight) {
         StringBuilder b = new StringBuilder();
+        try {
+            writeDBTable(session, winHeight, b);
+        } catch (IOException ex) {
+            // Appending to a StringBuilder never throws IOException
+        }
+        return b.toString();
+    }
+
+    /**
+     * Writes the TSP Service table for the TSP records menu to the provided output
+     *
+     * @param session Session data
+     * @param winHeight client browser window height in pixels
+     * @param out output for the table html data
+     * @throws IOException if writing to the output fails
+     */
+    public void writeDBTable(SessionModel session, int winHeight, Appendable out) throws IOException {
         List<Integer> selectedCols = session.getSelectedCols();
 
         HtmlElement optionsPanel = new DivElement("dbOptions");
@@ -237,13 +255,23 @@ public class TslExtractorWeb implements HtmlConstants, TTConstants {
         filters.addHtmlElement(statusFilter);
         DbTableFilter sigFilter = new DbTableFilter("filterSignature", "-All Signature-", session.getSigFilter());
         filters.addHtmlElement(sigFilter);
-        List<TslCertificates> tcList = dbUtil.getAllTslCertificate(false);
-        for (TslCertificates tc : tcList) {
-            countryFilter.addFilterOption(tc.getTerritory());
-            typeFilter.addUrlFilterOption(tc.getTrustServiceType());
-            statusFilter.addUrlFilterOption(tc.getServiceStatus());
-            sigFilter.addFilterOption(tc.getSignStatus());
+        for (String territory : dbUtil.getDistinctValues("territory")) {
+            countryFilter.addFilterOption(territory);
+        }
+        for (String serviceType : dbUtil.getDistinctValues("trust_service_type")) {
+            typeFilter.addUrlFilterOption(serviceType);
+        }
+        for (String serviceStatus : dbUtil.getDistinctValues("service_status")) {
+            statusFilter.addUrlFilterOption(serviceStatus);
         }
+        for (String signStatus : dbUtil.getDistinctValues("sign_status")) {
+            sigFilter.addFilterOption(signStatus);
+        }
+        Map<String, List<String>> dbFilter = new LinkedHashMap<String, List<String>>();
+        addDbFilter(dbFilter, "territory", countryFilter);
+        addDbFilter(dbFilter, "trust_service_type", typeFilter);
+        addDbFilter(dbFilter, "service_status", statusFilter);
+        addDbFilter(dbFilter, "sign_status", sigFilter);
 
         //Add options panel to output
         HtmlElement dbTableDiv = new DivElement("dbTableDiv");
@@ -257,8 +285,13 @@ public class TslExtractorWeb implements HtmlConstants, TTConstants {
         // Set classes array
         dbTable.addRow(reduceArray(columnName, disp), TS_TABLE_CLASS[0]);
 
-        // Get sorted DB records
-        tcList = dbUtil.getAllTslCertificate(dbQueryId[session.getSortColumn()]);
+        // Get the current page of sorted and filtered DB records
+        int recordCount = dbUtil.countTslCertificates(dbFilter);
+        int pageCount = Math.max(1, (recordCount + DB_PAGE_SIZE - 1) / DB_PAGE_SIZE);
+        int page = Math.min(Math.max(session.getDbPage(), 0), pageCount - 1);
+        session.setDbPage(page);
+        List<TslCertificates> tcList = dbUtil.getTslCertificatePage(
+                dbQueryId[session.getSortColumn()], dbFilter, page * DB_PAGE_SIZE, DB_PAGE_SIZE);
 
         int row = 0;
         for (TslCertificates tc : tcList) {
@@ -282,27 +315,45 @@ public class TslExtractorWeb implements HtmlConstants, TTConstants {
                 }
             }
 
-            if (countryFilter.isFilterMatch(tc.getTerritory())
-                    && statusFilter.isUrlFilterMatch(tc.getServiceStatus())
-                    && typeFilter.isUrlFilterMatch(tc.getTrustServiceType())
-                    && sigFilter.isFilterMatch(tc.getSignStatus())) {
-                if (row++ % 2 == 0) {
-                    dbTable.addRow(reduceArray(rowValues, disp), TS_TABLE_CLASS[1]);
-                } else {
-                    dbTable.addRow(reduceArray(rowValues, disp), TS_TABLE_CLASS[2]);
-                }
+            if (row++ % 2 == 0) {
+                dbTable.addRow(reduceArray(rowValues, disp), TS_TABLE_CLASS[1]);
+            } else {
+                dbTable.addRow(reduceArray(rowValues, disp), TS_TABLE_CLASS[2]);
             }
         }
 
         HtmlElement rowCount = new DivElement();
         rowCount.addStyle("float", "right");
-        rowCount.addHtmlElement(new TextObject("#Records=<b>" + String.valueOf(row) + "</b>"));
+        if (pageCount > 1) {
+            rowCount.addHtmlElement(getDbPageButton("&lt;&lt;", page - 1, page > 0));
+            rowCount.addHtmlElement(new TextObject("&nbsp;Page " + (page + 1) + " of " + pageCount + "&nbsp;"));
+            rowCount.addHtmlElement(getDbPageButton("&gt;&gt;", page + 1, page < pageCount - 1));
+            rowCount.addHtmlElement(new TextObject("&nbsp;&nbsp;"));
+        }
+        rowCount.addHtmlElement(new TextObject("#Records=<b>" + String.valueOf(recordCount) + "</b>"));
         checkBoxes.addHtmlElement(rowCount);
 
-        b.append(optionsPanel.toString());
-        b.append(dbTableDiv.toString());
-        return b.toString();
+        optionsPanel.render(out);
+        dbTableDiv.render(out);
+    }
 
+    private void addDbFilter(Map<String, List<String>> dbFilter, String column, DbTableFilter filter) {
+        List<String> values = filter.getFilterValues();
+        if (values != null) {
+            dbFilter.put(column, values);
+        }
+    }
+
+    private HtmlElement getDbPageButton(String label, int page, boolean enabled) {
+        HtmlElement button = new ButtonElement(label, ONCLICK, LOAD_DATA_FUNCTION, new String[]{
+            MAIN_DATA_AREA, //load element for response html
+            "dbPage", //Ajax request id
+            String.valueOf(page) //Ajax req param (requested page)
+        });
+        if (!enabled) {
+            button.addAttribute("disabled", "disabled");
+        }
+        return button;
     }
 
     /**
@@ -660,23 +711,23 @@ public class TslExtractorWeb implements HtmlConstants, TTConstants {
         //Output raw XML data
         Transformer transformer;
         try {
-            transformer = TransformerFactory.newInstance().newTransformer();
-            transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-
-            //initialize StreamResult with File object to save to file
-            StreamResult result = new StreamResult(new StringWriter());
-            DOMSource source = new DOMSource(XmlUtils.getDocument(tsl.getBytes()));
-            try {
-                transformer.transform(source, result);
-            } catch (TransformerException ex) {
-                return "<Error>" + ex.getMessage() + "<Error>";
-            }
+            transformer = XmlUtils.getTransformer();
+        } catch (IllegalStateException ex) {
+            return "<Error>" + ex.getMessage() + "<Error>";
+        }
+        transformer.setOutputProperty(OutputKeys.INDENT, "yes");
 
-            String xmlString = result.getWriter().toString();
-            return new XmlFormatter().format(xmlString);
-        } catch (TransformerConfigurationException ex) {
+        //initialize StreamResult with File object to save to file
+        StreamResult result = new StreamResult(new StringWriter());
+        DOMSource source = new DOMSource(XmlUtils.getDocument(tsl.getBytes()));
+        try {
+            transformer.transform(source, result);
+        } catch (TransformerException ex) {
             return "<Error>" + ex.getMessage() + "<Error>";
         }
+
+        String xmlString = result.getWriter().toString();
+        return new XmlFormatter().format(xmlString);
     }
 
     /**
@@ -688,19 +739,16 @@ public class TslExtractorWeb implements HtmlConstants, TTConstants {
      * @return base64 string
      */
     public String getBase64Cert(String certHash) {
-        List<TslCertificates> dbCertList = dbUtil.getAllTslCertificate(false);
         if (otpCertMap != null) {
             if (otpCertMap.containsKey(certHash)) {
                 return new String(Base64Coder.encode(otpCertMap.get(certHash).getEncoded()));
             }
         }
-        for (TslCertificates tc : dbCertList) {
-            if (tc.getTslCertHash().equals(certHash)) {
-                try {
-                    byte[] cert = CertificateUtils.getCertificate(tc.getTslCertificate()).getEncoded();
-                    return new String(Base64Coder.encode(cert));
-                } catch (Exception ex) {
-                }
+        AaaCertificate cert = dbUtil.getCertificate(certHash);
+        if (cert != null) {
+            try {
+                return new String(Base64Coder.encode(cert.getEncoded()));
+            } catch (Exception ex) {
             }
         }
         return "";
@@ -1059,6 +1107,7 @@ public class TslExtractorWeb implements HtmlConstants, TTConstants {
             TrustServiceList reCachedLotl = null;
             List<TslMetaData> reCachedTslList = null;
 
+            dbUtil.clearCache();
             tCache.recacheLotl();
             currentLotl = tCache.getLotl();
             tCache.lotlSignatureCheck();
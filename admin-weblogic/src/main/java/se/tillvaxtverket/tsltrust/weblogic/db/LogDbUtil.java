@@ -16,6 +16,7 @@
  */
 package se.tillvaxtverket.tsltrust.weblogic.db;
 
+import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.List;
 import se.tillvaxtverket.tsltrust.weblogic.content.TTConstants;
@@ -31,6 +32,7 @@ import se.tillvaxtverket.tsltrust.weblogic.hibernate.HigernateDbUtil;
  */
 public class LogDbUtil implements TTConstants{
 
+    private static final String LOG_TIME_COLUMN = "logtime";
     private int maxDetailLogSize;
     private long maxSumLogAge;
     HigernateDbUtil<AdminLogRecord> dbAdminLog = HibernateDbFactory.getDbAdminLog();
@@ -90,22 +92,28 @@ public class LogDbUtil implements TTConstants{
         deleteOldAccessRecords(time, "Access");
     }
 
+    /**
+     * Deletes all console log records except the most recent ones, keeping at most
+     * the configured maximum number of console log records
+     */
     public void deleteExcessEventRecords() {
-        List<ConsoleLogRecord> records = getConsoleEvents();
-        if (records.size() > maxDetailLogSize) {
-            for (int i = maxDetailLogSize; i < records.size(); i++) {
-                dbConsoleLog.deleteRecord(records.get(i));
-            }
+        List<ConsoleLogRecord> oldest = dbConsoleLog.getRecordPage(true, false, LOG_TIME_COLUMN, maxDetailLogSize, 1);
+        if (!oldest.isEmpty()) {
+            dbConsoleLog.deleteRecordsBelow(getTimeKey(oldest.get(0).getTime() + 1));
         }
     }
 
     private void deleteOldAccessRecords(long time, String table) {
-        List<MajorLogRecord> records = getMajorEvents();
-        for (MajorLogRecord record : records) {
-            if (record.getTime() < time) {
-                dbMajorLog.deleteRecord(record);
-            }
-        }
+        dbMajorLog.deleteRecordsBelow(getTimeKey(time));
+    }
+
+    /**
+     * Log records are keyed by the decimal string representation of the log time
+     * @param time log time
+     * @return the key value of a log record with the specified time
+     */
+    private static String getTimeKey(long time) {
+        return BigInteger.valueOf(time).toString();
     }
 
     private void setIntValues(String maxSize, String maxAge) {
@@ -50,6 +50,17 @@ public abstract class SqLiteQuery<E extends Object> {
      * @return Returns a result object for the database query
      */
     public E dbQuery(String query, E defaultResult) {
+        return dbQuery(query, null, defaultResult);
+    }
+
+    /**
+     * Execute a parameterized database query
+     * @param query The query string with ? placeholders for the parameters
+     * @param params The values bound to the placeholders of the query, or null for none
+     * @param defaultResult The default return value in case the query fails to produce result
+     * @return Returns a result object for the database query
+     */
+    public E dbQuery(String query, Object[] params, E defaultResult) {
         E result = defaultResult;
         Connection con = null;
         Statement stmt;
@@ -67,10 +78,21 @@ public abstract class SqLiteQuery<E extends Object> {
                         con = SqLiteConnectionPool.getConnection(url, userid, password);
                     }
 
-                    stmt = con.createStatement();
-                    ResultSet rs = stmt.executeQuery(query);
+                    ResultSet rs;
+                    if (params == null) {
+                        stmt = con.createStatement();
+                        rs = stmt.executeQuery(query);
+                    } else {
+                        PreparedStatement prep = con.prepareStatement(query);
+                        for (int i = 0; i < params.length; i++) {
+                            prep.setObject(i + 1, params[i]);
+                        }
+                        stmt = prep;
+                        rs = prep.executeQuery();
+                    }
                     result = parseResultSet(rs);
                     rs.close();
+                    stmt.close();
                     con.close();
                 } else {
                     result = defaultResult;
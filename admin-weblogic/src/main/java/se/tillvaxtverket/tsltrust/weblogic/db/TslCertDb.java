@@ -25,6 +25,7 @@ import se.tillvaxtverket.tsltrust.common.utils.general.CertificateUtils;
 import java.math.BigInteger;
 import java.security.MessageDigest;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -40,11 +41,110 @@ import se.tillvaxtverket.tsltrust.weblogic.data.ConsoleLogRecord;
 public abstract class TslCertDb {
 
     protected static final Logger LOG = Logger.getLogger(TslCertDb.class.getName());
+    private static final int MAX_CACHED_CERTS = 1024;
+    // Decoded certificates by certificate hash
+    private final Map<String, AaaCertificate> certCache = new LinkedHashMap<String, AaaCertificate>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, AaaCertificate> eldest) {
+            return size() > MAX_CACHED_CERTS;
+        }
+    };
 
     public abstract List<TslCertificates> getAllTslCertificate(boolean defaultNull);
 
     public abstract List<TslCertificates> getAllTslCertificate(String sortID);
 
+    /**
+     * Returns one page of trust service records for display, sorted and filtered
+     * by the database. The returned records do not hold the certificate.
+     * @param sortID the column to sort on
+     * @param filter map of column names and the values accepted in each column
+     * @param offset index of the first record of the page
+     * @param limit maximum number of records on the page
+     * @return the records of the requested page
+     */
+    public abstract List<TslCertificates> getTslCertificatePage(String sortID, Map<String, List<String>> filter, int offset, int limit);
+
+    /**
+     * Counts the trust service records matching a filter
+     * @param filter map of column names and the values accepted in each column
+     * @return number of matching records
+     */
+    public abstract int countTslCertificates(Map<String, List<String>> filter);
+
+    /**
+     * Returns the distinct values present in a column of the trust service records.
+     * The result is cached until the records are modified or the cache is cleared.
+     * @param column column name
+     * @return sorted list of distinct values
+     */
+    public abstract List<String> getDistinctValues(String column);
+
+    /**
+     * Returns the trust service records holding a certificate
+     * @param certHash the hex string representation of the 64 bit FNV1a hash of the certificate
+     * @return the matching records, or an empty list if the certificate is not present
+     */
+    public abstract List<TslCertificates> getTslCertificatesByHash(String certHash);
+
+    /**
+     * Clears cached query results and decoded certificates, e.g. after the
+     * database has been updated by another process or a TSL recache has completed
+     */
+    public abstract void clearCache();
+
+    /**
+     * Returns a certificate of the trust service records by its hash. Decoded
+     * certificates are cached until {@link #clearCache()} is called.
+     * @param certHash the hex string representation of the 64 bit FNV1a hash of the certificate
+     * @return the certificate, or null if no record holds the certificate
+     */
+    public AaaCertificate getCertificate(String certHash) {
+        synchronized (certCache) {
+            AaaCertificate cert = certCache.get(certHash);
+            if (cert != null) {
+                return cert;
+            }
+        }
+        List<TslCertificates> tcList = getTslCertificatesByHash(certHash);
+        if (tcList == null) {
+            return null;
+        }
+        for (TslCertificates tc : tcList) {
+            AaaCertificate cert = CertificateUtils.getCertificate(tc.getTslCertificate());
+            if (cert != null) {
+                synchronized (certCache) {
+                    certCache.put(certHash, cert);
+                }
+                return cert;
+            }
+        }
+        return null;
+    }
+
+    protected void clearCertificateCache() {
+        synchronized (certCache) {
+            certCache.clear();
+        }
+    }
+
+    /**
+     * Creates an empty database next to this database, used for rebuilding the
+     * trust service records while this database keeps serving the current ones.
+     * Any previous, unfinished, staging database is discarded.
+     * @return the empty staging database, or null if it could not be created
+     */
+    public abstract TslCertDb createStagingDb();
+
+    /**
+     * Atomically replaces the content of this database with a staging database
+     * created by {@link #createStagingDb()}. The staging database must not be
+     * used after this call.
+     * @param stagingDb the completed staging database
+     * @return true if the staging database was promoted
+     */
+    public abstract boolean promote(TslCertDb stagingDb);
+
     public List<TslCertificates> getNewCertificates(List<TslCertificates> dbList, List<TslMetaData> tslMdList, LogDbUtil log) {
         List resultList = new LinkedList<TslCertificates>();
 
@@ -18,7 +18,15 @@ package se.tillvaxtverket.tsltrust.weblogic.db;
 
 import se.tillvaxtverket.tsltrust.weblogic.data.TslCertificates;
 import se.tillvaxtverket.tsltrust.weblogic.data.TslMetaData;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import org.apache.commons.io.FileUtils;
+import se.tillvaxtverket.tsltrust.common.utils.core.SqLiteConnectionPool;
 import se.tillvaxtverket.tsltrust.weblogic.data.ConsoleLogRecord;
 
 /**
@@ -26,10 +34,53 @@ import se.tillvaxtverket.tsltrust.weblogic.data.ConsoleLogRecord;
  */
 public class TslCertDbSqlite extends TslCertDb {
 
-    TslCertSQLiteUtil sqlite;
+    public static final String DB_NAME = "tslCertDb";
+    private static final String STAGING_DB_NAME = "tslCertDb.staging";
+    private final String ttDataDir;
+    private final String dbName;
+    volatile TslCertSQLiteUtil sqlite;
 
     public TslCertDbSqlite(String ttDataDir) {
-        sqlite = new TslCertSQLiteUtil(ttDataDir);
+        this(ttDataDir, DB_NAME);
+    }
+
+    private TslCertDbSqlite(String ttDataDir, String dbName) {
+        this.ttDataDir = ttDataDir;
+        this.dbName = dbName;
+        sqlite = new TslCertSQLiteUtil(ttDataDir, dbName);
+    }
+
+    @Override
+    public TslCertDb createStagingDb() {
+        File stagingFile = new File(ttDataDir + "db/" + STAGING_DB_NAME);
+        SqLiteConnectionPool.closePool(TslCertSQLiteUtil.getDbUrl(ttDataDir, STAGING_DB_NAME));
+        FileUtils.deleteQuietly(stagingFile);
+        if (stagingFile.exists()) {
+            LOG.warning("Unable to remove old staging database " + stagingFile.getAbsolutePath());
+            return null;
+        }
+        return new TslCertDbSqlite(ttDataDir, STAGING_DB_NAME);
+    }
+
+    @Override
+    public synchronized boolean promote(TslCertDb stagingDb) {
+        if (!(stagingDb instanceof TslCertDbSqlite) || stagingDb == this) {
+            return false;
+        }
+        TslCertSQLiteUtil staged = ((TslCertDbSqlite) stagingDb).sqlite;
+        staged.close();
+        try {
+            Files.move(staged.getDbFile().toPath(), sqlite.getDbFile().toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            LOG.log(Level.WARNING, "Unable to promote rebuilt database " + staged.getDbFile().getAbsolutePath(), ex);
+            return false;
+        }
+        // Pooled connections still refer to the replaced file
+        sqlite.close();
+        sqlite = new TslCertSQLiteUtil(ttDataDir, dbName);
+        clearCertificateCache();
+        return true;
     }
 
     @Override
@@ -44,6 +95,32 @@ public class TslCertDbSqlite extends TslCertDb {
         return resultList;
     }
 
+    @Override
+    public List<TslCertificates> getTslCertificatePage(String sortID, Map<String, List<String>> filter, int offset, int limit) {
+        return sqlite.getCertificatePage(sortID, filter, offset, limit);
+    }
+
+    @Override
+    public int countTslCertificates(Map<String, List<String>> filter) {
+        return sqlite.countCertificates(filter);
+    }
+
+    @Override
+    public List<String> getDistinctValues(String column) {
+        return sqlite.getDistinctValues(column);
+    }
+
+    @Override
+    public List<TslCertificates> getTslCertificatesByHash(String certHash) {
+        return sqlite.selectCertificates("tsl_cert_hash", certHash);
+    }
+
+    @Override
+    public void clearCache() {
+        sqlite.clearCache();
+        clearCertificateCache();
+    }
+
     @Override
     public void addCertificates(List<TslCertificates> newCertList, LogDbUtil log) {
         for (TslCertificates tc : newCertList) {
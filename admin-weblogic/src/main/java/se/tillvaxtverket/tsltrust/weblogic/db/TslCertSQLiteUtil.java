@@ -20,14 +20,20 @@ package se.tillvaxtverket.tsltrust.weblogic.db;
  * Utility class for access to TSL trust service database records
  */
 import se.tillvaxtverket.tsltrust.common.utils.core.FnvHash;
+import se.tillvaxtverket.tsltrust.common.utils.core.SqLiteConnectionPool;
 import se.tillvaxtverket.tsltrust.weblogic.data.TslCertificates;
 import java.io.File;
 import java.math.BigInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class TslCertSQLiteUtil {
 
@@ -39,23 +45,51 @@ public class TslCertSQLiteUtil {
         "trust_service_type", "service_status", "tsl_date", "tsl_exp_date", "tsl_cert_hash", "tsl_certificate",
         "sdi_type", "tsl_cert_exp", "tsl_seq_no", "tsl_sha1", "extractor_status", "sign_status"};
     private String certCols;
+    // Columns of the table view. The certificate itself is not needed for display
+    private static final String[] VIEW_COLS = new String[]{"id", "tsp_name", "ts_name", "territory",
+        "trust_service_type", "service_status", "tsl_date", "tsl_exp_date", "tsl_cert_hash",
+        "sdi_type", "tsl_cert_exp", "tsl_seq_no", "tsl_sha1", "extractor_status", "sign_status"};
+    // Columns used for sorting and filtering of the table view, and for lookup of certificates by hash
+    private static final String[] INDEXED_COLS = new String[]{"territory", "tsp_name", "ts_name",
+        "trust_service_type", "service_status", "sign_status", "tsl_date", "tsl_exp_date", "tsl_seq_no",
+        "sdi_type", "tsl_cert_exp", "tsl_cert_hash"};
+    // Cached distinct column values, per database url and column
+    private static final ConcurrentHashMap<String, Map<String, List<String>>> DISTINCT_CACHE = new ConcurrentHashMap<String, Map<String, List<String>>>();
+    private String viewCols;
+    private File dbFile;
 
     public TslCertSQLiteUtil(String ttDataDir) {
-        url = "jdbc:sqlite://" + ttDataDir + "db/tslCertDb";
+        this(ttDataDir, TslCertDbSqlite.DB_NAME);
+    }
+
+    /**
+     * Opens, or creates, a trust service database
+     * @param ttDataDir TSL Trust data directory
+     * @param dbName name of the database file in the db folder of the data directory
+     */
+    public TslCertSQLiteUtil(String ttDataDir, String dbName) {
+        url = getDbUrl(ttDataDir, dbName);
         StringBuilder b = new StringBuilder();
         for (int i = 0; i < tslCertCols.length; i++) {
             b.append(tslCertCols[i]).append(",");
         }
         b.deleteCharAt(b.lastIndexOf(","));
         certCols = b.toString();
+        b = new StringBuilder();
+        for (int i = 0; i < VIEW_COLS.length; i++) {
+            b.append(VIEW_COLS[i]).append(",");
+        }
+        b.deleteCharAt(b.lastIndexOf(","));
+        viewCols = b.toString();
 
-        File dbFile = new File(ttDataDir + "db/tslCertDb");
+        dbFile = new File(ttDataDir + "db/" + dbName);
         if (!dbFile.canRead()) {
             if (dbFile.getParentFile() != null) {
                 dbFile.getParentFile().mkdirs();
             }
             createCATable();
         }
+        createIndexes();
     }
 
     private Connection getConnection() {
@@ -116,6 +150,24 @@ public class TslCertSQLiteUtil {
         LOG.info("DB: " + url + " created");
     }
 
+    // Create indexes on the sort, filter and lookup columns
+    private void createIndexes() {
+        Connection con = getConnection();
+        if (con == null) {
+            return;
+        }
+        try {
+            Statement stmt = con.createStatement();
+            for (String col : INDEXED_COLS) {
+                stmt.executeUpdate("CREATE INDEX IF NOT EXISTS idx_" + col + " ON Certificates (" + col + ");");
+            }
+            stmt.close();
+            con.close();
+        } catch (SQLException ex) {
+            LOG.log(Level.WARNING, "Unable to create indexes on " + url, ex);
+        }
+    }
+
     public void addCertificate(TslCertificates tc) {
 
         final TslCertificates ftc = tc;
@@ -145,6 +197,7 @@ public class TslCertSQLiteUtil {
             }
         };
         sqlAction.dbAction();
+        clearCache();
     }
 
     public void addORreplaceCertificate(TslCertificates tc) {
@@ -177,6 +230,7 @@ public class TslCertSQLiteUtil {
         };
 
         sqlAction.dbAction();
+        clearCache();
     }
 
     public List<TslCertificates> getCertificates(boolean defaultNull) {
@@ -185,20 +239,160 @@ public class TslCertSQLiteUtil {
     }
 
     public List<TslCertificates> getCertificates(String column) {
+        checkColumn(column);
         return queryCertificates("SELECT * FROM Certificates ORDER BY " + column + " ASC ;", new LinkedList<TslCertificates>());
     }
 
     public List<TslCertificates> selectCertificates(String column, String value) {
-        return queryCertificates("SELECT * FROM Certificates WHERE " + column + " = \"" + value + "\" ;", new LinkedList<TslCertificates>());
+        checkColumn(column);
+        return queryCertificates("SELECT * FROM Certificates WHERE " + column + " = ? ;", new Object[]{value}, new LinkedList<TslCertificates>());
+    }
+
+    /**
+     * Returns one page of the certificate table for display. The returned records
+     * do not hold the certificate itself.
+     * @param sortColumn the column to sort on
+     * @param filter map of column names and the values accepted in each column.
+     * Records match if the value of each filtered column is one of the listed values.
+     * @param offset the index of the first record of the page
+     * @param limit the maximum number of records of the page
+     * @return the records of the requested page
+     */
+    public List<TslCertificates> getCertificatePage(String sortColumn, Map<String, List<String>> filter, int offset, int limit) {
+        checkColumn(sortColumn);
+        List<Object> params = new ArrayList<Object>();
+        String query = "SELECT " + viewCols + " FROM Certificates" + getWhereClause(filter, params)
+                + " ORDER BY " + sortColumn + " ASC, id ASC LIMIT ? OFFSET ? ;";
+        params.add(limit);
+        params.add(offset);
+        return queryCertificates(query, params.toArray(), new LinkedList<TslCertificates>());
+    }
+
+    /**
+     * Counts the records of the certificate table that match a filter
+     * @param filter map of column names and the values accepted in each column
+     * @return number of matching records
+     */
+    public int countCertificates(Map<String, List<String>> filter) {
+        List<Object> params = new ArrayList<Object>();
+        String query = "SELECT COUNT(*) FROM Certificates" + getWhereClause(filter, params) + " ;";
+        SqLiteQuery<Integer> sqlQuery = new SqLiteQuery<Integer>(url, userid, password) {
+
+            @Override
+            Integer parseResultSet(ResultSet rs) throws SQLException {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        };
+        return sqlQuery.dbQuery(query, params.toArray(), 0);
+    }
+
+    /**
+     * Returns the distinct values of a column in ascending order. Results are cached
+     * until the database is modified.
+     * @param column the column name
+     * @return list of distinct non null values
+     */
+    public List<String> getDistinctValues(String column) {
+        checkColumn(column);
+        Map<String, List<String>> urlCache = DISTINCT_CACHE.get(url);
+        if (urlCache == null) {
+            Map<String, List<String>> newCache = new ConcurrentHashMap<String, List<String>>();
+            urlCache = DISTINCT_CACHE.putIfAbsent(url, newCache);
+            if (urlCache == null) {
+                urlCache = newCache;
+            }
+        }
+        List<String> values = urlCache.get(column);
+        if (values != null) {
+            return values;
+        }
+        SqLiteQuery<List<String>> sqlQuery = new SqLiteQuery<List<String>>(url, userid, password) {
+
+            @Override
+            List<String> parseResultSet(ResultSet rs) throws SQLException {
+                List<String> valueList = new ArrayList<String>();
+                while (rs.next()) {
+                    valueList.add(rs.getString(1));
+                }
+                return Collections.unmodifiableList(valueList);
+            }
+        };
+        values = sqlQuery.dbQuery("SELECT DISTINCT " + column + " FROM Certificates WHERE "
+                + column + " IS NOT NULL ORDER BY " + column + " ASC ;", null);
+        if (values == null) {
+            return Collections.emptyList();
+        }
+        urlCache.put(column, values);
+        return values;
+    }
+
+    /**
+     * Clears cached query results for this database
+     */
+    public void clearCache() {
+        DISTINCT_CACHE.remove(url);
+    }
+
+    static String getDbUrl(String ttDataDir, String dbName) {
+        return "jdbc:sqlite://" + ttDataDir + "db/" + dbName;
+    }
+
+    /**
+     * @return the database file
+     */
+    public File getDbFile() {
+        return dbFile;
+    }
+
+    /**
+     * Closes all pooled connections to this database and clears cached query results
+     */
+    public void close() {
+        SqLiteConnectionPool.closePool(url);
+        clearCache();
+    }
+
+    private String getWhereClause(Map<String, List<String>> filter, List<Object> params) {
+        if (filter == null || filter.isEmpty()) {
+            return "";
+        }
+        StringBuilder b = new StringBuilder();
+        for (String column : filter.keySet()) {
+            checkColumn(column);
+            List<String> values = filter.get(column);
+            b.append(b.length() == 0 ? " WHERE " : " AND ");
+            if (values == null || values.isEmpty()) {
+                b.append("0");
+                continue;
+            }
+            b.append(column).append(" IN (");
+            for (int i = 0; i < values.size(); i++) {
+                b.append(i == 0 ? "?" : ",?");
+                params.add(values.get(i));
+            }
+            b.append(")");
+        }
+        return b.toString();
+    }
+
+    private void checkColumn(String column) {
+        if (!Arrays.asList(tslCertCols).contains(column)) {
+            throw new IllegalArgumentException("Illegal column name: " + column);
+        }
     }
 
     private List<TslCertificates> queryCertificates(String query, List<TslCertificates> defaultResult) {
+        return queryCertificates(query, null, defaultResult);
+    }
+
+    private List<TslCertificates> queryCertificates(String query, Object[] params, List<TslCertificates> defaultResult) {
 
         SqLiteQuery<List<TslCertificates>> sqlQuery = new SqLiteQuery<List<TslCertificates>>(url, userid, password) {
 
             @Override
             List<TslCertificates> parseResultSet(ResultSet rs) throws SQLException {
                 LinkedList<TslCertificates> certList = new LinkedList<TslCertificates>();
+                boolean hasCert = hasColumn(rs, tslCertCols[9]);
                 while (rs.next()) {
                     TslCertificates tc = new TslCertificates();
                     tc.setId(rs.getInt(tslCertCols[0]));
@@ -210,7 +404,9 @@ public class TslCertSQLiteUtil {
                     tc.setTslDate(rs.getLong(tslCertCols[6]));
                     tc.setTslExpDate(rs.getLong(tslCertCols[7]));
                     tc.setTslCertHash(rs.getString(tslCertCols[8]));
-                    tc.setTslCertificate(rs.getString(tslCertCols[9]));
+                    if (hasCert) {
+                        tc.setTslCertificate(rs.getString(tslCertCols[9]));
+                    }
                     tc.setSdiType(rs.getShort(tslCertCols[10]));
                     tc.setCertExpiry(rs.getLong(tslCertCols[11]));
                     tc.setTslSeqNo(rs.getString(tslCertCols[12]));
@@ -222,7 +418,17 @@ public class TslCertSQLiteUtil {
                 return certList;
             }
         };
-        return sqlQuery.dbQuery(query, defaultResult);
+        return sqlQuery.dbQuery(query, params, defaultResult);
+    }
+
+    private static boolean hasColumn(ResultSet rs, String column) throws SQLException {
+        ResultSetMetaData md = rs.getMetaData();
+        for (int i = 1; i <= md.getColumnCount(); i++) {
+            if (column.equalsIgnoreCase(md.getColumnName(i))) {
+                return true;
+            }
+        }
+        return false;
     }
 
     public int deleteCertificate(TslCertificates tc) {
@@ -230,17 +436,20 @@ public class TslCertSQLiteUtil {
     }
 
     public int deleteCertificates(String column, String value) {
-        Statement stmt;
+        checkColumn(column);
+        PreparedStatement stmt;
         int cnt = 0;
         try {
             Connection con = getConnection();
-            stmt = con.createStatement();
-            cnt = stmt.executeUpdate("DELETE FROM Certificates WHERE " + column + " = \"" + value + "\" ;");
+            stmt = con.prepareStatement("DELETE FROM Certificates WHERE " + column + " = ? ;");
+            stmt.setString(1, value);
+            cnt = stmt.executeUpdate();
             con.close();
 
         } catch (Exception ex) {
             LOG.log(Level.SEVERE, null, ex);
         }
+        clearCache();
         return cnt;
     }
 
@@ -22,8 +22,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import noNamespace.HibernateConfigurationDocument;
 import noNamespace.PropertyType;
@@ -32,6 +30,7 @@ import org.apache.xmlbeans.XmlOptions;
 import org.w3c.dom.Document;
 import org.xml.sax.SAXException;
 import se.tillvaxtverket.tsltrust.common.utils.general.FileOps;
+import se.tillvaxtverket.tsltrust.common.utils.general.XmlUtils;
 
 /**
  * Class providing static methods for loading and generation of hibernate
@@ -50,6 +49,10 @@ public class HibernateConfigFactory {
     public static final String CREATE_TABLE = "hibernate.hbm2ddl.auto";
     public static final String SHOW_SQL = "show_sql";
     public static final String FORMAT_SQL = "format_sql";
+    public static final String BATCH_SIZE = "hibernate.jdbc.batch_size";
+    public static final String FETCH_SIZE = "hibernate.jdbc.fetch_size";
+    public static final String ORDER_INSERTS = "hibernate.order_inserts";
+    public static final String ORDER_UPDATES = "hibernate.order_updates";
     private static String[] logMapping = new String[]{
         "ConsoleLog.hbm.xml",
         "AdminLog.hbm.xml",
@@ -250,6 +253,11 @@ public class HibernateConfigFactory {
     }
 
     private static void addOptions(SessionFactory hsFact) {
+        String batchSize = String.valueOf(HigernateDbUtil.BATCH_SIZE);
+        addProperty(hsFact, BATCH_SIZE, batchSize);
+        addProperty(hsFact, FETCH_SIZE, batchSize);
+        addProperty(hsFact, ORDER_INSERTS, "true");
+        addProperty(hsFact, ORDER_UPDATES, "true");
         if (!autoCreate.equals("false")) {
             addProperty(hsFact, CREATE_TABLE, autoCreate);
         }
@@ -298,11 +306,8 @@ public class HibernateConfigFactory {
     }
 
     private static Document getDoc(byte[] xmlData) throws ParserConfigurationException, SAXException, IOException {
-        DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-        dbf.setNamespaceAware(true);
-        DocumentBuilder builder = dbf.newDocumentBuilder();
         InputStream is = new ByteArrayInputStream(xmlData);
-        Document doc = builder.parse(is);
+        Document doc = XmlUtils.getDoctypeDocumentBuilder().parse(is);
         return doc;
     }
 
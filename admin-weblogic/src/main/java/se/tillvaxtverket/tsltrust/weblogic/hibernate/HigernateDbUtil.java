@@ -16,20 +16,33 @@
  */
 package se.tillvaxtverket.tsltrust.weblogic.hibernate;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
 import org.hibernate.HibernateException;
 import org.hibernate.Query;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
+import org.hibernate.Transaction;
 
 /**
  * Hibernate database access utility class, providing database access to dataobject
  * of the specified data class (E).
+ * <p>
+ * Each public method is executed as one unit of work in a session of its own.
+ * The session is always closed when the method returns and the transaction is
+ * rolled back if the unit of work fails. Column values are always bound as query
+ * parameters. Column names can't be bound and are therefore validated before
+ * they are used to build a query.
  */
 public class HigernateDbUtil<E extends Object> {
 
     protected static final Logger LOG = Logger.getLogger(HigernateDbUtil.class.getName());
+    /** The number of records processed before a session is flushed and cleared */
+    public static final int BATCH_SIZE = 50;
+    private static final Pattern COLUMN_NAME = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
     protected String keyColName;
     protected String tableClass;
     protected HibernateUtil hibUtil;
@@ -75,26 +88,85 @@ public class HigernateDbUtil<E extends Object> {
      * @return A list of database records
      */
     public List<E> getAllRecords(boolean sorted, boolean ascending, String column) {
-        List<E> resultList = new LinkedList<E>();
-        String dirQs = ascending ? " asc" : " desc";
-        String sortQs = sorted ? " order by " + column + dirQs : "";
-        String qs = "from "+tableClass+" rec"+sortQs;
+        return getRecordPage(sorted, ascending, column, 0, 0);
+    }
 
-        try {
-            Session session = hibUtil.getSessionFactory().openSession();
-            session.beginTransaction();
-            Query q = session.createQuery(qs);
-            List qList = q.list();
-            session.getTransaction().commit();
-            for (Object o : qList) {
-                E record = (E) o;
-                resultList.add(record);
+    /**
+     * Gets one page of database records
+     * @param sorted setting this to true returns a sorted list
+     * @param ascending setting this to true returns the sorted list in ascending order
+     * @param column column to sort by
+     * @param firstResult index of the first record to return
+     * @param maxResults maximum number of records to return. A value of 0 or less returns all remaining records
+     * @return A list of database records
+     */
+    public List<E> getRecordPage(final boolean sorted, final boolean ascending, final String column,
+            final int firstResult, final int maxResults) {
+        List<E> resultList = execute(new UnitOfWork<List<E>>() {
+            @Override
+            public List<E> run(Session session) {
+                Query q = session.createQuery("from " + tableClass + " rec" + orderBy(sorted, ascending, column));
+                if (firstResult > 0) {
+                    q.setFirstResult(firstResult);
+                }
+                if (maxResults > 0) {
+                    q.setMaxResults(maxResults);
+                }
+                return castList(q.list());
             }
-        } catch (HibernateException ex) {
-//            ex.printStackTrace();
-            LOG.warning(ex.getMessage());
-        }
-        return resultList;
+        });
+        return resultList == null ? new ArrayList<E>() : resultList;
+    }
+
+    /**
+     * Passes all database records, one at a time, to the provided record handler without
+     * loading the complete table into memory. Processed records are evicted from the session
+     * in batches of {@link #BATCH_SIZE} records.
+     * @param ascending setting this to true processes records in ascending order
+     * @param column column to sort by
+     * @param handler the handler receiving each record
+     * @return the number of processed records
+     */
+    public int scrollRecords(final boolean ascending, final String column, final RecordHandler<E> handler) {
+        Integer cnt = execute(new UnitOfWork<Integer>() {
+            @Override
+            public Integer run(Session session) {
+                Query q = session.createQuery("from " + tableClass + " rec" + orderBy(true, ascending, column));
+                q.setFetchSize(BATCH_SIZE);
+                ScrollableResults results = q.scroll(ScrollMode.FORWARD_ONLY);
+                int processed = 0;
+                try {
+                    while (results.next()) {
+                        boolean proceed = handler.handle((E) results.get(0));
+                        if (++processed % BATCH_SIZE == 0) {
+                            session.clear();
+                        }
+                        if (!proceed) {
+                            break;
+                        }
+                    }
+                } finally {
+                    results.close();
+                }
+                return processed;
+            }
+        });
+        return cnt == null ? 0 : cnt;
+    }
+
+    /**
+     * Returns the number of records in the database table
+     * @return number of records
+     */
+    public long countRecords() {
+        Long cnt = execute(new UnitOfWork<Long>() {
+            @Override
+            public Long run(Session session) {
+                Object result = session.createQuery("select count(*) from " + tableClass).uniqueResult();
+                return result == null ? 0 : ((Number) result).longValue();
+            }
+        });
+        return cnt == null ? 0 : cnt;
     }
 
     /**
@@ -128,23 +200,16 @@ public class HigernateDbUtil<E extends Object> {
      * @param value The target value
      * @return A list of database records
      */
-    public List<E> getRecords(String column, String value) {
-        List<E> resultList = new LinkedList<E>();
-
-        try {
-            Session session = hibUtil.getSessionFactory().openSession();
-            session.beginTransaction();
-            Query q = session.createQuery("from "+tableClass+" rec where " + column + " = '" + value + "'");
-            List qList = q.list();
-            session.getTransaction().commit();
-            for (Object o : qList) {
-                E record = (E) o;
-                resultList.add(record);
+    public List<E> getRecords(final String column, final String value) {
+        List<E> resultList = execute(new UnitOfWork<List<E>>() {
+            @Override
+            public List<E> run(Session session) {
+                Query q = session.createQuery("from " + tableClass + " rec where " + checkColumn(column) + " = :value");
+                q.setParameter("value", value);
+                return castList(q.list());
             }
-        } catch (HibernateException ex) {
-            LOG.warning(ex.getMessage());
-        }
-        return resultList;
+        });
+        return resultList == null ? new ArrayList<E>() : resultList;
     }
 
     /**
@@ -152,15 +217,36 @@ public class HigernateDbUtil<E extends Object> {
      * the existing record will be replaced
      * @param record the record to store
      */
-    public void saveRecord(E record) {
-        try {
-            Session session = hibUtil.getSessionFactory().openSession();
-            session.beginTransaction();
-            session.saveOrUpdate(record);
-            session.getTransaction().commit();
-        } catch (HibernateException ex) {
-            LOG.warning(ex.getMessage());
-        }
+    public void saveRecord(final E record) {
+        execute(new UnitOfWork<Object>() {
+            @Override
+            public Object run(Session session) {
+                session.saveOrUpdate(record);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Stores a list of database records in a single transaction. The session is flushed
+     * in batches of {@link #BATCH_SIZE} records to allow the JDBC driver to batch the statements.
+     * @param records the records to store
+     */
+    public void saveRecords(final List<E> records) {
+        execute(new UnitOfWork<Object>() {
+            @Override
+            public Object run(Session session) {
+                int cnt = 0;
+                for (E record : records) {
+                    session.saveOrUpdate(record);
+                    if (++cnt % BATCH_SIZE == 0) {
+                        session.flush();
+                        session.clear();
+                    }
+                }
+                return null;
+            }
+        });
     }
 
     /**
@@ -180,28 +266,160 @@ public class HigernateDbUtil<E extends Object> {
      * @return The number of deleted records
      */
     public int deleteRecords(String column, String value) {
-        List<E> records = getRecords(column, value);
-        int cnt = 0;
-        for (E record : records) {
-            deleteRecord(record);
-            cnt++;
-        }
-        return cnt;
+        return executeUpdate("delete from " + tableClass + " where " + checkColumn(column) + " = :value", value);
+    }
+
+    /**
+     * Delete all records where the key column holds a value that is less than the
+     * specified value, using a single bulk delete statement
+     * @param value The value to compare with
+     * @return The number of deleted records
+     */
+    public int deleteRecordsBelow(String value) {
+        return deleteRecordsBelow(keyColName, value);
+    }
+
+    /**
+     * Delete all records where the specified column holds a value that is less than the
+     * specified value, using a single bulk delete statement
+     * @param column The column name
+     * @param value The value to compare with
+     * @return The number of deleted records
+     */
+    public int deleteRecordsBelow(String column, String value) {
+        return executeUpdate("delete from " + tableClass + " where " + checkColumn(column) + " < :value", value);
+    }
+
+    /**
+     * Updates the value of one column in all records where the specified column holds the specified value,
+     * using a single bulk update statement
+     * @param column The column name used to select records
+     * @param value The value of the selecting column
+     * @param updateColumn The column to update
+     * @param updateValue The new value
+     * @return The number of updated records
+     */
+    public int updateRecords(final String column, final String value, final String updateColumn, final String updateValue) {
+        Integer cnt = execute(new UnitOfWork<Integer>() {
+            @Override
+            public Integer run(Session session) {
+                Query q = session.createQuery("update " + tableClass + " set " + checkColumn(updateColumn)
+                        + " = :updateValue where " + checkColumn(column) + " = :value");
+                q.setParameter("updateValue", updateValue);
+                q.setParameter("value", value);
+                return q.executeUpdate();
+            }
+        });
+        return cnt == null ? 0 : cnt;
     }
 
     /**
      * Delete the provided database record
      * @param record Record to delete
      */
-    public void deleteRecord(E record) {
+    public void deleteRecord(final E record) {
+        execute(new UnitOfWork<Object>() {
+            @Override
+            public Object run(Session session) {
+                session.delete(record);
+                return null;
+            }
+        });
+    }
+
+    private int executeUpdate(final String hql, final String value) {
+        Integer cnt = execute(new UnitOfWork<Integer>() {
+            @Override
+            public Integer run(Session session) {
+                Query q = session.createQuery(hql);
+                q.setParameter("value", value);
+                return q.executeUpdate();
+            }
+        });
+        return cnt == null ? 0 : cnt;
+    }
+
+    /**
+     * Executes a unit of work in a new session and transaction. The transaction is committed
+     * if the unit of work completes and rolled back otherwise. The session is always closed.
+     * @param work the unit of work
+     * @return the result of the unit of work, or null if the unit of work failed
+     */
+    private <T> T execute(UnitOfWork<T> work) {
+        Session session = null;
+        Transaction tx = null;
+        try {
+            session = hibUtil.getSessionFactory().openSession();
+            tx = session.beginTransaction();
+            T result = work.run(session);
+            tx.commit();
+            return result;
+        } catch (HibernateException ex) {
+            LOG.warning(ex.getMessage());
+            rollback(tx);
+        } catch (IllegalArgumentException ex) {
+            LOG.warning(ex.getMessage());
+            rollback(tx);
+        } finally {
+            if (session != null && session.isOpen()) {
+                try {
+                    session.close();
+                } catch (HibernateException ex) {
+                    LOG.warning(ex.getMessage());
+                }
+            }
+        }
+        return null;
+    }
+
+    private static void rollback(Transaction tx) {
         try {
-            Session session = hibUtil.getSessionFactory().openSession();
-            session.beginTransaction();
-            session.delete(record);
-            session.getTransaction().commit();
+            if (tx != null && tx.isActive()) {
+                tx.rollback();
+            }
         } catch (HibernateException ex) {
             LOG.warning(ex.getMessage());
         }
     }
 
+    private String orderBy(boolean sorted, boolean ascending, String column) {
+        if (!sorted) {
+            return "";
+        }
+        return " order by " + checkColumn(column) + (ascending ? " asc" : " desc");
+    }
+
+    private static String checkColumn(String column) {
+        if (column == null || !COLUMN_NAME.matcher(column).matches()) {
+            throw new IllegalArgumentException("Illegal column name: " + column);
+        }
+        return column;
+    }
+
+    private List<E> castList(List qList) {
+        return (List<E>) qList;
+    }
+
+    /**
+     * A unit of work executed within one session and transaction
+     */
+    private interface UnitOfWork<T> {
+
+        T run(Session session);
+    }
+
+    /**
+     * Handler for records retrieved through
+     * {@link HigernateDbUtil#scrollRecords(boolean, java.lang.String, RecordHandler)}
+     * @param <E> the record data class
+     */
+    public interface RecordHandler<E> {
+
+        /**
+         * Processes one database record
+         * @param record the database record
+         * @return true to continue with the next record, false to stop
+         */
+        boolean handle(E record);
+    }
 }
@@ -20,10 +20,17 @@ import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.reflect.TypeToken;
 import java.io.File;
+import java.util.Collections;
 import java.util.Date;
 import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
 import se.tillvaxtverket.tsltrust.common.utils.general.EuropeCountry;
 import java.lang.reflect.Type;
 import se.tillvaxtverket.tsltrust.common.utils.general.FileOps;
@@ -32,75 +39,156 @@ import se.tillvaxtverket.tsltrust.common.utils.general.FileOps;
  * This class provides a stack for pushing TSL issues. The data gathered here
  * can be used by a reporting system, like an e-mail notification system to
  * notify selected recipients of various problems.
+ * <p>
+ * The stack is safe for concurrent use. Changes are persisted write-behind: the first
+ * change after a save schedules a new save after the configured write delay, and all
+ * further changes made before that save are included in the same file write. The
+ * issue stack file is replaced atomically.
  */
 public class TSLIssueStack {
 
+    private static final Logger LOG = Logger.getLogger(TSLIssueStack.class.getName());
+    // Delay in milliseconds between the first unsaved change and the save of the issue stack file
+    private static final long WRITE_DELAY = 2000;
+    private static final Object LOCK = new Object();
     private static Map<EuropeCountry, Map<TSLIssueID, TslIssue>> tslIssueMap = new EnumMap<EuropeCountry, Map<TSLIssueID, TslIssue>>(EuropeCountry.class);
     private static File issueStackFile;
+    private static final AtomicBoolean saveScheduled = new AtomicBoolean(false);
+    private static final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "TSLIssueStack-writer");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
     private static Gson gson = new GsonBuilder().setPrettyPrinting().create();
     private static Type issueMapType = new TypeToken<Map<EuropeCountry, Map<TSLIssueID, TslIssue>>>() {
     }.getType();
 
     public static void push(EuropeCountry country, TSLIssueID tslIssueID, TSLIssueSubcode tslIssueSubcode, String parameter) {
-        if (!tslIssueMap.containsKey(country)) {
-            tslIssueMap.put(country, new EnumMap<TSLIssueID, TslIssue>(TSLIssueID.class));
+        if (country == null) {
+            LOG.warning("Ignoring TSL issue " + tslIssueID + " without country" + (parameter == null ? "" : " (" + parameter + ")"));
+            return;
         }
-        Map<TSLIssueID, TslIssue> countryIssueMap = tslIssueMap.get(country);
+        synchronized (LOCK) {
+            if (!tslIssueMap.containsKey(country)) {
+                tslIssueMap.put(country, new EnumMap<TSLIssueID, TslIssue>(TSLIssueID.class));
+            }
+            Map<TSLIssueID, TslIssue> countryIssueMap = tslIssueMap.get(country);
 
-        if (!countryIssueMap.containsKey(tslIssueID)) {
-            countryIssueMap.put(tslIssueID, new TslIssue(tslIssueID));
-        }
-        TslIssue issue = countryIssueMap.get(tslIssueID);
+            if (!countryIssueMap.containsKey(tslIssueID)) {
+                countryIssueMap.put(tslIssueID, new TslIssue(tslIssueID));
+            }
+            TslIssue issue = countryIssueMap.get(tslIssueID);
 
-        //check if issue is new
-        if (issue.getNextNotification() == null) {
-            issue.setNextNotification(new Date());
-        }
-        issue.setSubcode(tslIssueSubcode);
-        if (parameter != null) {
-            Map<String, String> paramMap = new HashMap<String, String>();
-            if (tslIssueID.equals(TSLIssueID.unavailable)) {
-                paramMap.put("Attempted location", parameter);
-                issue.setParamMap(paramMap);
+            //check if issue is new
+            if (issue.getNextNotification() == null) {
+                issue.setNextNotification(new Date());
+            }
+            issue.setSubcode(tslIssueSubcode);
+            if (parameter != null) {
+                Map<String, String> paramMap = new HashMap<String, String>();
+                if (tslIssueID.equals(TSLIssueID.unavailable)) {
+                    paramMap.put("Attempted location", parameter);
+                    issue.setParamMap(paramMap);
+                }
             }
         }
 
-        backupIssueMap();
+        scheduleBackup();
     }
 
+    /**
+     * Saves the current issues to the issue stack file immediately
+     */
     public static void backupIssueMap() {
-        if (issueStackFile != null) {
-            String issueJson = gson.toJson(tslIssueMap, issueMapType);
-            FileOps.saveTxtFile(issueStackFile, issueJson);
+        saveScheduled.set(false);
+        File stackFile = issueStackFile;
+        if (stackFile != null) {
+            String issueJson = gson.toJson(getTslIssueMap(), issueMapType);
+            FileOps.saveTxtFileAtomic(stackFile, issueJson);
         }
     }
 
-    public static void clear(EuropeCountry country, TSLIssueID tslIssueID) {
-        if (tslIssueMap.containsKey(country)) {
-            Map<TSLIssueID, TslIssue> countryIssueMap = tslIssueMap.get(country);
-            if (countryIssueMap.containsKey(tslIssueID)) {
-                countryIssueMap.remove(tslIssueID);
+    /**
+     * Schedules a save of the current issues unless a save is already pending
+     */
+    private static void scheduleBackup() {
+        if (issueStackFile == null || !saveScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        writer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                backupIssueMap();
             }
-            if (countryIssueMap.isEmpty()) {
-                tslIssueMap.remove(country);
+        }, WRITE_DELAY, TimeUnit.MILLISECONDS);
+    }
+
+    public static void clear(EuropeCountry country, TSLIssueID tslIssueID) {
+        boolean changed = false;
+        synchronized (LOCK) {
+            if (tslIssueMap.containsKey(country)) {
+                Map<TSLIssueID, TslIssue> countryIssueMap = tslIssueMap.get(country);
+                if (countryIssueMap.containsKey(tslIssueID)) {
+                    countryIssueMap.remove(tslIssueID);
+                    changed = true;
+                }
+                if (countryIssueMap.isEmpty()) {
+                    tslIssueMap.remove(country);
+                }
             }
         }
+        if (changed) {
+            scheduleBackup();
+        }
     }
 
+    /**
+     * Returns a consistent snapshot of all current issues. Changes made to the returned
+     * map or issues are not reflected in the issue stack.
+     * @return unmodifiable issue map
+     */
     public static Map<EuropeCountry, Map<TSLIssueID, TslIssue>> getTslIssueMap() {
-        return tslIssueMap;
+        Map<EuropeCountry, Map<TSLIssueID, TslIssue>> snapshot = new EnumMap<EuropeCountry, Map<TSLIssueID, TslIssue>>(EuropeCountry.class);
+        synchronized (LOCK) {
+            for (Map.Entry<EuropeCountry, Map<TSLIssueID, TslIssue>> countryEntry : tslIssueMap.entrySet()) {
+                Map<TSLIssueID, TslIssue> countryIssueMap = new EnumMap<TSLIssueID, TslIssue>(TSLIssueID.class);
+                for (Map.Entry<TSLIssueID, TslIssue> issueEntry : countryEntry.getValue().entrySet()) {
+                    countryIssueMap.put(issueEntry.getKey(), new TslIssue(issueEntry.getValue()));
+                }
+                snapshot.put(countryEntry.getKey(), Collections.unmodifiableMap(countryIssueMap));
+            }
+        }
+        return Collections.unmodifiableMap(snapshot);
     }
 
     public static void clearAll() {
-        tslIssueMap = new EnumMap<EuropeCountry, Map<TSLIssueID, TslIssue>>(EuropeCountry.class);
+        synchronized (LOCK) {
+            tslIssueMap = new EnumMap<EuropeCountry, Map<TSLIssueID, TslIssue>>(EuropeCountry.class);
+        }
+        scheduleBackup();
     }
 
     public static void initStack(File issueStackFile) {
-        TSLIssueStack.issueStackFile = issueStackFile;
         if (issueStackFile.canRead()) {
             String issueDataJson = FileOps.readTextFile(issueStackFile);
-            tslIssueMap = gson.fromJson(issueDataJson, issueMapType);
+            Map<EuropeCountry, Map<TSLIssueID, TslIssue>> storedMap = gson.fromJson(issueDataJson, issueMapType);
+            synchronized (LOCK) {
+                tslIssueMap = new EnumMap<EuropeCountry, Map<TSLIssueID, TslIssue>>(EuropeCountry.class);
+                if (storedMap != null) {
+                    for (Map.Entry<EuropeCountry, Map<TSLIssueID, TslIssue>> countryEntry : storedMap.entrySet()) {
+                        if (countryEntry.getKey() != null && countryEntry.getValue() != null) {
+                            Map<TSLIssueID, TslIssue> countryIssueMap = new EnumMap<TSLIssueID, TslIssue>(TSLIssueID.class);
+                            countryIssueMap.putAll(countryEntry.getValue());
+                            tslIssueMap.put(countryEntry.getKey(), countryIssueMap);
+                        }
+                    }
+                }
+            }
         }
+        TSLIssueStack.issueStackFile = issueStackFile;
     }
 
 }
@@ -17,6 +17,7 @@
 package se.tillvaxtverket.tsltrust.weblogic.issuestack;
 
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Map;
 
 /**
@@ -35,6 +36,14 @@ public class TslIssue {
         this.issueId = tslIssueID;
     }
 
+    TslIssue(TslIssue issue) {
+        this.issueId = issue.issueId;
+        this.subcode = issue.subcode;
+        this.lastNotified = issue.lastNotified == null ? null : new Date(issue.lastNotified.getTime());
+        this.nextNotification = issue.nextNotification == null ? null : new Date(issue.nextNotification.getTime());
+        this.paramMap = issue.paramMap == null ? null : new HashMap<String, String>(issue.paramMap);
+    }
+
     public TSLIssueID getIssueId() {
         return issueId;
     }
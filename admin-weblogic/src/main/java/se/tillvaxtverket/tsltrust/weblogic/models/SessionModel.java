@@ -39,7 +39,7 @@ public class SessionModel {
     // Generic
     private static final Logger LOG = Logger.getLogger(SessionModel.class.getName());
     private BigInteger sessionID;
-    private long lastUsed = 0;
+    private volatile long lastUsed = 0;
     private Map<String, Map> tableFolds = new HashMap<String, Map>();
     String pemCert = "";
     Map<String, String> pemCertMap = new HashMap<String, String>();
@@ -53,6 +53,7 @@ public class SessionModel {
     // DB Table
     private List<Integer> selectedCols = new ArrayList<Integer>();
     private int sortColumn = 0;
+    private int dbPage = 0;
     private String countryFilter, typeFilter, statusFilter, sigFilter;
     private String dbTableData = "";
     // AuthMenu
@@ -222,6 +223,14 @@ public class SessionModel {
         this.sortColumn = sortColumn;
     }
 
+    public int getDbPage() {
+        return dbPage;
+    }
+
+    public void setDbPage(int dbPage) {
+        this.dbPage = dbPage;
+    }
+
     public String getCountryFilter() {
         return countryFilter;
     }
@@ -19,7 +19,9 @@ package se.tillvaxtverket.tsltrust.weblogic.utils;
 import se.tillvaxtverket.tsltrust.weblogic.content.HtmlConstants;
 import se.tillvaxtverket.tsltrust.common.html.elements.SelectElement;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Class providing filters for display of columns in the TSL trust service table
@@ -28,6 +30,7 @@ public class DbTableFilter extends SelectElement implements HtmlConstants{
 
     SelectElement filter;
     List<String> filterOptions = new ArrayList<String>();
+    Map<String, List<String>> optionValues = new HashMap<String, List<String>>();
     int selectIdx;
 
     public DbTableFilter(String filterId, String allText, String selected) {
@@ -43,6 +46,22 @@ public class DbTableFilter extends SelectElement implements HtmlConstants{
     }
 
     public void addFilterOption(String option) {
+        addFilterOption(option, option);
+    }
+
+    public void addUrlFilterOption(String option) {
+        addFilterOption(ExtractorUtil.stripRefUrl(option), option);
+    }
+
+    private void addFilterOption(String option, String value) {
+        List<String> values = optionValues.get(option);
+        if (values == null) {
+            values = new ArrayList<String>();
+            optionValues.put(option, values);
+        }
+        if (!values.contains(value)) {
+            values.add(value);
+        }
         if (filterOptions.contains(option)) {
             return;
         }
@@ -50,8 +69,16 @@ public class DbTableFilter extends SelectElement implements HtmlConstants{
         addOption(option, filterOptions.size()==selectIdx+1);
     }
 
-    public void addUrlFilterOption(String option) {
-        addFilterOption(ExtractorUtil.stripRefUrl(option));
+    /**
+     * Returns the database values matching the selected filter option. A filter
+     * option added as url filter option may match several database values.
+     * @return list of matching values, or null if no filter is selected
+     */
+    public List<String> getFilterValues() {
+        if (selectIdx <= 0 || selectIdx >= filterOptions.size()) {
+            return null;
+        }
+        return optionValues.get(filterOptions.get(selectIdx));
     }
     
     public String getFilterString(){
@@ -332,14 +332,11 @@ public class PolicyUtils implements TTConstants, HtmlConstants {
     }
 
     public String getBase64Cert(String certHash, String extCertEntry) {
-        List<TslCertificates> dbCertList = tslCertDb.getAllTslCertificate(false);
-        for (TslCertificates tc : dbCertList) {
-            if (tc.getTslCertHash().equals(certHash)) {
-                try {
-                    byte[] cert = CertificateUtils.getCertificate(tc.getTslCertificate()).getEncoded();
-                    return new String(Base64Coder.encode(cert));
-                } catch (Exception ex) {
-                }
+        AaaCertificate tslCert = tslCertDb.getCertificate(certHash);
+        if (tslCert != null) {
+            try {
+                return new String(Base64Coder.encode(tslCert.getEncoded()));
+            } catch (Exception ex) {
             }
         }
         List<ExternalCert> externalCerts = policyDb.getExternalCerts();
@@ -362,16 +359,9 @@ public class PolicyUtils implements TTConstants, HtmlConstants {
     }
 
     public AaaCertificate getIAIKCert(String certHash) {
-        List<TslCertificates> dbCertList = tslCertDb.getAllTslCertificate(false);
-        for (TslCertificates tc : dbCertList) {
-            if (tc.getTslCertHash().equals(certHash)) {
-                try {
-                    byte[] cert = CertificateUtils.getCertificate(tc.getTslCertificate()).getEncoded();
-                    AaaCertificate iaikCert = new AaaCertificate(cert);
-                    return iaikCert;
-                } catch (Exception ex) {
-                }
-            }
+        AaaCertificate tslCert = tslCertDb.getCertificate(certHash);
+        if (tslCert != null) {
+            return tslCert;
         }
         List<ExternalCert> externalCerts = policyDb.getExternalCerts();
         for (ExternalCert extCert : externalCerts) {
@@ -38,7 +38,16 @@ import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -73,6 +82,11 @@ public class TslCache implements TTConstants {
 
     private static final Logger LOG = Logger.getLogger(TslCache.class.getName());
     private static final long maxAllowedDownloadTime = 1000 * 60 * 10;
+    private static final long maxTslDownloadTime = 1000 * 60 * 2;
+    private static final int MAX_PARALLEL_DOWNLOADS = 8;
+    private static final int CONNECT_TIMEOUT = 1000 * 20;
+    private static final int READ_TIMEOUT = 1000 * 60;
+    private static final long DOWNLOAD_POLL_INTERVAL = 1000;
     private static TSLFactory tslFact = new TSLFactory();
     private static boolean enforceValidityPeriod = false;
     private List<TslMetaData> cachedTslList = new ArrayList<TslMetaData>();
@@ -539,6 +553,23 @@ public class TslCache implements TTConstants {
      * @return
      */
     private TrustServiceList validateTslFile(File temporaryFile, File tslFile, EuropeCountry country, String url) {
+        return validateTslFile(temporaryFile, tslFile, country, url, null);
+    }
+
+    /**
+     * Validates a newly downloaded TSL as part of a parallel download. The
+     * permanent TSL file is only replaced if the download has not been
+     * cancelled, in which case null is returned and the recache thread
+     * recovers from the stored file.
+     *
+     * @param temporaryFile
+     * @param tslFile
+     * @param country
+     * @param url
+     * @param download the download this TSL belongs to or null
+     * @return
+     */
+    private TrustServiceList validateTslFile(File temporaryFile, File tslFile, EuropeCountry country, String url, TslDownLoadData download) {
         TrustServiceList tsl;
         boolean valid = true;
         try {
@@ -548,7 +579,9 @@ public class TslCache implements TTConstants {
             // Upon no exceptions, the temp file is OK. Now store the temp file content in the 
             // permanent TSL file.
             if (valid) {
-                FileOps.saveByteFile(FileOps.readBinaryFile(temporaryFile), tslFile);
+                if (!storeTslFile(temporaryFile, tslFile, download)) {
+                    return null;
+                }
                 TSLIssueStack.clear(country, TSLIssueID.unavailable);
             } else {
                 tsl = null;
@@ -579,6 +612,21 @@ public class TslCache implements TTConstants {
         return tsl;
     }
 
+    private boolean storeTslFile(File temporaryFile, File tslFile, TslDownLoadData download) throws IOException {
+        if (download == null) {
+            FileOps.saveByteFile(FileOps.readBinaryFile(temporaryFile), tslFile);
+            return true;
+        }
+        // Holding the download lock keeps a cancelling thread from reading the file while it is replaced
+        synchronized (download) {
+            if (download.cancelled) {
+                return false;
+            }
+            FileOps.saveByteFile(FileOps.readBinaryFile(temporaryFile), tslFile);
+            return true;
+        }
+    }
+
     public void saveFile(File file, String saveString) {
         /**/
         //if (file.canWrite()) {
@@ -654,6 +702,8 @@ public class TslCache implements TTConstants {
         try {
             HttpURLConnection conn = (HttpURLConnection) url.openConnection();
             conn.setRequestMethod("GET");
+            conn.setConnectTimeout(CONNECT_TIMEOUT);
+            conn.setReadTimeout(READ_TIMEOUT);
             conn.connect();
 
             BufferedInputStream bufIn = new BufferedInputStream(conn.getInputStream());
@@ -693,7 +743,6 @@ public class TslCache implements TTConstants {
     class TslRecache implements Runnable {
 
         Map<String, TslDownLoadData> downloadMap = new HashMap<String, TslDownLoadData>();
-        boolean allTslUrlDerefed = false;
         List<TslMetaData> tslList = new ArrayList<TslMetaData>();
         List<TslMetaData> candidateList = getLolOtherTslPointers();
         String tempDir = model.getTempDataLocation();
@@ -706,81 +755,56 @@ public class TslCache implements TTConstants {
             downloadAndParseTsls();
         }
 
+        /**
+         * Downloads all TSLs through a bounded pool. Each TSL is parsed as soon
+         * as its download completes, and the TSLs are added to the result list
+         * in LOTL order once all downloads are complete. Downloads exceeding
+         * their individual deadline, or still running when the overall
+         * deadline is reached, are cancelled and recovered from the previously
+         * stored file.
+         */
         public void downloadAndParseTsls() {
-
+            tslList = new ArrayList<TslMetaData>();
             for (TslMetaData candidate : candidateList) {
                 String urlString = candidate.getUrlString();
                 String urlId = getUrlId(urlString);
-                TslDownLoadData tslData = new TslDownLoadData(urlString);
-                downloadMap.put(urlId, tslData);
-
-                Thread downloadThread = new Thread(new TslDownloader(tslData, candidate.getCountry()));
-                downloadThread.setDaemon(true);
-                downloadThread.start();
+                TslDownLoadData tslData = downloadMap.get(urlId);
+                if (tslData == null) {
+                    tslData = new TslDownLoadData(urlString, candidate.getCountry());
+                    downloadMap.put(urlId, tslData);
+                }
             }
 
-            allTslUrlDerefed = false;
-            long startTime = System.currentTimeMillis();
+            if (!downloadMap.isEmpty()) {
+                int poolSize = Math.min(downloadMap.size(), MAX_PARALLEL_DOWNLOADS);
+                ExecutorService executor = Executors.newFixedThreadPool(poolSize, new ThreadFactory() {
+                    private int count = 0;
 
-            while (!allTslUrlDerefed) {
-                allTslUrlDerefed = isDownloaded();
-                if (!allTslUrlDerefed) {
-                    if (System.currentTimeMillis() > startTime + maxAllowedDownloadTime) {
-                        allTslUrlDerefed = true;
-                        LOG.warning("Reached maximum downloading time. Aborting download....");
-                    } else {
-                        try {
-                            Thread.sleep(500);
-                        } catch (InterruptedException ex) {
-                        }
+                    @Override
+                    public synchronized Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "TslDownloader-" + (++count));
+                        thread.setDaemon(true);
+                        return thread;
                     }
+                });
+                try {
+                    completeDownloads(executor);
+                } finally {
+                    executor.shutdownNow();
                 }
             }
 
-            processTsls();
-
-        }
-
-        private void processTsls() {
-            tslList = new ArrayList<TslMetaData>();
-
+            // Downloads complete in any order. Build the list in LOTL order so that it is stable between runs
             for (TslMetaData candidate : candidateList) {
-
-                boolean success = true;
-                String id = getUrlId(candidate.getUrlString());
-                if (downloadMap.containsKey(id)) {
-                    TslDownLoadData tslData = downloadMap.get(id);
-                    if (tslData.tsl != null) {
-                        candidate.setTsl(tslData.tsl);
-                        candidate.setTslFile(tslData.tslFile);
-                        candidate.setUrl(tslData.url);
-                        addTslToList(candidate, tslList);
-                    } else {
-                        success = false;
-                    }
-
-                    if (!success) {
-                        //Attempt to recover from stored file
-                        try {
-                            TrustServiceList tsl = tslFact.getTsl(tslData.tslFile);
-                            if (tsl != null) {
-                                tslData.tsl = tsl;
-                                candidate.setTsl(tsl);
-                                candidate.setTslFile(tslData.tslFile);
-                                candidate.setUrl(tslData.url);
-                                addTslToList(candidate, tslList);
-                                log.addConsoleEvent(new ConsoleLogRecord("Revocered TSL", "From: " + tslData.urlStr, "TSL Extractor"));
-                            }
-
-                        } catch (IOException ex) {
-                        }
-                    }
-                    if (tslData.tsl == null) {
-                        log.addConsoleEvent(new ConsoleLogRecord("Error", "Failed to recover from precache: " + tslData.urlStr, "TSL Extractor"));
-                    }
-
+                TslDownLoadData tslData = downloadMap.get(getUrlId(candidate.getUrlString()));
+                if (tslData.tsl != null) {
+                    candidate.setTsl(tslData.tsl);
+                    candidate.setTslFile(tslData.tslFile);
+                    candidate.setUrl(tslData.url);
+                    addTslToList(candidate, tslList);
                 }
             }
+
             //Save result
             cachedTslList.clear();
             for (TslMetaData tm : tslList) {
@@ -789,55 +813,132 @@ public class TslCache implements TTConstants {
             //Release classes
             tslList = null;
             candidateList = null;
+        }
+
+        private void completeDownloads(ExecutorService executor) {
+            CompletionService<TslDownLoadData> completionService = new ExecutorCompletionService<TslDownLoadData>(executor);
+            Map<Future<TslDownLoadData>, TslDownLoadData> pending = new HashMap<Future<TslDownLoadData>, TslDownLoadData>();
+            for (TslDownLoadData tslData : downloadMap.values()) {
+                pending.put(completionService.submit(new TslDownloader(tslData)), tslData);
+            }
 
+            long deadline = System.currentTimeMillis() + maxAllowedDownloadTime;
+            while (!pending.isEmpty()) {
+                long now = System.currentTimeMillis();
+                if (now >= deadline) {
+                    LOG.warning("Reached maximum downloading time. Aborting " + pending.size() + " remaining downloads....");
+                    break;
+                }
+                Future<TslDownLoadData> done;
+                try {
+                    done = completionService.poll(Math.min(deadline - now, DOWNLOAD_POLL_INTERVAL), TimeUnit.MILLISECONDS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                if (done == null) {
+                    cancelOverdue(pending);
+                    continue;
+                }
+                TslDownLoadData tslData = pending.remove(done);
+                try {
+                    done.get();
+                } catch (CancellationException ex) {
+                    log.addConsoleEvent(new ConsoleLogRecord("Error", "TSL download timed out: " + tslData.urlStr, "TSL Extractor"));
+                } catch (ExecutionException ex) {
+                    LOG.log(Level.WARNING, "TSL download failed: " + tslData.urlStr, ex.getCause());
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                processTsl(tslData);
+            }
+
+            // Stragglers are cancelled and served from the previously stored file
+            for (Map.Entry<Future<TslDownLoadData>, TslDownLoadData> entry : pending.entrySet()) {
+                entry.getValue().cancel();
+                entry.getKey().cancel(true);
+                log.addConsoleEvent(new ConsoleLogRecord("Error", "TSL download timed out: " + entry.getValue().urlStr, "TSL Extractor"));
+                processTsl(entry.getValue());
+            }
         }
 
-        private boolean isDownloaded() {
-            Set<String> keySet = downloadMap.keySet();
-            for (String key : keySet) {
-                TslDownLoadData tslData = downloadMap.get(key);
-                if (!tslData.downloaded) {
-                    return false;
+        private void cancelOverdue(Map<Future<TslDownLoadData>, TslDownLoadData> pending) {
+            long now = System.currentTimeMillis();
+            for (Map.Entry<Future<TslDownLoadData>, TslDownLoadData> entry : pending.entrySet()) {
+                long started = entry.getValue().started;
+                if (started > 0 && now - started > maxTslDownloadTime) {
+                    // The cancelled future is delivered by the completion service and recovered there
+                    entry.getValue().cancel();
+                    entry.getKey().cancel(true);
+                }
+            }
+        }
+
+        private void processTsl(TslDownLoadData tslData) {
+            if (tslData.tsl == null || tslData.cancelled) {
+                //Attempt to recover from stored file
+                tslData.tsl = null;
+                if (tslData.tslFile != null) {
+                    try {
+                        tslData.tsl = tslFact.getTsl(tslData.tslFile);
+                        if (tslData.tsl != null) {
+                            log.addConsoleEvent(new ConsoleLogRecord("Revocered TSL", "From: " + tslData.urlStr, "TSL Extractor"));
+                        }
+                    } catch (IOException ex) {
+                    }
+                }
+                if (tslData.tsl == null) {
+                    log.addConsoleEvent(new ConsoleLogRecord("Error", "Failed to recover from precache: " + tslData.urlStr, "TSL Extractor"));
                 }
             }
-            return true;
         }
     }
 
-    class TslDownloader implements Runnable {
+    class TslDownloader implements Callable<TslDownLoadData> {
 
         TslDownLoadData tslData;
-        EuropeCountry country;
 
-        public TslDownloader(TslDownLoadData tslData, EuropeCountry country) {
+        public TslDownloader(TslDownLoadData tslData) {
             this.tslData = tslData;
-            this.country = country;
         }
 
         @Override
-        public void run() {
-            downloadTSL(tslData);
-            tslData.tsl = validateTslFile(tslData.tempFile, tslData.tslFile, country, tslData.urlStr);
-            tslData.downloaded = true;
-            if (tslData.tempFile != null && tslData.tempFile.canRead()) {
-                tslData.tempFile.delete();
+        public TslDownLoadData call() throws Exception {
+            tslData.started = System.currentTimeMillis();
+            if (tslData.url == null) {
+                return tslData;
+            }
+            // Each download gets its own workspace so that parallel downloads never share files
+            File workDir = new File(FileOps.getfileNameString(model.getTempDataLocation(),
+                    "download/" + tslData.id + "_" + Thread.currentThread().getId() + "_" + System.nanoTime()));
+            try {
+                FileUtils.forceMkdir(workDir);
+                File tempFile = new File(workDir, tslData.id + "_temp.xml");
+                downloadTSL(tempFile, workDir);
+                if (tslData.cancelled) {
+                    // Timed out; leave the stored TSL file untouched
+                    return tslData;
+                }
+                TrustServiceList tsl = validateTslFile(tempFile, tslData.tslFile, tslData.country, tslData.urlStr, tslData);
+                synchronized (tslData) {
+                    if (!tslData.cancelled) {
+                        tslData.tsl = tsl;
+                    }
+                }
+            } finally {
+                FileUtils.deleteQuietly(workDir);
             }
+            return tslData;
         }
 
-        private void downloadTSL(TslDownLoadData tslData) {
-            String tempDir = model.getTempDataLocation();
-
+        private void downloadTSL(File tempFile, File workDir) {
             if (tslData.zip) {
-                File zipTempDir = new File(FileOps.getfileNameString(tempDir, "zipTemp/"));
-                FileUtils.deleteQuietly(zipTempDir);
-                zipTempDir.mkdirs();
-                File zipFile = new File(zipTempDir, tslData.tempFile.getName() + ".zip");
+                File zipFile = new File(workDir, tempFile.getName() + ".zip");
                 httpGet(tslData.url, zipFile);
-                Unzip.unzipSingleXmlFile(zipFile, tslData.tempFile, log);
+                Unzip.unzipSingleXmlFile(zipFile, tempFile, log);
             } else {
-                httpGet(tslData.url, tslData.tempFile);
+                httpGet(tslData.url, tempFile);
             }
-
         }
     }
 
@@ -846,19 +947,29 @@ public class TslCache implements TTConstants {
         public String id;
         public String urlStr;
         public URL url;
-        public File tempFile;
         public File tslFile;
-        public TrustServiceList tsl;
-        public boolean downloaded = false;
+        public EuropeCountry country;
+        public volatile TrustServiceList tsl;
+        public volatile long started = 0;
+        public volatile boolean cancelled = false;
         public boolean zip = false;
 
-        public TslDownLoadData(String urlStr) {
+        /**
+         * Marks this download as cancelled. Called by the recache thread before
+         * the download future is cancelled. Once this method returns, the
+         * download thread no longer replaces the stored TSL file.
+         */
+        public synchronized void cancel() {
+            cancelled = true;
+        }
+
+        public TslDownLoadData(String urlStr, EuropeCountry country) {
             if (!urlStr.startsWith("http")) {
                 urlStr = "http://" + urlStr;
             }
             this.urlStr = urlStr;
+            this.country = country;
             this.id = getUrlId(urlStr);
-            tempFile = new File(FileOps.getfileNameString(model.getTempDataLocation(), id + "_temp.xml"));
             String tempDir = model.getTempDataLocation();
 
             try {
@@ -868,7 +979,6 @@ public class TslCache implements TTConstants {
                 //Get trimmed file name (exclude url path and %20)
                 String fn = TslCache.getUrlFileName(fileName);
 
-                tempFile = new File(FileOps.getfileNameString(tempDir, fingerPrint + "_temp.xml"));
                 if (fileName.toLowerCase().endsWith("zip")) {
                     zip = true;
                     tslFile = new File(FileOps.getfileNameString(tempDir,
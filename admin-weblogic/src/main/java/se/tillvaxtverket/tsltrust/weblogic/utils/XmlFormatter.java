@@ -23,10 +23,8 @@ import com.sun.org.apache.xml.internal.serialize.XMLSerializer;
 import org.w3c.dom.Document;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
+import se.tillvaxtverket.tsltrust.common.utils.general.XmlUtils;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
 import java.io.IOException;
 import java.io.StringReader;
 import java.io.StringWriter;
@@ -60,12 +58,8 @@ public class XmlFormatter {
 
     private Document parseXmlFile(String in) {
         try {
-            DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-            DocumentBuilder db = dbf.newDocumentBuilder();
             InputSource is = new InputSource(new StringReader(in));
-            return db.parse(is);
-        } catch (ParserConfigurationException e) {
-            throw new RuntimeException(e);
+            return XmlUtils.getDocumentBuilder().parse(is);
         } catch (SAXException e) {
             throw new RuntimeException(e);
         } catch (IOException e) {
@@ -16,6 +16,8 @@
  */
 package se.tillvaxtverket.tsltrust.weblogic.workareas;
 
+import java.io.IOException;
+import java.io.Writer;
 import se.tillvaxtverket.tsltrust.weblogic.content.TslExtractorWeb;
 import java.util.List;
 import se.tillvaxtverket.tsltrust.weblogic.models.RequestModel;
@@ -44,29 +46,50 @@ public class TSPRecordsArea extends WorkArea {
      */
     @Override
     public String getHtmlData(RequestModel req) {
+        return getWrittenHtmlData(req);
+    }
+
+    /**
+     * Process requests related to the TSP records menu. The TSP records table is written
+     * directly to the response writer.
+     * @param req http request data
+     * @param out response writer
+     * @throws IOException if writing the response fails
+     */
+    @Override
+    public void writeHtmlData(RequestModel req, Writer out) throws IOException {
         SessionModel session = req.getSession();
-        String html = "";
 
         if (req.getAction().equals("loadMain")) {
-            return getMainTslViewArea(session, req.getWindowHeight());
+            tslExtractor.writeDBTable(session, req.getWindowHeight(), out);
+            return;
         }
 
         if (req.getAction().equals("loadElement")) {
-            return loadElementData(session, req.getId(), req.getParameter(), req.getWindowHeight());
+            if (updateTableSettings(session, req.getId(), req.getParameter())) {
+                tslExtractor.writeDBTable(session, req.getWindowHeight(), out);
+            } else {
+                out.write("Not implemented response");
+            }
         }
-
-        return html;
-
-    }
-
-    private String getMainTslViewArea(SessionModel session, int winHeight) {
-        return tslExtractor.getDBTable(session, winHeight);
     }
 
-    private String loadElementData(SessionModel session, String id, String parameter, int winHeight) {
+    /**
+     * Updates the table view settings of the session according to a load element request
+     * @param session session data
+     * @param id id of the element that caused the request
+     * @param parameter request parameter
+     * @return true if the request was a table setting request, otherwise false
+     */
+    private boolean updateTableSettings(SessionModel session, String id, String parameter) {
+        if (id.equals("dbPage")) {
+            session.setDbPage(getInt(parameter));
+            return true;
+        }
         if (id.equals("dbSort")) {
             session.setSortColumn(getInt(parameter));
-            return getMainTslViewArea(session, winHeight);
+            session.setDbPage(0);
+            return true;
         }
         if (id.equals("dbSortButton")) {
             List<Integer> selectedCols = session.getSelectedCols();
@@ -88,7 +111,8 @@ public class TSPRecordsArea extends WorkArea {
             }
 
             session.setSortColumn(param);
-            return getMainTslViewArea(session, winHeight);
+            session.setDbPage(0);
+            return true;
         }
         if (id.equals("dbCheck")) {
             List<Integer> selectedCols = session.getSelectedCols();
@@ -98,7 +122,7 @@ public class TSPRecordsArea extends WorkArea {
             } else {
                 selectedCols.remove(i);
             }
-            return getMainTslViewArea(session, winHeight);
+            return true;
         }
         if (id.startsWith("filter")) {
             parameter = InputValidator.filter(parameter, new InputValidator.Rule[]{InputValidator.Rule.PRINTABLE_ASCII, InputValidator.Rule.HTML_TAGS});
@@ -114,14 +138,15 @@ public class TSPRecordsArea extends WorkArea {
             if (id.endsWith("Signature")) {
                 session.setSigFilter(parameter);
             }
-            return getMainTslViewArea(session, winHeight);
+            session.setDbPage(0);
+            return true;
         }
 
 
 //        if (container.equals("tslDiv")) {
 //            return getMainTslViewArea(session);
 //        }
-        return "Not implemented response";
+        return false;
 
     }
 }
@@ -16,12 +16,15 @@
  */
 package se.tillvaxtverket.tsltrust.weblogic.workareas;
 
+import java.io.IOException;
+import java.io.Writer;
 import se.tillvaxtverket.tsltrust.weblogic.content.TslExtractorWeb;
 import se.tillvaxtverket.tsltrust.common.html.elements.ButtonElement;
 import se.tillvaxtverket.tsltrust.common.html.elements.DivElement;
 import se.tillvaxtverket.tsltrust.common.html.elements.GenericHtmlElement;
 import se.tillvaxtverket.tsltrust.weblogic.content.HtmlConstants;
 import se.tillvaxtverket.tsltrust.common.html.elements.HtmlElement;
+import se.tillvaxtverket.tsltrust.common.html.elements.HtmlFragment;
 import se.tillvaxtverket.tsltrust.weblogic.models.RequestModel;
 import se.tillvaxtverket.tsltrust.weblogic.models.SessionModel;
 import se.tillvaxtverket.tsltrust.weblogic.utils.InputValidator;
@@ -31,6 +34,7 @@ import se.tillvaxtverket.tsltrust.weblogic.utils.InputValidator;
  */
 public class TslViewerArea extends WorkArea implements HtmlConstants {
 
+    private static final HtmlFragment INFO_TITLE = new HtmlFragment(createInfoTitle());
     TslExtractorWeb tslExtractor;
 
     /**
@@ -48,25 +52,40 @@ public class TslViewerArea extends WorkArea implements HtmlConstants {
      */
     @Override
     public String getHtmlData(RequestModel req) {
+        return getWrittenHtmlData(req);
+    }
+
+    /**
+     * Handles requests for data related to the TSL viewer menu. Html element trees are
+     * rendered directly to the response writer.
+     * @param req http request data
+     * @param out response writer
+     * @throws IOException if writing the response fails
+     */
+    @Override
+    public void writeHtmlData(RequestModel req, Writer out) throws IOException {
         SessionModel session = req.getSession();
-        String html = "";
 
         tslExtractor.reloadTslData();
 
         if (req.getAction().equals("loadMain")) {
-            return getMainTslViewArea(session, req.getWindowHeight());
+            getMainTslViewElement(session, req.getWindowHeight()).render(out);
+            return;
         }
 
         if (req.getAction().equals("loadElement")) {
-            return loadElementData(session, req.getId(), req.getParameter(), req.getWindowHeight());
+            loadElementData(session, req.getId(), req.getParameter(), req.getWindowHeight(), out);
+            return;
         }
 
         if (req.getAction().equals("loadxml")) {
-            return tslExtractor.getTslXMLData(getInt(req.getParameter()));
+            out.write(tslExtractor.getTslXMLData(getInt(req.getParameter())));
+            return;
         }
 
         if (req.getAction().equals("loadFrameInfo")) {
-            return tslExtractor.getInfoTable(session).toString();
+            tslExtractor.getInfoTable(session).render(out);
+            return;
         }
 
         if (req.getAction().equals("frameLoad")) {
@@ -78,23 +97,24 @@ public class TslViewerArea extends WorkArea implements HtmlConstants {
                 session.setSelectedTsl(getInt(parameter));
             }
         }
-        return html;
     }
 
-    private String loadElementData(SessionModel session, String id, String parameter, int winHeight) {
+    private void loadElementData(SessionModel session, String id, String parameter, int winHeight, Writer out) throws IOException {
         if (id.equals(TSL_TABLE_DIV)) {
             session.setSelectedTsl(getInt(parameter));
             session.setSelectedTsp(-1);
             session.setSelectedTs(-1);
             session.setTslButtonState("data");
-            return getMainTslViewArea(session, winHeight);
+            getMainTslViewElement(session, winHeight).render(out);
+            return;
         }
         if (id.equals(VIEW_BUTTON)) {
             setViewButtonParameter(parameter, session);
-            return getMainTslViewArea(session, winHeight);
+            getMainTslViewElement(session, winHeight).render(out);
+            return;
         }
 
-        return "Not implemented response";
+        out.write("Not implemented response");
     }
 
     private void setViewButtonParameter(String parameter, SessionModel session) {
@@ -108,7 +128,7 @@ public class TslViewerArea extends WorkArea implements HtmlConstants {
 
     }
 
-    private String getMainTslViewArea(SessionModel session, int winHeight) {
+    private HtmlElement getMainTslViewElement(SessionModel session, int winHeight) {
         HtmlElement mainTslDiv = new DivElement(MAIN_TSL_DIV);
         HtmlElement tslDiv = new DivElement(TSL_TABLE_DIV);
         HtmlElement infoHeadDiv = new DivElement(INFO_HEAD_DIV);
@@ -123,12 +143,9 @@ public class TslViewerArea extends WorkArea implements HtmlConstants {
         infoDiv.addHtmlElement(infoHeadDiv);
         infoDiv.addHtmlElement(infoBodyDiv);
         infoHeadDiv.addHtmlElement(viewButtonDiv);
-        HtmlElement infoTitle = new GenericHtmlElement("span");
-        infoTitle.setText("EU Trust Service List Information");
-        infoTitle.addStyle("padding-left", "5px");
 
         //Add Head and Body to TSL Info
-        infoHeadDiv.addHtmlElement(infoTitle);
+        infoHeadDiv.addHtmlFragment(INFO_TITLE);
         infoBodyDiv.addHtmlElement(tslDataFrame);
 
 
@@ -143,7 +160,14 @@ public class TslViewerArea extends WorkArea implements HtmlConstants {
         if (session.getTslButtonState().equals("cert")) {
             tslDataFrame.addAttribute("src", "certDataframe.jsp?parameter=" + session.getTslSelectedPemCert());
         }
-        return mainTslDiv.toString();
+        return mainTslDiv;
+    }
+
+    private static HtmlElement createInfoTitle() {
+        HtmlElement infoTitle = new GenericHtmlElement("span");
+        infoTitle.setText("EU Trust Service List Information");
+        infoTitle.addStyle("padding-left", "5px");
+        return infoTitle;
     }
 
     private void setupIframe(HtmlElement tslDataFrame, HtmlElement viewButtonDiv, SessionModel session, int winHeight) {
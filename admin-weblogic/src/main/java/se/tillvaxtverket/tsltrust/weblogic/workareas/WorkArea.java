@@ -16,10 +16,9 @@
  */
 package se.tillvaxtverket.tsltrust.weblogic.workareas;
 
-import se.tillvaxtverket.tsltrust.common.html.elements.GenericHtmlElement;
-import se.tillvaxtverket.tsltrust.common.html.elements.HtmlElement;
-import se.tillvaxtverket.tsltrust.common.html.elements.TableCellElement;
-import se.tillvaxtverket.tsltrust.common.html.elements.TableRowElement;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
 import se.tillvaxtverket.tsltrust.weblogic.content.TTConstants;
 import se.tillvaxtverket.tsltrust.weblogic.models.RequestModel;
 
@@ -49,6 +48,33 @@ public abstract class WorkArea implements TTConstants {
 
     public abstract String getHtmlData(RequestModel req);
 
+    /**
+     * Writes the html response data to the provided writer. Content providers that generate
+     * large html element trees override this method to render the elements directly to the writer.
+     * @param req http request data
+     * @param out writer for the response data
+     * @throws IOException if writing the response fails
+     */
+    public void writeHtmlData(RequestModel req, Writer out) throws IOException {
+        out.write(getHtmlData(req));
+    }
+
+    /**
+     * Gets the html response data from writeHtmlData. Used as getHtmlData by content
+     * providers that handle their requests in writeHtmlData.
+     * @param req http request data
+     * @return response html data
+     */
+    protected String getWrittenHtmlData(RequestModel req) {
+        StringWriter out = new StringWriter();
+        try {
+            writeHtmlData(req, out);
+        } catch (IOException ex) {
+            // Writing to a StringWriter never throws IOException
+        }
+        return out.toString();
+    }
+
     /**
      * Gets the integer representation of an input string.
      * @param intString input string
@@ -63,19 +89,6 @@ public abstract class WorkArea implements TTConstants {
         return val;
     }
 
-    /**
-     * Provides an empty html table with preset loading text
-     * @return table html element
-     */
-    protected HtmlElement getLoadingTable() {
-        HtmlElement emptyTable = new GenericHtmlElement("table");
-        HtmlElement tr = new TableRowElement();
-        HtmlElement td = new TableCellElement("Loading Data...");
-        emptyTable.addHtmlElement(tr);
-        tr.addHtmlElement(td);
-        return emptyTable;
-    }
-
     /**
      * Test whether the current user is authorized within a given application context
      * @param userRole The authenticated role of the user
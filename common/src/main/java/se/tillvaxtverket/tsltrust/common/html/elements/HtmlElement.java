@@ -16,6 +16,7 @@
  */
 package se.tillvaxtverket.tsltrust.common.html.elements;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -51,64 +52,81 @@ public abstract class HtmlElement {
      */
     public String toString(boolean lineBreak) {
         StringBuilder b = new StringBuilder();
+        try {
+            render(b, lineBreak);
+        } catch (IOException ex) {
+            // Appending to a StringBuilder never throws IOException
+        }
+        return b.toString();
+    }
+
+    /**
+     * Writes the html data of this element, including all it's child elements, to the
+     * provided output in a single pass without building intermediate strings.
+     * @param out the output, typically the writer of a http response
+     * @throws IOException if writing to the output fails
+     */
+    public void render(Appendable out) throws IOException {
+        render(out, false);
+    }
+
+    /**
+     * Writes the html data of this element, including all it's child elements, to the
+     * provided output in a single pass without building intermediate strings.
+     * @param out the output, typically the writer of a http response
+     * @param lineBreak include line breaks in the html data for increased readability
+     * @throws IOException if writing to the output fails
+     */
+    public void render(Appendable out, boolean lineBreak) throws IOException {
         boolean tagged = false;
         if (tag.length() > 0) {
             tagged = true;
         }
         if (tagged) {
-            b.append("<").append(tag);
+            out.append("<").append(tag);
             for (Attribute attribute : attributes) {
-                b.append(attribute.toString());
+                attribute.appendTo(out);
             }
 
             if (!styles.isEmpty()) {
-                b.append(" style='");
+                out.append(" style='");
                 Iterator<Style> its = styles.iterator();
                 while (its.hasNext()) {
                     Style style = its.next();
-                    b.append(style.toString());
+                    style.appendTo(out);
                     if (its.hasNext()) {
-                        b.append("; ");
+                        out.append("; ");
                     }
                 }
-                b.append("'");
+                out.append("'");
             }
 
-            if (!action.isEmpty()) {
-                b.append(getActions(action));
+            for (Action act : action) {
+                act.appendTo(out);
             }
             if (text.length() == 0 && objects.isEmpty()) {
-                b.append("/>");
-                b.append(lineBreak? LF:"");
+                out.append("/>");
+                out.append(lineBreak? LF:"");
             } else {
-                b.append(">");
+                out.append(">");
                 // conditions for line break after first tag
                 if (lineBreak && !objects.isEmpty() && text.length()==0){
                     if (!(objects.get(0) instanceof TextObject)){
-                        b.append(LF);                        
+                        out.append(LF);                        
                     }
                 }
-                b.append(text);
+                out.append(text);
                 for (HtmlElement html : objects) {
-                    b.append(html.toString(lineBreak));
+                    html.render(out, lineBreak);
                 }
-                b.append("</").append(tag).append(">");
-                b.append(lineBreak? LF:"");
+                out.append("</").append(tag).append(">");
+                out.append(lineBreak? LF:"");
             }
         } else {
-            b.append(text);
+            out.append(text);
         }
-        return b.toString();
     }
 
-    private String getActions(List<Action> action){
-        StringBuilder b = new StringBuilder();
-        for (Action act:action){
-            b.append(act.toString());            
-        }
-        return b.toString();
-    }
-    
     /**
      * Sets text content within the html element
      * @param text
@@ -135,6 +153,14 @@ public abstract class HtmlElement {
         return element;
     }
 
+    /**
+     * Add a pre-rendered html fragment as a child of this html element
+     * @param fragment
+     */
+    public void addHtmlFragment(HtmlFragment fragment) {
+        objects.add(new FragmentElement(fragment));
+    }
+
     /**
      * Add style to html element
      * @param type style type
@@ -193,10 +219,17 @@ public abstract class HtmlElement {
 
         public String toString() {
             StringBuilder b = new StringBuilder();
-            b.append(" ").append(type).append("='");
-            b.append(value).append("'");
+            try {
+                appendTo(b);
+            } catch (IOException ex) {
+            }
             return b.toString();
         }
+
+        void appendTo(Appendable out) throws IOException {
+            out.append(" ").append(type).append("='");
+            out.append(value).append("'");
+        }
     }
 
     private class Style {
@@ -209,10 +242,12 @@ public abstract class HtmlElement {
         }
 
         public String toString() {
-            StringBuilder b = new StringBuilder();
-            b.append(type).append(": ");
-            b.append(value);
-            return b.toString();
+            return type + ": " + value;
+        }
+
+        void appendTo(Appendable out) throws IOException {
+            out.append(type).append(": ");
+            out.append(value);
         }
     }
 
@@ -236,6 +271,23 @@ public abstract class HtmlElement {
         this.styles = styles;
     }
 
+    /**
+     * Child element writing the data of a html fragment
+     */
+    private static final class FragmentElement extends HtmlElement {
+
+        private final HtmlFragment fragment;
+
+        FragmentElement(HtmlFragment fragment) {
+            this.fragment = fragment;
+        }
+
+        @Override
+        public void render(Appendable out, boolean lineBreak) throws IOException {
+            fragment.render(out, lineBreak);
+        }
+    }
+
     private class Action {
 
         public String event, function;
@@ -249,20 +301,27 @@ public abstract class HtmlElement {
 
         public String toString() {
             StringBuilder b = new StringBuilder();
-            b.append(" ").append(event).append("='");
-            b.append(function).append("(");
+            try {
+                appendTo(b);
+            } catch (IOException ex) {
+            }
+            return b.toString();
+        }
+
+        void appendTo(Appendable out) throws IOException {
+            out.append(" ").append(event).append("='");
+            out.append(function).append("(");
             for (int i = 0; i < args.length; i++) {
                 if (isNUmeric(args[i])) {
-                    b.append(args[i]);
+                    out.append(args[i]);
                 } else {
-                    b.append("\"").append(args[i]).append("\"");
+                    out.append("\"").append(args[i]).append("\"");
                 }
                 if ((i + 1) < args.length) {
-                    b.append(",");
+                    out.append(",");
                 }
             }
-            b.append(")'");
-            return b.toString();
+            out.append(")'");
         }
 
         private boolean isNUmeric(String arg) {
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2017 Swedish E-identification Board (E-legitimationsnämnden)
+ *  		 
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.tillvaxtverket.tsltrust.common.html.elements;
+
+import java.io.IOException;
+
+/**
+ * Pre-rendered html data of a constant html element.
+ * 
+ * The source element is rendered once, with and without line breaks, when the fragment
+ * is created. Fragments can't be modified and are intended to be held in static fields
+ * for constant parts of pages. They may be shared between threads and added to any
+ * number of html element trees using {@link HtmlElement#addHtmlFragment(HtmlFragment)}.
+ */
+public final class HtmlFragment {
+
+    private final String html, lineBreakHtml;
+
+    /**
+     * Creates a html fragment from the current content of the source element.
+     * Later changes to the source element are not reflected by the fragment.
+     * @param source the html element to pre-render
+     */
+    public HtmlFragment(HtmlElement source) {
+        this.html = source.toString(false);
+        this.lineBreakHtml = source.toString(true);
+    }
+
+    /**
+     * Writes the stored html data to the provided output
+     * @param out the output
+     * @param lineBreak write the html data with line breaks
+     * @throws IOException if writing to the output fails
+     */
+    public void render(Appendable out, boolean lineBreak) throws IOException {
+        out.append(lineBreak ? lineBreakHtml : html);
+    }
+
+    /**
+     * Gets the stored html data
+     * @param lineBreak html data with line breaks
+     * @return html string
+     */
+    public String toString(boolean lineBreak) {
+        return lineBreak ? lineBreakHtml : html;
+    }
+
+    @Override
+    public String toString() {
+        return html;
+    }
+}
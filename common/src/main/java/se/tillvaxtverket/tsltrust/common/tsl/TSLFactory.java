@@ -22,9 +22,11 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.Charset;
 import java.util.logging.Logger;
+import org.w3c.dom.Document;
 import org.etsi.uri.x02231.v2.TrustServiceStatusListDocument;
 import org.etsi.uri.x02231.v2.TrustStatusListType;
 import se.tillvaxtverket.tsltrust.common.utils.general.FileOps;
+import se.tillvaxtverket.tsltrust.common.utils.general.XmlUtils;
 
 /**
  * Factory class for parsing TSL files in xml format
@@ -40,9 +42,8 @@ public class TSLFactory {
     public TrustServiceList getTsl(InputStream is) throws IOException {
         try {
             byte[] tslBytes = getBytesFromInputStream(is, TSL_MAX_LEN);
-            TrustStatusListType tslObject = TrustServiceStatusListDocument.Factory.parse(new ByteArrayInputStream(tslBytes)).getTrustServiceStatusList();
-            TrustServiceList tsl = new TrustServiceList(tslObject, tslBytes);
-            if (tslObject == null) {
+            TrustServiceList tsl = parseTsl(tslBytes);
+            if (tsl.getTslData() == null) {
                 LOG.info("Unable to read tsl from input stream");
                 throw new IOException("Unable to read tsl from Input Stream");
             }
@@ -56,9 +57,8 @@ public class TSLFactory {
     public TrustServiceList getTsl(File tslFile) throws IOException {
         try {
             byte[] tslBytes = FileOps.readBinaryFile(tslFile);
-            TrustStatusListType tslObject = TrustServiceStatusListDocument.Factory.parse(tslFile).getTrustServiceStatusList();
-            TrustServiceList tsl = new TrustServiceList(tslObject, tslBytes);
-            if (tslObject == null) {
+            TrustServiceList tsl = parseTsl(tslBytes);
+            if (tsl.getTslData() == null) {
                 LOG.info("Unable to read tsl File: " + tslFile.getAbsolutePath());
                 throw new IOException("Unable to read tsl File: " + tslFile.getAbsolutePath());
             }
@@ -69,6 +69,16 @@ public class TSLFactory {
         }
     }
 
+    /**
+     * Parses the TSL bytes once into a DOM, which is used both for binding the
+     * TSL java object and for later signature verification.
+     */
+    private static TrustServiceList parseTsl(byte[] tslBytes) throws Exception {
+        Document tslDoc = XmlUtils.parse(new ByteArrayInputStream(tslBytes), true);
+        TrustStatusListType tslObject = TrustServiceStatusListDocument.Factory.parse(tslDoc).getTrustServiceStatusList();
+        return new TrustServiceList(tslObject, tslBytes, tslDoc);
+    }
+
     public String getTslXmlString(TrustServiceList tsl) {
         try {
             byte[] tslXml = getTslXml(tsl);
@@ -20,14 +20,16 @@ import java.io.IOException;
 import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.io.ByteArrayInputStream;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import javax.xml.parsers.ParserConfigurationException;
 
 import com.aaasec.lib.crypto.xml.SigVerifyResult;
 import com.aaasec.lib.crypto.xml.XMLSign;
-import com.aaasec.lib.crypto.xml.XmlUtils;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.xml.security.utils.XMLUtils;
 import org.etsi.uri.x02231.v2.InternationalNamesType;
@@ -39,21 +41,50 @@ import org.etsi.uri.x02231.v2.PostalAddressType;
 import org.etsi.uri.x02231.v2.TSPType;
 import org.etsi.uri.x02231.v2.TrustServiceProviderListType;
 import org.etsi.uri.x02231.v2.TrustStatusListType;
+import org.w3c.dom.Document;
 import org.xml.sax.SAXException;
+import se.tillvaxtverket.tsltrust.common.utils.general.XmlUtils;
 
 /**
  * Java object for XML parsing trust service status lists
  */
 public class TrustServiceList {
 
+    private static final int MAX_CACHED_SIG_RESULTS = 256;
+    /**
+     * Signature verification results keyed by the SHA-256 digest of the TSL
+     * bytes, shared by all instances parsed from the same TSL
+     */
+    private static final Map<String, SigVerifyResult> sigResultCache = new LinkedHashMap<String, SigVerifyResult>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, SigVerifyResult> eldest) {
+            return size() > MAX_CACHED_SIG_RESULTS;
+        }
+    };
     private TrustStatusListType tsl;
     private byte[] tslBytes;
+    private Document tslDoc;
     private String sha1Fingerprint = "";
+    private String sha256Digest;
+    private SigVerifyResult sigVerifyResult;
+    private Boolean signed;
     private List<TrustServiceProvider> tspList = new ArrayList<TrustServiceProvider>();
 
     public TrustServiceList(TrustStatusListType tslData, byte[] tslBytes) {
+        this(tslData, tslBytes, null);
+    }
+
+    /**
+     * Creates a TSL object from an already parsed TSL
+     * @param tslData TSL java object
+     * @param tslBytes the bytes of the TSL XML document
+     * @param tslDoc namespace aware DOM of the TSL bytes, used for signature
+     * verification. If null the DOM is parsed from the bytes when needed.
+     */
+    public TrustServiceList(TrustStatusListType tslData, byte[] tslBytes, Document tslDoc) {
         this.tsl = tslData;
         this.tslBytes = tslBytes;
+        this.tslDoc = tslDoc;
         if (tslBytes != null) {
             sha1Fingerprint = DigestUtils.shaHex(tslBytes);
         }
@@ -147,23 +178,62 @@ public class TrustServiceList {
     
 
     /**
-     * Verifies the signature on the TSL
+     * Verifies the signature on the TSL. The signature is verified on the DOM
+     * parsed by the TSL factory and the result is kept for the lifetime of this
+     * object, and shared with other instances holding identical TSL bytes.
      * @return Signature verification result object
      */
-    public SigVerifyResult verifySignature() throws ParserConfigurationException, SAXException, IOException {
-        return XMLSign.verifySignature(tslBytes);
+    public synchronized SigVerifyResult verifySignature() throws ParserConfigurationException, SAXException, IOException {
+        if (sigVerifyResult != null) {
+            return sigVerifyResult;
+        }
+        String digest = getSha256Digest();
+        synchronized (sigResultCache) {
+            sigVerifyResult = sigResultCache.get(digest);
+        }
+        if (sigVerifyResult == null) {
+            sigVerifyResult = XMLSign.verifySignature(getDocument());
+            synchronized (sigResultCache) {
+                sigResultCache.put(digest, sigVerifyResult);
+            }
+        }
+        if (signed != null) {
+            // The DOM is no longer needed once both signature checks are memoized
+            tslDoc = null;
+        }
+        return sigVerifyResult;
     }
 
     /**
      * @return true if the TSL has a signature element
      */
-    public boolean hasSignature() {
-        try {
-            XMLSign.XmlSigData signatureData = XMLSign.getSignatureData(XmlUtils.getDocument(tslBytes));
-            return (signatureData.sigType != null);
-        } catch (Exception ex) {
-            return false;
+    public synchronized boolean hasSignature() {
+        if (signed == null) {
+            try {
+                XMLSign.XmlSigData signatureData = XMLSign.getSignatureData(getDocument());
+                signed = (signatureData.sigType != null);
+            } catch (Exception ex) {
+                return false;
+            }
+            if (sigVerifyResult != null) {
+                tslDoc = null;
+            }
+        }
+        return signed;
+    }
+
+    private Document getDocument() throws SAXException, IOException {
+        if (tslDoc == null) {
+            tslDoc = XmlUtils.parse(new ByteArrayInputStream(tslBytes), true);
+        }
+        return tslDoc;
+    }
+
+    private String getSha256Digest() {
+        if (sha256Digest == null) {
+            sha256Digest = (tslBytes == null) ? "" : DigestUtils.sha256Hex(tslBytes);
         }
+        return sha256Digest;
     }
 
     /**
@@ -36,6 +36,7 @@ import java.util.logging.Logger;
 public class SqLiteConnectionPool {
 
     private static Map<String, DataSource> dataSourceMap = new HashMap<String, DataSource>();
+    private static Map<String, ObjectPool> connectionPoolMap = new HashMap<String, ObjectPool>();
     private static final Logger LOG = Logger.getLogger(SqLiteConnectionPool.class.getName());
 
     /**
@@ -57,17 +58,37 @@ public class SqLiteConnectionPool {
         return conn;
     }
 
-    private static DataSource getDataSource(String dbUrl, String userName, String password) {
+    /**
+     * Closes the connection pool of a database URL. Idle connections are closed
+     * immediately and connections in use are closed when returned. The next
+     * request for a connection to the URL creates a new pool, which makes it
+     * possible to replace the database file behind a URL.
+     * @param dbUrl The database source URL
+     */
+    public static synchronized void closePool(String dbUrl) {
+        dataSourceMap.remove(dbUrl);
+        ObjectPool connectionPool = connectionPoolMap.remove(dbUrl);
+        if (connectionPool != null) {
+            try {
+                connectionPool.close();
+            } catch (Exception ex) {
+                LOG.log(Level.WARNING, "Error closing connection pool for " + dbUrl, ex);
+            }
+        }
+    }
+
+    private static synchronized DataSource getDataSource(String dbUrl, String userName, String password) {
         if (dataSourceMap.containsKey(dbUrl)) {
             return dataSourceMap.get(dbUrl);
         }
-        DataSource dataSource = setupDataSource(dbUrl, userName, password);
+        ObjectPool connectionPool = new GenericObjectPool(null);
+        DataSource dataSource = setupDataSource(connectionPool, dbUrl, userName, password);
         dataSourceMap.put(dbUrl, dataSource);
+        connectionPoolMap.put(dbUrl, connectionPool);
         return dataSource;
     }
 
-    private static DataSource setupDataSource(String connectURI, String userName, String password) {
-        ObjectPool connectionPool = new GenericObjectPool(null);
+    private static DataSource setupDataSource(ObjectPool connectionPool, String connectURI, String userName, String password) {
         ConnectionFactory connectionFactory = new DriverManagerConnectionFactory(connectURI, userName, password);
         PoolableConnectionFactory poolableConnectionFactory = new PoolableConnectionFactory(connectionFactory, connectionPool, null, null, false, true);
         PoolingDataSource dataSource = new PoolingDataSource(connectionPool);
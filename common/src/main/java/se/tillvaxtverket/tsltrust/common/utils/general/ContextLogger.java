@@ -20,8 +20,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.Observable;
-import java.util.Observer;
+import java.util.logging.Filter;
 import java.util.logging.Formatter;
 import java.util.logging.Handler;
 import java.util.logging.Level;
@@ -45,13 +44,16 @@ import javax.swing.text.Document;
  * Three formatters are provided in the class for clean, time stamped and verbose
  * logging.
  * 
+ * Log records are published asynchronously through a queue shared by all context
+ * loggers. Records are only queued if the logger has at least one handler and are
+ * formatted by the handlers on the queue consumer thread.
+ * 
  */
-public final class ContextLogger extends Logger implements Observer, ObserverConstants {
+public final class ContextLogger extends Logger {
     
     static final String LF = System.getProperty("line.separator");
     private JTextPane pane;
     private Formatters formatters = new Formatters();
-    private Publisher publisher = new Publisher();
 
     /**
      * Creating a logger that provides log messages in accordance with a provided
@@ -62,7 +64,6 @@ public final class ContextLogger extends Logger implements Observer, ObserverCon
     public ContextLogger(String name, String resourceBundleName) {
         super(name, resourceBundleName);
         setLevel(Level.ALL);
-        addObservers();
     }
 
     /**
@@ -74,7 +75,6 @@ public final class ContextLogger extends Logger implements Observer, ObserverCon
     public ContextLogger(String name, boolean consoleLogger) {
         super(name, null);
         setLevel(Level.ALL);
-        addObservers();
         if (consoleLogger) {
             addConsoleLogging();
         }
@@ -87,7 +87,6 @@ public final class ContextLogger extends Logger implements Observer, ObserverCon
     public ContextLogger(String name) {
         super(name, null);
         setLevel(Level.ALL);
-        addObservers();
     }
 
     /**
@@ -98,17 +97,51 @@ public final class ContextLogger extends Logger implements Observer, ObserverCon
     public ContextLogger(String name, JTextPane target) {
         super(name, null);
         setLevel(Level.ALL);
-        addObservers();
         setTarget(target);
     }
     
-    private void addObservers() {
-        formatters.addObserver(this);
+    /**
+     * Queues the log record for asynchronous publication by the handlers of this logger.
+     * Records are discarded without formatting if this logger has no handlers.
+     * @param record The log record
+     */
+    @Override
+    public void log(LogRecord record) {
+        if (!isLoggable(record.getLevel())) {
+            return;
+        }
+        Filter filter = getFilter();
+        if (filter != null && !filter.isLoggable(record)) {
+            return;
+        }
+        Handler[] handlers = getHandlers();
+        if (handlers.length == 0) {
+            return;
+        }
+        // The caller must be resolved on the logging thread
+        record.getSourceClassName();
+        LogDispatcher.getInstance().dispatch(handlers, record);
     }
-    
-    private void publish() {
-        Thread pt = new Thread(publisher);
-        pt.start();
+
+    /**
+     * @return The number of log records discarded by all context loggers because the log queue was full
+     */
+    public static long getDiscardedRecordCount() {
+        return LogDispatcher.getInstance().getDiscardedCount();
+    }
+
+    /**
+     * @return The number of log records published by all context loggers
+     */
+    public static long getPublishedRecordCount() {
+        return LogDispatcher.getInstance().getPublishedCount();
+    }
+
+    /**
+     * @return The number of log records waiting for publication
+     */
+    public static int getQueuedRecordCount() {
+        return LogDispatcher.getInstance().getQueueSize();
     }
     
     public void addConsoleLogging(Formatter formatter) {
@@ -186,41 +219,10 @@ public final class ContextLogger extends Logger implements Observer, ObserverCon
         pane.setText("");
     }
     
-    public void update(Observable o, Object arg) {
-        if (o instanceof Formatters) {
-            if (arg.equals(COMPLETE)) {
-                publish();
-            }
-        }
-    }
-
-    /**
-     * Publisher Class to handle publication of log messages.
-     * This is handled in its own thread since the publisher needs to
-     * wait 100 ms in order to make sure that the log record has been properly
-     * recorded. By handling this in a separate thread, it does not hold back the
-     * main thread.
-     */
-    class Publisher implements Runnable {
-        
-        public void run() {
-            try {
-                Thread.sleep(100);
-                Handler[] handlers = getHandlers();
-                for (Handler h : handlers) {
-                    h.flush();
-                }
-            } catch (InterruptedException ex) {
-            }
-        }
-    }
-
     /**
-     * An Observable class which defines formating methods of log messages
-     * This class is observable in order to allow the formatters to notify
-     * the publisher when a new log record is formatted and ready for publication.
+     * Class which defines formating methods of log messages
      */
-    class Formatters extends Observable implements ObserverConstants {
+    class Formatters {
         
         public Formatters() {
         }
@@ -236,8 +238,6 @@ public final class ContextLogger extends Logger implements Observer, ObserverCon
                 public String format(LogRecord record) {
                     StringBuilder b = new StringBuilder();
                     b.append(record.getMessage()).append(LF);
-                    setChanged();
-                    notifyObservers(COMPLETE);
                     return b.toString();
                 }
             };
@@ -258,8 +258,6 @@ public final class ContextLogger extends Logger implements Observer, ObserverCon
                     b.append(timeFormat.format(new Date(record.getMillis())));
                     b.append(" - ");
                     b.append(record.getMessage()).append(LF);
-                    setChanged();
-                    notifyObservers(COMPLETE);
                     return b.toString();
                 }
             };
@@ -283,8 +281,6 @@ public final class ContextLogger extends Logger implements Observer, ObserverCon
                     b.append(record.getSourceMethodName()).append(" ").append(LF);
                     b.append(record.getLevel().toString()).append(": ");
                     b.append(record.getMessage()).append(LF);
-                    setChanged();
-                    notifyObservers(COMPLETE);
                     return b.toString();
                 }
             };
@@ -27,6 +27,10 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.logging.Level;
@@ -192,6 +196,55 @@ public class FileOps {
         }
     }
     
+    /**
+     * Saves a text file by writing the data to a temporary file in the target directory
+     * and then renaming the temporary file to the target file. Readers of the target file
+     * will therefore either see the old or the new file content but never a partially written file.
+     *
+     * @param file The target file
+     * @param data The text data to save
+     * @return true if the file was saved successfully
+     */
+    public static boolean saveTxtFileAtomic(File file, String data) {
+        return saveByteFileAtomic(data.getBytes(Charset.defaultCharset()), file);
+    }
+
+    /**
+     * Saves a binary file by writing the data to a temporary file in the target directory
+     * and then renaming the temporary file to the target file.
+     *
+     * @param data The data to save
+     * @param file The target file
+     * @return true if the file was saved successfully
+     */
+    public static boolean saveByteFileAtomic(byte[] data, File file) {
+        File dir = file.getAbsoluteFile().getParentFile();
+        dir.mkdirs();
+        File tempFile = null;
+        try {
+            tempFile = File.createTempFile(file.getName(), ".tmp", dir);
+            FileOutputStream fos = new FileOutputStream(tempFile);
+            try {
+                fos.write(data);
+                fos.getFD().sync();
+            } finally {
+                fos.close();
+            }
+            try {
+                Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            return true;
+        } catch (IOException ex) {
+            LOG.warning(ex.getMessage());
+            if (tempFile != null) {
+                tempFile.delete();
+            }
+            return false;
+        }
+    }
+
     public static String getfileNameString(String path, String fileName) {
         if (path == null || fileName == null) {
             return "";
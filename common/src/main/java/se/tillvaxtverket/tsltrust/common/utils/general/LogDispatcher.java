@@ -0,0 +1,160 @@
+/*
+ * Copyright 2017 Swedish E-identification Board (E-legitimationsnämnden)
+ *  		 
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.tillvaxtverket.tsltrust.common.utils.general;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * Shared asynchronous dispatcher for log records published through {@link ContextLogger}.
+ * 
+ * Log records are placed in a single bounded queue and are published to their handlers
+ * by one consumer thread. The consumer publishes all queued records in one batch and then
+ * flushes the handlers that received records in that batch. Records are formatted by the
+ * handlers on the consumer thread, which means that the logging thread never formats records.
+ * 
+ * Records that can't be queued because the queue is full are discarded and counted.
+ */
+final class LogDispatcher implements Runnable {
+
+    private static final Logger LOG = Logger.getLogger(LogDispatcher.class.getName());
+    private static final int QUEUE_CAPACITY = 10000;
+    private static final int MAX_BATCH_SIZE = 500;
+    private static final LogDispatcher INSTANCE = new LogDispatcher(QUEUE_CAPACITY);
+    private final BlockingQueue<QueuedRecord> queue;
+    private final AtomicLong discarded = new AtomicLong();
+    private final AtomicLong published = new AtomicLong();
+    private long reportedDiscarded = 0;
+
+    private LogDispatcher(int capacity) {
+        queue = new ArrayBlockingQueue<QueuedRecord>(capacity);
+        Thread consumer = new Thread(this, "ContextLogger-dispatcher");
+        consumer.setDaemon(true);
+        consumer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, "ContextLogger-shutdown"));
+    }
+
+    static LogDispatcher getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Queues a log record for publication by the provided handlers
+     * @param handlers the handlers that should publish the record
+     * @param record the log record
+     * @return true if the record was queued, false if it was discarded because the queue is full
+     */
+    boolean dispatch(Handler[] handlers, LogRecord record) {
+        if (queue.offer(new QueuedRecord(handlers, record))) {
+            return true;
+        }
+        discarded.incrementAndGet();
+        return false;
+    }
+
+    long getDiscardedCount() {
+        return discarded.get();
+    }
+
+    long getPublishedCount() {
+        return published.get();
+    }
+
+    int getQueueSize() {
+        return queue.size();
+    }
+
+    @Override
+    public void run() {
+        List<QueuedRecord> batch = new ArrayList<QueuedRecord>(MAX_BATCH_SIZE);
+        while (true) {
+            try {
+                QueuedRecord first = queue.poll(1, TimeUnit.SECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+                    publish(batch);
+                    batch.clear();
+                }
+                reportDiscarded();
+            } catch (InterruptedException ex) {
+                drain();
+                return;
+            } catch (RuntimeException ex) {
+                batch.clear();
+                LOG.warning(ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Publishes all records that are currently queued. Used when the JVM shuts down.
+     */
+    private synchronized void drain() {
+        List<QueuedRecord> batch = new ArrayList<QueuedRecord>();
+        queue.drainTo(batch);
+        publish(batch);
+    }
+
+    private synchronized void publish(List<QueuedRecord> batch) {
+        Map<Handler, Handler> usedHandlers = new IdentityHashMap<Handler, Handler>();
+        for (QueuedRecord queued : batch) {
+            for (Handler handler : queued.handlers) {
+                handler.publish(queued.record);
+                usedHandlers.put(handler, handler);
+            }
+        }
+        for (Handler handler : usedHandlers.keySet()) {
+            handler.flush();
+        }
+        published.addAndGet(batch.size());
+    }
+
+    private void reportDiscarded() {
+        long discardedCnt = discarded.get();
+        if (discardedCnt > reportedDiscarded) {
+            LOG.warning((discardedCnt - reportedDiscarded) + " log records discarded due to full log queue (total "
+                    + discardedCnt + ")");
+            reportedDiscarded = discardedCnt;
+        }
+    }
+
+    private static class QueuedRecord {
+
+        private final Handler[] handlers;
+        private final LogRecord record;
+
+        QueuedRecord(Handler[] handlers, LogRecord record) {
+            this.handlers = handlers;
+            this.record = record;
+        }
+    }
+}
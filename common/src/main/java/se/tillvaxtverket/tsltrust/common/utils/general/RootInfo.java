@@ -25,8 +25,6 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.logging.Logger;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
@@ -43,6 +41,7 @@ public final class RootInfo {
     private boolean initialized = false;
     private Map<String, AaaCertificate> rootMap;
     private Map<String, String> policyDescMap;
+    private Map<String, String> certDigestMap;
 
     public RootInfo(byte[] xmlData) {
         start(xmlData);
@@ -57,9 +56,7 @@ public final class RootInfo {
         try {
             InputStream is = new ByteArrayInputStream(xmlData);
 
-            DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-            doc = dBuilder.parse(is);
+            doc = XmlUtils.parse(is, false);
             doc.getDocumentElement().normalize();
             parseXML();
 
@@ -75,9 +72,10 @@ public final class RootInfo {
         rootCerts = new ArrayList<AaaCertificate>(rootNodes.getLength());
         rootMap = new HashMap<String, AaaCertificate>();
         policyDescMap = new HashMap<String, String>();
+        certDigestMap = new HashMap<String, String>();
 
         for (int i = 0; i < rootNodes.getLength(); i++) {
-            String pName = "", pem = "", desc="";
+            String pName = "", pem = "", desc="", certDigest = "";
             Node rootNode = rootNodes.item(i);
             NodeList rootElements = rootNode.getChildNodes();
             for (int nc = 0; nc < rootElements.getLength(); nc++) {
@@ -85,6 +83,7 @@ public final class RootInfo {
                 pName = (node.getNodeName().equals("tslt:PolicyName") ? node.getTextContent() : pName);
                 pem = (node.getNodeName().equals("tslt:RootCertificate") ? node.getTextContent() : pem);
                 desc = (node.getNodeName().equals("tslt:PolicyDescription") ? URIComponentCoder.decodeURIComponent(node.getTextContent()) : desc);
+                certDigest = (node.getNodeName().equals("tslt:CertificatesDigest") ? node.getTextContent().trim() : certDigest);
             }
             if (pName.length() > 0 && pem.length() > 0) {
                 AaaCertificate rootCert = CertificateUtils.getCertificate(pem);
@@ -93,6 +92,9 @@ public final class RootInfo {
                     rootCerts.add(rootCert);
                     rootMap.put(pName, rootCert);
                     policyDescMap.put(pName, desc);
+                    if (certDigest.length() > 0) {
+                        certDigestMap.put(pName, certDigest);
+                    }
                     initialized = true;
                 }
 
@@ -124,5 +126,13 @@ public final class RootInfo {
     public Map<String, String> getPolicyDescMap() {
         return policyDescMap;
     }
+
+    /**
+     * @return digest of the published certificate set of each policy. Policies
+     * published without a digest are not present in the map.
+     */
+    public Map<String, String> getCertDigestMap() {
+        return certDigestMap;
+    }
     
 }
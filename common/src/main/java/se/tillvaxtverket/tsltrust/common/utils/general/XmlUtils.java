@@ -20,25 +20,150 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.StringWriter;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.xml.XMLConstants;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
 
 /**
  * Utility class for XML processing
+ * <p>
+ * Parser and transformer factories are configured once. Document builders and
+ * transformers are held per thread and reset before each use, so callers must
+ * not keep a reference to an instance obtained from this class beyond the
+ * current operation.
  */
 public class XmlUtils {
 
     private final static Logger LOG = Logger.getLogger(XmlUtils.class.getName());
+    /** Default upper limit on the size of a parsed XML document */
+    public static final long DEFAULT_MAX_DOCUMENT_SIZE = 128L * 1024 * 1024;
+    /** Maximum number of entity expansions allowed in a parsed document */
+    public static final int ENTITY_EXPANSION_LIMIT = 64000;
+    private static final String ENTITY_EXPANSION_LIMIT_PROPERTY = "http://www.oracle.com/xml/jaxp/properties/entityExpansionLimit";
+    private static final DocumentBuilderFactory DOCUMENT_BUILDER_FACTORY = createDocumentBuilderFactory(false, false);
+    private static final DocumentBuilderFactory NS_DOCUMENT_BUILDER_FACTORY = createDocumentBuilderFactory(true, true);
+    private static final DocumentBuilderFactory NS_DOCTYPE_DOCUMENT_BUILDER_FACTORY = createDocumentBuilderFactory(true, false);
+    private static final TransformerFactory TRANSFORMER_FACTORY = createTransformerFactory();
+    private static volatile long maxDocumentSize = DEFAULT_MAX_DOCUMENT_SIZE;
+
+    private static final ThreadLocal<DocumentBuilder> documentBuilder = new ThreadLocal<DocumentBuilder>() {
+        @Override
+        protected DocumentBuilder initialValue() {
+            return newDocumentBuilder(DOCUMENT_BUILDER_FACTORY);
+        }
+    };
+    private static final ThreadLocal<DocumentBuilder> nsDocumentBuilder = new ThreadLocal<DocumentBuilder>() {
+        @Override
+        protected DocumentBuilder initialValue() {
+            return newDocumentBuilder(NS_DOCUMENT_BUILDER_FACTORY);
+        }
+    };
+    private static final ThreadLocal<DocumentBuilder> nsDoctypeDocumentBuilder = new ThreadLocal<DocumentBuilder>() {
+        @Override
+        protected DocumentBuilder initialValue() {
+            return newDocumentBuilder(NS_DOCTYPE_DOCUMENT_BUILDER_FACTORY);
+        }
+    };
+    private static final ThreadLocal<Transformer> transformer = new ThreadLocal<Transformer>() {
+        @Override
+        protected Transformer initialValue() {
+            try {
+                return TRANSFORMER_FACTORY.newTransformer();
+            } catch (TransformerConfigurationException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+    };
+
+    /**
+     * Sets the maximum size of documents parsed through this class
+     * @param maxSize maximum size in bytes
+     */
+    public static void setMaxDocumentSize(long maxSize) {
+        maxDocumentSize = maxSize;
+    }
+
+    public static long getMaxDocumentSize() {
+        return maxDocumentSize;
+    }
+
+    /**
+     * Returns the document builder of the current thread, reset to its initial
+     * state. The builder is not namespace aware, matching the other parse
+     * functions of this class.
+     * @return document builder
+     */
+    public static DocumentBuilder getDocumentBuilder() {
+        DocumentBuilder builder = documentBuilder.get();
+        builder.reset();
+        return builder;
+    }
+
+    /**
+     * Returns the namespace aware document builder of the current thread,
+     * reset to its initial state. This builder rejects documents with a DOCTYPE
+     * declaration.
+     * @return namespace aware document builder
+     */
+    public static DocumentBuilder getNamespaceAwareDocumentBuilder() {
+        DocumentBuilder builder = nsDocumentBuilder.get();
+        builder.reset();
+        return builder;
+    }
+
+    /**
+     * Returns a namespace aware document builder of the current thread that
+     * accepts a DOCTYPE declaration, reset to its initial state. External DTDs
+     * and entities are not loaded. Only to be used for locally stored
+     * documents such as configuration files.
+     * @return namespace aware document builder accepting a DOCTYPE
+     */
+    public static DocumentBuilder getDoctypeDocumentBuilder() {
+        DocumentBuilder builder = nsDoctypeDocumentBuilder.get();
+        builder.reset();
+        return builder;
+    }
+
+    /**
+     * Returns the identity transformer of the current thread, reset to its
+     * initial state with default output properties.
+     * @return transformer
+     */
+    public static Transformer getTransformer() {
+        Transformer trans = transformer.get();
+        trans.reset();
+        return trans;
+    }
+
+    /**
+     * Parses an XML document using a pooled builder, enforcing the maximum
+     * document size.
+     * @param is input stream holding the document
+     * @param namespaceAware true to use the namespace aware builder
+     * @return XML document
+     * @throws IOException on read errors or if the document is too large
+     * @throws SAXException on parse errors
+     */
+    public static Document parse(InputStream is, boolean namespaceAware) throws IOException, SAXException {
+        DocumentBuilder builder = namespaceAware ? getNamespaceAwareDocumentBuilder() : getDocumentBuilder();
+        return builder.parse(new SizeLimitedInputStream(is, maxDocumentSize));
+    }
 
     /**
      * Generates a pretty XML print of an XML document based on java.xml functions.
@@ -51,19 +176,17 @@ public class XmlUtils {
         }
 
         DOMSource domSource = new DOMSource(doc);
-        TransformerFactory tf = TransformerFactory.newInstance();
-        Transformer transformer;
         try {
-            transformer = tf.newTransformer();
-            transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "no");
+            Transformer trans = getTransformer();
+            trans.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "no");
             //transformer.setOutputProperty(OutputKeys.STANDALONE, "no");
-            transformer.setOutputProperty(OutputKeys.METHOD, "xml");
-            transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
-            transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "4");
-            transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-            java.io.StringWriter sw = new java.io.StringWriter();
+            trans.setOutputProperty(OutputKeys.METHOD, "xml");
+            trans.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+            trans.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "4");
+            trans.setOutputProperty(OutputKeys.INDENT, "yes");
+            StringWriter sw = new StringWriter();
             StreamResult sr = new StreamResult(sw);
-            transformer.transform(domSource, sr);
+            trans.transform(domSource, sr);
             String xml = sw.toString();
             return xml;
         } catch (Exception ex) {
@@ -82,9 +205,7 @@ public class XmlUtils {
         try {
             // Output the resulting document.
             ByteArrayOutputStream os = new ByteArrayOutputStream();
-            TransformerFactory tf = TransformerFactory.newInstance();
-            Transformer trans = tf.newTransformer();
-            trans.transform(new DOMSource(doc), new StreamResult(os));
+            getTransformer().transform(new DOMSource(doc), new StreamResult(os));
             byte[] xmlData = os.toByteArray();
             return xmlData;
         } catch (TransformerException ex) {
@@ -96,9 +217,7 @@ public class XmlUtils {
     public static Document getDocument(byte[] xmlData) {
         Document doc=null;
         try {
-            DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-            doc = dBuilder.parse(new ByteArrayInputStream(xmlData));
+            doc = parse(new ByteArrayInputStream(xmlData), false);
             doc.getDocumentElement().normalize();
         } catch (Exception ex) {
         }
@@ -112,17 +231,17 @@ public class XmlUtils {
      */
     public static Document loadXMLContent(File xmlFile) {
         Document doc;
+        InputStream is = null;
         try {
-            InputStream is = new FileInputStream(xmlFile);
-
-            DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-            doc = dBuilder.parse(is);
+            is = new FileInputStream(xmlFile);
+            doc = parse(is, false);
             doc.getDocumentElement().normalize();
 
         } catch (Exception ex) {
             LOG.log(Level.INFO, null, ex);
             return null;
+        } finally {
+            closeQuietly(is);
         }
 
         return doc;
@@ -137,4 +256,109 @@ public class XmlUtils {
     public static String getParsedXMLText(File xmlFile) {
         return getDocText(loadXMLContent(xmlFile));
     }
+
+    private static DocumentBuilderFactory createDocumentBuilderFactory(boolean namespaceAware, boolean disallowDoctype) {
+        DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
+        dbFactory.setNamespaceAware(namespaceAware);
+        setFeature(dbFactory, XMLConstants.FEATURE_SECURE_PROCESSING, true);
+        setFeature(dbFactory, "http://xml.org/sax/features/external-general-entities", false);
+        setFeature(dbFactory, "http://xml.org/sax/features/external-parameter-entities", false);
+        setFeature(dbFactory, "http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+        if (disallowDoctype) {
+            setFeature(dbFactory, "http://apache.org/xml/features/disallow-doctype-decl", true);
+        }
+        try {
+            dbFactory.setAttribute(ENTITY_EXPANSION_LIMIT_PROPERTY, String.valueOf(ENTITY_EXPANSION_LIMIT));
+        } catch (IllegalArgumentException ex) {
+            // Not supported by this parser, secure processing applies its own limit
+        }
+        return dbFactory;
+    }
+
+    private static void setFeature(DocumentBuilderFactory dbFactory, String feature, boolean value) {
+        try {
+            dbFactory.setFeature(feature, value);
+        } catch (ParserConfigurationException ex) {
+            LOG.fine("XML parser feature not supported: " + feature);
+        }
+    }
+
+    private static TransformerFactory createTransformerFactory() {
+        TransformerFactory tf = TransformerFactory.newInstance();
+        try {
+            tf.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+        } catch (TransformerConfigurationException ex) {
+            LOG.fine("Secure processing not supported by transformer factory");
+        }
+        return tf;
+    }
+
+    private static DocumentBuilder newDocumentBuilder(DocumentBuilderFactory dbFactory) {
+        try {
+            return dbFactory.newDocumentBuilder();
+        } catch (ParserConfigurationException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static void closeQuietly(InputStream is) {
+        if (is != null) {
+            try {
+                is.close();
+            } catch (IOException ex) {
+            }
+        }
+    }
+
+    /**
+     * Input stream failing with an IOException once more than a set number
+     * of bytes has been read
+     */
+    private static class SizeLimitedInputStream extends FilterInputStream {
+
+        private final long limit;
+        private long count;
+
+        SizeLimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.limit = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                count(read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count(skipped);
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private void count(long bytes) throws IOException {
+            count += bytes;
+            if (count > limit) {
+                throw new IOException("XML document exceeds maximum size of " + limit + " bytes");
+            }
+        }
+    }
 }
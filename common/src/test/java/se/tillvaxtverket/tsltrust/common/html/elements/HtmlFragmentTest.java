@@ -0,0 +1,82 @@
+/*
+ * Copyright 2017 Swedish E-identification Board (E-legitimationsnämnden)
+ *  		 
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.tillvaxtverket.tsltrust.common.html.elements;
+
+import java.io.StringWriter;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of html rendering and pre-rendered html fragments
+ */
+public class HtmlFragmentTest {
+
+    @Test
+    public void testRenderMatchesToString() throws Exception {
+        HtmlElement div = createTree();
+        StringWriter out = new StringWriter();
+        div.render(out);
+        assertEquals(div.toString(), out.toString());
+        assertEquals("<div id='main' style='width: 100%'><span style='padding-left: 5px'>Title</span>"
+                + "<button onclick='load(\"main\",3)'>Go</button></div>", div.toString());
+    }
+
+    @Test
+    public void testFragmentInTree() throws Exception {
+        HtmlElement title = createTitle();
+        HtmlFragment fragment = new HtmlFragment(title);
+
+        HtmlElement withElement = new DivElement("head");
+        withElement.addHtmlElement(title);
+        HtmlElement withFragment = new DivElement("head");
+        withFragment.addHtmlFragment(fragment);
+        withFragment.addHtmlFragment(fragment);
+        withElement.addHtmlElement(title);
+
+        assertEquals(withElement.toString(), withFragment.toString());
+        assertEquals(withElement.toString(true), withFragment.toString(true));
+    }
+
+    @Test
+    public void testFragmentIsNotChangedBySource() throws Exception {
+        HtmlElement title = createTitle();
+        HtmlFragment fragment = new HtmlFragment(title);
+        String html = title.toString();
+        title.setText("Changed");
+        title.addAttribute("class", "x");
+        assertEquals(html, fragment.toString());
+        assertEquals(html, fragment.toString(false));
+    }
+
+    private static HtmlElement createTree() {
+        HtmlElement div = new DivElement("main");
+        div.addStyle("width", "100%");
+        div.addHtmlElement(createTitle());
+        HtmlElement button = new GenericHtmlElement("button");
+        button.setText("Go");
+        button.addAction("onclick", "load", new String[]{"main", "3"});
+        div.addHtmlElement(button);
+        return div;
+    }
+
+    private static HtmlElement createTitle() {
+        HtmlElement title = new GenericHtmlElement("span");
+        title.setText("Title");
+        title.addStyle("padding-left", "5px");
+        return title;
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2017 Swedish E-identification Board (E-legitimationsnämnden)
+ *  		 
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.tillvaxtverket.tsltrust.common.utils.general;
+
+import java.io.File;
+import java.util.Arrays;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of atomic file saving
+ */
+public class FileOpsTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testSaveCreatesFileAndParentDirectories() {
+        File file = new File(tempFolder.getRoot(), "sub/dir/data.txt");
+        assertTrue(FileOps.saveTxtFileAtomic(file, "content"));
+        assertEquals("content", new String(FileOps.readBinaryFile(file)));
+        assertNoTempFiles(file.getParentFile());
+    }
+
+    @Test
+    public void testSaveReplacesExistingFile() throws Exception {
+        File file = tempFolder.newFile("data.bin");
+        assertTrue(FileOps.saveByteFileAtomic(new byte[]{1, 2, 3, 4}, file));
+        assertTrue(FileOps.saveByteFileAtomic(new byte[]{5, 6}, file));
+        assertTrue(Arrays.equals(new byte[]{5, 6}, FileOps.readBinaryFile(file)));
+        assertNoTempFiles(tempFolder.getRoot());
+    }
+
+    @Test
+    public void testFailedSaveRemovesTemporaryFile() throws Exception {
+        // A non-empty directory can not be replaced by the temporary file
+        File target = tempFolder.newFolder("target");
+        new File(target, "child").createNewFile();
+        assertFalse(FileOps.saveTxtFileAtomic(target, "content"));
+        assertTrue(target.isDirectory());
+        assertNoTempFiles(tempFolder.getRoot());
+    }
+
+    private static void assertNoTempFiles(File dir) {
+        for (String name : dir.list()) {
+            assertFalse(name, name.endsWith(".tmp"));
+        }
+    }
+}
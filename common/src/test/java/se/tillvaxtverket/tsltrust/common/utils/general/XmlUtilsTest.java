@@ -0,0 +1,95 @@
+/*
+ * Copyright 2017 Swedish E-identification Board (E-legitimationsnämnden)
+ *  		 
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.tillvaxtverket.tsltrust.common.utils.general;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import org.junit.After;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the pooled XML parsers and transformers
+ */
+public class XmlUtilsTest {
+
+    private static final String DOCTYPE_XML = "<?xml version=\"1.0\"?>"
+            + "<!DOCTYPE root PUBLIC \"-//Test//EN\" \"http://localhost:1/missing.dtd\">"
+            + "<root><child>text</child></root>";
+
+    @After
+    public void restoreMaxDocumentSize() {
+        XmlUtils.setMaxDocumentSize(XmlUtils.DEFAULT_MAX_DOCUMENT_SIZE);
+    }
+
+    @Test
+    public void testParseNamespaceAware() throws Exception {
+        Document doc = XmlUtils.parse(stream("<a:root xmlns:a=\"urn:test\"><a:child/></a:root>"), true);
+        assertEquals("urn:test", doc.getDocumentElement().getNamespaceURI());
+        assertEquals("root", doc.getDocumentElement().getLocalName());
+    }
+
+    @Test(expected = SAXException.class)
+    public void testNamespaceAwareParseRejectsDoctype() throws Exception {
+        XmlUtils.parse(stream(DOCTYPE_XML), true);
+    }
+
+    @Test
+    public void testDoctypeBuilderDoesNotLoadExternalDtd() throws Exception {
+        Document doc = XmlUtils.getDoctypeDocumentBuilder().parse(stream(DOCTYPE_XML));
+        assertEquals("root", doc.getDocumentElement().getLocalName());
+        assertEquals("text", doc.getDocumentElement().getTextContent());
+    }
+
+    @Test
+    public void testMaxDocumentSize() throws Exception {
+        String xml = "<root>" + new String(new char[1000]).replace('\0', 'x') + "</root>";
+        XmlUtils.setMaxDocumentSize(100);
+        try {
+            XmlUtils.parse(stream(xml), false);
+            fail("Oversized document was parsed");
+        } catch (IOException ex) {
+            // Expected
+        }
+        assertNull(XmlUtils.getDocument(xml.getBytes("UTF-8")));
+        XmlUtils.setMaxDocumentSize(XmlUtils.DEFAULT_MAX_DOCUMENT_SIZE);
+        assertNotNull(XmlUtils.getDocument(xml.getBytes("UTF-8")));
+    }
+
+    @Test
+    public void testBuilderIsReusedAfterFailure() throws Exception {
+        assertNull(XmlUtils.getDocument("<root><unclosed></root>".getBytes("UTF-8")));
+        assertSame(XmlUtils.getDocumentBuilder(), XmlUtils.getDocumentBuilder());
+        Document doc = XmlUtils.getDocument("<root/>".getBytes("UTF-8"));
+        assertEquals("root", doc.getDocumentElement().getNodeName());
+    }
+
+    @Test
+    public void testDocTextRoundTrip() throws Exception {
+        Document doc = XmlUtils.getDocument("<root><child>text</child></root>".getBytes("UTF-8"));
+        String text = XmlUtils.getDocText(doc);
+        assertTrue(text.contains("<child>text</child>"));
+        Document reparsed = XmlUtils.getDocument(XmlUtils.getCanonicalDocText(doc));
+        assertEquals("text", reparsed.getDocumentElement().getTextContent());
+    }
+
+    private static ByteArrayInputStream stream(String xml) throws IOException {
+        return new ByteArrayInputStream(xml.getBytes("UTF-8"));
+    }
+}
@@ -0,0 +1,463 @@
+/*
+ * Copyright 2017 Swedish E-identification Board (E-legitimationsnämnden)
+ *  		 
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.tillvaxtverket.ttsigvalws.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.Security;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import javax.xml.crypto.dsig.CanonicalizationMethod;
+import javax.xml.crypto.dsig.DigestMethod;
+import javax.xml.crypto.dsig.Reference;
+import javax.xml.crypto.dsig.SignedInfo;
+import javax.xml.crypto.dsig.Transform;
+import javax.xml.crypto.dsig.XMLSignatureFactory;
+import javax.xml.crypto.dsig.dom.DOMSignContext;
+import javax.xml.crypto.dsig.keyinfo.KeyInfo;
+import javax.xml.crypto.dsig.keyinfo.KeyInfoFactory;
+import javax.xml.crypto.dsig.keyinfo.X509Data;
+import javax.xml.crypto.dsig.spec.C14NMethodParameterSpec;
+import javax.xml.crypto.dsig.spec.TransformParameterSpec;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import org.apache.pdfbox.io.IOUtils;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.interactive.digitalsignature.PDSignature;
+import org.apache.pdfbox.pdmodel.interactive.digitalsignature.SignatureInterface;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.DERSequence;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.AccessDescription;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.CRLDistPoint;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.asn1.x509.DistributionPoint;
+import org.bouncycastle.asn1.x509.DistributionPointName;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.asn1.x509.KeyUsage;
+import org.bouncycastle.cert.X509v2CRLBuilder;
+import org.bouncycastle.cert.jcajce.JcaCertStore;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509ExtensionUtils;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.cms.CMSAbsentContent;
+import org.bouncycastle.cms.CMSProcessableByteArray;
+import org.bouncycastle.cms.CMSSignedDataGenerator;
+import org.bouncycastle.cms.jcajce.JcaSignerInfoGeneratorBuilder;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import se.tillvaxtverket.tsltrust.common.utils.core.DbCrlCache;
+import se.tillvaxtverket.tsltrust.common.utils.core.FnvHash;
+import se.tillvaxtverket.tsltrust.common.utils.core.PEM;
+import se.tillvaxtverket.tsltrust.common.utils.general.FileOps;
+import se.tillvaxtverket.tsltrust.common.utils.general.URIComponentCoder;
+import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.config.ConfigData;
+import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.db.CrlCacheTable;
+import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.document.SigDocument;
+import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.models.SigValidationBaseModel;
+import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.models.SigValidationModel;
+
+/**
+ * Generates a complete, self contained set of signature validation fixtures
+ * in a local data directory so that the benchmarks never touch the network.
+ * <p>
+ * The generated trust setup mirrors what the TSL Trust admin service
+ * publishes: a policy root with a caRepository reference to a PKCS#7 file
+ * holding the trusted CA certificates, a rootlist.xml describing the
+ * policy, and pre-populated CRL cache entries for the root and for the
+ * issuing CA so that revocation checking is served from the cache.</p>
+ * <p>
+ * Alternatively the certificates can point to a running
+ * {@link RevocationResponder}, in which case CRLs are downloaded and OCSP
+ * requests are sent to that responder instead.</p>
+ */
+public class BenchFixtures {
+
+    public static final String POLICY_NAME = "BenchPolicy";
+    private static final String REPOSITORY_URL = "http://localhost/tsltrust-bench/";
+    private static final String P7B_NAME = "bench-policy.p7b";
+    public static final String ROOT_ISSUER = "root";
+    public static final String CA_ISSUER = "ca";
+    private static final String SIG_ALGO = "SHA256withRSA";
+    private static final String XML_RSA_SHA256 = "http://www.w3.org/2001/04/xmldsig-more#rsa-sha256";
+    private static final long DAY = 24L * 60 * 60 * 1000;
+    private final SecureRandom rng = new SecureRandom();
+    private final File dataDir;
+    private final String rootCrlUrl;
+    private final String caCrlUrl;
+    private final String ocspUrl;
+    private KeyPair rootKey;
+    private KeyPair caKey;
+    private KeyPair signerKey;
+    private X509Certificate rootCert;
+    private X509Certificate caCert;
+    private X509Certificate signerCert;
+    private List<X509Certificate> trustedCaCerts;
+    private byte[] caCrl;
+    private SigValidationBaseModel baseModel;
+
+    static {
+        if (Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null) {
+            Security.addProvider(new BouncyCastleProvider());
+        }
+    }
+
+    /**
+     * Creates a fixture set in the specified directory
+     *
+     * @param dataDir the data directory of the signature validation service
+     * @param trustedCaCount the number of trusted CA certificates under the
+     * policy root, including the CA issuing the signer certificate
+     * @param revokedEntries the number of revoked entries in the issuing CA
+     * CRL
+     * @throws Exception on fixture generation errors
+     */
+    public BenchFixtures(File dataDir, int trustedCaCount, int revokedEntries) throws Exception {
+        this(dataDir, trustedCaCount, revokedEntries, null);
+    }
+
+    /**
+     * Creates a fixture set in the specified directory
+     *
+     * @param dataDir the data directory of the signature validation service
+     * @param trustedCaCount the number of trusted CA certificates under the
+     * policy root, including the CA issuing the signer certificate
+     * @param revokedEntries the number of revoked entries in the issuing CA
+     * CRL. Ignored if a responder URL is provided.
+     * @param responderUrl base URL of a {@link RevocationResponder} that the
+     * generated certificates should reference for CRLs and OCSP, or null to
+     * serve revocation data from a pre-populated CRL cache
+     * @throws Exception on fixture generation errors
+     */
+    public BenchFixtures(File dataDir, int trustedCaCount, int revokedEntries, String responderUrl) throws Exception {
+        this.dataDir = dataDir;
+        if (responderUrl == null) {
+            rootCrlUrl = REPOSITORY_URL + ROOT_ISSUER + ".crl";
+            caCrlUrl = REPOSITORY_URL + CA_ISSUER + ".crl";
+            ocspUrl = null;
+        } else {
+            rootCrlUrl = RevocationResponder.getCrlUrl(responderUrl, ROOT_ISSUER);
+            caCrlUrl = RevocationResponder.getCrlUrl(responderUrl, CA_ISSUER);
+            ocspUrl = RevocationResponder.getOcspUrl(responderUrl);
+        }
+        generateCertificates(Math.max(1, trustedCaCount));
+        writeTrustCache();
+        if (responderUrl == null) {
+            writeCrlCache(revokedEntries);
+        }
+        baseModel = new SigValidationBaseModel(new ConfigData(dataDir.getAbsolutePath()));
+    }
+
+    private void generateCertificates(int trustedCaCount) throws Exception {
+        KeyPairGenerator kpg = KeyPairGenerator.getInstance("RSA");
+        kpg.initialize(2048, rng);
+        rootKey = kpg.generateKeyPair();
+        caKey = kpg.generateKeyPair();
+        signerKey = kpg.generateKeyPair();
+        // Each filler CA gets its own key, as in a real trust store where CAs are also
+        // looked up by public key. Filler CAs never take part in a validated chain, so
+        // shorter keys are used to keep the setup of thousands of CAs fast.
+        KeyPairGenerator fillerKpg = KeyPairGenerator.getInstance("RSA");
+        fillerKpg.initialize(1024, rng);
+
+        X500Name rootName = new X500Name("CN=TSL Trust Bench Root,O=TSL Trust,C=SE");
+        X500Name caName = new X500Name("CN=Bench Issuing CA,O=TSL Trust,C=SE");
+        rootCert = issue(rootName, rootKey.getPublic(), rootName, rootKey, true, null, null, REPOSITORY_URL + P7B_NAME);
+
+        trustedCaCerts = new ArrayList<X509Certificate>(trustedCaCount);
+        for (int i = 1; i < trustedCaCount; i++) {
+            X500Name fillerName = new X500Name("CN=Bench Filler CA " + i + ",O=TSL Trust,C=SE");
+            trustedCaCerts.add(issue(fillerName, fillerKpg.generateKeyPair().getPublic(), rootName, rootKey, true, rootCrlUrl, ocspUrl, null));
+        }
+        // The issuing CA goes last so that linear lookups scan the full list
+        caCert = issue(caName, caKey.getPublic(), rootName, rootKey, true, rootCrlUrl, ocspUrl, null);
+        trustedCaCerts.add(caCert);
+
+        signerCert = issue(new X500Name("CN=Bench Signer,SERIALNUMBER=197001011234,C=SE"),
+                signerKey.getPublic(), caName, caKey, false, caCrlUrl, ocspUrl, null);
+    }
+
+    private X509Certificate issue(X500Name subject, PublicKey publicKey, X500Name issuer, KeyPair issuerKey,
+            boolean ca, String cdpUrl, String ocspUrl, String caRepositoryUrl) throws Exception {
+        long now = System.currentTimeMillis();
+        JcaX509ExtensionUtils extUtils = new JcaX509ExtensionUtils();
+        JcaX509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(issuer, new BigInteger(64, rng),
+                new Date(now - DAY), new Date(now + 365 * DAY), subject, publicKey);
+        builder.addExtension(Extension.basicConstraints, true, new BasicConstraints(ca));
+        builder.addExtension(Extension.keyUsage, true, ca
+                ? new KeyUsage(KeyUsage.keyCertSign | KeyUsage.cRLSign)
+                : new KeyUsage(KeyUsage.digitalSignature | KeyUsage.nonRepudiation));
+        builder.addExtension(Extension.subjectKeyIdentifier, false, extUtils.createSubjectKeyIdentifier(publicKey));
+        builder.addExtension(Extension.authorityKeyIdentifier, false, extUtils.createAuthorityKeyIdentifier(issuerKey.getPublic()));
+        if (cdpUrl != null) {
+            GeneralNames names = new GeneralNames(new GeneralName(GeneralName.uniformResourceIdentifier, cdpUrl));
+            DistributionPoint dp = new DistributionPoint(new DistributionPointName(names), null, null);
+            builder.addExtension(Extension.cRLDistributionPoints, false, new CRLDistPoint(new DistributionPoint[]{dp}));
+        }
+        if (ocspUrl != null) {
+            AccessDescription ocsp = new AccessDescription(AccessDescription.id_ad_ocsp,
+                    new GeneralName(GeneralName.uniformResourceIdentifier, ocspUrl));
+            builder.addExtension(Extension.authorityInfoAccess, false, new DERSequence(ocsp));
+        }
+        if (caRepositoryUrl != null) {
+            AccessDescription caRepository = new AccessDescription(new ASN1ObjectIdentifier("1.3.6.1.5.5.7.48.5"),
+                    new GeneralName(GeneralName.uniformResourceIdentifier, caRepositoryUrl));
+            builder.addExtension(Extension.subjectInfoAccess, false, new DERSequence(caRepository));
+        }
+        ContentSigner signer = new JcaContentSignerBuilder(SIG_ALGO).build(issuerKey.getPrivate());
+        return new JcaX509CertificateConverter().getCertificate(builder.build(signer));
+    }
+
+    private void writeTrustCache() throws Exception {
+        File trustCacheDir = new File(dataDir, "trustCache");
+        trustCacheDir.mkdirs();
+
+        CMSSignedDataGenerator gen = new CMSSignedDataGenerator();
+        gen.addCertificates(new JcaCertStore(trustedCaCerts));
+        byte[] p7b = gen.generate(new CMSAbsentContent(), false).getEncoded();
+        FileOps.saveByteFileAtomic(p7b, new File(trustCacheDir, P7B_NAME));
+
+        StringBuilder b = new StringBuilder();
+        b.append("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>");
+        b.append("<tslt:TSLTrustRootList xmlns:tslt=\"http://3xasecurity.com/2011/TSLTrust\">");
+        b.append("<tslt:Root>");
+        b.append("<tslt:PolicyName>").append(POLICY_NAME).append("</tslt:PolicyName>");
+        b.append("<tslt:PolicyDescription>").append(URIComponentCoder.encodeURIComponent("Benchmark validation policy")).append("</tslt:PolicyDescription>");
+        b.append("<tslt:RootCertificate>").append(PEM.trimPemCert(PEM.getPemCert(rootCert.getEncoded())).trim()).append("</tslt:RootCertificate>");
+        b.append("</tslt:Root>");
+        b.append("</tslt:TSLTrustRootList>");
+        FileOps.saveTxtFile(new File(trustCacheDir, "rootlist.xml"), b.toString());
+    }
+
+    private void writeCrlCache(int revokedEntries) throws Exception {
+        File crlDir = new File(dataDir, "CrlCache");
+        crlDir.mkdirs();
+        CrlCacheTable crlTable = new CrlCacheTable(new File(crlDir, "crlDb").getAbsolutePath());
+        cacheCrl(crlDir, crlTable, rootCrlUrl, createCrl(rootCert, rootKey, 0));
+        caCrl = createCrl(caCert, caKey, revokedEntries);
+        cacheCrl(crlDir, crlTable, caCrlUrl, caCrl);
+    }
+
+    private byte[] createCrl(X509Certificate issuer, KeyPair issuerKey, int revokedEntries) throws Exception {
+        Date now = new Date();
+        X509v2CRLBuilder builder = new X509v2CRLBuilder(X500Name.getInstance(issuer.getSubjectX500Principal().getEncoded()), now);
+        builder.setNextUpdate(new Date(now.getTime() + 7 * DAY));
+        for (int i = 0; i < revokedEntries; i++) {
+            builder.addCRLEntry(new BigInteger(64, rng), now, CRLReason.keyCompromise);
+        }
+        ContentSigner signer = new JcaContentSignerBuilder(SIG_ALGO).build(issuerKey.getPrivate());
+        return builder.build(signer).getEncoded();
+    }
+
+    private void cacheCrl(File crlDir, CrlCacheTable crlTable, String url, byte[] crlBytes) {
+        String hash = FnvHash.getFNV1a(url).toString(16);
+        FileOps.saveByteFileAtomic(crlBytes, new File(crlDir, hash + ".crl"));
+        DbCrlCache dbc = new DbCrlCache();
+        dbc.setHash(hash);
+        dbc.setUrl(url);
+        dbc.setNextUpdate(System.currentTimeMillis() + 7 * DAY);
+        crlTable.addOrReplaceRecord(dbc);
+    }
+
+    /**
+     * Creates a PDF document with the specified number of consecutive
+     * signatures, each added in its own incremental update.
+     *
+     * @param signatures the number of signatures
+     * @return the signed PDF
+     * @throws IOException on PDF processing errors
+     */
+    public byte[] createSignedPdf(int signatures) throws IOException {
+        PDDocument doc = new PDDocument();
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try {
+            doc.addPage(new PDPage());
+            doc.save(bos);
+        } finally {
+            doc.close();
+        }
+        byte[] pdf = bos.toByteArray();
+        for (int i = 0; i < signatures; i++) {
+            doc = PDDocument.load(pdf);
+            bos = new ByteArrayOutputStream();
+            try {
+                PDSignature signature = new PDSignature();
+                signature.setFilter(PDSignature.FILTER_ADOBE_PPKLITE);
+                signature.setSubFilter(PDSignature.SUBFILTER_ADBE_PKCS7_DETACHED);
+                signature.setName("Bench Signer");
+                signature.setReason("Benchmark signature " + (i + 1));
+                signature.setSignDate(Calendar.getInstance());
+                doc.addSignature(signature, new CmsSigner());
+                doc.saveIncremental(bos);
+            } finally {
+                doc.close();
+            }
+            pdf = bos.toByteArray();
+        }
+        return pdf;
+    }
+
+    /**
+     * Creates an XML document with an enveloped signature
+     *
+     * @param elements the number of data elements in the signed document
+     * @return the signed XML document
+     * @throws Exception on signing errors
+     */
+    public byte[] createSignedXml(int elements) throws Exception {
+        DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+        dbf.setNamespaceAware(true);
+        Document doc = dbf.newDocumentBuilder().newDocument();
+        Element root = doc.createElementNS("urn:tsltrust:bench", "bench:SignedData");
+        root.setAttributeNS("http://www.w3.org/2000/xmlns/", "xmlns:bench", "urn:tsltrust:bench");
+        doc.appendChild(root);
+        for (int i = 0; i < elements; i++) {
+            Element item = doc.createElementNS("urn:tsltrust:bench", "bench:Item");
+            item.setAttribute("index", String.valueOf(i));
+            item.setTextContent("Benchmark data element " + i);
+            root.appendChild(item);
+        }
+
+        XMLSignatureFactory fac = XMLSignatureFactory.getInstance("DOM");
+        Reference ref = fac.newReference("", fac.newDigestMethod(DigestMethod.SHA256, null),
+                Collections.singletonList(fac.newTransform(Transform.ENVELOPED, (TransformParameterSpec) null)), null, null);
+        SignedInfo signedInfo = fac.newSignedInfo(
+                fac.newCanonicalizationMethod(CanonicalizationMethod.EXCLUSIVE, (C14NMethodParameterSpec) null),
+                fac.newSignatureMethod(XML_RSA_SHA256, null), Collections.singletonList(ref));
+        KeyInfoFactory kif = fac.getKeyInfoFactory();
+        X509Data x509Data = kif.newX509Data(Arrays.asList(signerCert, caCert));
+        KeyInfo keyInfo = kif.newKeyInfo(Collections.singletonList(x509Data));
+        fac.newXMLSignature(signedInfo, keyInfo).sign(new DOMSignContext(signerKey.getPrivate(), root));
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        TransformerFactory.newInstance().newTransformer().transform(new DOMSource(doc), new StreamResult(bos));
+        return bos.toByteArray();
+    }
+
+    /**
+     * Creates a validation model for a signed document, configured the same
+     * way as the signature validation servlet configures its models.
+     *
+     * @param signedDoc the signed document
+     * @return validation model
+     */
+    public SigValidationModel createModel(byte[] signedDoc) {
+        SigValidationModel model = new SigValidationModel();
+        model.setBaseModel(baseModel);
+        SigDocument sigDoc = new SigDocument(signedDoc);
+        sigDoc.setDocName("bench");
+        model.setSigDocument(sigDoc);
+        model.setPolicyName(POLICY_NAME);
+        model.setPolicyDescription(baseModel.getTrustStore().getPolicyDescMap().get(POLICY_NAME));
+        model.setCheckOcspAndCrl(false);
+        model.setPrefSpeed(true);
+        return model;
+    }
+
+    /**
+     * Removes the fixture data directory
+     */
+    public void delete() {
+        deleteRecursive(dataDir);
+    }
+
+    private static void deleteRecursive(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursive(child);
+            }
+        }
+        file.delete();
+    }
+
+    public SigValidationBaseModel getBaseModel() {
+        return baseModel;
+    }
+
+    public X509Certificate getRootCert() {
+        return rootCert;
+    }
+
+    public PrivateKey getRootKey() {
+        return rootKey.getPrivate();
+    }
+
+    public PrivateKey getCaKey() {
+        return caKey.getPrivate();
+    }
+
+    public X509Certificate getCaCert() {
+        return caCert;
+    }
+
+    public X509Certificate getSignerCert() {
+        return signerCert;
+    }
+
+    public List<X509Certificate> getTrustedCaCerts() {
+        return trustedCaCerts;
+    }
+
+    public byte[] getCaCrl() {
+        return caCrl;
+    }
+
+    /**
+     * Produces detached CMS signatures over the PDF byte ranges
+     */
+    private class CmsSigner implements SignatureInterface {
+
+        @Override
+        public byte[] sign(InputStream content) throws IOException {
+            try {
+                PrivateKey key = signerKey.getPrivate();
+                CMSSignedDataGenerator gen = new CMSSignedDataGenerator();
+                ContentSigner signer = new JcaContentSignerBuilder(SIG_ALGO).build(key);
+                gen.addSignerInfoGenerator(new JcaSignerInfoGeneratorBuilder(
+                        new JcaDigestCalculatorProviderBuilder().build()).build(signer, signerCert));
+                gen.addCertificates(new JcaCertStore(Arrays.asList(signerCert, caCert)));
+                return gen.generate(new CMSProcessableByteArray(IOUtils.toByteArray(content)), false).getEncoded();
+            } catch (Exception ex) {
+                throw new IOException(ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2017 Swedish E-identification Board (E-legitimationsnämnden)
+ *  		 
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.tillvaxtverket.ttsigvalws.bench;
+
+import iaik.x509.X509Certificate;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import se.tillvaxtverket.tsltrust.common.iaik.KsCertFactory;
+import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.models.SigValidationModel;
+import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.sigVerify.CertChainVerifier;
+import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.sigVerify.context.CertVerifyContext;
+
+/**
+ * Measures certificate chain building and validation against trust stores
+ * of increasing size. The CA issuing the signer certificate is placed last
+ * in the policy trust store, and revocation status is served from the CRL
+ * cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CertChainBenchmark {
+
+    @Param({"10", "1000", "5000"})
+    public int trustedCaCount;
+    private BenchFixtures fixtures;
+    private List<X509Certificate> providedChain;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        fixtures = new BenchFixtures(Files.createTempDirectory("sigval-bench").toFile(), trustedCaCount, 0);
+        providedChain = new ArrayList<X509Certificate>();
+        providedChain.add(KsCertFactory.getIaikCert(fixtures.getSignerCert().getEncoded()));
+        providedChain.add(KsCertFactory.getIaikCert(fixtures.getCaCert().getEncoded()));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fixtures.delete();
+    }
+
+    /**
+     * Loads the policy trust store into a new chain verifier, as done for
+     * every validated signature, and validates the signer chain.
+     */
+    @Benchmark
+    public CertVerifyContext verifyChain() {
+        SigValidationModel model = fixtures.createModel(new byte[0]);
+        CertChainVerifier verifier = new CertChainVerifier(model);
+        verifier.setCheckAllRev(model.isCheckOcspAndCrl());
+        verifier.setPreferSpeed(model.isPrefSpeed());
+        return verifier.verifyChain(providedChain);
+    }
+}
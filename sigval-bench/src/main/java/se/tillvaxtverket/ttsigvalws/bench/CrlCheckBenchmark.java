@@ -0,0 +1,108 @@
+/*
+ * Copyright 2017 Swedish E-identification Board (E-legitimationsnämnden)
+ *  		 
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.tillvaxtverket.ttsigvalws.bench;
+
+import iaik.x509.X509Certificate;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import se.tillvaxtverket.tsltrust.common.iaik.KsCertFactory;
+import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.sigVerify.context.CertVerifyContext;
+import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.statusCheck.CRLChecker;
+
+/**
+ * Measures CRL based revocation checking against cached CRLs of increasing
+ * size. The signer certificate is not on the CRL, so every entry must be
+ * considered.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CrlCheckBenchmark {
+
+    @Param({"100", "10000", "100000"})
+    public int revokedEntries;
+    private BenchFixtures fixtures;
+    private CRLChecker crlChecker;
+    private List<X509Certificate> chain;
+    private List<String> crlKeys;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        fixtures = new BenchFixtures(Files.createTempDirectory("sigval-bench").toFile(), 1, revokedEntries);
+        crlChecker = fixtures.getBaseModel().getCrlCache();
+        chain = new ArrayList<X509Certificate>();
+        chain.add(KsCertFactory.getIaikCert(fixtures.getSignerCert().getEncoded()));
+        chain.add(KsCertFactory.getIaikCert(fixtures.getCaCert().getEncoded()));
+        CertVerifyContext cvCont = newContext();
+        crlChecker.derefCRL(cvCont);
+        crlKeys = cvCont.getCrlKeys();
+        if (crlKeys == null || crlKeys.isEmpty()) {
+            throw new IllegalStateException("Fixture CRL was not found in the CRL cache");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fixtures.delete();
+    }
+
+    private CertVerifyContext newContext() {
+        CertVerifyContext cvCont = new CertVerifyContext();
+        cvCont.setChain(chain);
+        return cvCont;
+    }
+
+    /**
+     * Cache lookup of the CRL distribution points of the signer certificate
+     * followed by the revocation check.
+     */
+    @Benchmark
+    public CertVerifyContext derefAndCheck() {
+        CertVerifyContext cvCont = newContext();
+        crlChecker.clearLog();
+        crlChecker.derefCRL(cvCont);
+        crlChecker.checkRevocation(cvCont);
+        return cvCont;
+    }
+
+    @Benchmark
+    public CertVerifyContext checkRevocation() {
+        CertVerifyContext cvCont = newContext();
+        cvCont.setCrlKeys(crlKeys);
+        crlChecker.clearLog();
+        crlChecker.checkRevocation(cvCont);
+        return cvCont;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2017 Swedish E-identification Board (E-legitimationsnämnden)
+ *  		 
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.tillvaxtverket.ttsigvalws.bench;
+
+import iaik.x509.X509Certificate;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import se.tillvaxtverket.tsltrust.common.iaik.KsCertFactory;
+import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.models.SigValidationModel;
+import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.sigVerify.CertChainVerifier;
+import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.sigVerify.context.CertVerifyContext;
+
+/**
+ * Measures certificate chain validation with revocation data fetched from a
+ * local {@link RevocationResponder}. CRLs are downloaded once and then served
+ * from the CRL cache, while OCSP is queried for every validation, so the
+ * responder latency and error rate parameters show up directly in the
+ * results.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OnlineRevocationBenchmark {
+
+    @Param({"0", "20"})
+    public long latencyMillis;
+    @Param({"0", "0.1"})
+    public double errorRate;
+    private RevocationResponder responder;
+    private BenchFixtures fixtures;
+    private List<X509Certificate> providedChain;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        responder = new RevocationResponder();
+        responder.setSeed(4711);
+        responder.setLatencyMillis(latencyMillis);
+        responder.setErrorRate(errorRate);
+        responder.setCrlPaddingEntries(10000);
+        responder.start();
+        fixtures = new BenchFixtures(Files.createTempDirectory("sigval-bench").toFile(), 10, 0, responder.getBaseUrl());
+        responder.addIssuer(BenchFixtures.ROOT_ISSUER, fixtures.getRootCert(), fixtures.getRootKey());
+        responder.addIssuer(BenchFixtures.CA_ISSUER, fixtures.getCaCert(), fixtures.getCaKey());
+        providedChain = new ArrayList<X509Certificate>();
+        providedChain.add(KsCertFactory.getIaikCert(fixtures.getSignerCert().getEncoded()));
+        providedChain.add(KsCertFactory.getIaikCert(fixtures.getCaCert().getEncoded()));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        responder.stop();
+        fixtures.delete();
+    }
+
+    @Benchmark
+    public CertVerifyContext verifyChain() {
+        SigValidationModel model = fixtures.createModel(new byte[0]);
+        CertChainVerifier verifier = new CertChainVerifier(model);
+        verifier.setCheckAllRev(model.isCheckOcspAndCrl());
+        verifier.setPreferSpeed(model.isPrefSpeed());
+        return verifier.verifyChain(providedChain);
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2017 Swedish E-identification Board (E-legitimationsnämnden)
+ *  		 
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.tillvaxtverket.ttsigvalws.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.document.SigDocument;
+import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.pdf.PdfSigVerifyResult;
+import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.pdf.PdfSignatureVerifier;
+
+/**
+ * Measures CMS signature verification of signed PDF documents, covering
+ * PDF parsing, extraction of the signed byte ranges and verification of
+ * each signature.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PdfVerifyBenchmark {
+
+    @Param({"1", "3"})
+    public int signatures;
+    private BenchFixtures fixtures;
+    private byte[] signedPdf;
+    private File pdfFile;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        fixtures = new BenchFixtures(Files.createTempDirectory("sigval-bench").toFile(), 1, 0);
+        signedPdf = fixtures.createSignedPdf(signatures);
+        pdfFile = File.createTempFile("sigval-bench", ".pdf");
+        Files.write(pdfFile.toPath(), signedPdf);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pdfFile.delete();
+        fixtures.delete();
+    }
+
+    @Benchmark
+    public PdfSigVerifyResult verifyBytes() throws IOException {
+        return PdfSignatureVerifier.verifyPdfSignatures(new SigDocument(signedPdf), true);
+    }
+
+    @Benchmark
+    public PdfSigVerifyResult verifyFile() throws IOException {
+        return PdfSignatureVerifier.verifyPdfSignatures(pdfFile, true);
+    }
+}
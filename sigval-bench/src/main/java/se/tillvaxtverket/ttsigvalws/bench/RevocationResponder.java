@@ -0,0 +1,638 @@
+/*
+ * Copyright 2017 Swedish E-identification Board (E-legitimationsnämnden)
+ *  		 
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.tillvaxtverket.ttsigvalws.bench;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.bouncycastle.asn1.ocsp.OCSPObjectIdentifiers;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.Extensions;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.X509v2CRLBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateHolder;
+import org.bouncycastle.cert.ocsp.BasicOCSPResp;
+import org.bouncycastle.cert.ocsp.BasicOCSPRespBuilder;
+import org.bouncycastle.cert.ocsp.CertificateID;
+import org.bouncycastle.cert.ocsp.CertificateStatus;
+import org.bouncycastle.cert.ocsp.OCSPReq;
+import org.bouncycastle.cert.ocsp.OCSPRespBuilder;
+import org.bouncycastle.cert.ocsp.Req;
+import org.bouncycastle.cert.ocsp.RespID;
+import org.bouncycastle.cert.ocsp.RevokedStatus;
+import org.bouncycastle.cert.ocsp.UnknownStatus;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.DigestCalculatorProvider;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+import org.bouncycastle.util.encoders.Base64;
+import org.bouncycastle.util.encoders.Hex;
+
+/**
+ * Embeddable local HTTP responder serving CRLs, OCSP responses and static
+ * resources for a synthetic CA hierarchy.
+ * <p>
+ * The responder makes it possible to exercise the revocation checking paths
+ * of the signature validation service, and the download paths of the TSL
+ * cache daemon, without network access. Response latency, injected error
+ * rates, CRL sizes and ETag/Last-Modified behaviour are configurable, and
+ * all randomness is drawn from a seeded generator so that runs are
+ * repeatable.</p>
+ * <p>
+ * Usage: configure the responder through its setters, call {@link #start()},
+ * use {@link #getBaseUrl()} when generating certificates, and register each
+ * issuing CA with {@link #addIssuer(String, X509Certificate, PrivateKey)}.
+ * The CRL of an issuer is served at {@link #getCrlUrl(String, String)} and
+ * OCSP requests for certificates issued by any registered issuer are
+ * answered at {@link #getOcspUrl(String)}, both as POST and as GET.</p>
+ */
+public class RevocationResponder {
+
+    private static final Logger LOG = Logger.getLogger(RevocationResponder.class.getName());
+    public static final String CRL_PATH = "crl/";
+    public static final String OCSP_PATH = "ocsp";
+    private static final String SIG_ALGO = "SHA256withRSA";
+    private static final String HTTP_DATE_FORMAT = "EEE, dd MMM yyyy HH:mm:ss zzz";
+    private final Map<String, Issuer> issuers = new ConcurrentHashMap<String, Issuer>();
+    private final Map<String, Published> resources = new ConcurrentHashMap<String, Published>();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong crlRequests = new AtomicLong();
+    private final AtomicLong ocspRequests = new AtomicLong();
+    private final AtomicLong notModified = new AtomicLong();
+    private final AtomicLong injectedErrors = new AtomicLong();
+    private Random random = new Random(0);
+    private int port = 0;
+    private int threads = 8;
+    private long latencyMillis = 0;
+    private long latencyJitterMillis = 0;
+    private double errorRate = 0;
+    private double ocspTryLaterRate = 0;
+    private int crlPaddingEntries = 0;
+    private long crlValidityMillis = 24L * 60 * 60 * 1000;
+    private long crlReissueMillis = 0;
+    private boolean etags = true;
+    private boolean lastModified = true;
+    private boolean includeResponderCert = true;
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * Starts the responder on the loopback interface
+     *
+     * @throws IOException if the server socket could not be bound
+     */
+    public synchronized void start() throws IOException {
+        if (server != null) {
+            return;
+        }
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/", new ResponderHandler());
+        executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "RevocationResponder-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        server.setExecutor(executor);
+        server.start();
+        LOG.info("Revocation responder started at " + getBaseUrl());
+    }
+
+    /**
+     * Stops the responder
+     */
+    public synchronized void stop() {
+        if (server == null) {
+            return;
+        }
+        server.stop(0);
+        executor.shutdownNow();
+        server = null;
+        executor = null;
+    }
+
+    /**
+     * @return the base URL of the running responder, ending with "/"
+     */
+    public String getBaseUrl() {
+        if (server == null) {
+            throw new IllegalStateException("Responder is not started");
+        }
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/";
+    }
+
+    /**
+     * Gets the URL where the CRL of a registered issuer is published
+     *
+     * @param baseUrl responder base URL
+     * @param issuerName the name under which the issuer is registered
+     * @return CRL URL
+     */
+    public static String getCrlUrl(String baseUrl, String issuerName) {
+        return baseUrl + CRL_PATH + issuerName + ".crl";
+    }
+
+    /**
+     * @param baseUrl responder base URL
+     * @return the OCSP responder URL
+     */
+    public static String getOcspUrl(String baseUrl) {
+        return baseUrl + OCSP_PATH;
+    }
+
+    /**
+     * Registers an issuing CA. The CA key signs both the CRL and the OCSP
+     * responses for certificates issued by the CA.
+     *
+     * @param name the name of the issuer, used in the CRL URL
+     * @param caCert the issuer certificate
+     * @param caKey the issuer private key
+     * @throws Exception if the issuer certificate cannot be processed
+     */
+    public void addIssuer(String name, X509Certificate caCert, PrivateKey caKey) throws Exception {
+        List<BigInteger> padding = new ArrayList<BigInteger>(crlPaddingEntries);
+        synchronized (this) {
+            for (int i = 0; i < crlPaddingEntries; i++) {
+                padding.add(new BigInteger(64, random));
+            }
+        }
+        issuers.put(name, new Issuer(caCert, caKey, padding));
+    }
+
+    /**
+     * Marks a certificate as revoked. The change is reflected in the next
+     * CRL issued and in all subsequent OCSP responses.
+     *
+     * @param issuerName the name of the registered issuer
+     * @param serial the serial number of the revoked certificate
+     */
+    public void revoke(String issuerName, BigInteger serial) {
+        Issuer issuer = issuers.get(issuerName);
+        if (issuer == null) {
+            throw new IllegalArgumentException("Unknown issuer: " + issuerName);
+        }
+        issuer.revoke(serial);
+    }
+
+    /**
+     * Publishes a static resource, such as a TSL, on the responder
+     *
+     * @param path resource path relative to the base URL
+     * @param data resource content
+     * @param contentType resource content type
+     */
+    public void addResource(String path, byte[] data, String contentType) {
+        resources.put(path, new Published(data, contentType, System.currentTimeMillis()));
+    }
+
+    /**
+     * Resets the request counters
+     */
+    public void resetCounters() {
+        requests.set(0);
+        crlRequests.set(0);
+        ocspRequests.set(0);
+        notModified.set(0);
+        injectedErrors.set(0);
+    }
+
+    private long nextLatency() {
+        if (latencyJitterMillis <= 0) {
+            return latencyMillis;
+        }
+        synchronized (this) {
+            return latencyMillis + (long) (random.nextDouble() * latencyJitterMillis);
+        }
+    }
+
+    private boolean nextHit(double rate) {
+        if (rate <= 0) {
+            return false;
+        }
+        synchronized (this) {
+            return random.nextDouble() < rate;
+        }
+    }
+
+    private static String formatHttpDate(long time) {
+        SimpleDateFormat sdf = new SimpleDateFormat(HTTP_DATE_FORMAT, Locale.US);
+        sdf.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return sdf.format(new Date(time));
+    }
+
+    private static long parseHttpDate(String date) {
+        try {
+            SimpleDateFormat sdf = new SimpleDateFormat(HTTP_DATE_FORMAT, Locale.US);
+            sdf.setTimeZone(TimeZone.getTimeZone("GMT"));
+            return sdf.parse(date).getTime();
+        } catch (Exception ex) {
+            return -1;
+        }
+    }
+
+    private static byte[] readAll(InputStream is) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int len;
+        while ((len = is.read(buffer)) != -1) {
+            bos.write(buffer, 0, len);
+        }
+        return bos.toByteArray();
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+        if (contentType != null) {
+            exchange.getResponseHeaders().set("Content-Type", contentType);
+        }
+        boolean head = "HEAD".equalsIgnoreCase(exchange.getRequestMethod());
+        if (body == null || head || status == 304) {
+            exchange.sendResponseHeaders(status, -1);
+        } else {
+            exchange.sendResponseHeaders(status, body.length);
+            OutputStream os = exchange.getResponseBody();
+            os.write(body);
+            os.flush();
+        }
+    }
+
+    private void sendPublished(HttpExchange exchange, Published published) throws IOException {
+        Headers reqHeaders = exchange.getRequestHeaders();
+        Headers respHeaders = exchange.getResponseHeaders();
+        boolean conditional = false;
+        boolean match = true;
+        if (etags) {
+            respHeaders.set("ETag", published.etag);
+            String ifNoneMatch = reqHeaders.getFirst("If-None-Match");
+            if (ifNoneMatch != null) {
+                conditional = true;
+                match = ifNoneMatch.trim().equals("*") || ifNoneMatch.contains(published.etag);
+            }
+        }
+        if (lastModified) {
+            respHeaders.set("Last-Modified", formatHttpDate(published.lastModified));
+            String ifModifiedSince = reqHeaders.getFirst("If-Modified-Since");
+            if (ifModifiedSince != null && !(etags && reqHeaders.containsKey("If-None-Match"))) {
+                long since = parseHttpDate(ifModifiedSince);
+                conditional = true;
+                match = since >= 0 && published.lastModified / 1000 <= since / 1000;
+            }
+        }
+        if (conditional && match) {
+            notModified.incrementAndGet();
+            send(exchange, 304, null, null);
+            return;
+        }
+        send(exchange, 200, published.contentType, published.data);
+    }
+
+    private void handleOcsp(HttpExchange exchange, String path) throws Exception {
+        ocspRequests.incrementAndGet();
+        byte[] reqBytes;
+        if ("POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+            reqBytes = readAll(exchange.getRequestBody());
+        } else {
+            String encoded = path.length() > OCSP_PATH.length() + 1 ? path.substring(OCSP_PATH.length() + 1) : "";
+            reqBytes = Base64.decode(URLDecoder.decode(encoded, "UTF-8"));
+        }
+        send(exchange, 200, "application/ocsp-response", createOcspResponse(reqBytes));
+    }
+
+    /**
+     * Creates a DER encoded OCSP response for a DER encoded OCSP request
+     *
+     * @param reqBytes OCSP request
+     * @return OCSP response
+     * @throws Exception on response building errors
+     */
+    public byte[] createOcspResponse(byte[] reqBytes) throws Exception {
+        OCSPRespBuilder respBuilder = new OCSPRespBuilder();
+        if (nextHit(ocspTryLaterRate)) {
+            return respBuilder.build(OCSPRespBuilder.TRY_LATER, null).getEncoded();
+        }
+        OCSPReq ocspReq;
+        Req[] reqList;
+        try {
+            ocspReq = new OCSPReq(reqBytes);
+            reqList = ocspReq.getRequestList();
+        } catch (Exception ex) {
+            return respBuilder.build(OCSPRespBuilder.MALFORMED_REQUEST, null).getEncoded();
+        }
+        if (reqList.length == 0) {
+            return respBuilder.build(OCSPRespBuilder.MALFORMED_REQUEST, null).getEncoded();
+        }
+        DigestCalculatorProvider digestProvider = new JcaDigestCalculatorProviderBuilder().build();
+        Issuer issuer = null;
+        for (Issuer candidate : issuers.values()) {
+            if (reqList[0].getCertID().matchesIssuer(candidate.holder, digestProvider)) {
+                issuer = candidate;
+                break;
+            }
+        }
+        if (issuer == null) {
+            return respBuilder.build(OCSPRespBuilder.UNAUTHORIZED, null).getEncoded();
+        }
+
+        Date now = new Date();
+        Date nextUpdate = new Date(now.getTime() + crlValidityMillis);
+        BasicOCSPRespBuilder basicBuilder = new BasicOCSPRespBuilder(new RespID(issuer.holder.getSubject()));
+        for (Req req : reqList) {
+            CertificateID certId = req.getCertID();
+            CertificateStatus status;
+            if (!certId.matchesIssuer(issuer.holder, digestProvider)) {
+                status = new UnknownStatus();
+            } else {
+                Date revocationTime = issuer.revoked.get(certId.getSerialNumber());
+                status = revocationTime == null ? CertificateStatus.GOOD : new RevokedStatus(revocationTime, CRLReason.keyCompromise);
+            }
+            basicBuilder.addResponse(certId, status, now, nextUpdate, null);
+        }
+        Extension nonce = ocspReq.getExtension(OCSPObjectIdentifiers.id_pkix_ocsp_nonce);
+        if (nonce != null) {
+            basicBuilder.setResponseExtensions(new Extensions(nonce));
+        }
+        ContentSigner signer = new JcaContentSignerBuilder(SIG_ALGO).build(issuer.key);
+        X509CertificateHolder[] chain = includeResponderCert ? new X509CertificateHolder[]{issuer.holder} : null;
+        BasicOCSPResp basicResp = basicBuilder.build(signer, chain, now);
+        return respBuilder.build(OCSPRespBuilder.SUCCESSFUL, basicResp).getEncoded();
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getCrlRequests() {
+        return crlRequests.get();
+    }
+
+    public long getOcspRequests() {
+        return ocspRequests.get();
+    }
+
+    public long getNotModified() {
+        return notModified.get();
+    }
+
+    public long getInjectedErrors() {
+        return injectedErrors.get();
+    }
+
+    /**
+     * @param port the port to bind, or 0 for an ephemeral port
+     */
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    /**
+     * @param threads the number of request handling threads
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * @param seed seed of the random generator driving latency jitter,
+     * injected errors and CRL padding serials
+     */
+    public synchronized void setSeed(long seed) {
+        this.random = new Random(seed);
+    }
+
+    /**
+     * @param latencyMillis fixed delay added to every response
+     */
+    public void setLatencyMillis(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    /**
+     * @param latencyJitterMillis upper bound of a random delay added on top
+     * of the fixed latency
+     */
+    public void setLatencyJitterMillis(long latencyJitterMillis) {
+        this.latencyJitterMillis = latencyJitterMillis;
+    }
+
+    /**
+     * @param errorRate the fraction of requests, 0 to 1, answered with HTTP
+     * status 500
+     */
+    public void setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+    }
+
+    /**
+     * @param ocspTryLaterRate the fraction of OCSP requests, 0 to 1, answered
+     * with a tryLater OCSP response status
+     */
+    public void setOcspTryLaterRate(double ocspTryLaterRate) {
+        this.ocspTryLaterRate = ocspTryLaterRate;
+    }
+
+    /**
+     * @param crlPaddingEntries the number of random revoked entries added to
+     * the CRL of issuers registered after this call, controlling CRL size
+     */
+    public void setCrlPaddingEntries(int crlPaddingEntries) {
+        this.crlPaddingEntries = crlPaddingEntries;
+    }
+
+    /**
+     * @param crlValidityMillis time from thisUpdate to nextUpdate in issued
+     * CRLs and OCSP responses
+     */
+    public void setCrlValidityMillis(long crlValidityMillis) {
+        this.crlValidityMillis = crlValidityMillis;
+    }
+
+    /**
+     * @param crlReissueMillis interval after which a new CRL, with a new
+     * ETag and Last-Modified time, is issued. 0 means that CRLs are only
+     * reissued when the revocation list changes.
+     */
+    public void setCrlReissueMillis(long crlReissueMillis) {
+        this.crlReissueMillis = crlReissueMillis;
+    }
+
+    /**
+     * @param etags true to send ETag headers and honour If-None-Match
+     */
+    public void setEtags(boolean etags) {
+        this.etags = etags;
+    }
+
+    /**
+     * @param lastModified true to send Last-Modified headers and honour
+     * If-Modified-Since
+     */
+    public void setLastModified(boolean lastModified) {
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * @param includeResponderCert true to include the signing certificate in
+     * OCSP responses
+     */
+    public void setIncludeResponderCert(boolean includeResponderCert) {
+        this.includeResponderCert = includeResponderCert;
+    }
+
+    /**
+     * A published response body with its validators
+     */
+    private static class Published {
+
+        final byte[] data;
+        final String contentType;
+        final long lastModified;
+        final String etag;
+
+        Published(byte[] data, String contentType, long lastModified) {
+            this.data = data;
+            this.contentType = contentType;
+            this.lastModified = lastModified;
+            String hash;
+            try {
+                hash = Hex.toHexString(MessageDigest.getInstance("SHA-256").digest(data)).substring(0, 32);
+            } catch (Exception ex) {
+                hash = Long.toHexString(lastModified);
+            }
+            this.etag = "\"" + hash + "\"";
+        }
+    }
+
+    /**
+     * A registered issuing CA, its revocation list and its current CRL
+     */
+    private class Issuer {
+
+        final X509CertificateHolder holder;
+        final PrivateKey key;
+        final List<BigInteger> padding;
+        final Map<BigInteger, Date> revoked = new ConcurrentHashMap<BigInteger, Date>();
+        private Published crl;
+
+        Issuer(X509Certificate cert, PrivateKey key, List<BigInteger> padding) throws Exception {
+            this.holder = new JcaX509CertificateHolder(cert);
+            this.key = key;
+            this.padding = padding;
+        }
+
+        synchronized void revoke(BigInteger serial) {
+            revoked.put(serial, new Date());
+            crl = null;
+        }
+
+        synchronized Published getCrl() throws Exception {
+            long now = System.currentTimeMillis();
+            if (crl != null && (crlReissueMillis <= 0 || now - crl.lastModified < crlReissueMillis)) {
+                return crl;
+            }
+            Date thisUpdate = new Date(now);
+            X509v2CRLBuilder builder = new X509v2CRLBuilder(holder.getSubject(), thisUpdate);
+            builder.setNextUpdate(new Date(now + crlValidityMillis));
+            for (BigInteger serial : padding) {
+                builder.addCRLEntry(serial, thisUpdate, CRLReason.keyCompromise);
+            }
+            for (Map.Entry<BigInteger, Date> entry : revoked.entrySet()) {
+                builder.addCRLEntry(entry.getKey(), entry.getValue(), CRLReason.keyCompromise);
+            }
+            byte[] crlBytes = builder.build(new JcaContentSignerBuilder(SIG_ALGO).build(key)).getEncoded();
+            crl = new Published(crlBytes, "application/pkix-crl", now);
+            return crl;
+        }
+    }
+
+    private class ResponderHandler implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            requests.incrementAndGet();
+            try {
+                long latency = nextLatency();
+                if (latency > 0) {
+                    TimeUnit.MILLISECONDS.sleep(latency);
+                }
+                if (nextHit(errorRate)) {
+                    injectedErrors.incrementAndGet();
+                    send(exchange, 500, "text/plain", "Injected error".getBytes("UTF-8"));
+                    return;
+                }
+                String path = exchange.getRequestURI().getRawPath().substring(1);
+                if (path.equals(OCSP_PATH) || path.startsWith(OCSP_PATH + "/")) {
+                    handleOcsp(exchange, path);
+                    return;
+                }
+                if (path.startsWith(CRL_PATH) && path.endsWith(".crl")) {
+                    Issuer issuer = issuers.get(path.substring(CRL_PATH.length(), path.length() - 4));
+                    if (issuer != null) {
+                        crlRequests.incrementAndGet();
+                        sendPublished(exchange, issuer.getCrl());
+                        return;
+                    }
+                }
+                Published resource = resources.get(path);
+                if (resource != null) {
+                    sendPublished(exchange, resource);
+                    return;
+                }
+                send(exchange, 404, "text/plain", "Not found".getBytes("UTF-8"));
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } catch (Exception ex) {
+                LOG.log(Level.WARNING, "Responder error", ex);
+                send(exchange, 500, "text/plain", "Internal error".getBytes("UTF-8"));
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+}
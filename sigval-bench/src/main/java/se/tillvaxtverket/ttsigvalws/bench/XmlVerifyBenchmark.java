@@ -0,0 +1,74 @@
+/*
+ * Copyright 2017 Swedish E-identification Board (E-legitimationsnämnden)
+ *  		 
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.tillvaxtverket.ttsigvalws.bench;
+
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.models.SigValidationModel;
+import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.sigVerify.XmlSigVerifier;
+import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.sigVerify.context.SignatureValidationContext;
+
+/**
+ * Measures XML signature validation through {@link XmlSigVerifier}, including
+ * signature verification, certificate chain validation and cached CRL
+ * checking of the signer certificate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class XmlVerifyBenchmark {
+
+    @Param({"10", "1000"})
+    public int elements;
+    private BenchFixtures fixtures;
+    private byte[] signedXml;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        fixtures = new BenchFixtures(Files.createTempDirectory("sigval-bench").toFile(), 1, 0);
+        signedXml = fixtures.createSignedXml(elements);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fixtures.delete();
+    }
+
+    @Benchmark
+    public List<SignatureValidationContext> verify() {
+        SigValidationModel model = fixtures.createModel(signedXml);
+        new XmlSigVerifier(model).run();
+        return model.getSignatureContexts();
+    }
+}
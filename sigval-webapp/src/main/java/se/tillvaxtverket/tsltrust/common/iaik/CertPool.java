@@ -0,0 +1,180 @@
+/*
+ * Copyright 2017 Swedish E-identification Board (E-legitimationsnämnden)
+ *  		 
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.tillvaxtverket.tsltrust.common.iaik;
+
+import iaik.x509.X509Certificate;
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateFactory;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Process wide, bounded pool of parsed certificates keyed by the SHA-256 hash
+ * of their DER encoding.
+ * <p>
+ * Each pooled certificate is parsed at most once into an IAIK and a JCA
+ * representation, and the same instances are handed out to every caller.
+ * Pooled certificate objects are shared and must not be modified.
+ */
+public final class CertPool {
+
+    /** Maximum number of certificates held by the pool */
+    public static final int MAX_SIZE = 4096;
+    private static final Map<ByteBuffer, Entry> pool = new LinkedHashMap<ByteBuffer, Entry>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Entry> eldest) {
+            return size() > MAX_SIZE;
+        }
+    };
+
+    private CertPool() {
+    }
+
+    /**
+     * Returns the pool entry for a DER encoded certificate, adding it to the
+     * pool if not present.
+     *
+     * @param certBytes DER encoded certificate
+     * @return pool entry
+     */
+    public static Entry get(byte[] certBytes) {
+        ByteBuffer key = ByteBuffer.wrap(sha256(certBytes));
+        synchronized (pool) {
+            Entry entry = pool.get(key);
+            // Compare the encoding as well so that a pooled certificate is never returned for different data
+            if (entry != null && Arrays.equals(entry.encoded, certBytes)) {
+                return entry;
+            }
+            entry = new Entry(certBytes.clone());
+            pool.put(key, entry);
+            return entry;
+        }
+    }
+
+    /**
+     * Returns the shared IAIK certificate object for a DER encoded certificate
+     *
+     * @param certBytes DER encoded certificate
+     * @return IAIK certificate, or null if the data can not be parsed
+     */
+    public static X509Certificate getIaikCert(byte[] certBytes) {
+        return certBytes == null ? null : get(certBytes).getIaikCert();
+    }
+
+    /**
+     * Returns the shared JCA certificate object for a DER encoded certificate
+     *
+     * @param certBytes DER encoded certificate
+     * @return JCA certificate, or null if the data can not be parsed
+     */
+    public static java.security.cert.X509Certificate getJcaCert(byte[] certBytes) {
+        return certBytes == null ? null : get(certBytes).getJcaCert();
+    }
+
+    /**
+     * @return the number of certificates currently held by the pool
+     */
+    public static int size() {
+        synchronized (pool) {
+            return pool.size();
+        }
+    }
+
+    public static void clear() {
+        synchronized (pool) {
+            pool.clear();
+        }
+    }
+
+    private static byte[] sha256(byte[] data) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(data);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * A pooled certificate holding its DER encoding and lazily created,
+     * memoized parsed representations
+     */
+    public static final class Entry {
+
+        private final byte[] encoded;
+        private volatile X509Certificate iaikCert;
+        private volatile java.security.cert.X509Certificate jcaCert;
+        private volatile boolean iaikFailed;
+        private volatile boolean jcaFailed;
+
+        private Entry(byte[] encoded) {
+            this.encoded = encoded;
+        }
+
+        /**
+         * @return a copy of the DER encoded certificate
+         */
+        public byte[] getEncoded() {
+            return encoded.clone();
+        }
+
+        /**
+         * @return the shared IAIK certificate, or null if the certificate can not be parsed
+         */
+        public X509Certificate getIaikCert() {
+            X509Certificate cert = iaikCert;
+            if (cert == null && !iaikFailed) {
+                synchronized (this) {
+                    if (iaikCert == null && !iaikFailed) {
+                        try {
+                            CertificateFactory cf = CertificateFactory.getInstance("X.509", "IAIK");
+                            iaikCert = (X509Certificate) cf.generateCertificate(new ByteArrayInputStream(encoded));
+                        } catch (Exception ex) {
+                            iaikFailed = true;
+                        }
+                    }
+                    cert = iaikCert;
+                }
+            }
+            return cert;
+        }
+
+        /**
+         * @return the shared JCA certificate, or null if the certificate can not be parsed
+         */
+        public java.security.cert.X509Certificate getJcaCert() {
+            java.security.cert.X509Certificate cert = jcaCert;
+            if (cert == null && !jcaFailed) {
+                synchronized (this) {
+                    if (jcaCert == null && !jcaFailed) {
+                        try {
+                            CertificateFactory cf = CertificateFactory.getInstance("X.509");
+                            jcaCert = (java.security.cert.X509Certificate) cf.generateCertificate(new ByteArrayInputStream(encoded));
+                        } catch (Exception ex) {
+                            jcaFailed = true;
+                        }
+                    }
+                    cert = jcaCert;
+                }
+            }
+            return cert;
+        }
+    }
+}
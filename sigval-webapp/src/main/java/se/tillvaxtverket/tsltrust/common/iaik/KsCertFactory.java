@@ -21,54 +21,42 @@ import java.io.ByteArrayInputStream;
 import java.security.cert.CRL;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateEncodingException;
-import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.util.ArrayList;
 import java.util.List;
 
 /**
- * Certificate factory functions used to generate X.509 certificate objects
+ * Certificate factory functions used to generate X.509 certificate objects.
+ * Certificates are obtained through the {@link CertPool}, so the returned
+ * objects are shared and must not be modified.
  */
 public class KsCertFactory {
 
     public static Certificate getCertificate(iaik.x509.X509Certificate iaikCert) {
         try {
-            CertificateFactory cf = CertificateFactory.getInstance("X.509");
-            Certificate cert = cf.generateCertificate(new ByteArrayInputStream(iaikCert.getEncoded()));
-            return cert;
-        } catch (CertificateException ex) {
+            return CertPool.getJcaCert(iaikCert.getEncoded());
+        } catch (CertificateEncodingException ex) {
         }
         return null;
     }
 
     public static Certificate getCertificate(byte[] certBytes) {
-        try {
-            CertificateFactory cf = CertificateFactory.getInstance("X.509");
-            Certificate cert = cf.generateCertificate(new ByteArrayInputStream(certBytes));
-            return cert;
-        } catch (CertificateException ex) {
-        }
-        return null;
+        return CertPool.getJcaCert(certBytes);
     }
 
     public static X509Certificate getIaikCert(java.security.cert.Certificate inCert) {
+        if (inCert instanceof X509Certificate) {
+            return (X509Certificate) inCert;
+        }
         try {
-            CertificateFactory cf = CertificateFactory.getInstance("X.509", "IAIK");
-            X509Certificate iaikCert = (iaik.x509.X509Certificate) cf.generateCertificate(new ByteArrayInputStream(inCert.getEncoded()));
-            return iaikCert;
+            return CertPool.getIaikCert(inCert.getEncoded());
         } catch (Exception ex) {
         }
         return null;
     }
 
     public static iaik.x509.X509Certificate getIaikCert(byte[] certBytes) {
-        try {
-            CertificateFactory cf = CertificateFactory.getInstance("X.509", "IAIK");
-            X509Certificate iaikCert = (iaik.x509.X509Certificate) cf.generateCertificate(new ByteArrayInputStream(certBytes));
-            return iaikCert;
-        } catch (Exception ex) {
-        }
-        return null;
+        return CertPool.getIaikCert(certBytes);
     }
 
     public static java.security.cert.X509Certificate getX509Cert(byte[] certData) {
@@ -0,0 +1,467 @@
+/*
+ * Copyright 2017 Swedish E-identification Board (E-legitimationsnämnden)
+ *  		 
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.tillvaxtverket.ttsigvalws.cli;
+
+import iaik.x509.ocsp.net.OCSPContentHandlerFactory;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.nio.charset.Charset;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.Security;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import se.tillvaxtverket.tsltrust.common.utils.general.FileOps;
+import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.config.ConfigData;
+import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.document.DocType;
+import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.document.SigDocument;
+import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.marshaller.SignatureValidationReport;
+import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.models.SigValidationBaseModel;
+import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.models.SigValidationModel;
+import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.sigVerify.SigVerifier;
+import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.sigVerify.SigVerifierFactory;
+import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.sigVerify.context.CertVerifyContext;
+import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.sigVerify.context.SignatureValidationContext;
+
+/**
+ * Offline command line bulk validator.
+ * <p>
+ * Validates every document in a directory tree, or in a list file, against
+ * one validation policy using the same data directory, trust store, CRL
+ * cache and report generator as the signature validation service. Documents
+ * are validated by a pool of worker threads. For each document a line is
+ * written to a CSV or JSON lines summary, and optionally the full XML
+ * validation report is written to an output directory. Completed documents
+ * are recorded in a progress journal so that an interrupted run can be
+ * resumed by running the same command again.</p>
+ * <pre>
+ * java -cp &lt;classpath&gt; se.tillvaxtverket.ttsigvalws.cli.BulkValidator
+ *      -data &lt;data directory&gt; (-in &lt;directory&gt; | -list &lt;file&gt;)
+ *      [-policy &lt;name&gt;] [-out &lt;report directory&gt;]
+ *      [-summary &lt;file&gt;] [-format csv|jsonl] [-threads &lt;n&gt;]
+ *      [-journal &lt;file&gt;]
+ * </pre>
+ */
+public class BulkValidator {
+
+    private static final Logger LOG = Logger.getLogger(BulkValidator.class.getName());
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private final SigValidationBaseModel baseModel;
+    private final String policyName;
+    private final String policyDescription;
+    private final File reportDir;
+    private final boolean jsonLines;
+    private final int threads;
+    private Writer summary;
+    private ValidationJournal journal;
+    private File inputRoot;
+    private ThreadPoolExecutor executor;
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong[] statusCount = new AtomicLong[ValidationResult.Status.values().length];
+
+    /**
+     * Constructor
+     *
+     * @param baseModel base model holding trust store and CRL cache
+     * @param policyName the validation policy to validate against
+     * @param reportDir directory for XML reports, or null to skip reports
+     * @param jsonLines true to write the summary as JSON lines, false for CSV
+     * @param threads number of worker threads
+     */
+    public BulkValidator(SigValidationBaseModel baseModel, String policyName, File reportDir, boolean jsonLines, int threads) {
+        this.baseModel = baseModel;
+        this.policyName = policyName;
+        this.policyDescription = baseModel.getTrustStore().getPolicyDescMap().get(policyName);
+        this.reportDir = reportDir;
+        this.jsonLines = jsonLines;
+        this.threads = Math.max(1, threads);
+        for (int i = 0; i < statusCount.length; i++) {
+            statusCount[i] = new AtomicLong();
+        }
+    }
+
+    public static void main(String[] args) {
+        String dataDir = null, policy = null, inDir = null, listFile = null, outDir = null;
+        String summaryFile = null, format = "csv", journalFile = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (arg.equals("-h") || arg.equals("-help")) {
+                    usage(System.out);
+                    return;
+                }
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Missing value for " + arg);
+                }
+                String value = args[++i];
+                if (arg.equals("-data")) {
+                    dataDir = value;
+                } else if (arg.equals("-policy")) {
+                    policy = value;
+                } else if (arg.equals("-in")) {
+                    inDir = value;
+                } else if (arg.equals("-list")) {
+                    listFile = value;
+                } else if (arg.equals("-out")) {
+                    outDir = value;
+                } else if (arg.equals("-summary")) {
+                    summaryFile = value;
+                } else if (arg.equals("-format")) {
+                    format = value;
+                } else if (arg.equals("-threads")) {
+                    threads = Integer.parseInt(value);
+                } else if (arg.equals("-journal")) {
+                    journalFile = value;
+                } else {
+                    throw new IllegalArgumentException("Unknown option " + arg);
+                }
+            }
+            if (dataDir == null || (inDir == null) == (listFile == null)) {
+                throw new IllegalArgumentException("A data directory and one of -in or -list must be given");
+            }
+            if (!format.equals("csv") && !format.equals("jsonl")) {
+                throw new IllegalArgumentException("Unknown format " + format);
+            }
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            usage(System.err);
+            System.exit(2);
+            return;
+        }
+
+        initProviders();
+        ConfigData conf = new ConfigData(dataDir);
+        SigValidationBaseModel baseModel = new SigValidationBaseModel(conf);
+        Locale.setDefault(new Locale(conf.getLanguageCode()));
+        List<String> policies = baseModel.getTrustStore().getRootNames();
+        if (!baseModel.getTrustStore().isInitialized() || policies == null || policies.isEmpty()) {
+            System.err.println("No validation policies found in " + dataDir);
+            System.exit(1);
+            return;
+        }
+        if (policy == null) {
+            policy = policies.get(0);
+        } else if (!policies.contains(policy)) {
+            System.err.println("Unknown validation policy " + policy + ". Available policies: " + policies);
+            System.exit(1);
+            return;
+        }
+        if (journalFile == null && summaryFile != null) {
+            journalFile = summaryFile + ".journal";
+        }
+
+        BulkValidator validator = new BulkValidator(baseModel, policy, outDir == null ? null : new File(outDir),
+                format.equals("jsonl"), threads);
+        try {
+            validator.open(summaryFile == null ? null : new File(summaryFile), journalFile == null ? null : new File(journalFile));
+            if (inDir != null) {
+                validator.validateTree(new File(inDir));
+            } else {
+                validator.validateList(new File(listFile));
+            }
+            validator.close();
+            System.err.println(validator.getStatistics());
+        } catch (Exception ex) {
+            LOG.log(Level.SEVERE, "Bulk validation failed", ex);
+            System.exit(1);
+        }
+    }
+
+    private static void usage(PrintStream out) {
+        out.println("Usage: BulkValidator -data <data directory> (-in <directory> | -list <file>)");
+        out.println("         [-policy <name>] [-out <report directory>] [-summary <file>]");
+        out.println("         [-format csv|jsonl] [-threads <n>] [-journal <file>]");
+        out.println("  -data     the data directory of the signature validation service");
+        out.println("  -in       validate all documents in this directory tree");
+        out.println("  -list     validate the documents listed in this file, one path per line");
+        out.println("  -policy   validation policy, default is the first available policy");
+        out.println("  -out      write XML validation reports to this directory");
+        out.println("  -summary  summary file, default is standard output");
+        out.println("  -format   summary format, csv (default) or jsonl");
+        out.println("  -threads  number of worker threads, default is the number of processors");
+        out.println("  -journal  progress journal used to resume an interrupted run,");
+        out.println("            default is the summary file name with the suffix .journal");
+    }
+
+    /**
+     * Installs the security providers and URL content handlers in the same
+     * way as the signature validation servlet
+     */
+    private static void initProviders() {
+        Security.removeProvider("BC");
+        Security.insertProviderAt(new BouncyCastleProvider(), 1);
+        try {
+            HttpURLConnection.setContentHandlerFactory(new OCSPContentHandlerFactory());
+        } catch (Error ex) {
+            LOG.warning("Error when setting URL content handler factory");
+        }
+    }
+
+    /**
+     * Opens the summary output and the progress journal
+     *
+     * @param summaryFile summary file, or null to write to standard output
+     * @param journalFile journal file, or null to run without resume support
+     * @throws IOException on file errors
+     */
+    public void open(File summaryFile, File journalFile) throws IOException {
+        if (journalFile != null) {
+            journal = new ValidationJournal(journalFile);
+            if (journal.getCompletedCount() > 0) {
+                LOG.info("Resuming run, skipping " + journal.getCompletedCount() + " completed documents");
+            }
+        }
+        boolean newSummary = summaryFile == null || summaryFile.length() == 0;
+        summary = new BufferedWriter(new OutputStreamWriter(summaryFile == null
+                ? System.out : new FileOutputStream(summaryFile, true), UTF8));
+        if (newSummary && !jsonLines) {
+            writeSummaryLine(ValidationResult.CSV_HEADER);
+        }
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(threads * 4), new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * Waits for all submitted documents to complete and closes the output
+     *
+     * @throws IOException on file errors
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void close() throws IOException, InterruptedException {
+        executor.shutdown();
+        while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+            LOG.info("Waiting for validation of " + (submitted.get() - executor.getCompletedTaskCount()) + " documents");
+        }
+        summary.flush();
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    /**
+     * Submits all regular, non hidden files of a directory tree for
+     * validation
+     *
+     * @param root root directory
+     * @throws IOException on directory traversal errors
+     */
+    public void validateTree(File root) throws IOException {
+        inputRoot = root.getAbsoluteFile();
+        Files.walkFileTree(inputRoot.toPath(), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if (!dir.equals(inputRoot.toPath()) && dir.getFileName().toString().startsWith(".")) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile() && !file.getFileName().toString().startsWith(".")) {
+                    submit(file.toFile());
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                LOG.warning("Unable to read " + file + ": " + exc.getMessage());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Submits all files in a list file for validation. Empty lines and lines
+     * starting with # are ignored.
+     *
+     * @param listFile file holding one document path per line
+     * @throws IOException on file errors
+     */
+    public void validateList(File listFile) throws IOException {
+        inputRoot = null;
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(listFile), UTF8));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.length() > 0 && !line.startsWith("#")) {
+                    submit(new File(line));
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void submit(final File docFile) {
+        final String docPath = docFile.getAbsolutePath();
+        if (journal != null && journal.isCompleted(docPath)) {
+            skipped.incrementAndGet();
+            return;
+        }
+        submitted.incrementAndGet();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                ValidationResult result = validate(docFile);
+                statusCount[result.getStatus().ordinal()].incrementAndGet();
+                try {
+                    writeSummaryLine(jsonLines ? result.toJson() : result.toCsv());
+                    if (journal != null) {
+                        journal.markCompleted(docPath);
+                    }
+                } catch (IOException ex) {
+                    LOG.log(Level.SEVERE, "Unable to record result for " + docPath, ex);
+                }
+            }
+        });
+    }
+
+    private synchronized void writeSummaryLine(String line) throws IOException {
+        summary.write(line);
+        summary.write('\n');
+        if (journal != null) {
+            // The result must be on disk before the document is journaled as completed
+            summary.flush();
+        }
+    }
+
+    /**
+     * Validates one document
+     *
+     * @param docFile the document file
+     * @return validation result summary
+     */
+    ValidationResult validate(File docFile) {
+        ValidationResult result = new ValidationResult(docFile.getAbsolutePath());
+        long start = System.currentTimeMillis();
+        try {
+            SigValidationModel model = new SigValidationModel();
+            model.setBaseModel(baseModel);
+            SigDocument sigDoc = new SigDocument(docFile);
+            sigDoc.setDocName(docFile.getName());
+            model.setSigDocument(sigDoc);
+            model.setPolicyName(policyName);
+            model.setPolicyDescription(policyDescription);
+            model.setCheckOcspAndCrl(false);
+            model.setPrefSpeed(true);
+            DocType docType = sigDoc.getDocType();
+            result.setDocType(docType == null ? "" : docType.name());
+
+            SigVerifier verifier = SigVerifierFactory.getSigVerifier(model);
+            if (verifier == null) {
+                result.setStatus(ValidationResult.Status.UNSUPPORTED);
+                return result;
+            }
+            verifier.run();
+            if (!model.isSignVerificationComplete()) {
+                result.setStatus(ValidationResult.Status.ERROR);
+                result.setMessage("Signature verification did not complete");
+                return result;
+            }
+            summarize(model, result);
+            if (reportDir != null) {
+                String report = new SignatureValidationReport(model).generateReport();
+                File reportFile = getReportFile(docFile);
+                if (!FileOps.saveTxtFileAtomic(reportFile, report)) {
+                    result.setMessage("Unable to write report " + reportFile.getAbsolutePath());
+                }
+            }
+        } catch (Exception ex) {
+            result.setStatus(ValidationResult.Status.ERROR);
+            result.setMessage(ex.toString());
+        } finally {
+            result.setMillis(System.currentTimeMillis() - start);
+        }
+        return result;
+    }
+
+    private static void summarize(SigValidationModel model, ValidationResult result) {
+        List<SignatureValidationContext> svcList = model.getSignatureContexts();
+        if (svcList == null || svcList.isEmpty()) {
+            result.setStatus(ValidationResult.Status.UNSIGNED);
+            return;
+        }
+        int valid = 0;
+        for (SignatureValidationContext sc : svcList) {
+            CertVerifyContext cc = sc.getSignCertValidation();
+            boolean revoked = cc != null && cc.isRevoked();
+            if (sc.isSigChainVerified() && sc.isDigestValid() && sc.isSigValid() && !revoked) {
+                valid++;
+            }
+        }
+        result.setSignatures(svcList.size());
+        result.setValidSignatures(valid);
+        result.setStatus(valid == svcList.size() ? ValidationResult.Status.VALID : ValidationResult.Status.INVALID);
+    }
+
+    /**
+     * The report of a document is stored at the document path relative to the
+     * input directory, or at its absolute path for list input, under the
+     * report directory with the suffix .xml added.
+     */
+    private File getReportFile(File docFile) {
+        String relPath;
+        if (inputRoot != null) {
+            relPath = inputRoot.toPath().relativize(docFile.getAbsoluteFile().toPath()).toString();
+        } else {
+            relPath = docFile.getAbsolutePath().replace(':', '_');
+            while (relPath.startsWith(File.separator)) {
+                relPath = relPath.substring(1);
+            }
+        }
+        return new File(reportDir, relPath + ".xml");
+    }
+
+    /**
+     * @return a one line summary of the run
+     */
+    public String getStatistics() {
+        StringBuilder b = new StringBuilder();
+        b.append("Validated ").append(submitted.get()).append(" documents");
+        if (skipped.get() > 0) {
+            b.append(", skipped ").append(skipped.get()).append(" completed in a previous run");
+        }
+        for (ValidationResult.Status status : ValidationResult.Status.values()) {
+            b.append(", ").append(status.name()).append('=').append(statusCount[status.ordinal()].get());
+        }
+        return b.toString();
+    }
+}
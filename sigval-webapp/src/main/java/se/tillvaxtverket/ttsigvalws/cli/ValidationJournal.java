@@ -0,0 +1,101 @@
+/*
+ * Copyright 2017 Swedish E-identification Board (E-legitimationsnämnden)
+ *  		 
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.tillvaxtverket.ttsigvalws.cli;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Append only progress journal for bulk validation runs.
+ * <p>
+ * Each completed document is recorded on its own line after its result has
+ * been written, so that a run interrupted by a crash can be resumed by
+ * skipping every document listed in the journal. A document can at most be
+ * validated twice, if the crash happens between writing its result and
+ * recording it in the journal.</p>
+ */
+public class ValidationJournal {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private final Set<String> completed = new HashSet<String>();
+    private final Writer writer;
+
+    /**
+     * Opens a journal, loading the entries of any previous run
+     *
+     * @param journalFile the journal file
+     * @throws IOException if the journal can not be read or opened for writing
+     */
+    public ValidationJournal(File journalFile) throws IOException {
+        if (journalFile.canRead()) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(journalFile), UTF8));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    // A partially written last line is left out, and the document validated again
+                    if (line.endsWith("\t")) {
+                        completed.add(line.substring(0, line.length() - 1));
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(journalFile, true), UTF8));
+    }
+
+    /**
+     * @param docPath the path of a document
+     * @return true if the document was completed in a previous run
+     */
+    public boolean isCompleted(String docPath) {
+        return completed.contains(docPath);
+    }
+
+    /**
+     * @return the number of documents completed in previous runs
+     */
+    public int getCompletedCount() {
+        return completed.size();
+    }
+
+    /**
+     * Records a document as completed
+     *
+     * @param docPath the path of the completed document
+     * @throws IOException on write errors
+     */
+    public synchronized void markCompleted(String docPath) throws IOException {
+        writer.write(docPath);
+        writer.write("\t\n");
+        writer.flush();
+    }
+
+    public synchronized void close() throws IOException {
+        writer.close();
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2017 Swedish E-identification Board (E-legitimationsnämnden)
+ *  		 
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.tillvaxtverket.ttsigvalws.cli;
+
+import com.google.gson.Gson;
+
+/**
+ * Summary of the validation of one document, written as one line of the
+ * bulk validation summary in CSV or JSON lines format
+ */
+public class ValidationResult {
+
+    /**
+     * Overall outcome of a document validation
+     */
+    public enum Status {
+
+        /** All signatures are valid */
+        VALID,
+        /** At least one signature is invalid */
+        INVALID,
+        /** The document holds no signatures */
+        UNSIGNED,
+        /** The document type is not supported */
+        UNSUPPORTED,
+        /** Validation could not be completed */
+        ERROR;
+    }
+    public static final String CSV_HEADER = "file,docType,status,signatures,validSignatures,millis,message";
+    private static final Gson gson = new Gson();
+    private final String file;
+    private String docType = "";
+    private Status status = Status.ERROR;
+    private int signatures;
+    private int validSignatures;
+    private long millis;
+    private String message = "";
+
+    public ValidationResult(String file) {
+        this.file = file;
+    }
+
+    public String toCsv() {
+        StringBuilder b = new StringBuilder();
+        b.append(csvField(file)).append(',');
+        b.append(docType).append(',');
+        b.append(status.name()).append(',');
+        b.append(signatures).append(',');
+        b.append(validSignatures).append(',');
+        b.append(millis).append(',');
+        b.append(csvField(message));
+        return b.toString();
+    }
+
+    public String toJson() {
+        return gson.toJson(this);
+    }
+
+    private static String csvField(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+
+    public String getFile() {
+        return file;
+    }
+
+    public String getDocType() {
+        return docType;
+    }
+
+    public void setDocType(String docType) {
+        this.docType = docType;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public void setStatus(Status status) {
+        this.status = status;
+    }
+
+    public int getSignatures() {
+        return signatures;
+    }
+
+    public void setSignatures(int signatures) {
+        this.signatures = signatures;
+    }
+
+    public int getValidSignatures() {
+        return validSignatures;
+    }
+
+    public void setValidSignatures(int validSignatures) {
+        this.validSignatures = validSignatures;
+    }
+
+    public long getMillis() {
+        return millis;
+    }
+
+    public void setMillis(long millis) {
+        this.millis = millis;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message == null ? "" : message;
+    }
+}
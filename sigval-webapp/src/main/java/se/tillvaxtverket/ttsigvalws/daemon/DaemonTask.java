@@ -31,6 +31,7 @@ import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import org.apache.commons.io.FileUtils;
 import se.tillvaxtverket.tsltrust.common.iaik.KsCertFactory;
 import se.tillvaxtverket.tsltrust.common.utils.core.DbCrlCache;
 import se.tillvaxtverket.tsltrust.common.utils.core.DerefUrl;
@@ -38,6 +39,7 @@ import se.tillvaxtverket.tsltrust.common.utils.general.FileOps;
 import se.tillvaxtverket.tsltrust.common.utils.general.GeneralStaticUtils;
 import se.tillvaxtverket.tsltrust.common.utils.general.RootInfo;
 import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.db.CrlCacheTable;
+import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.sigVerify.TrustSnapshot;
 
 /**
  * This class provides the functions performed by the servlet daemon
@@ -114,6 +116,9 @@ public class DaemonTask extends ServletDaemon {
         try {
             cacheCApkcs7Files();
             log("CA certificates re-cached");
+            if (TrustSnapshot.update(new File(trustCacheDirName))) {
+                log("Trust snapshot updated");
+            }
         } catch (Exception ex) {
             log(ex.getLocalizedMessage(), true, true);
         }
@@ -159,10 +164,21 @@ public class DaemonTask extends ServletDaemon {
             AccessDescription accessDesc = sia.getAccessDescription(ObjectID.caRepository);
             String pkcs7Url = accessDesc.getUriAccessLocation();
 
-            //Get referenced pkcs7 file;
+            //Get referenced pkcs7 file, unless the published digest shows that the cached file is current
             String fileName = pkcs7Url.substring(pkcs7Url.lastIndexOf("/") + 1);
             File pkcs7File = new File(trustCacheDirName, fileName);
-            DerefUrl.downloadFile(new URL(pkcs7Url), pkcs7File);
+            File digestFile = new File(trustCacheDirName, fileName + ".sha256");
+            String certDigest = rootInfo.getCertDigestMap().get(name);
+            if (certDigest != null && pkcs7File.canRead() && digestFile.canRead()
+                    && certDigest.equals(FileOps.readTextFile(digestFile).trim())) {
+                log("Certificates of policy " + name + " unchanged");
+                continue;
+            }
+            if (DerefUrl.downloadFile(new URL(pkcs7Url), pkcs7File) && certDigest != null) {
+                FileOps.saveTxtFileAtomic(digestFile, certDigest);
+            } else {
+                FileUtils.deleteQuietly(digestFile);
+            }
         }
     }
 
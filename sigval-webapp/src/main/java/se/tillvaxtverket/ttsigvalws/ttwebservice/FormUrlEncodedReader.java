@@ -0,0 +1,262 @@
+/*
+ * Copyright 2017 Swedish E-identification Board (E-legitimationsnämnden)
+ *  		 
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.tillvaxtverket.ttsigvalws.ttwebservice;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Streaming reader for application/x-www-form-urlencoded request bodies.
+ * <p>
+ * The value of one designated field holding a Base64 encoded document is URL
+ * decoded and Base64 decoded while it is read, and written directly to an
+ * {@link UploadedDocument}. All other fields are expected to be short and are
+ * returned as strings.</p>
+ */
+final class FormUrlEncodedReader {
+
+    /** Maximum length of field names and of values other than the document field */
+    static final int MAX_FIELD_LENGTH = 64 * 1024;
+    private static final String UTF8 = "UTF-8";
+
+    private FormUrlEncodedReader() {
+    }
+
+    /**
+     * Reads a form body
+     *
+     * @param body the request body
+     * @param documentField name of the field holding the Base64 encoded document
+     * @param document target for the decoded document
+     * @return the other form fields
+     * @throws IOException on read errors, invalid Base64 data or if the upload
+     * is rejected
+     */
+    static Map<String, String> read(InputStream body, String documentField, UploadedDocument document) throws IOException {
+        Map<String, String> fields = new HashMap<String, String>();
+        InputStream in = new BufferedInputStream(body);
+        while (true) {
+            FieldInputStream nameStream = new FieldInputStream(in, true);
+            String name = readString(nameStream);
+            if (nameStream.isEndOfBody() && name.length() == 0) {
+                break;
+            }
+            if (nameStream.getDelimiter() != '=') {
+                fields.put(name, "");
+            } else {
+                FieldInputStream valueStream = new FieldInputStream(in, false);
+                if (name.equals(documentField)) {
+                    document.write(decodeBase64(valueStream));
+                    valueStream.drain();
+                } else {
+                    fields.put(name, readString(valueStream));
+                }
+                if (valueStream.isEndOfBody()) {
+                    break;
+                }
+            }
+            if (nameStream.isEndOfBody()) {
+                break;
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * Reads a short field into a string
+     *
+     * @param in stream holding the field value
+     * @return the field value as an UTF-8 string
+     * @throws UploadRejectedException if the field exceeds MAX_FIELD_LENGTH
+     */
+    static String readString(InputStream in) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buf = new byte[1024];
+        int len;
+        while ((len = in.read(buf)) != -1) {
+            if (bos.size() + len > MAX_FIELD_LENGTH) {
+                throw new UploadRejectedException(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, "Form field too long");
+            }
+            bos.write(buf, 0, len);
+        }
+        return bos.toString(UTF8);
+    }
+
+    /**
+     * Returns a strict Base64 decoding stream. Invalid Base64 data, including
+     * line breaks and blanks, is reported as an {@link UploadRejectedException}
+     * with status 400, while read errors of the encoded stream are passed on
+     * unchanged.
+     *
+     * @param encoded stream holding Base64 encoded data
+     * @return stream providing the decoded data
+     */
+    static InputStream decodeBase64(InputStream encoded) {
+        return new Base64DecodingStream(new SourceStream(encoded));
+    }
+
+    /**
+     * Stream recording whether reading the encoded data failed
+     */
+    private static final class SourceStream extends FilterInputStream {
+
+        private boolean failed;
+
+        SourceStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                return super.read();
+            } catch (IOException ex) {
+                failed = true;
+                throw ex;
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            try {
+                return super.read(b, off, len);
+            } catch (IOException ex) {
+                failed = true;
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * Decoding stream turning decoder errors into rejected uploads
+     */
+    private static final class Base64DecodingStream extends FilterInputStream {
+
+        private final SourceStream source;
+
+        Base64DecodingStream(SourceStream source) {
+            super(Base64.getDecoder().wrap(source));
+            this.source = source;
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                return super.read();
+            } catch (IOException ex) {
+                throw checkDecodingError(ex);
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            try {
+                return super.read(b, off, len);
+            } catch (IOException ex) {
+                throw checkDecodingError(ex);
+            }
+        }
+
+        private IOException checkDecodingError(IOException ex) {
+            if (ex instanceof UploadRejectedException || source.failed) {
+                return ex;
+            }
+            return new UploadRejectedException(HttpServletResponse.SC_BAD_REQUEST, "Invalid Base64 data");
+        }
+    }
+
+    /**
+     * URL decoding stream over one field name or value, ending at the field
+     * delimiter or at the end of the body
+     */
+    private static final class FieldInputStream extends InputStream {
+
+        private final InputStream in;
+        private final boolean name;
+        private int delimiter = 0;
+        private boolean endOfBody;
+
+        FieldInputStream(InputStream in, boolean name) {
+            this.in = in;
+            this.name = name;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (delimiter != 0 || endOfBody) {
+                return -1;
+            }
+            int b = in.read();
+            if (b == -1) {
+                endOfBody = true;
+                return -1;
+            }
+            if (b == '&' || (name && b == '=')) {
+                delimiter = b;
+                return -1;
+            }
+            if (b == '+') {
+                return ' ';
+            }
+            if (b == '%') {
+                int hi = Character.digit(in.read(), 16);
+                int lo = Character.digit(in.read(), 16);
+                if (hi < 0 || lo < 0) {
+                    throw new UploadRejectedException(HttpServletResponse.SC_BAD_REQUEST, "Invalid URL encoding");
+                }
+                return (hi << 4) + lo;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            int count = 0;
+            while (count < len) {
+                int c = read();
+                if (c == -1) {
+                    break;
+                }
+                b[off + count++] = (byte) c;
+            }
+            return count == 0 ? -1 : count;
+        }
+
+        void drain() throws IOException {
+            while (read() != -1) {
+            }
+        }
+
+        int getDelimiter() {
+            return delimiter;
+        }
+
+        boolean isEndOfBody() {
+            return endOfBody;
+        }
+    }
+}
@@ -19,7 +19,10 @@ package se.tillvaxtverket.ttsigvalws.ttwebservice;
 import iaik.x509.ocsp.net.OCSPContentHandlerFactory;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
+import java.net.URLDecoder;
 import java.nio.charset.Charset;
 import java.security.KeyStore;
 import java.security.Security;
@@ -39,15 +42,17 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import org.apache.commons.fileupload.FileItem;
-import org.apache.commons.fileupload.disk.DiskFileItemFactory;
+import org.apache.commons.fileupload.FileItemIterator;
+import org.apache.commons.fileupload.FileItemStream;
 import org.apache.commons.fileupload.servlet.ServletFileUpload;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.input.CharSequenceInputStream;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
-import se.tillvaxtverket.tsltrust.common.utils.core.Base64Coder;
 import se.tillvaxtverket.tsltrust.common.utils.general.FilenameFilterImpl;
 import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.config.ConfigData;
 import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.document.SigDocument;
 import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.marshaller.SignatureValidationReport;
+import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.metrics.SigValMetrics;
 import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.models.SigValidationBaseModel;
 import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.models.SigValidationModel;
 import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.sigVerify.SigVerifier;
@@ -61,10 +66,13 @@ public class TTSigValServlet extends HttpServlet {
 
     private static final Logger LOG = Logger.getLogger(TTSigValServlet.class.getName());
     private static final String SERVER_DOC_FOLDER = "serverdocs";
+    private static final String UPLOAD_FOLDER = "uploads";
+    private static final String FORM_CONTENT_TYPE = "application/x-www-form-urlencoded";
     private ServletContext context;
     private SigValidationBaseModel baseModel;
     private String currentDir = System.getProperty("user.dir");
     private ResourceBundle infoText;
+    private UploadBudget uploadBudget;
 
     @Override
     public void init(ServletConfig config) throws ServletException {
@@ -87,6 +95,14 @@ public class TTSigValServlet extends HttpServlet {
         ConfigData conf = new ConfigData(dataDir);
         baseModel = new SigValidationBaseModel(conf);
         Locale.setDefault(new Locale(baseModel.getConf().getLanguageCode()));
+        uploadBudget = new UploadBudget(conf.getUploadBudget());
+        SigValMetrics.registerMBean();
+    }
+
+    @Override
+    public void destroy() {
+        SigValMetrics.unregisterMBean();
+        super.destroy();
     }
 
     /**
@@ -104,7 +120,6 @@ public class TTSigValServlet extends HttpServlet {
 
         request.setCharacterEncoding("UTF-8");
         response.setCharacterEncoding("UTF-8");
-        String action = request.getParameter("action");
         Locale respLocale = Locale.getDefault();
         baseModel.refreshTrustStore();
         boolean isMultipart = ServletFileUpload.isMultipartContent(request);
@@ -112,6 +127,12 @@ public class TTSigValServlet extends HttpServlet {
             processFileUpload(request, response);
             return;
         }
+        // Validation posts with the action in the query string are streamed without parsing the body into parameters
+        if (isStreamingValidationPost(request)) {
+            processStreamingValidationPost(request, response);
+            return;
+        }
+        String action = request.getParameter("action");
 
         if (action == null) {
             response.setStatus(HttpServletResponse.SC_NO_CONTENT);
@@ -184,6 +205,22 @@ public class TTSigValServlet extends HttpServlet {
             processValidationPost(request, response);
             return;
         }
+        if (action.equals("metrics")) {
+            // Metrics reveal load and usage of the service and are only published if enabled in the configuration
+            if (!baseModel.getConf().isMetricsEnabled()) {
+                response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+                return;
+            }
+            response.setHeader("Cache-Control", "no-cache");
+            if ("json".equals(request.getParameter("format"))) {
+                response.setContentType("application/json;charset=UTF-8");
+                response.getWriter().write(SigValMetrics.getInstance().getJson());
+            } else {
+                response.setContentType("text/plain;charset=UTF-8");
+                response.getWriter().write(SigValMetrics.getInstance().getText());
+            }
+            return;
+        }
     }
 
     // <editor-fold defaultstate="collapsed" desc="HttpServlet methods. Click on the + sign on the left to edit the code.">
@@ -294,14 +331,29 @@ public class TTSigValServlet extends HttpServlet {
             String policyName = request.getParameter("policy");
             policyName = policyName == null ? "" : policyName;
 
-            return verifySignature(request, policyName, docName, sigFileName, null);
+            return verifySignature(request, policyName, docName, sigFileName, false, null);
         } catch (Exception ex) {
         }
         return "";
 
     }
 
-    private String verifySignature(HttpServletRequest request, String policyName, String docName, String sigFileName, byte[] sigBytes) {
+    private String verifySignature(HttpServletRequest request, String policyName, String docName, String sigFileName, boolean uploaded, byte[] sigBytes) {
+        long start = SigValMetrics.start();
+        SigValMetrics.threadEnter(SigValMetrics.VALIDATION_THREADS);
+        try {
+            String report = validate(policyName, docName, sigFileName, uploaded, sigBytes);
+            if (report == null) {
+                SigValMetrics.increment(SigValMetrics.VALIDATION_FAILURES);
+            }
+            return report;
+        } finally {
+            SigValMetrics.threadExit(SigValMetrics.VALIDATION_THREADS);
+            SigValMetrics.stop(SigValMetrics.VALIDATION, start);
+        }
+    }
+
+    private String validate(String policyName, String docName, String sigFileName, boolean uploaded, byte[] sigBytes) {
         SigValidationModel model;
         Thread verifierTask;
 
@@ -309,7 +361,7 @@ public class TTSigValServlet extends HttpServlet {
         model.setBaseModel(baseModel);
         SigDocument sigDoc = null;
         if (sigBytes == null) {
-            sigDoc = new SigDocument(new File(sigFileName));
+            sigDoc = new SigDocument(new File(sigFileName), uploaded);
             model.setSigDocument(sigDoc);
         } else {
             sigDoc = new SigDocument(sigBytes);
@@ -337,8 +389,13 @@ public class TTSigValServlet extends HttpServlet {
                     verifierTask = new Thread(verifier);
                     verifierTask.start();
                     verifierTask.join();
-                    SignatureValidationReport report = new SignatureValidationReport(model);
-                    return report.generateReport();
+                    long start = SigValMetrics.start();
+                    try {
+                        SignatureValidationReport report = new SignatureValidationReport(model);
+                        return report.generateReport();
+                    } finally {
+                        SigValMetrics.stop(SigValMetrics.REPORT, start);
+                    }
                 } catch (InterruptedException ex) {
                     LOG.log(Level.WARNING, null, ex);
                 }
@@ -445,57 +502,48 @@ public class TTSigValServlet extends HttpServlet {
     }
 
     private void processFileUpload(HttpServletRequest request, HttpServletResponse response) {
-        // Create a factory for disk-based file items
         Map<String, String> paraMap = new HashMap<String, String>();
-        File uploadedFile = null;
-        boolean uploaded = false;
-        DiskFileItemFactory factory = new DiskFileItemFactory();
-        File storageDir = new File(baseModel.getConf().getDataDirectory() + "/uploads");
-        if (!storageDir.exists()) {
-            storageDir.mkdirs();
-        }
-        factory.setRepository(storageDir);
+        UploadedDocument uploaded = null;
+        String uploadedName = null;
 
-        // Create a new file upload handler
-        ServletFileUpload upload = new ServletFileUpload(factory);
+        // Use the streaming API so that the uploaded file is written once, directly to a capped temp file
+        ServletFileUpload upload = new ServletFileUpload();
         try {
-            // Parse the request
-            List<FileItem> items = upload.parseRequest(request);
-            for (FileItem item : items) {
-                if (item.isFormField()) {
-                    String name = item.getFieldName();
-                    String value = item.getString();
-                    paraMap.put(name, value);
-                } else {
-                    String fieldName = item.getFieldName();
-                    String fileName = item.getName();
-                    String contentType = item.getContentType();
-                    boolean isInMemory = item.isInMemory();
-                    long sizeInBytes = item.getSize();
-                    uploadedFile = new File(storageDir, fileName);
+            UploadedDocument document = newUploadedDocument(request);
+            try {
+                FileItemIterator items = upload.getItemIterator(request);
+                while (items.hasNext()) {
+                    FileItemStream item = items.next();
+                    InputStream stream = item.openStream();
                     try {
-                        if (uploadedFile.exists()){
-                            uploadedFile.delete();
+                        if (item.isFormField()) {
+                            paraMap.put(item.getFieldName(), FormUrlEncodedReader.readString(stream));
+                        } else if (uploaded == null && item.getName() != null && item.getName().length() > 0) {
+                            document.write(stream);
+                            uploaded = document;
+                            uploadedName = FilenameUtils.getName(item.getName());
                         }
-                        item.write(uploadedFile);
-                        uploaded = true;
-                    } catch (Exception ex) {
-                      ex.printStackTrace();
+                    } finally {
+                        stream.close();
                     }
                 }
-
-            }
-            if (uploaded && paraMap.containsKey("policy")) {
-                String verifyResult = verifySignature(request, paraMap.get("policy"), uploadedFile.getName(), uploadedFile.getAbsolutePath(), null);
-                sendValidationReport(verifyResult, response);
-                return;
+                if (uploaded != null && paraMap.containsKey("policy")) {
+                    String verifyResult = verifySignature(request, paraMap.get("policy"), uploadedName, uploaded.getFile().getAbsolutePath(), true, null);
+                    sendValidationReport(verifyResult, response);
+                    return;
+                }
+            } finally {
+                document.dispose();
             }
             if (paraMap.containsKey("policy") && paraMap.containsKey("fileName")) {
                 File sigFile = new File(getFullSigFileName(paraMap.get("fileName")));
-                String verifyResult = verifySignature(request, paraMap.get("policy"), sigFile.getName(), sigFile.getAbsolutePath(), null);
+                String verifyResult = verifySignature(request, paraMap.get("policy"), sigFile.getName(), sigFile.getAbsolutePath(), false, null);
                 sendValidationReport(verifyResult, response);
                 return;
             }
+        } catch (UploadRejectedException ex) {
+            rejectUpload(response, ex);
+            return;
         } catch (Exception ex) {
             LOG.log(Level.SEVERE, null, ex);
         }
@@ -512,18 +560,110 @@ public class TTSigValServlet extends HttpServlet {
     }
 
     private void processValidationPost(HttpServletRequest request, HttpServletResponse response) {
+        UploadedDocument document = null;
         try {
             String dataStr = request.getParameter("data");
             String docName = request.getParameter("id");
             String policy = request.getParameter("policy");
-            byte[] docBytes = Base64Coder.decode(dataStr);
-            String verifyResult = verifySignature(request, policy, docName, null, docBytes);
+            // The container has already parsed the body, decode from the parameter without a second copy in memory
+            document = newUploadedDocument(request);
+            document.write(FormUrlEncodedReader.decodeBase64(new CharSequenceInputStream(dataStr, "ISO-8859-1")));
+            String verifyResult = verifySignature(request, policy, docName, document.getFile().getAbsolutePath(), true, null);
+            sendValidationReport(verifyResult, response);
+        } catch (UploadRejectedException ex) {
+            rejectUpload(response, ex);
+        } catch (Exception ex) {
+            nullResponse(response);
+        } finally {
+            if (document != null) {
+                document.dispose();
+            }
+        }
+    }
+
+    /**
+     * Validates a form post where the Base64 encoded document is streamed
+     * from the request body to a temporary file, decoding as it is read
+     */
+    private void processStreamingValidationPost(HttpServletRequest request, HttpServletResponse response) {
+        UploadedDocument document = null;
+        try {
+            document = newUploadedDocument(request);
+            Map<String, String> fields = FormUrlEncodedReader.read(request.getInputStream(), "data", document);
+            String docName = fields.containsKey("id") ? fields.get("id") : getQueryParameter(request, "id");
+            String policy = fields.containsKey("policy") ? fields.get("policy") : getQueryParameter(request, "policy");
+            String verifyResult = verifySignature(request, policy, docName, document.getFile().getAbsolutePath(), true, null);
             sendValidationReport(verifyResult, response);
+        } catch (UploadRejectedException ex) {
+            rejectUpload(response, ex);
         } catch (Exception ex) {
             nullResponse(response);
+        } finally {
+            if (document != null) {
+                document.dispose();
+            }
+        }
+    }
+
+    private boolean isStreamingValidationPost(HttpServletRequest request) {
+        String contentType = request.getContentType();
+        return "POST".equalsIgnoreCase(request.getMethod())
+                && contentType != null && contentType.toLowerCase().startsWith(FORM_CONTENT_TYPE)
+                && "postverify".equals(getQueryParameter(request, "action"));
+    }
+
+    /**
+     * Creates a temporary document for an upload, rejecting the upload at
+     * once if its declared length exceeds the maximum upload size or can not
+     * fit in the remaining upload budget
+     */
+    private UploadedDocument newUploadedDocument(HttpServletRequest request) throws IOException {
+        ConfigData conf = baseModel.getConf();
+        long contentLength = request.getContentLength();
+        // Base64 encoding and form overhead make the body larger than the decoded document
+        long minDocumentSize = contentLength * 3 / 4;
+        if (contentLength > 0 && minDocumentSize > conf.getMaxUploadSize()) {
+            throw new UploadRejectedException(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE,
+                    "Document exceeds the maximum size of " + conf.getMaxUploadSize() + " bytes");
+        }
+        if (contentLength > 0 && minDocumentSize > uploadBudget.getAvailable()) {
+            throw new UploadRejectedException(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Upload budget exhausted");
+        }
+        File storageDir = new File(conf.getDataDirectory(), UPLOAD_FOLDER);
+        if (!storageDir.exists()) {
+            storageDir.mkdirs();
+        }
+        return new UploadedDocument(storageDir, conf.getMaxUploadSize(), uploadBudget);
+    }
+
+    private void rejectUpload(HttpServletResponse response, UploadRejectedException ex) {
+        SigValMetrics.increment(SigValMetrics.UPLOADS_REJECTED);
+        LOG.info("Upload rejected: " + ex.getMessage());
+        response.setStatus(ex.getStatus());
+        if (ex.getStatus() == HttpServletResponse.SC_SERVICE_UNAVAILABLE) {
+            response.setHeader("Retry-After", String.valueOf(baseModel.getConf().getUploadRetryAfter()));
         }
     }
 
+    private static String getQueryParameter(HttpServletRequest request, String name) {
+        String query = request.getQueryString();
+        if (query == null) {
+            return null;
+        }
+        for (String param : query.split("&")) {
+            int idx = param.indexOf('=');
+            String paramName = idx < 0 ? param : param.substring(0, idx);
+            if (paramName.equals(name)) {
+                try {
+                    return idx < 0 ? "" : URLDecoder.decode(param.substring(idx + 1), "UTF-8");
+                } catch (UnsupportedEncodingException ex) {
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
     private void sendValidationReport(String verifyResult, HttpServletResponse response) {
         if (verifyResult != null) {
             response.setContentType("text/xml;charset=UTF-8");
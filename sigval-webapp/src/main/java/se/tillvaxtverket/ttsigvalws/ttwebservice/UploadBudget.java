@@ -0,0 +1,78 @@
+/*
+ * Copyright 2017 Swedish E-identification Board (E-legitimationsnämnden)
+ *  		 
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.tillvaxtverket.ttsigvalws.ttwebservice;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Global budget limiting the number of bytes of uploaded documents held by
+ * requests in progress. Uploads reserve budget as they are received and
+ * release it when the request completes.
+ */
+public final class UploadBudget {
+
+    private final long limit;
+    private final AtomicLong inUse = new AtomicLong();
+
+    /**
+     * Constructor
+     *
+     * @param limit maximum number of bytes held by all requests in progress
+     */
+    public UploadBudget(long limit) {
+        this.limit = limit;
+    }
+
+    /**
+     * Reserves a number of bytes from the budget
+     *
+     * @param bytes number of bytes to reserve
+     * @return true if the bytes were reserved, false if the budget is exhausted
+     */
+    public boolean reserve(long bytes) {
+        while (true) {
+            long current = inUse.get();
+            if (current + bytes > limit) {
+                return false;
+            }
+            if (inUse.compareAndSet(current, current + bytes)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Returns previously reserved bytes to the budget
+     *
+     * @param bytes number of bytes to release
+     */
+    public void release(long bytes) {
+        inUse.addAndGet(-bytes);
+    }
+
+    public long getAvailable() {
+        return limit - inUse.get();
+    }
+
+    public long getInUse() {
+        return inUse.get();
+    }
+
+    public long getLimit() {
+        return limit;
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2017 Swedish E-identification Board (E-legitimationsnämnden)
+ *  		 
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.tillvaxtverket.ttsigvalws.ttwebservice;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A document received in a request, stored in a temporary file.
+ * <p>
+ * The document is written from a stream without being buffered in memory
+ * while it is received. The size of the document is capped and the bytes
+ * written are reserved from the global upload budget in chunks as they
+ * arrive. {@link #dispose()} must be called when the request is complete to
+ * delete the file and release the reserved budget.</p>
+ */
+public final class UploadedDocument {
+
+    private static final int RESERVATION_CHUNK = 64 * 1024;
+    private final File file;
+    private final long maxSize;
+    private final UploadBudget budget;
+    private long reserved;
+    private long size;
+
+    /**
+     * Constructor
+     *
+     * @param dir directory holding the temporary file
+     * @param maxSize maximum document size in bytes
+     * @param budget global upload budget
+     * @throws IOException if the temporary file can not be created
+     */
+    public UploadedDocument(File dir, long maxSize, UploadBudget budget) throws IOException {
+        this.maxSize = maxSize;
+        this.budget = budget;
+        this.file = File.createTempFile("upload", ".tmp", dir);
+    }
+
+    /**
+     * Writes the document from a stream
+     *
+     * @param in stream providing the document
+     * @throws UploadRejectedException if the document is too large or the
+     * upload budget is exhausted
+     * @throws IOException on read or write errors
+     */
+    public void write(InputStream in) throws IOException {
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+        try {
+            byte[] buf = new byte[8192];
+            int len;
+            while ((len = in.read(buf)) != -1) {
+                reserve(size + len);
+                out.write(buf, 0, len);
+                size += len;
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private void reserve(long required) throws UploadRejectedException {
+        if (required > maxSize) {
+            throw new UploadRejectedException(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE,
+                    "Document exceeds the maximum size of " + maxSize + " bytes");
+        }
+        while (reserved < required) {
+            if (!budget.reserve(RESERVATION_CHUNK)) {
+                throw new UploadRejectedException(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Upload budget exhausted");
+            }
+            reserved += RESERVATION_CHUNK;
+        }
+    }
+
+    /**
+     * Deletes the temporary file and releases the reserved upload budget
+     */
+    public void dispose() {
+        if (file.exists() && !file.delete()) {
+            file.deleteOnExit();
+        }
+        budget.release(reserved);
+        reserved = 0;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public long getSize() {
+        return size;
+    }
+}
@@ -30,6 +30,12 @@ public final class ConfigData {
     private String dataDirectory;
     private String languageCode;
     private long validationTimeout = 20000;
+    private long maxUploadSize = 100L * 1024 * 1024;
+    private long uploadBudget = 512L * 1024 * 1024;
+    private int uploadRetryAfter = 10;
+    private long timeStampCacheTime = 1000 * 60 * 60;
+    private long maxXmlDocumentSize = 128L * 1024 * 1024;
+    private boolean metricsEnabled = false;
     private boolean valid = true;
     private TTvalConfig jsonConf;
 
@@ -41,6 +47,10 @@ public final class ConfigData {
             jsonConf = confFact.getConfData();
         }
         setParams(jsonConf.getLanguage(), jsonConf.getSignatureValidationTimeoutSeconds());
+        setUploadParams(jsonConf.getMaxUploadSizeMB(), jsonConf.getUploadBudgetMB(), jsonConf.getUploadRetryAfterSeconds());
+        timeStampCacheTime = longVal(jsonConf.getTimeStampCacheMinutes(), timeStampCacheTime / 60000) * 60000;
+        maxXmlDocumentSize = longVal(jsonConf.getMaxXmlDocumentSizeMB(), maxXmlDocumentSize / (1024 * 1024)) * 1024 * 1024;
+        metricsEnabled = "true".equalsIgnoreCase(jsonConf.getEnableMetrics());
     }
 
     public void validate(String dataDir) {
@@ -84,6 +94,19 @@ public final class ConfigData {
         validationTimeout = timeout * 1000;
     }
 
+    /**
+     * Sets the upload limits. Absent or invalid values keep the defaults.
+     *
+     * @param maxUploadSizeMB maximum size of an uploaded document in MB
+     * @param uploadBudgetMB maximum size of all uploads in progress in MB
+     * @param retryAfterSeconds Retry-After value when the upload budget is exhausted
+     */
+    public void setUploadParams(String maxUploadSizeMB, String uploadBudgetMB, String retryAfterSeconds) {
+        maxUploadSize = longVal(maxUploadSizeMB, maxUploadSize / (1024 * 1024)) * 1024 * 1024;
+        uploadBudget = longVal(uploadBudgetMB, uploadBudget / (1024 * 1024)) * 1024 * 1024;
+        uploadRetryAfter = (int) longVal(retryAfterSeconds, uploadRetryAfter);
+    }
+
     /**
      * Get the long value of a string
      *
@@ -116,6 +139,39 @@ public final class ConfigData {
         return validationTimeout;
     }
 
+    public long getMaxUploadSize() {
+        return maxUploadSize;
+    }
+
+    public long getUploadBudget() {
+        return uploadBudget;
+    }
+
+    public int getUploadRetryAfter() {
+        return uploadRetryAfter;
+    }
+
+    /**
+     * @return time in milliseconds that a verified time stamp authority chain is trusted without revalidation
+     */
+    public long getTimeStampCacheTime() {
+        return timeStampCacheTime;
+    }
+
+    /**
+     * @return maximum size in bytes of an XML document parsed for signature validation
+     */
+    public long getMaxXmlDocumentSize() {
+        return maxXmlDocumentSize;
+    }
+
+    /**
+     * @return true if the performance metrics are published through the metrics action
+     */
+    public boolean isMetricsEnabled() {
+        return metricsEnabled;
+    }
+
     public TTvalConfig getJsonConf() {
         return jsonConf;
     }
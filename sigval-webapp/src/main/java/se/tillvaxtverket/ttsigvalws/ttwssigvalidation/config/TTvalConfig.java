@@ -39,6 +39,18 @@ public class TTvalConfig implements ConfigData {
      * <param-value>en</param-value>
      * <param-name>SignatureValidationTimeoutSeconds</param-name>
      * <param-value>30</param-value>
+     * <param-name>MaxUploadSizeMB</param-name>
+     * <param-value>100</param-value>
+     * <param-name>UploadBudgetMB</param-name>
+     * <param-value>512</param-value>
+     * <param-name>UploadRetryAfterSeconds</param-name>
+     * <param-value>10</param-value>
+     * <param-name>TimeStampCacheMinutes</param-name>
+     * <param-value>60</param-value>
+     * <param-name>MaxXmlDocumentSizeMB</param-name>
+     * <param-value>128</param-value>
+     * <param-name>EnableMetrics</param-name>
+     * <param-value>false</param-value>
      */
     private String TimerSeconds,
             CrlCacheMode,
@@ -46,7 +58,13 @@ public class TTvalConfig implements ConfigData {
             VerboseLogging,
             TrustinfoRUrl,
             Language,
-            SignatureValidationTimeoutSeconds;
+            SignatureValidationTimeoutSeconds,
+            MaxUploadSizeMB,
+            UploadBudgetMB,
+            UploadRetryAfterSeconds,
+            TimeStampCacheMinutes,
+            MaxXmlDocumentSizeMB,
+            EnableMetrics;
 
     @Override
     public void setDefaults() {
@@ -57,6 +75,12 @@ public class TTvalConfig implements ConfigData {
         TrustinfoRUrl = "http://localhost/~stefan/tsltrust/rootlist.xml";
         Language = "en";
         SignatureValidationTimeoutSeconds = "30";
+        MaxUploadSizeMB = "100";
+        UploadBudgetMB = "512";
+        UploadRetryAfterSeconds = "10";
+        TimeStampCacheMinutes = "60";
+        MaxXmlDocumentSizeMB = "128";
+        EnableMetrics = "false";
     }
 
     @Override
@@ -91,5 +115,29 @@ public class TTvalConfig implements ConfigData {
     public String getSignatureValidationTimeoutSeconds() {
         return SignatureValidationTimeoutSeconds;
     }
+
+    public String getMaxUploadSizeMB() {
+        return MaxUploadSizeMB;
+    }
+
+    public String getUploadBudgetMB() {
+        return UploadBudgetMB;
+    }
+
+    public String getUploadRetryAfterSeconds() {
+        return UploadRetryAfterSeconds;
+    }
+
+    public String getTimeStampCacheMinutes() {
+        return TimeStampCacheMinutes;
+    }
+
+    public String getMaxXmlDocumentSizeMB() {
+        return MaxXmlDocumentSizeMB;
+    }
+
+    public String getEnableMetrics() {
+        return EnableMetrics;
+    }
     
 }
@@ -16,96 +16,233 @@
  */
 package se.tillvaxtverket.ttsigvalws.ttwssigvalidation.document;
 
-import java.io.BufferedInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Arrays;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import org.apache.commons.io.IOUtils;
+import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.metrics.SigValMetrics;
 
 /**
+ * Identifies the type of a signed document from a bounded inspection of its
+ * content: magic bytes, the ZIP central directory and mimetype entry of ASiC
+ * containers and the root element of XML documents. The document content is
+ * never copied.
  *
  * @author stefan
  */
 public class DocTypeIdentifier {
 
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String SIGNATURES_P7S = "META-INF/signatures.p7s";
+    private static final String MIMETYPE = "mimetype";
+    private static final String ASIC_MIMETYPE_PREFIX = "application/vnd.etsi.asic-";
+    /** Maximum number of bytes read to locate the root element of an XML document */
+    private static final int MAX_XML_PROLOG = 64 * 1024;
+    private static final int ZIP_EOCD_SIG = 0x06054b50;
+    private static final int ZIP_CEN_SIG = 0x02014b50;
+    private static final int ZIP_LOC_SIG = 0x04034b50;
+    private static final int ZIP_EOCD_LEN = 22;
+    private static final int ZIP_CEN_LEN = 46;
+    private static final int ZIP_LOC_LEN = 30;
+    private static final XMLInputFactory XML_INPUT_FACTORY = createXmlInputFactory();
+
     /**
-     * Guess the document format and return an appropriate document type string
+     * Guess the document format. The stream is read into memory; use
+     * {@link #getDocType(ByteBuffer)} when the document is already available.
      *
      * @param is An InputStream holding the document
-     * @return "xml" if the document is an XML document or "pdf" if the document
-     * is a PDF document, or else an error message.
+     * @return the document type
      */
     public static DocType getDocType(InputStream is) {
-        InputStream input = null;
+        try {
+            return getDocType(ByteBuffer.wrap(IOUtils.toByteArray(is)));
+        } catch (IOException ex) {
+            return DocType.UNKNOWN;
+        } finally {
+            IOUtils.closeQuietly(is);
+        }
+    }
 
+    /**
+     * Guess the document format
+     *
+     * @param doc the document content from the buffer position to its limit.
+     * The position of the buffer is not modified.
+     * @return the document type
+     */
+    public static DocType getDocType(ByteBuffer doc) {
+        if (doc == null) {
+            return DocType.UNKNOWN;
+        }
+        long start = SigValMetrics.start();
         try {
-            input = new BufferedInputStream(is);
-            input.mark(5);
-            byte[] preamble = new byte[5];
-            int read = 0;
-            try {
-                read = input.read(preamble);
-                input.reset();
-            } catch (IOException ex) {
-                return DocType.UNKNOWN;
-            }
-            if (read < 5) {
-                return DocType.UNKNOWN;
+            return identifyDocType(doc.slice());
+        } finally {
+            SigValMetrics.stop(SigValMetrics.DOC_TYPE, start);
+        }
+    }
+
+    private static DocType identifyDocType(ByteBuffer doc) {
+        if (doc.remaining() < 5) {
+            return DocType.UNKNOWN;
+        }
+        byte[] preamble = new byte[5];
+        doc.duplicate().get(preamble);
+        String preambleString = new String(preamble, UTF8);
+        boolean utf8Bom = preamble[0] == -17 && preamble[1] == -69 && preamble[2] == -65;
+        if (preambleString.equals("<?xml") || (utf8Bom && preamble[3] == '<' && preamble[4] == '?')) {
+            return DocType.XML;
+        } else if (preambleString.equals("%PDF-")) {
+            return DocType.PDF;
+        } else if (preamble[0] == 'P' && preamble[1] == 'K') {
+            return identifyZipContainer(doc);
+        } else if (preamble[0] == 0x30) {
+            return DocType.CADES;
+        } else if (hasXmlRootElement(doc, utf8Bom ? 3 : 0)) {
+            return DocType.XML;
+        } else {
+            return DocType.UNKNOWN;
+        }
+    }
+
+    /**
+     * Tests for XML documents without an XML declaration by locating the root
+     * element with a streaming parser, reading no more than MAX_XML_PROLOG bytes
+     */
+    private static boolean hasXmlRootElement(ByteBuffer doc, int offset) {
+        int idx = offset;
+        while (idx < doc.limit() && Character.isWhitespace(doc.get(idx))) {
+            idx++;
+        }
+        if (idx >= doc.limit() || doc.get(idx) != '<') {
+            return false;
+        }
+        ByteBuffer prolog = doc.duplicate();
+        prolog.position(offset);
+        prolog.limit(Math.min(doc.limit(), offset + MAX_XML_PROLOG));
+        XMLStreamReader reader = null;
+        try {
+            reader = XML_INPUT_FACTORY.createXMLStreamReader(new ByteBufferInputStream(prolog));
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamReader.START_ELEMENT) {
+                    return true;
+                }
             }
-            String preambleString = new String(preamble);
-            byte[] xmlPreable = new byte[]{'<', '?', 'x', 'm', 'l'};
-            byte[] xmlUtf8 = new byte[]{-17, -69, -65, '<', '?'};
-            if (Arrays.equals(preamble, xmlPreable) || Arrays.equals(preamble, xmlUtf8)) {
-                return DocType.XML;
-            } else if (preambleString.equals("%PDF-")) {
-                return DocType.PDF;
-            } else if (preamble[0] == 'P' && preamble[1] == 'K') {
-                ZipInputStream asics = new ZipInputStream(new BufferedInputStream(is));
-                ByteArrayOutputStream datafile = null;
-                ByteArrayOutputStream signatures = null;
-                ZipEntry entry;
+        } catch (XMLStreamException ex) {
+        } finally {
+            if (reader != null) {
                 try {
-                    while ((entry = asics.getNextEntry()) != null) {
-                        if (entry.getName().equals("META-INF/signatures.p7s")) {
-                            signatures = new ByteArrayOutputStream();
-                            IOUtils.copy(asics, signatures);
-                            signatures.close();
-                        } else if (entry.getName().equalsIgnoreCase("META-INF/signatures.p7s")) {
-                            /* Wrong case */
-                            return DocType.ASICS_NON_ETSI;
-                        } else if (entry.getName().indexOf("/") == -1) {
-                            if (datafile == null) {
-                                datafile = new ByteArrayOutputStream();
-                                IOUtils.copy(asics, datafile);
-                                datafile.close();
-                            } else {
-                                return DocType.ASICS_S;
-                            }
-                        }
-                    }
-                } catch (Exception ex) {
-                    return DocType.UNKNOWN;
-                }
-                if (datafile == null || signatures == null) {
-                    return DocType.UNKNOWN;
+                    reader.close();
+                } catch (XMLStreamException ex) {
                 }
-                return DocType.ASICS_CADES;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Identifies ASiC containers from the ZIP central directory, reading the
+     * entry names and the stored mimetype entry only
+     */
+    private static DocType identifyZipContainer(ByteBuffer doc) {
+        ByteBuffer zip = doc.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int len = zip.limit();
 
-            } else if (preambleString.getBytes()[0] == 0x30) {
-                return DocType.CADES;
-            } else {
+        // The end of central directory record is followed by a comment of at most 65535 bytes
+        int eocd = -1;
+        for (int i = len - ZIP_EOCD_LEN; i >= Math.max(0, len - ZIP_EOCD_LEN - 0xffff); i--) {
+            if (zip.getInt(i) == ZIP_EOCD_SIG) {
+                eocd = i;
+                break;
+            }
+        }
+        if (eocd < 0) {
+            return DocType.UNKNOWN;
+        }
+        int entryCount = zip.getShort(eocd + 10) & 0xffff;
+        long cenSize = zip.getInt(eocd + 12) & 0xffffffffL;
+        long cenOffset = zip.getInt(eocd + 16) & 0xffffffffL;
+        if (cenOffset + cenSize > eocd) {
+            // Inconsistent or ZIP64 directory
+            return DocType.UNKNOWN;
+        }
+
+        boolean signatures = false;
+        int dataObjects = 0;
+        String mimetype = null;
+        int pos = (int) cenOffset;
+        for (int i = 0; i < entryCount; i++) {
+            if (pos + ZIP_CEN_LEN > eocd || zip.getInt(pos) != ZIP_CEN_SIG) {
                 return DocType.UNKNOWN;
             }
-        } finally {
-            if (input != null) {
-                try {
-                    input.close();
-                } catch (IOException e) {
-                }
+            int method = zip.getShort(pos + 10) & 0xffff;
+            long compressedSize = zip.getInt(pos + 20) & 0xffffffffL;
+            int nameLen = zip.getShort(pos + 28) & 0xffff;
+            int extraLen = zip.getShort(pos + 30) & 0xffff;
+            int commentLen = zip.getShort(pos + 32) & 0xffff;
+            long localOffset = zip.getInt(pos + 42) & 0xffffffffL;
+            if (pos + ZIP_CEN_LEN + nameLen > eocd) {
+                return DocType.UNKNOWN;
             }
+            String name = getString(zip, pos + ZIP_CEN_LEN, nameLen);
+            pos += ZIP_CEN_LEN + nameLen + extraLen + commentLen;
+
+            if (name.equals(SIGNATURES_P7S)) {
+                signatures = true;
+            } else if (name.equalsIgnoreCase(SIGNATURES_P7S)) {
+                /* Wrong case */
+                return DocType.ASICS_NON_ETSI;
+            } else if (name.startsWith("META-INF/signature") && name.endsWith(".p7s")) {
+                /* ETSI signature.p7s or ASiC-E signatureNNN.p7s */
+                signatures = true;
+            } else if (name.equals(MIMETYPE)) {
+                mimetype = method == 0 ? getStoredEntry(zip, localOffset, compressedSize) : "";
+            } else if (!name.startsWith("META-INF/") && !name.endsWith("/")) {
+                dataObjects++;
+            }
+        }
+
+        if (mimetype != null && !mimetype.startsWith(ASIC_MIMETYPE_PREFIX)) {
+            return DocType.UNKNOWN;
+        }
+        if (!signatures || dataObjects == 0) {
+            return DocType.UNKNOWN;
+        }
+        return dataObjects > 1 ? DocType.ASICS_S : DocType.ASICS_CADES;
+    }
+
+    /**
+     * Reads the content of an uncompressed entry from its local file header
+     */
+    private static String getStoredEntry(ByteBuffer zip, long localOffset, long size) {
+        if (localOffset + ZIP_LOC_LEN > zip.limit() || zip.getInt((int) localOffset) != ZIP_LOC_SIG || size > 256) {
+            return "";
         }
+        int loc = (int) localOffset;
+        int dataOffset = loc + ZIP_LOC_LEN + (zip.getShort(loc + 26) & 0xffff) + (zip.getShort(loc + 28) & 0xffff);
+        if (dataOffset + size > zip.limit()) {
+            return "";
+        }
+        return getString(zip, dataOffset, (int) size).trim();
+    }
+
+    private static String getString(ByteBuffer buf, int offset, int len) {
+        byte[] bytes = new byte[len];
+        ByteBuffer src = buf.duplicate();
+        src.position(offset);
+        src.get(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    private static XMLInputFactory createXmlInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
     }
 }
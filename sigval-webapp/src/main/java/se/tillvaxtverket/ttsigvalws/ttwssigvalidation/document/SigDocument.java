@@ -16,27 +16,41 @@
  */
 package se.tillvaxtverket.ttsigvalws.ttwssigvalidation.document;
 
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.logging.Level;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.logging.Logger;
-import org.apache.commons.io.IOUtils;
 
 /**
+ * A signed document.
+ * <p>
+ * The document content is accessed through a single read-only random access
+ * view, a memory mapped file or a wrapped byte array, which is created once
+ * and shared by document type identification and all later validation
+ * stages. Streams and byte arrays obtained from the document are backed by
+ * this view and do not re-open or copy the source.</p>
+ * <p>
+ * A mapped file can not be deleted on all platforms until the mapping has
+ * been garbage collected. Temporary files that are deleted once validation
+ * completes are therefore read into memory instead of being mapped.</p>
  *
  * @author stefan
  */
 public class SigDocument {
 
+    private static final Logger LOG = Logger.getLogger(SigDocument.class.getName());
     private File sigFile;
     private byte[] byteSource;
     private DocType docType;
     private DataSourceType dataSource;
     private String docName;
+    private ByteBuffer docBuffer;
+    private boolean temporary;
 
     public SigDocument(File sigFile, DocType docType) {
         this.sigFile = sigFile;
@@ -53,44 +67,170 @@ public class SigDocument {
     public SigDocument(File sigFile) {
         this.sigFile = sigFile;
         this.dataSource = DataSourceType.file;
-        this.docType = DocTypeIdentifier.getDocType(getDocInputStream());
+        this.docType = DocTypeIdentifier.getDocType(getDocBuffer());
+    }
+
+    /**
+     * Creates a document from a file. Temporary files are read into memory
+     * and are neither kept open nor mapped, so that they can be deleted as
+     * soon as validation is complete.
+     *
+     * @param sigFile the signed document file
+     * @param temporary true if the file is deleted after validation
+     */
+    public SigDocument(File sigFile, boolean temporary) {
+        this.sigFile = sigFile;
+        this.dataSource = DataSourceType.file;
+        this.temporary = temporary;
+        this.docType = DocTypeIdentifier.getDocType(getDocBuffer());
     }
 
     public SigDocument(byte[] byteSource) {
         this.byteSource = byteSource;
         this.dataSource = DataSourceType.byteArray;
-        this.docType = DocTypeIdentifier.getDocType(getDocInputStream());
+        this.docType = DocTypeIdentifier.getDocType(getDocBuffer());
     }
 
-    public final InputStream getDocInputStream() {
-        switch (this.dataSource) {
-            case byteArray:
-                return new ByteArrayInputStream(byteSource);
-            case file: {
+    /**
+     * Returns a read-only view of the document content. Each call returns a
+     * new view with its own position and limit, sharing the content of the
+     * document.
+     *
+     * @return document content, or null if the document can not be read
+     */
+    public final ByteBuffer getDocBuffer() {
+        ByteBuffer buf = getSharedBuffer();
+        return buf == null ? null : buf.duplicate();
+    }
+
+    private synchronized ByteBuffer getSharedBuffer() {
+        if (docBuffer == null) {
+            switch (this.dataSource) {
+                case byteArray:
+                    docBuffer = ByteBuffer.wrap(byteSource).asReadOnlyBuffer();
+                    break;
+                case file:
+                    if (temporary) {
+                        // The file content becomes the byte source of the document
+                        byteSource = readFile(sigFile);
+                        docBuffer = byteSource == null ? null : ByteBuffer.wrap(byteSource).asReadOnlyBuffer();
+                    } else {
+                        docBuffer = mapFile(sigFile);
+                    }
+                    break;
+                default:
+                    throw new AssertionError(this.dataSource.name());
+            }
+        }
+        return docBuffer;
+    }
+
+    private static ByteBuffer mapFile(File file) {
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            FileChannel channel = raf.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                LOG.warning("Document " + file.getName() + " is too large to be mapped");
+                return null;
+            }
+            // The mapping remains valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException ex) {
+            LOG.warning(ex.getMessage());
+            return null;
+        } finally {
+            if (raf != null) {
                 try {
-                    return new FileInputStream(sigFile);
-                } catch (FileNotFoundException ex) {
-                    Logger.getLogger(SigDocument.class.getName()).warning(ex.getMessage());
-                    return null;
+                    raf.close();
+                } catch (IOException ex) {
                 }
             }
-            default:
-                throw new AssertionError(this.dataSource.name());
         }
     }
-    
-    public byte[] getDocBytes(){
+
+    private static byte[] readFile(File file) {
+        RandomAccessFile raf = null;
         try {
-            return IOUtils.toByteArray(getDocInputStream());
+            raf = new RandomAccessFile(file, "r");
+            if (raf.length() > Integer.MAX_VALUE) {
+                LOG.warning("Document " + file.getName() + " is too large to be read");
+                return null;
+            }
+            byte[] content = new byte[(int) raf.length()];
+            raf.readFully(content);
+            return content;
         } catch (IOException ex) {
+            LOG.warning(ex.getMessage());
+            return null;
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException ex) {
+                }
+            }
+        }
+    }
+
+    public final InputStream getDocInputStream() {
+        ByteBuffer buf = getDocBuffer();
+        if (buf != null) {
+            return new ByteBufferInputStream(buf);
+        }
+        if (this.dataSource == DataSourceType.file) {
+            try {
+                return new FileInputStream(sigFile);
+            } catch (FileNotFoundException ex) {
+                LOG.warning(ex.getMessage());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the document content as a byte array. For documents created
+     * from a byte array and for temporary files, which are held in memory,
+     * the backing array is returned without copying and must not be modified
+     * by the caller. The content of a mapped file is copied to a new array,
+     * so {@link #getDocBuffer()} or {@link #getDocInputStream()} should be
+     * preferred.
+     *
+     * @return document bytes, or null if the document can not be read
+     */
+    public byte[] getDocBytes() {
+        // Reading the shared buffer first also reads a temporary file into the byte source
+        ByteBuffer buf = getDocBuffer();
+        if (byteSource != null) {
+            return byteSource;
+        }
+        if (buf == null) {
             return null;
         }
+        byte[] docBytes = new byte[buf.remaining()];
+        buf.get(docBytes);
+        return docBytes;
+    }
+
+    /**
+     * @return the size of the document in bytes, or -1 if the document can
+     * not be read
+     */
+    public long getLength() {
+        if (this.dataSource == DataSourceType.byteArray) {
+            return byteSource.length;
+        }
+        return sigFile.canRead() ? sigFile.length() : -1;
     }
 
     /*
      * Getters and Setters
      */
 
+    public File getSigFile() {
+        return sigFile;
+    }
+
     public DocType getDocType() {
         return docType;
     }
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2017 Swedish E-identification Board (E-legitimationsnämnden)
+ *  		 
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.tillvaxtverket.ttsigvalws.ttwssigvalidation.marshaller;
+
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentHashMap;
+import x0SigvalReport.seTillvaxtverketTsltrust1.CertificateType;
+
+/**
+ * Cache of the certificate description parts of the signature validation
+ * report. Fragments are keyed by the hash of the certificate and the report
+ * language, so that the names, public key and extensions of frequently seen
+ * certificates are only decoded once.
+ */
+final class CertReportCache {
+
+    /** Maximum number of cached certificate fragments */
+    static final int MAX_SIZE = 2048;
+    private static final Map<String, Fragment> fragmentMap = new LinkedHashMap<String, Fragment>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Fragment> eldest) {
+            return size() > MAX_SIZE;
+        }
+    };
+    private static final Map<Locale, ResourceBundle> textMap = new ConcurrentHashMap<Locale, ResourceBundle>();
+
+    private CertReportCache() {
+    }
+
+    /**
+     * Returns the report text resources for a locale
+     *
+     * @param locale report locale
+     * @return report text bundle
+     */
+    static ResourceBundle getReportText(Locale locale) {
+        ResourceBundle text = textMap.get(locale);
+        if (text == null) {
+            text = ResourceBundle.getBundle("reportText", locale);
+            textMap.put(locale, text);
+        }
+        return text;
+    }
+
+    /**
+     * Returns the cache key of a certificate in a report language
+     *
+     * @param certBytes DER encoded certificate
+     * @param language report language
+     * @return cache key
+     */
+    static String getKey(byte[] certBytes, String language) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(certBytes);
+            return language + "/" + new BigInteger(1, hash).toString(16);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    static Fragment get(String key) {
+        synchronized (fragmentMap) {
+            return fragmentMap.get(key);
+        }
+    }
+
+    static void put(String key, Fragment fragment) {
+        synchronized (fragmentMap) {
+            fragmentMap.put(key, fragment);
+        }
+    }
+
+    static void clear() {
+        synchronized (fragmentMap) {
+            fragmentMap.clear();
+        }
+    }
+
+    /**
+     * The cached, validation independent, description of a certificate
+     */
+    static final class Fragment {
+
+        private final CertificateType template;
+        private final List<String> crlUris;
+        private final String ocspUri;
+
+        /**
+         * Constructor
+         *
+         * @param template certificate element holding names, validity period,
+         * public key and extensions, but no status information
+         * @param crlUris HTTP CRL distribution point URIs of the certificate
+         * @param ocspUri OCSP responder URI of the certificate, or null
+         */
+        Fragment(CertificateType template, List<String> crlUris, String ocspUri) {
+            this.template = template;
+            this.crlUris = Collections.unmodifiableList(crlUris);
+            this.ocspUri = ocspUri;
+        }
+
+        /**
+         * The template is shared and must only be copied, never modified
+         *
+         * @return certificate element template
+         */
+        CertificateType getTemplate() {
+            return template;
+        }
+
+        List<String> getCrlUris() {
+            return crlUris;
+        }
+
+        String getOcspUri() {
+            return ocspUri;
+        }
+    }
+}
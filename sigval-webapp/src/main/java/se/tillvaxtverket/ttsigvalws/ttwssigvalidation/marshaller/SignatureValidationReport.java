@@ -41,6 +41,7 @@ import iaik.x509.extensions.qualified.QCStatements;
 import iaik.x509.extensions.qualified.structures.QCStatement;
 import iaik.x509.extensions.qualified.structures.QCStatementInfo;
 import java.security.PublicKey;
+import java.security.cert.CertificateEncodingException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Enumeration;
@@ -105,7 +106,15 @@ public class SignatureValidationReport implements SigreportConstants {
     private static final Logger LOG = Logger.getLogger(SignatureValidationReport.class.getName());
     private SigReportGenerator reportGenerator;
     private SignedDocumentValidationType sigReport;
-    private ResourceBundle text = ResourceBundle.getBundle("reportText");
+    private final Locale locale = Locale.getDefault();
+    private final ResourceBundle text = CertReportCache.getReportText(locale);
+
+    static {
+        //Register private QCStatements
+        QCStatement.register(PdsQCStatement.statementID, PdsQCStatement.class);
+        QCStatement.register(AuthContextQCStatement.statementID, AuthContextQCStatement.class);
+        X509Extensions.register(AuthContextExtension.extensionOid, AuthContextExtension.class);
+    }
 
     /**
      * Constructs a signature validation report generator, generating signature
@@ -116,10 +125,6 @@ public class SignatureValidationReport implements SigreportConstants {
      */
     public SignatureValidationReport(SigValidationModel model) {
         this.model = model;
-        //Register private QCStatements
-        QCStatement.register(PdsQCStatement.statementID, PdsQCStatement.class);
-        QCStatement.register(AuthContextQCStatement.statementID, AuthContextQCStatement.class);
-        X509Extensions.register(AuthContextExtension.extensionOid, AuthContextExtension.class);
     }
 
     /**
@@ -137,7 +142,7 @@ public class SignatureValidationReport implements SigreportConstants {
 
     private void setInitial() {
         sigReport.setVersion(sigReport.getVersion());     //use default version
-        sigReport.setLanguage(Locale.getDefault().getLanguage());
+        sigReport.setLanguage(locale.getLanguage());
         sigReport.setDocumentType(model.getSigDocument().getDocType().name());
         sigReport.setDocumentName(model.getSigDocument().getDocName());
         sigReport.setPolicyName(model.getPolicyName());
@@ -380,7 +385,44 @@ public class SignatureValidationReport implements SigreportConstants {
             return;
         }
 
+        //Copy the cached certificate description and add the status of this validation
+        CertReportCache.Fragment fragment = getCertFragment(cert);
         CertificateType certType = certInfo.addNewCertificate();
+        certType.set(fragment.getTemplate());
+
+        //AddStatusInfo
+        addCertStatusInfo(certType.addNewCertificateStatus(), fragment, cc);
+
+        //Add Issuer certificate infor
+        CertVerifyContext issuerCont = cc.getIssuingCertContext();
+        if (issuerCont != null) {
+            addCertificateInfo(certInfo, issuerCont);
+        }
+    }
+
+    /**
+     * Returns the cached description of a certificate, building it on first use
+     *
+     * @param cert certificate
+     * @return certificate report fragment
+     */
+    private CertReportCache.Fragment getCertFragment(X509Certificate cert) {
+        String key;
+        try {
+            key = CertReportCache.getKey(cert.getEncoded(), locale.toString());
+        } catch (CertificateEncodingException ex) {
+            return buildCertFragment(cert);
+        }
+        CertReportCache.Fragment fragment = CertReportCache.get(key);
+        if (fragment == null) {
+            fragment = buildCertFragment(cert);
+            CertReportCache.put(key, fragment);
+        }
+        return fragment;
+    }
+
+    private CertReportCache.Fragment buildCertFragment(X509Certificate cert) {
+        CertificateType certType = CertificateType.Factory.newInstance();
 
         //Add Subject and Issuer Names
         addDistinguishedName(certType.addNewSubjectName(), cert.getSubjectX500Principal());
@@ -390,21 +432,53 @@ public class SignatureValidationReport implements SigreportConstants {
         certType.setNotValidBefore(GeneralStaticUtils.getTime(cert.getNotBefore()));
         certType.setNotValidAfter(GeneralStaticUtils.getTime(cert.getNotAfter()));
 
-        //AddStatusInfo
-        addCertStatusInfo(certType.addNewCertificateStatus(), cert, cc);
-
         //Add PublicKeyInfo
         addPublicKeyInfo(certType.addNewPublicKeyAlgorithm(), cert);
-//        certType.setPublicKeyAlgorithm(addPublicKeyInfo(cert));
 
         //Add ExtensionInfo
         addCertificateExtensionInfo(certType, cert);
 
-        //Add Issuer certificate infor
-        CertVerifyContext issuerCont = cc.getIssuingCertContext();
-        if (issuerCont != null) {
-            addCertificateInfo(certInfo, issuerCont);
+        return new CertReportCache.Fragment(certType, getCrlUris(cert), getOcspUri(cert));
+    }
+
+    private static List<String> getCrlUris(X509Certificate cert) {
+        List<String> crlUris = new ArrayList<String>();
+        try {
+            CRLDistributionPoints cdp = (CRLDistributionPoints) cert.getExtension(CRLDistributionPoints.oid);
+            if (cdp != null) {
+
+                Enumeration dPoints = cdp.getDistributionPoints();
+
+                //For every distribution point
+                while (dPoints.hasMoreElements()) {
+                    DistributionPoint dp = (DistributionPoint) dPoints.nextElement();
+                    String[] uris = dp.getDistributionPointNameURIs();
+
+                    //For every URI
+                    for (String uri : uris) {
+                        if (uri.toLowerCase().startsWith("http")) {
+                            crlUris.add(uri);
+                        }
+                    }
+                }
+            }
+
+        } catch (X509ExtensionInitException ex) {
+        }
+        return crlUris;
+    }
+
+    private static String getOcspUri(X509Certificate cert) {
+        try {
+            AuthorityInfoAccess aia = (AuthorityInfoAccess) cert.getExtension(AuthorityInfoAccess.oid);
+            AccessDescription aDesc = aia.getAccessDescription(ObjectID.ocsp);
+            String ocspURI = aDesc.getUriAccessLocation();
+            if (ocspURI.length() > 0) {
+                return ocspURI;
+            }
+        } catch (Exception ex) {
         }
+        return null;
     }
 
     public void addDistinguishedName(DistinguishedNameType subjectDN, X500Principal dn) {
@@ -420,7 +494,7 @@ public class SignatureValidationReport implements SigreportConstants {
         }
     }
 
-    private void addCertStatusInfo(CertificateStatusType certStatus, X509Certificate cert, CertVerifyContext cc) {
+    private void addCertStatusInfo(CertificateStatusType certStatus, CertReportCache.Fragment fragment, CertVerifyContext cc) {
 //        List<CertificateValidationSourceType> validationSource = certStatus.getValidationSource();
         OCSPVerifyContext oc = cc.getOcspVerifyContext();
 
@@ -442,46 +516,18 @@ public class SignatureValidationReport implements SigreportConstants {
 
 
         if (cc.isCrlStatusDetermined()) {
-            //check for crlDPS
-            try {
-                CRLDistributionPoints cdp = (CRLDistributionPoints) cert.getExtension(CRLDistributionPoints.oid);
-                if (cdp != null) {
-
-                    Enumeration dPoints = cdp.getDistributionPoints();
-
-                    //For every distribution point
-                    while (dPoints.hasMoreElements()) {
-                        DistributionPoint dp = (DistributionPoint) dPoints.nextElement();
-                        String[] uris = dp.getDistributionPointNameURIs();
-
-                        //For every URI
-                        for (String uri : uris) {
-                            if (uri.toLowerCase().startsWith("http")) {
-                                CertificateValidationSourceType source = certStatus.addNewValidationSource();
-                                source.setType(CertStatusMethod.CRL);
-                                source.setStringValue(uri);
-                            }
-                        }
-                    }
-                }
-
-            } catch (X509ExtensionInitException ex) {
+            //Add the crlDPS
+            for (String uri : fragment.getCrlUris()) {
+                CertificateValidationSourceType source = certStatus.addNewValidationSource();
+                source.setType(CertStatusMethod.CRL);
+                source.setStringValue(uri);
             }
-
         }
 
-        if (ocspValid || ocspRevoked) {
-            try {
-                AuthorityInfoAccess aia = (AuthorityInfoAccess) cert.getExtension(AuthorityInfoAccess.oid);
-                AccessDescription aDesc = aia.getAccessDescription(ObjectID.ocsp);
-                String ocspURI = aDesc.getUriAccessLocation();
-                if (ocspURI.length() > 0) {
-                    CertificateValidationSourceType source = certStatus.addNewValidationSource();
-                    source.setType(CertStatusMethod.OCSP);
-                    source.setStringValue(ocspURI);
-                }
-            } catch (Exception ex) {
-            }
+        if ((ocspValid || ocspRevoked) && fragment.getOcspUri() != null) {
+            CertificateValidationSourceType source = certStatus.addNewValidationSource();
+            source.setType(CertStatusMethod.OCSP);
+            source.setStringValue(fragment.getOcspUri());
         }
     }
 
@@ -0,0 +1,400 @@
+/*
+ * Copyright 2017 Swedish E-identification Board (E-legitimationsnämnden)
+ *  		 
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.tillvaxtverket.ttsigvalws.ttwssigvalidation.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * In-process registry of signature validation metrics. Holds timers for each
+ * validation stage, counters, cache hit and miss counts and the number of active
+ * validation threads. Metrics are available as text, as JSON and through JMX.
+ *
+ * <p>
+ * Usage:
+ * <pre>
+ * long start = SigValMetrics.start();
+ * try {
+ *     ... stage ...
+ * } finally {
+ *     SigValMetrics.stop(SigValMetrics.CHAIN_VERIFY, start);
+ * }
+ * </pre>
+ */
+public final class SigValMetrics implements SigValMetricsMXBean {
+
+    private static final Logger LOG = Logger.getLogger(SigValMetrics.class.getName());
+    public static final String OBJECT_NAME = "se.tillvaxtverket.ttsigvalws:type=SigValMetrics";
+    // Timers
+    public static final String VALIDATION = "validation";
+    public static final String DOC_TYPE = "docTypeIdentification";
+    public static final String PDF_PARSE = "pdfParse";
+    public static final String CMS_VERIFY = "cmsSignatureVerify";
+    public static final String XML_VERIFY = "xmlSignatureVerify";
+    public static final String CHAIN_VERIFY = "certChainVerify";
+    public static final String CRL_CHECK = "crlCheck";
+    public static final String CRL_DOWNLOAD = "crlDownload";
+    public static final String OCSP_CHECK = "ocspCheck";
+    public static final String REPORT = "reportGeneration";
+    // Counters
+    public static final String VALIDATION_FAILURES = "validationFailures";
+    public static final String CRL_DOWNLOAD_FAILURES = "crlDownloadFailures";
+    public static final String OCSP_FAILURES = "ocspFailures";
+    public static final String UPLOADS_REJECTED = "uploadsRejected";
+    // Caches
+    public static final String CRL_CACHE = "crlCache";
+    public static final String TIMESTAMP_TOKEN_CACHE = "timeStampTokenCache";
+    public static final String TSA_CHAIN_CACHE = "tsaChainCache";
+    // Active threads
+    public static final String VALIDATION_THREADS = "validationThreads";
+    public static final String STATUS_CHECK_THREADS = "statusCheckThreads";
+    private static final SigValMetrics INSTANCE = new SigValMetrics();
+    private final ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<String, Timer>();
+    private final ConcurrentMap<String, AtomicLong> counters = new ConcurrentHashMap<String, AtomicLong>();
+    private final ConcurrentMap<String, AtomicLong> cacheHits = new ConcurrentHashMap<String, AtomicLong>();
+    private final ConcurrentMap<String, AtomicLong> cacheMisses = new ConcurrentHashMap<String, AtomicLong>();
+    private final ConcurrentMap<String, AtomicLong> active = new ConcurrentHashMap<String, AtomicLong>();
+    private final ConcurrentMap<String, AtomicLong> peak = new ConcurrentHashMap<String, AtomicLong>();
+    private volatile long resetTime = System.currentTimeMillis();
+
+    private SigValMetrics() {
+    }
+
+    /**
+     * @return the metrics registry
+     */
+    public static SigValMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return start time to be passed to {@link #stop(String, long)}
+     */
+    public static long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the time elapsed since a start time in the named timer
+     * @param timer timer name
+     * @param startTime start time obtained from {@link #start()}
+     */
+    public static void stop(String timer, long startTime) {
+        INSTANCE.getTimer(timer).update(System.nanoTime() - startTime);
+    }
+
+    /**
+     * Increments a counter
+     * @param counter counter name
+     */
+    public static void increment(String counter) {
+        get(INSTANCE.counters, counter).incrementAndGet();
+    }
+
+    /**
+     * Registers a cache hit
+     * @param cache cache name
+     */
+    public static void cacheHit(String cache) {
+        get(INSTANCE.cacheHits, cache).incrementAndGet();
+    }
+
+    /**
+     * Registers a cache miss
+     * @param cache cache name
+     */
+    public static void cacheMiss(String cache) {
+        get(INSTANCE.cacheMisses, cache).incrementAndGet();
+    }
+
+    /**
+     * Registers the start of a tracked thread task. Must be paired with a call
+     * to {@link #threadExit(String)}.
+     * @param type thread type name
+     */
+    public static void threadEnter(String type) {
+        long current = get(INSTANCE.active, type).incrementAndGet();
+        AtomicLong max = get(INSTANCE.peak, type);
+        long peakValue;
+        while (current > (peakValue = max.get()) && !max.compareAndSet(peakValue, current)) {
+        }
+    }
+
+    /**
+     * Registers the end of a tracked thread task
+     * @param type thread type name
+     */
+    public static void threadExit(String type) {
+        get(INSTANCE.active, type).decrementAndGet();
+    }
+
+    /**
+     * Registers the metrics registry with the platform MBean server
+     */
+    public static void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(INSTANCE, name);
+            }
+        } catch (Exception ex) {
+            LOG.log(Level.WARNING, "Unable to register metrics MBean", ex);
+        }
+    }
+
+    /**
+     * Removes the metrics registry from the platform MBean server
+     */
+    public static void unregisterMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (Exception ex) {
+            LOG.log(Level.WARNING, "Unable to unregister metrics MBean", ex);
+        }
+    }
+
+    /**
+     * Returns the named timer, creating it if it does not exist
+     * @param name timer name
+     * @return timer
+     */
+    public Timer getTimer(String name) {
+        Timer timer = timers.get(name);
+        if (timer == null) {
+            Timer newTimer = new Timer();
+            timer = timers.putIfAbsent(name, newTimer);
+            if (timer == null) {
+                timer = newTimer;
+            }
+        }
+        return timer;
+    }
+
+    @Override
+    public Map<String, Long> getTimerCounts() {
+        Map<String, Long> result = new TreeMap<String, Long>();
+        for (Map.Entry<String, Timer> entry : timers.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().getCount());
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Double> getTimerMeanMillis() {
+        Map<String, Double> result = new TreeMap<String, Double>();
+        for (Map.Entry<String, Timer> entry : timers.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().getMeanMillis());
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Double> getTimerMaxMillis() {
+        Map<String, Double> result = new TreeMap<String, Double>();
+        for (Map.Entry<String, Timer> entry : timers.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().getMaxMillis());
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Double> getTimerP95Millis() {
+        Map<String, Double> result = new TreeMap<String, Double>();
+        for (Map.Entry<String, Timer> entry : timers.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().getPercentileMillis(95));
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getCounters() {
+        return snapshot(counters);
+    }
+
+    @Override
+    public Map<String, Double> getCacheHitRatios() {
+        Map<String, Double> result = new TreeMap<String, Double>();
+        Map<String, Long> hits = snapshot(cacheHits);
+        Map<String, Long> misses = snapshot(cacheMisses);
+        for (String cache : union(hits, misses).keySet()) {
+            long hit = hits.containsKey(cache) ? hits.get(cache) : 0;
+            long miss = misses.containsKey(cache) ? misses.get(cache) : 0;
+            result.put(cache, hit + miss == 0 ? 0 : (double) hit / (hit + miss));
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getActiveThreads() {
+        return snapshot(active);
+    }
+
+    @Override
+    public Map<String, Long> getPeakThreads() {
+        return snapshot(peak);
+    }
+
+    @Override
+    public void reset() {
+        for (Timer timer : timers.values()) {
+            timer.reset();
+        }
+        resetValues(counters);
+        resetValues(cacheHits);
+        resetValues(cacheMisses);
+        // Peak values restart from the current number of active threads
+        for (Map.Entry<String, AtomicLong> entry : peak.entrySet()) {
+            AtomicLong current = active.get(entry.getKey());
+            entry.getValue().set(current == null ? 0 : current.get());
+        }
+        resetTime = System.currentTimeMillis();
+    }
+
+    /**
+     * @return all metrics as plain text, one metric per line
+     */
+    public String getText() {
+        StringBuilder b = new StringBuilder();
+        b.append("# Signature validation metrics since ").append(String.format(Locale.ENGLISH, "%tFT%<tT%<tz", resetTime)).append("\n");
+        b.append("# timer count mean_ms min_ms max_ms p50_ms p95_ms p99_ms\n");
+        for (Map.Entry<String, Timer> entry : new TreeMap<String, Timer>(timers).entrySet()) {
+            Timer t = entry.getValue();
+            b.append("timer ").append(entry.getKey()).append(" ").append(t.getCount())
+                    .append(format(" %.3f %.3f %.3f %.3f %.3f %.3f", t.getMeanMillis(), t.getMinMillis(), t.getMaxMillis(),
+                            t.getPercentileMillis(50), t.getPercentileMillis(95), t.getPercentileMillis(99)))
+                    .append("\n");
+        }
+        for (Map.Entry<String, Long> entry : getCounters().entrySet()) {
+            b.append("counter ").append(entry.getKey()).append(" ").append(entry.getValue()).append("\n");
+        }
+        Map<String, Long> hits = snapshot(cacheHits);
+        Map<String, Long> misses = snapshot(cacheMisses);
+        for (Map.Entry<String, Double> entry : getCacheHitRatios().entrySet()) {
+            String cache = entry.getKey();
+            b.append("cache ").append(cache)
+                    .append(" hits=").append(hits.containsKey(cache) ? hits.get(cache) : 0)
+                    .append(" misses=").append(misses.containsKey(cache) ? misses.get(cache) : 0)
+                    .append(format(" ratio=%.3f", entry.getValue())).append("\n");
+        }
+        Map<String, Long> peakThreads = getPeakThreads();
+        for (Map.Entry<String, Long> entry : getActiveThreads().entrySet()) {
+            b.append("threads ").append(entry.getKey())
+                    .append(" active=").append(entry.getValue())
+                    .append(" peak=").append(peakThreads.get(entry.getKey())).append("\n");
+        }
+        return b.toString();
+    }
+
+    @Override
+    public String getJson() {
+        StringBuilder b = new StringBuilder();
+        b.append("{\"since\":").append(resetTime).append(",\"timers\":{");
+        boolean first = true;
+        for (Map.Entry<String, Timer> entry : new TreeMap<String, Timer>(timers).entrySet()) {
+            Timer t = entry.getValue();
+            b.append(first ? "" : ",").append(quote(entry.getKey())).append(":{");
+            b.append("\"count\":").append(t.getCount());
+            b.append(format(",\"meanMs\":%.3f,\"minMs\":%.3f,\"maxMs\":%.3f,\"p50Ms\":%.3f,\"p95Ms\":%.3f,\"p99Ms\":%.3f",
+                    t.getMeanMillis(), t.getMinMillis(), t.getMaxMillis(),
+                    t.getPercentileMillis(50), t.getPercentileMillis(95), t.getPercentileMillis(99)));
+            b.append(",\"histogram\":{");
+            long[] buckets = t.getBuckets();
+            for (int i = 0; i < buckets.length; i++) {
+                String bound = i < Timer.BUCKET_BOUNDS.length ? "lt" + Timer.BUCKET_BOUNDS[i] + "ms" : "overflow";
+                b.append(i == 0 ? "" : ",").append(quote(bound)).append(":").append(buckets[i]);
+            }
+            b.append("}}");
+            first = false;
+        }
+        b.append("},\"counters\":");
+        appendJsonMap(b, getCounters());
+        b.append(",\"cacheHits\":");
+        appendJsonMap(b, snapshot(cacheHits));
+        b.append(",\"cacheMisses\":");
+        appendJsonMap(b, snapshot(cacheMisses));
+        b.append(",\"activeThreads\":");
+        appendJsonMap(b, getActiveThreads());
+        b.append(",\"peakThreads\":");
+        appendJsonMap(b, getPeakThreads());
+        b.append("}");
+        return b.toString();
+    }
+
+    private static void appendJsonMap(StringBuilder b, Map<String, Long> map) {
+        b.append("{");
+        boolean first = true;
+        for (Map.Entry<String, Long> entry : map.entrySet()) {
+            b.append(first ? "" : ",").append(quote(entry.getKey())).append(":").append(entry.getValue());
+            first = false;
+        }
+        b.append("}");
+    }
+
+    private static String quote(String value) {
+        return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    private static String format(String format, Object... args) {
+        return String.format(Locale.ENGLISH, format, args);
+    }
+
+    private static AtomicLong get(ConcurrentMap<String, AtomicLong> map, String name) {
+        AtomicLong value = map.get(name);
+        if (value == null) {
+            AtomicLong newValue = new AtomicLong();
+            value = map.putIfAbsent(name, newValue);
+            if (value == null) {
+                value = newValue;
+            }
+        }
+        return value;
+    }
+
+    private static Map<String, Long> snapshot(Map<String, AtomicLong> map) {
+        Map<String, Long> result = new TreeMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> entry : map.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().get());
+        }
+        return result;
+    }
+
+    private static Map<String, Long> union(Map<String, Long> first, Map<String, Long> second) {
+        Map<String, Long> result = new TreeMap<String, Long>(first);
+        result.putAll(second);
+        return result;
+    }
+
+    private static void resetValues(Map<String, AtomicLong> map) {
+        for (AtomicLong value : map.values()) {
+            value.set(0);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2017 Swedish E-identification Board (E-legitimationsnämnden)
+ *  		 
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.tillvaxtverket.ttsigvalws.ttwssigvalidation.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX management interface of the signature validation metrics
+ */
+public interface SigValMetricsMXBean {
+
+    /**
+     * @return number of measured events per timer
+     */
+    Map<String, Long> getTimerCounts();
+
+    /**
+     * @return mean duration in milliseconds per timer
+     */
+    Map<String, Double> getTimerMeanMillis();
+
+    /**
+     * @return maximum duration in milliseconds per timer
+     */
+    Map<String, Double> getTimerMaxMillis();
+
+    /**
+     * @return estimated 95th percentile duration in milliseconds per timer
+     */
+    Map<String, Double> getTimerP95Millis();
+
+    /**
+     * @return current value of each counter
+     */
+    Map<String, Long> getCounters();
+
+    /**
+     * @return hit ratio (0-1) of each cache
+     */
+    Map<String, Double> getCacheHitRatios();
+
+    /**
+     * @return current number of active tasks per tracked thread type
+     */
+    Map<String, Long> getActiveThreads();
+
+    /**
+     * @return peak number of concurrently active tasks per tracked thread type
+     */
+    Map<String, Long> getPeakThreads();
+
+    /**
+     * @return all metrics in JSON format
+     */
+    String getJson();
+
+    /**
+     * Resets all metrics
+     */
+    void reset();
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2017 Swedish E-identification Board (E-legitimationsnämnden)
+ *  		 
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.tillvaxtverket.ttsigvalws.ttwssigvalidation.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread safe timer recording the number of measured events, total, minimum and
+ * maximum duration as well as a histogram of durations over fixed millisecond buckets.
+ */
+public class Timer {
+
+    /**
+     * Upper bounds in milliseconds of the histogram buckets. Durations above the
+     * last bound are counted in an overflow bucket.
+     */
+    public static final long[] BUCKET_BOUNDS = new long[]{1, 2, 5, 10, 20, 50, 100, 200, 500,
+        1000, 2000, 5000, 10000, 30000};
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong minNanos = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong maxNanos = new AtomicLong();
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_BOUNDS.length + 1);
+
+    /**
+     * Records one event
+     * @param nanos the duration of the event in nanoseconds
+     */
+    public void update(long nanos) {
+        if (nanos < 0) {
+            return;
+        }
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+        long current;
+        while (nanos < (current = minNanos.get()) && !minNanos.compareAndSet(current, nanos)) {
+        }
+        while (nanos > (current = maxNanos.get()) && !maxNanos.compareAndSet(current, nanos)) {
+        }
+        buckets.incrementAndGet(getBucket(TimeUnit.NANOSECONDS.toMillis(nanos)));
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public double getTotalMillis() {
+        return totalNanos.get() / 1000000.0;
+    }
+
+    public double getMeanMillis() {
+        long cnt = count.get();
+        return cnt == 0 ? 0 : totalNanos.get() / 1000000.0 / cnt;
+    }
+
+    public double getMinMillis() {
+        long min = minNanos.get();
+        return min == Long.MAX_VALUE ? 0 : min / 1000000.0;
+    }
+
+    public double getMaxMillis() {
+        return maxNanos.get() / 1000000.0;
+    }
+
+    /**
+     * @return a copy of the histogram bucket counts. The last element is the overflow bucket
+     */
+    public long[] getBuckets() {
+        long[] result = new long[buckets.length()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = buckets.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Estimates a percentile from the histogram
+     * @param percentile the percentile (0-100)
+     * @return the upper bound in milliseconds of the bucket holding the percentile,
+     * or the maximum recorded duration if the percentile falls in the overflow bucket
+     */
+    public double getPercentileMillis(double percentile) {
+        long[] counts = getBuckets();
+        long total = 0;
+        for (long c : counts) {
+            total += c;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * percentile / 100.0);
+        long cumulative = 0;
+        for (int i = 0; i < BUCKET_BOUNDS.length; i++) {
+            cumulative += counts[i];
+            if (cumulative >= rank) {
+                return Math.min(BUCKET_BOUNDS[i], getMaxMillis());
+            }
+        }
+        return getMaxMillis();
+    }
+
+    void reset() {
+        count.set(0);
+        totalNanos.set(0);
+        minNanos.set(Long.MAX_VALUE);
+        maxNanos.set(0);
+        for (int i = 0; i < buckets.length(); i++) {
+            buckets.set(i, 0);
+        }
+    }
+
+    private static int getBucket(long millis) {
+        for (int i = 0; i < BUCKET_BOUNDS.length; i++) {
+            if (millis < BUCKET_BOUNDS[i]) {
+                return i;
+            }
+        }
+        return BUCKET_BOUNDS.length;
+    }
+}
@@ -17,8 +17,10 @@
 package se.tillvaxtverket.ttsigvalws.ttwssigvalidation.models;
 
 import se.tillvaxtverket.tsltrust.common.utils.general.ContextLogger;
+import se.tillvaxtverket.tsltrust.common.utils.general.XmlUtils;
 import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.config.ConfigData;
 import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.sigVerify.TrustStore;
+import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.sigVerify.TsaChainCache;
 import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.statusCheck.CRLChecker;
 
 /**
@@ -33,6 +35,7 @@ public class SigValidationBaseModel {
     private ConfigData conf;
     private CRLChecker crlCache;
     private TrustStore trustStore;
+    private TsaChainCache tsaChainCache;
     private long trustLoadTime;
     private long trustReloadInterval = 1000*60*5;
 
@@ -40,6 +43,8 @@ public class SigValidationBaseModel {
         this.conf = conf;
         crlCache = new CRLChecker(conf);
         trustStore = new TrustStore(conf);
+        tsaChainCache = new TsaChainCache(conf.getTimeStampCacheTime());
+        XmlUtils.setMaxDocumentSize(conf.getMaxXmlDocumentSize());
         trustLoadTime = System.currentTimeMillis();
     }
     
@@ -51,6 +56,7 @@ public class SigValidationBaseModel {
     public void refreshTrustStore(){
         if (System.currentTimeMillis()>(trustLoadTime+trustReloadInterval)){
             trustStore = new TrustStore(conf);
+            tsaChainCache.clear();
             trustLoadTime=System.currentTimeMillis();
         }
     }
@@ -83,5 +89,12 @@ public class SigValidationBaseModel {
         return trustStore;
     }
 
+    /**
+     * @return Cache of verified time stamp authority certificate chains
+     */
+    public TsaChainCache getTsaChainCache() {
+        return tsaChainCache;
+    }
+
     
 }
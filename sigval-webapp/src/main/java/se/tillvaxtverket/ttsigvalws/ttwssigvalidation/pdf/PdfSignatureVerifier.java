@@ -21,11 +21,11 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
 import java.security.cert.CertificateException;
-import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -60,8 +60,11 @@ import org.bouncycastle.cms.jcajce.JcaSimpleSignerInfoVerifierBuilder;
 import org.bouncycastle.operator.OperatorCreationException;
 import org.bouncycastle.operator.bc.BcDigestCalculatorProvider;
 import org.bouncycastle.util.CollectionStore;
+import se.tillvaxtverket.tsltrust.common.iaik.CertPool;
 import se.tillvaxtverket.tsltrust.common.utils.core.Base64Coder;
+import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.document.DataSourceType;
 import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.document.SigDocument;
+import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.metrics.SigValMetrics;
 
 /**
  * Verifies signatures on PDF documents
@@ -84,18 +87,39 @@ public class PdfSignatureVerifier {
      * @throws IOException
      */
     public static PdfSigVerifyResult verifyPdfSignatures(SigDocument pdfDoc, boolean verifyPades) throws IOException {
-        PDDocument doc = PDDocument.load(pdfDoc.getDocInputStream());
+        long start = SigValMetrics.start();
+        // Load through random access on the file or the source bytes rather than copying a stream
+        PDDocument doc = null;
         PdfSigVerifyResult result = new PdfSigVerifyResult();
-        List<PDSignature> signatureDicts = doc.getSignatureDictionaries();
-        for (PDSignature sig : signatureDicts) {
-            byte[] signedContent = sig.getSignedContent(pdfDoc.getDocInputStream());
-            byte[] sigBytes = sig.getContents(pdfDoc.getDocInputStream());
-
-            CMSSigVerifyResult sigResult = result.addNewIndividualSignatureResult();
+        try {
+            List<PDSignature> signatureDicts;
             try {
-                verifySign(sigBytes, signedContent, sigResult, verifyPades);
-            } catch (Exception ex) {
-                sigResult.setStatus("Failed with exception: " + ex.getMessage());
+                if (pdfDoc.getDataSource() == DataSourceType.file) {
+                    doc = PDDocument.load(pdfDoc.getSigFile());
+                } else {
+                    doc = PDDocument.load(pdfDoc.getDocBytes());
+                }
+                signatureDicts = doc.getSignatureDictionaries();
+            } finally {
+                SigValMetrics.stop(SigValMetrics.PDF_PARSE, start);
+            }
+            for (PDSignature sig : signatureDicts) {
+                byte[] signedContent = sig.getSignedContent(pdfDoc.getDocInputStream());
+                byte[] sigBytes = sig.getContents(pdfDoc.getDocInputStream());
+
+                CMSSigVerifyResult sigResult = result.addNewIndividualSignatureResult();
+                start = SigValMetrics.start();
+                try {
+                    verifySign(sigBytes, signedContent, sigResult, verifyPades);
+                } catch (Exception ex) {
+                    sigResult.setStatus("Failed with exception: " + ex.getMessage());
+                } finally {
+                    SigValMetrics.stop(SigValMetrics.CMS_VERIFY, start);
+                }
+            }
+        } finally {
+            if (doc != null) {
+                doc.close();
             }
         }
 
@@ -115,18 +139,28 @@ public class PdfSignatureVerifier {
      * @throws IOException
      */
     public static PdfSigVerifyResult verifyPdfSignatures(File pdfFile, boolean verifyPades) throws IOException {
-        PDDocument doc = PDDocument.load(pdfFile);
+        long start = SigValMetrics.start();
+        PDDocument doc;
+        List<PDSignature> signatureDicts;
+        try {
+            doc = PDDocument.load(pdfFile);
+            signatureDicts = doc.getSignatureDictionaries();
+        } finally {
+            SigValMetrics.stop(SigValMetrics.PDF_PARSE, start);
+        }
         PdfSigVerifyResult result = new PdfSigVerifyResult();
-        List<PDSignature> signatureDicts = doc.getSignatureDictionaries();
         for (PDSignature sig : signatureDicts) {
             byte[] signedContent = sig.getSignedContent(new FileInputStream(pdfFile));
             byte[] sigBytes = sig.getContents(new FileInputStream(pdfFile));
 
             CMSSigVerifyResult sigResult = result.addNewIndividualSignatureResult();
+            start = SigValMetrics.start();
             try {
                 verifySign(sigBytes, signedContent, sigResult, verifyPades);
             } catch (Exception ex) {
                 sigResult.setStatus("Failed with exception: " + ex.getMessage());
+            } finally {
+                SigValMetrics.stop(SigValMetrics.CMS_VERIFY, start);
             }
         }
 
@@ -148,8 +182,24 @@ public class PdfSignatureVerifier {
      * @throws Exception
      */
     public static void verifySign(byte[] signedData, byte[] signedContentBytes, CMSSigVerifyResult sigResult, boolean verifyPades) throws Exception {
-        InputStream is = new ByteArrayInputStream(signedContentBytes);
-        CMSSignedDataParser sp = new CMSSignedDataParser(new BcDigestCalculatorProvider(), new CMSTypedStream(is), signedData);
+        verifySign(signedData, new ByteArrayInputStream(signedContentBytes), sigResult, verifyPades);
+    }
+
+    /**
+     * Verifies a detached CMS signature. The signed content is digested while
+     * it is read from the provided stream and is never held in memory.
+     *
+     * @param signedData The SignedData of this signature
+     * @param signedContentStream Stream providing the data being signed by
+     * this signature
+     * @param sigResult The signature verification result object used to express
+     * signature result data.
+     * @param verifyPades The value true causes verification to check for the
+     * signed signature certificate signed attributes.
+     * @throws Exception
+     */
+    public static void verifySign(byte[] signedData, InputStream signedContentStream, CMSSigVerifyResult sigResult, boolean verifyPades) throws Exception {
+        CMSSignedDataParser sp = new CMSSignedDataParser(new BcDigestCalculatorProvider(), new CMSTypedStream(signedContentStream), signedData);
         CMSTypedStream signedContent = sp.getSignedContent();
         signedContent.drain();
         sigResult.setSignedData(signedData);
@@ -158,6 +208,34 @@ public class PdfSignatureVerifier {
         checkTimestamps(sp, sigResult);
     }
 
+    /**
+     * Verifies a CMS signature with encapsulated content. The SignedData is
+     * parsed from the stream and the encapsulated content is digested as it
+     * passes, so that neither is held in memory.
+     *
+     * @param signedDataStream Stream providing the SignedData
+     * @param sigResult The signature verification result object used to express
+     * signature result data.
+     * @return true if the SignedData had encapsulated content and was
+     * verified, false if the signature is detached and can not be verified
+     * without the signed data
+     * @throws Exception
+     */
+    public static boolean verifyEncapsulatedSign(InputStream signedDataStream, CMSSigVerifyResult sigResult) throws Exception {
+        CMSSignedDataParser sp = new CMSSignedDataParser(new BcDigestCalculatorProvider(), signedDataStream);
+        CMSTypedStream signedContent = sp.getSignedContent();
+        if (signedContent == null) {
+            sigResult.setValid(false);
+            sigResult.setStatus("Detached signature without signed data");
+            return false;
+        }
+        signedContent.drain();
+
+        verifyCMSSignature(sp, sigResult);
+        checkTimestamps(sp, sigResult);
+        return true;
+    }
+
     private static void verifyCMSSignature(CMSSignedDataParser sp, CMSSigVerifyResult sigResult) throws CMSException, IOException, CertificateException, OperatorCreationException {
         CollectionStore certStore = (CollectionStore) sp.getCertificates();
         Iterator ci = certStore.iterator();
@@ -234,6 +312,18 @@ public class PdfSignatureVerifier {
                 tsResult.setTimestamp(timeStampBytes);
                 timeStampResultList.add(tsResult);
 
+                // A previously verified token only needs its message imprint compared with this signature
+                ByteBuffer tsKey = TimeStampTokenCache.getKey(timeStampBytes);
+                TimeStampTokenCache.Entry cachedToken = TimeStampTokenCache.get(tsKey);
+                if (cachedToken != null) {
+                    TimeStampData timeStampData = cachedToken.getTsData();
+                    tsResult.setTsData(timeStampData);
+                    byte[] sigHash = getDigest(timeStampData.getImprintHashAlgo(), signer.getSignature());
+                    tsResult.setTimestampMatch(Arrays.equals(sigHash, timeStampData.getImprintDigest()));
+                    tsResult.setSignatureVerification(cachedToken.getSignatureVerification());
+                    continue;
+                }
+
                 InputStream tsis = new ByteArrayInputStream(timeStampBytes);
                 CMSSignedDataParser tsSp = new CMSSignedDataParser(new BcDigestCalculatorProvider(), tsis);
 
@@ -250,6 +340,7 @@ public class PdfSignatureVerifier {
                 tsResult.setSignatureVerification(tsSigResult);
 
                 verifyCMSSignature(tsSp, tsSigResult);
+                TimeStampTokenCache.put(tsKey, timeStampData, tsSigResult);
             } catch (Exception e) {
             }
 
@@ -266,17 +357,10 @@ public class PdfSignatureVerifier {
      * @throws CertificateException
      */
     public static X509Certificate getCert(X509CertificateHolder certHolder) throws IOException, CertificateException {
-        X509Certificate cert = null;
-        ByteArrayInputStream certIs = new ByteArrayInputStream(certHolder.getEncoded());
-
-        try {
-            CertificateFactory cf = CertificateFactory.getInstance("X.509");
-            cert = (X509Certificate) cf.generateCertificate(certIs);
-
-        } finally {
-            certIs.close();
+        X509Certificate cert = CertPool.getJcaCert(certHolder.getEncoded());
+        if (cert == null) {
+            throw new CertificateException("Unable to parse certificate");
         }
-
         return cert;
     }
 
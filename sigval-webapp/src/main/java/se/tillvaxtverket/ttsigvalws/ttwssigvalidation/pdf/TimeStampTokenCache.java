@@ -0,0 +1,100 @@
+/*
+ * Copyright 2017 Swedish E-identification Board (E-legitimationsnämnden)
+ *  		 
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.tillvaxtverket.ttsigvalws.ttwssigvalidation.pdf;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.metrics.SigValMetrics;
+
+/**
+ * Process wide cache of parsed and signature verified RFC 3161 time stamp
+ * tokens, keyed by the SHA-256 hash of the token.
+ * <p>
+ * The parsed time stamp data and the verification result of the TSA signature
+ * depend only on the token itself, so a token that has been seen before, e.g.
+ * when the same document is validated again, is not parsed or verified again.
+ * Cached objects are shared and must not be modified.
+ */
+final class TimeStampTokenCache {
+
+    /** Maximum number of cached time stamp tokens */
+    static final int MAX_SIZE = 1024;
+    private static final Map<ByteBuffer, Entry> cache = new LinkedHashMap<ByteBuffer, Entry>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Entry> eldest) {
+            return size() > MAX_SIZE;
+        }
+    };
+
+    private TimeStampTokenCache() {
+    }
+
+    /**
+     * @param timeStampBytes DER encoded time stamp token
+     * @return cache key of the time stamp token
+     */
+    static ByteBuffer getKey(byte[] timeStampBytes) {
+        try {
+            return ByteBuffer.wrap(MessageDigest.getInstance("SHA-256").digest(timeStampBytes));
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    static Entry get(ByteBuffer key) {
+        synchronized (cache) {
+            Entry entry = cache.get(key);
+            if (entry != null) {
+                SigValMetrics.cacheHit(SigValMetrics.TIMESTAMP_TOKEN_CACHE);
+            } else {
+                SigValMetrics.cacheMiss(SigValMetrics.TIMESTAMP_TOKEN_CACHE);
+            }
+            return entry;
+        }
+    }
+
+    static void put(ByteBuffer key, TimeStampData tsData, CMSSigVerifyResult signatureVerification) {
+        synchronized (cache) {
+            cache.put(key, new Entry(tsData, signatureVerification));
+        }
+    }
+
+    /**
+     * The parsed time stamp data and TSA signature verification result of a token
+     */
+    static final class Entry {
+
+        private final TimeStampData tsData;
+        private final CMSSigVerifyResult signatureVerification;
+
+        Entry(TimeStampData tsData, CMSSigVerifyResult signatureVerification) {
+            this.tsData = tsData;
+            this.signatureVerification = signatureVerification;
+        }
+
+        TimeStampData getTsData() {
+            return tsData;
+        }
+
+        CMSSigVerifyResult getSignatureVerification() {
+            return signatureVerification;
+        }
+    }
+}
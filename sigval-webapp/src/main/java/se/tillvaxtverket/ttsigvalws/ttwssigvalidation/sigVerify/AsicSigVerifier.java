@@ -0,0 +1,432 @@
+/*
+ * Copyright 2017 Swedish E-identification Board (E-legitimationsnämnden)
+ *  		 
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.tillvaxtverket.ttsigvalws.ttwssigvalidation.sigVerify;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import se.tillvaxtverket.tsltrust.common.utils.core.Base64Coder;
+import se.tillvaxtverket.tsltrust.common.utils.general.XmlUtils;
+import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.document.DataSourceType;
+import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.document.SigDocument;
+import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.metrics.SigValMetrics;
+import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.models.SigValidationModel;
+import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.pdf.CMSSigVerifyResult;
+import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.pdf.DigestAlgorithm;
+import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.pdf.PdfSignatureVerifier;
+import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.sigVerify.context.SignatureValidationContext;
+
+/**
+ * Signature verifier class for verification of CAdES signatures in ASiC
+ * containers (ETSI EN 319 162).
+ * <p>
+ * ASiC-S containers hold a single data object signed by one or more detached
+ * CAdES signatures in META-INF. ASiC-E containers hold one or more
+ * ASiCManifest files in META-INF, each signed by a detached CAdES signature
+ * and listing the digests of the data objects covered by that signature.</p>
+ * <p>
+ * ZIP entries are opened on demand and data objects are digested as they are
+ * read from the container. Only the signature and manifest files are held in
+ * memory.</p>
+ */
+public class AsicSigVerifier extends CmsSigVerifier {
+
+    private static final String META_INF = "META-INF/";
+    private static final String MIMETYPE = "mimetype";
+    private static final String ASIC_NS = "http://uri.etsi.org/02918/v1.2.1#";
+    private static final String XMLDSIG_NS = "http://www.w3.org/2000/09/xmldsig#";
+    private static final int MAX_META_INF_ENTRY_SIZE = 10 * 1024 * 1024;
+
+    public AsicSigVerifier(SigValidationModel sigModel) {
+        this.model = sigModel;
+    }
+
+    @Override
+    protected void getSignatureContext() {
+        model.getBaseModel().getCrlCache().clearLog();
+        CertChainVerifier certChainVerifier = getCertChainVerifier();
+        if (certChainVerifier == null) {
+            return;
+        }
+
+        List<SignatureValidationContext> svcList = new ArrayList<SignatureValidationContext>();
+        try (AsicContainer container = openContainer(model.getSigDocument())) {
+            List<String> dataObjects = new ArrayList<String>();
+            List<String> signatures = new ArrayList<String>();
+            List<String> manifests = new ArrayList<String>();
+            for (String name : container.getEntryNames()) {
+                if (name.endsWith("/") || name.equals(MIMETYPE)) {
+                    continue;
+                }
+                if (!name.startsWith(META_INF)) {
+                    dataObjects.add(name);
+                    continue;
+                }
+                String fileName = name.substring(META_INF.length());
+                if (fileName.startsWith("ASiCManifest") && fileName.endsWith(".xml")) {
+                    manifests.add(name);
+                } else if (fileName.contains("signature") && fileName.endsWith(".p7s")) {
+                    signatures.add(name);
+                }
+            }
+
+            if (manifests.isEmpty()) {
+                verifyAsicS(container, dataObjects, signatures, certChainVerifier, svcList);
+            } else {
+                verifyAsicE(container, dataObjects, manifests, certChainVerifier, svcList);
+            }
+        } catch (Exception ex) {
+            LOG.log(Level.WARNING, "Unable to process ASiC container: {0}", ex.getMessage());
+        }
+
+        model.setSignatureContexts(svcList);
+        complete();
+    }
+
+    private void verifyAsicS(AsicContainer container, List<String> dataObjects, List<String> signatures,
+            CertChainVerifier certChainVerifier, List<SignatureValidationContext> svcList) throws IOException {
+        for (String sigName : signatures) {
+            CMSSigVerifyResult sigResult = new CMSSigVerifyResult();
+            if (dataObjects.size() != 1) {
+                sigResult.setStatus("ASiC-S container must hold exactly one data object");
+            } else {
+                byte[] sigBytes = container.getMetaInfEntry(sigName);
+                try (InputStream dataStream = container.getEntryStream(dataObjects.get(0))) {
+                    long start = SigValMetrics.start();
+                    try {
+                        PdfSignatureVerifier.verifySign(sigBytes, dataStream, sigResult, true);
+                    } catch (Exception ex) {
+                        sigResult.setStatus("Failed with exception: " + ex.getMessage());
+                    } finally {
+                        SigValMetrics.stop(SigValMetrics.CMS_VERIFY, start);
+                    }
+                }
+            }
+            svcList.add(getSignatureValidationContext(sigResult, sigName, certChainVerifier));
+        }
+    }
+
+    private void verifyAsicE(AsicContainer container, List<String> dataObjects, List<String> manifests,
+            CertChainVerifier certChainVerifier, List<SignatureValidationContext> svcList) throws Exception {
+        // Data objects referenced by several manifests are only digested once per algorithm
+        Map<String, byte[]> digestCache = new HashMap<String, byte[]>();
+        for (String manifestName : manifests) {
+            byte[] manifestBytes = container.getMetaInfEntry(manifestName);
+            Document manifest = parseManifest(manifestBytes);
+            Element sigRef = (Element) manifest.getElementsByTagNameNS(ASIC_NS, "SigReference").item(0);
+            if (sigRef == null) {
+                continue;
+            }
+            String sigName = getEntryName(container, sigRef.getAttribute("URI"));
+            CMSSigVerifyResult sigResult = new CMSSigVerifyResult();
+            Set<String> coveredObjects = new HashSet<String>();
+            long start = SigValMetrics.start();
+            try {
+                if (sigName == null) {
+                    sigResult.setStatus("Referenced signature file not found in container");
+                } else {
+                    byte[] sigBytes = container.getMetaInfEntry(sigName);
+                    PdfSignatureVerifier.verifySign(sigBytes, new ByteArrayInputStream(manifestBytes), sigResult, true);
+                }
+                if (sigResult.isValid()) {
+                    checkDataObjectReferences(container, manifest, sigResult, coveredObjects, digestCache);
+                }
+            } catch (Exception ex) {
+                sigResult.setValid(false);
+                sigResult.setStatus("Failed with exception: " + ex.getMessage());
+            } finally {
+                SigValMetrics.stop(SigValMetrics.CMS_VERIFY, start);
+            }
+            SignatureValidationContext svc = getSignatureValidationContext(sigResult, sigName == null ? manifestName : sigName, certChainVerifier);
+            svc.setCoversDoc(sigResult.isValid() && coveredObjects.containsAll(dataObjects));
+            svcList.add(svc);
+        }
+    }
+
+    private void checkDataObjectReferences(AsicContainer container, Document manifest, CMSSigVerifyResult sigResult,
+            Set<String> coveredObjects, Map<String, byte[]> digestCache) throws Exception {
+        NodeList references = manifest.getElementsByTagNameNS(ASIC_NS, "DataObjectReference");
+        for (int i = 0; i < references.getLength(); i++) {
+            Element reference = (Element) references.item(i);
+            String uri = reference.getAttribute("URI");
+            String entryName = getEntryName(container, uri);
+            Element digestMethod = (Element) reference.getElementsByTagNameNS(XMLDSIG_NS, "DigestMethod").item(0);
+            Element digestValue = (Element) reference.getElementsByTagNameNS(XMLDSIG_NS, "DigestValue").item(0);
+            DigestAlgorithm digestAlgo = digestMethod == null ? null : getDigestAlgo(digestMethod.getAttribute("Algorithm"));
+            if (entryName == null || digestAlgo == null || digestValue == null) {
+                sigResult.setValid(false);
+                sigResult.setStatus("Unable to verify data object reference " + uri);
+                return;
+            }
+            String cacheKey = digestAlgo.name() + ":" + entryName;
+            byte[] digest = digestCache.get(cacheKey);
+            if (digest == null) {
+                digest = digestEntry(container, entryName, digestAlgo);
+                digestCache.put(cacheKey, digest);
+            }
+            if (!Arrays.equals(digest, Base64Coder.decodeLines(digestValue.getTextContent().trim()))) {
+                sigResult.setValid(false);
+                sigResult.setStatus("Digest mismatch for data object " + entryName);
+                return;
+            }
+            coveredObjects.add(entryName);
+        }
+    }
+
+    private static byte[] digestEntry(AsicContainer container, String entryName, DigestAlgorithm digestAlgo) throws Exception {
+        MessageDigest md = MessageDigest.getInstance(digestAlgo.getName());
+        try (InputStream is = container.getEntryStream(entryName)) {
+            byte[] buf = new byte[8192];
+            int len;
+            while ((len = is.read(buf)) != -1) {
+                md.update(buf, 0, len);
+            }
+        }
+        return md.digest();
+    }
+
+    private static DigestAlgorithm getDigestAlgo(String xmlId) {
+        for (DigestAlgorithm digestAlgo : DigestAlgorithm.values()) {
+            if (digestAlgo.getXmlId().equals(xmlId)) {
+                return digestAlgo;
+            }
+        }
+        return null;
+    }
+
+    private static Document parseManifest(byte[] manifestBytes) throws Exception {
+        return XmlUtils.parse(new ByteArrayInputStream(manifestBytes), true);
+    }
+
+    /**
+     * Resolves a manifest URI to the name of an entry in the container
+     */
+    private static String getEntryName(AsicContainer container, String uri) throws IOException {
+        if (uri == null || uri.length() == 0) {
+            return null;
+        }
+        List<String> entryNames = container.getEntryNames();
+        if (entryNames.contains(uri)) {
+            return uri;
+        }
+        String decoded = URLDecoder.decode(uri.replace("+", "%2B"), "UTF-8");
+        return entryNames.contains(decoded) ? decoded : null;
+    }
+
+    private static AsicContainer openContainer(SigDocument sigDocument) throws IOException {
+        if (sigDocument.getDataSource() == DataSourceType.file) {
+            return new FileContainer(sigDocument.getSigFile());
+        }
+        return new StreamContainer(sigDocument);
+    }
+
+    /**
+     * Read access to the entries of an ASiC container
+     */
+    private static abstract class AsicContainer implements Closeable {
+
+        abstract List<String> getEntryNames() throws IOException;
+
+        abstract InputStream getEntryStream(String name) throws IOException;
+
+        @Override
+        public void close() {
+        }
+
+        /**
+         * Reads a signature or manifest entry, refusing entries of
+         * unreasonable size
+         */
+        byte[] getMetaInfEntry(String name) throws IOException {
+            try (InputStream is = getEntryStream(name)) {
+                ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                byte[] buf = new byte[8192];
+                int len;
+                while ((len = is.read(buf)) != -1) {
+                    if (bos.size() + len > MAX_META_INF_ENTRY_SIZE) {
+                        throw new IOException("Container entry " + name + " exceeds maximum size");
+                    }
+                    bos.write(buf, 0, len);
+                }
+                return bos.toByteArray();
+            }
+        }
+    }
+
+    /**
+     * Container stored in a file, with random access to entries through the
+     * ZIP central directory
+     */
+    private static class FileContainer extends AsicContainer {
+
+        private final ZipFile zipFile;
+        private final List<String> entryNames = new ArrayList<String>();
+
+        FileContainer(File file) throws IOException {
+            zipFile = new ZipFile(file);
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                entryNames.add(entries.nextElement().getName());
+            }
+        }
+
+        @Override
+        List<String> getEntryNames() {
+            return entryNames;
+        }
+
+        @Override
+        InputStream getEntryStream(String name) throws IOException {
+            ZipEntry entry = zipFile.getEntry(name);
+            if (entry == null) {
+                throw new IOException("No entry " + name + " in container");
+            }
+            return zipFile.getInputStream(entry);
+        }
+
+        @Override
+        public void close() {
+            try {
+                zipFile.close();
+            } catch (IOException ex) {
+            }
+        }
+    }
+
+    /**
+     * Container held in memory. The ZIP central directory is read once from
+     * the document buffer when the container is opened, giving the offset of
+     * the local file header of each entry, and entries are read from a stream
+     * over the document positioned at that offset.
+     */
+    private static class StreamContainer extends AsicContainer {
+
+        private static final int EOCD_SIG = 0x06054b50;
+        private static final int CEN_SIG = 0x02014b50;
+        private static final int EOCD_LEN = 22;
+        private static final int CEN_LEN = 46;
+
+        private final SigDocument sigDocument;
+        private final ByteBuffer data;
+        private final List<String> entryNames = new ArrayList<String>();
+        private final Map<String, Integer> entryOffsets = new HashMap<String, Integer>();
+
+        StreamContainer(SigDocument sigDocument) throws IOException {
+            this.sigDocument = sigDocument;
+            data = sigDocument.getDocBuffer();
+            if (data == null) {
+                throw new IOException("Unable to read container data");
+            }
+            readCentralDirectory();
+        }
+
+        private void readCentralDirectory() throws IOException {
+            int eocd = -1;
+            int length = data.limit();
+            for (int i = length - EOCD_LEN; i >= 0 && i >= length - EOCD_LEN - 0xFFFF; i--) {
+                if (getInt(i) == EOCD_SIG) {
+                    eocd = i;
+                    break;
+                }
+            }
+            if (eocd < 0) {
+                throw new IOException("No ZIP central directory found in container");
+            }
+            int count = getShort(eocd + 10);
+            long cenOffset = getInt(eocd + 16) & 0xFFFFFFFFL;
+            if (count == 0xFFFF || cenOffset == 0xFFFFFFFFL) {
+                throw new IOException("ZIP64 containers are not supported");
+            }
+            int pos = (int) Math.min(cenOffset, length);
+            for (int i = 0; i < count; i++) {
+                if (pos + CEN_LEN > length || getInt(pos) != CEN_SIG) {
+                    throw new IOException("Invalid ZIP central directory in container");
+                }
+                int nameLen = getShort(pos + 28);
+                int extraLen = getShort(pos + 30);
+                int commentLen = getShort(pos + 32);
+                long offset = getInt(pos + 42) & 0xFFFFFFFFL;
+                if (pos + CEN_LEN + nameLen > length || offset >= length) {
+                    throw new IOException("Invalid ZIP central directory in container");
+                }
+                byte[] nameBytes = new byte[nameLen];
+                ((ByteBuffer) data.duplicate().position(pos + CEN_LEN)).get(nameBytes);
+                String name = new String(nameBytes, StandardCharsets.UTF_8);
+                if (!entryOffsets.containsKey(name)) {
+                    entryNames.add(name);
+                    entryOffsets.put(name, (int) offset);
+                }
+                pos += CEN_LEN + nameLen + extraLen + commentLen;
+            }
+        }
+
+        private int getShort(int pos) {
+            return (data.get(pos) & 0xFF) | (data.get(pos + 1) & 0xFF) << 8;
+        }
+
+        private int getInt(int pos) {
+            return getShort(pos) | getShort(pos + 2) << 16;
+        }
+
+        @Override
+        List<String> getEntryNames() {
+            return entryNames;
+        }
+
+        @Override
+        InputStream getEntryStream(String name) throws IOException {
+            Integer offset = entryOffsets.get(name);
+            if (offset == null) {
+                throw new IOException("No entry " + name + " in container");
+            }
+            InputStream is = sigDocument.getDocInputStream();
+            if (is.skip(offset) != offset) {
+                is.close();
+                throw new IOException("Invalid offset of entry " + name + " in container");
+            }
+            ZipInputStream zis = new ZipInputStream(is);
+            ZipEntry entry = zis.getNextEntry();
+            if (entry == null || !entry.getName().equals(name)) {
+                zis.close();
+                throw new IOException("Local header of entry " + name + " does not match the central directory");
+            }
+            return zis;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2017 Swedish E-identification Board (E-legitimationsnämnden)
+ *  		 
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.tillvaxtverket.ttsigvalws.ttwssigvalidation.sigVerify;
+
+import java.io.BufferedInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.metrics.SigValMetrics;
+import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.models.SigValidationModel;
+import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.pdf.CMSSigVerifyResult;
+import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.pdf.PdfSignatureVerifier;
+import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.sigVerify.context.SignatureValidationContext;
+
+/**
+ * Signature verifier class for verification of CAdES signatures with
+ * encapsulated signed content. The SignedData is parsed as a stream and the
+ * signed content is digested while it is read.
+ * <p>
+ * A detached CAdES signature submitted without its signed data is reported as
+ * a signature that failed verification. Detached signatures are supported
+ * when delivered in an ASiC container, see {@link AsicSigVerifier}.</p>
+ */
+public class CadesSigVerifier extends CmsSigVerifier {
+
+    public CadesSigVerifier(SigValidationModel sigModel) {
+        this.model = sigModel;
+    }
+
+    @Override
+    protected void getSignatureContext() {
+        model.getBaseModel().getCrlCache().clearLog();
+        CertChainVerifier certChainVerifier = getCertChainVerifier();
+        if (certChainVerifier == null) {
+            return;
+        }
+
+        CMSSigVerifyResult sigResult = new CMSSigVerifyResult();
+        long start = SigValMetrics.start();
+        try (InputStream is = model.getSigDocument().getDocInputStream()) {
+            PdfSignatureVerifier.verifyEncapsulatedSign(new BufferedInputStream(is), sigResult);
+        } catch (Exception ex) {
+            sigResult.setStatus("Failed with exception: " + ex.getMessage());
+            LOG.log(Level.FINE, "CAdES signature verification failed", ex);
+        } finally {
+            SigValMetrics.stop(SigValMetrics.CMS_VERIFY, start);
+        }
+
+        List<SignatureValidationContext> svcList = new ArrayList<SignatureValidationContext>();
+        svcList.add(getSignatureValidationContext(sigResult, "Signature 1", certChainVerifier));
+        model.setSignatureContexts(svcList);
+        complete();
+    }
+}
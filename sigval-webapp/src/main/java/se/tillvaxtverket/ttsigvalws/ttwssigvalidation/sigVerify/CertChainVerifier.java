@@ -19,6 +19,7 @@ package se.tillvaxtverket.ttsigvalws.ttwssigvalidation.sigVerify;
 import se.tillvaxtverket.tsltrust.common.utils.general.ObserverConstants;
 import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.models.SigValidationBaseModel;
 import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.statusCheck.OCSPClient;
+import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.metrics.SigValMetrics;
 import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.statusCheck.CRLChecker;
 import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.sigVerify.context.OCSPVerifyContext;
 import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.sigVerify.context.CertVerifyContext;
@@ -28,7 +29,6 @@ import iaik.x509.SimpleChainVerifier;
 import iaik.x509.V3Extension;
 import iaik.x509.X509ExtensionInitException;
 import java.io.IOException;
-import java.security.KeyStoreException;
 import java.security.cert.CertificateException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -36,10 +36,8 @@ import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.models.SigValidationModel;
 import iaik.x509.X509Certificate;
 import iaik.x509.extensions.AuthorityInfoAccess;
 import iaik.x509.extensions.ExtendedKeyUsage;
-import java.security.KeyStore;
 import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.Enumeration;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Observable;
@@ -67,7 +65,7 @@ import se.tillvaxtverket.tsltrust.common.iaik.KsCertFactory;
  */
 public class CertChainVerifier {
 
-    private KeyStore keyStore;
+    private PolicyTrust policyTrust;
     private boolean initialized;
     private X509Certificate rootCert;
     private List<X509Certificate> cACertList = new LinkedList<X509Certificate>();
@@ -87,23 +85,14 @@ public class CertChainVerifier {
         this.model = model;
         SigValidationBaseModel baseModel = model.getBaseModel();
         this.crlCache = baseModel.getCrlCache();
-        this.keyStore = baseModel.getTrustStore().getKeyStore(model.getPolicyName());
+        this.policyTrust = baseModel.getTrustStore().getPolicyTrust(model.getPolicyName());
         this.statusCheckTimeout = baseModel.getConf().getValidationTimeout();
-        try {
-            rootCert = KsCertFactory.getIaikCert(keyStore.getCertificate("Root"));
-            Enumeration<String> aliases = keyStore.aliases();
-            while (aliases.hasMoreElements()) {
-                String alias = aliases.nextElement();
-                if (alias.equalsIgnoreCase("Root")) {
-                    continue;
-                }
-                X509Certificate cert = KsCertFactory.getIaikCert(keyStore.getCertificate(alias));
-                cACertList.add(cert);
-            }
-
-        } catch (KeyStoreException ex) {
+        if (policyTrust == null) {
             initialized = false;
+            return;
         }
+        rootCert = policyTrust.getRootCert();
+        cACertList = policyTrust.getCaCerts();
         initialized = true;
     }
 
@@ -168,6 +157,15 @@ public class CertChainVerifier {
     }
 
     public CertVerifyContext verifyChain(List<X509Certificate> certList) {
+        long start = SigValMetrics.start();
+        try {
+            return verifyCertChain(certList);
+        } finally {
+            SigValMetrics.stop(SigValMetrics.CHAIN_VERIFY, start);
+        }
+    }
+
+    private CertVerifyContext verifyCertChain(List<X509Certificate> certList) {
         CertVerifyContext cvCont = new CertVerifyContext();
         if (certList.isEmpty()) {
             cvCont.setChainsToRoot(false);
@@ -263,8 +261,13 @@ public class CertChainVerifier {
 
     private void crlCheck(CertVerifyContext cvCont) {
         //CRL Check
-        crlCache.derefCRL(cvCont);
-        crlCache.checkRevocation(cvCont);
+        long start = SigValMetrics.start();
+        try {
+            crlCache.derefCRL(cvCont);
+            crlCache.checkRevocation(cvCont);
+        } finally {
+            SigValMetrics.stop(SigValMetrics.CRL_CHECK, start);
+        }
     }
 
     private void ocspCheck(CertVerifyContext cvCont) {
@@ -277,6 +280,7 @@ public class CertChainVerifier {
             AccessDescription aDesc = aia.getAccessDescription(ObjectID.ocsp);
             String ocspURI = aDesc.getUriAccessLocation();
             if (ocspURI.length() > 0) {
+                long start = SigValMetrics.start();
                 try {
                     OCSPClient ocsp = new OCSPClient();
                     ocspVC = ocsp.start(baseCert, issuerCert, ocspURI, cACertList, rootCert, crlCache);
@@ -284,7 +288,10 @@ public class CertChainVerifier {
                         cvCont.setOcspVerifyContext(ocspVC);
                     }
                 } catch (Exception ex) {
+                    SigValMetrics.increment(SigValMetrics.OCSP_FAILURES);
                     Logger.getLogger(CertChainVerifier.class.getName()).log(Level.SEVERE, null, ex);
+                } finally {
+                    SigValMetrics.stop(SigValMetrics.OCSP_CHECK, start);
                 }
             }
 
@@ -293,6 +300,9 @@ public class CertChainVerifier {
     }
 
     private X509Certificate getTargetFromStore(X509Certificate targetCert) {
+        if (policyTrust != null) {
+            return policyTrust.getCaByPublicKey(targetCert);
+        }
         for (X509Certificate caCert : cACertList) {
             if (targetCert.getPublicKey().equals(caCert.getPublicKey())) {
                 return caCert;
@@ -302,6 +312,9 @@ public class CertChainVerifier {
     }
 
     private X509Certificate getIssuerFromStore(X509Certificate targetCert) {
+        if (policyTrust != null) {
+            return policyTrust.getCaByIssuer(targetCert);
+        }
         for (X509Certificate caCert : cACertList) {
             if (targetCert.getIssuerDN().equals(caCert.getSubjectDN())) {
                 return caCert;
@@ -500,7 +513,12 @@ public class CertChainVerifier {
         }
 
         public void run() {
-            crlCheck(context.cvCont);
+            SigValMetrics.threadEnter(SigValMetrics.STATUS_CHECK_THREADS);
+            try {
+                crlCheck(context.cvCont);
+            } finally {
+                SigValMetrics.threadExit(SigValMetrics.STATUS_CHECK_THREADS);
+            }
             setChanged();
             notifyObservers(COMPLETE);
         }
@@ -515,7 +533,12 @@ public class CertChainVerifier {
         }
 
         public void run() {
-            ocspCheck(context.cvCont);
+            SigValMetrics.threadEnter(SigValMetrics.STATUS_CHECK_THREADS);
+            try {
+                ocspCheck(context.cvCont);
+            } finally {
+                SigValMetrics.threadExit(SigValMetrics.STATUS_CHECK_THREADS);
+            }
             setChanged();
             notifyObservers(COMPLETE);
         }
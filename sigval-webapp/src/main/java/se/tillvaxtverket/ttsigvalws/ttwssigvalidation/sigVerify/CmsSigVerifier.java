@@ -0,0 +1,177 @@
+/*
+ * Copyright 2017 Swedish E-identification Board (E-legitimationsnämnden)
+ *  		 
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.tillvaxtverket.ttsigvalws.ttwssigvalidation.sigVerify;
+
+import iaik.x509.X509Certificate;
+import iaik.x509.extensions.qualified.QCStatements;
+import iaik.x509.extensions.qualified.structures.QCStatement;
+import iaik.x509.extensions.qualified.structures.etsi.QcEuCompliance;
+import iaik.x509.extensions.qualified.structures.etsi.QcEuSSCD;
+import java.util.Calendar;
+import java.util.List;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import se.tillvaxtverket.tsltrust.common.iaik.KsCertFactory;
+import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.pdf.CMSSigVerifyResult;
+import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.pdf.TimeStampData;
+import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.pdf.TimeStampResult;
+import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.sigVerify.context.SignatureValidationContext;
+import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.sigVerify.context.TimeStampContext;
+
+/**
+ * Abstract superclass for verifiers of CMS based signatures (PAdES, CAdES and
+ * ASiC). Holds the logic for turning CMS signature verification results into
+ * signature validation contexts, including certificate path validation,
+ * time stamp validation and QC compliance tests.
+ */
+public abstract class CmsSigVerifier extends SigVerifier {
+
+    /**
+     * Creates a certificate chain verifier for the policy of the current model
+     *
+     * @return certificate chain verifier or null if no trust data is available
+     * for the selected policy
+     */
+    protected CertChainVerifier getCertChainVerifier() {
+        CertChainVerifier certChainVerifier = new CertChainVerifier(model);
+        if (!certChainVerifier.isInitialized()) {
+            return null;
+        }
+        certChainVerifier.setCheckAllRev(model.isCheckOcspAndCrl());
+        certChainVerifier.setPreferSpeed(model.isPrefSpeed());
+        return certChainVerifier;
+    }
+
+    /**
+     * Creates a signature validation context from the verification result of
+     * one CMS signature
+     *
+     * @param sig CMS signature verification result
+     * @param signatureName name of the signature in the validation report
+     * @param certChainVerifier verifier for the signer certificate chain
+     * @return signature validation context
+     */
+    protected SignatureValidationContext getSignatureValidationContext(CMSSigVerifyResult sig, String signatureName, CertChainVerifier certChainVerifier) {
+        SignatureValidationContext svc = new SignatureValidationContext();
+        svc.setSignatureName(signatureName);
+        svc.setCoversDoc(true);
+        svc.setRevision(0);
+        svc.setRevisions(0);
+
+        try {
+            svc.setSignaturePkAlgOID(sig.getSigAlgo().getSigAlgoOid());
+            svc.setSignatureHashAlgOID(new ASN1ObjectIdentifier(sig.getSigAlgo().getDigestAlgo().getOid()));
+        } catch (Exception ex) {
+            // Algorithm data is not available for signatures that failed verification
+        }
+        if (sig.getClaimedSigningTime() != null) {
+            Calendar claimedSigTime = Calendar.getInstance();
+            claimedSigTime.setTime(sig.getClaimedSigningTime());
+            svc.setSignDate(claimedSigTime);
+        }
+        svc.setTimestamped(sig.isTimeStamped());
+        TimeStampContext tsCont = (svc.isTimestamped() ? new TimeStampContext() : null);
+        svc.setTstContext(tsCont);
+        try {
+            List<X509Certificate> unorderedSignCerts = KsCertFactory.getIaikCertList(sig.getCertList());
+            X509Certificate signerCert = KsCertFactory.getIaikCert(sig.getCert().getEncoded());
+            List<X509Certificate> signCerts = KsCertFactory.getOrderedCertList(unorderedSignCerts, signerCert);
+            svc.setProvidedChain(signCerts);
+            svc.setSignCert(KsCertFactory.getIaikCert(sig.getCert().getEncoded()));
+
+            // modified code
+            boolean signatureValid = sig.isValid();
+            svc.setSigValid(signatureValid);
+            svc.setDigestValid(signatureValid);
+
+            svc.setSignCertValidation(certChainVerifier.verifyChain(signCerts));
+            // Require that chain validation succeeds.
+            svc.setSigChainVerified(svc.getSignCertValidation().isSigChainVerified());
+
+            if (sig.isTimeStamped()) {
+                checkTimestamp(svc, sig, certChainVerifier);
+            }
+
+        } catch (Exception ex) {
+            svc.setDigestValid(false);
+        }
+        //QC compliance test
+        qcComplianceTest(svc);
+        return svc;
+    }
+
+    /**
+     * Marks signature verification as complete and notifies observers
+     */
+    protected void complete() {
+        model.setSignVerificationComplete(true);
+        setChanged();
+        if (running) {
+            notifyObservers(COMPLETE);
+        } else {
+            notifyObservers(RETURN_FROM_ABORT);
+        }
+    }
+
+    private void checkTimestamp(SignatureValidationContext svc, CMSSigVerifyResult sigResult, CertChainVerifier certChainVerifier) {
+        TimeStampContext tsCont = svc.getTstContext();
+        List<TimeStampResult> validTimeStamps = sigResult.getValidTimeStamps();
+        if (validTimeStamps.isEmpty()) {
+            tsCont.setTimeStampDate(null);
+            tsCont.setTsSignValidated(false);
+            return;
+        }
+        TimeStampResult tsResult = validTimeStamps.get(0);
+        TimeStampData tsData = tsResult.getTsData();
+        Calendar tsTime = Calendar.getInstance();
+        tsTime.setTime(tsData.getTime());
+
+        tsCont.setTimeStampDate(tsTime);
+
+        CMSSigVerifyResult signatureVerification = tsResult.getSignatureVerification();
+        tsCont.setTsSignValidated(signatureVerification.isValid());
+        tsCont.setMessageImprintValidated(tsResult.isTimestampMatch());
+        try {
+            List<X509Certificate> unorderedCertList = KsCertFactory.getIaikCertList(signatureVerification.getCertList());
+            X509Certificate signerCert = KsCertFactory.getIaikCert(signatureVerification.getCert().getEncoded());
+            List<X509Certificate> certList = KsCertFactory.getOrderedCertList(unorderedCertList, signerCert);
+            tsCont.setCertVerifyContext(model.getBaseModel().getTsaChainCache().verifyChain(model.getPolicyName(), certList,
+                    certChainVerifier, model.isCheckOcspAndCrl(), model.isPrefSpeed()));
+        } catch (Exception ex) {
+            tsCont.setTsSignValidated(false);
+        }
+        // Verify CRL
+    }
+
+    private void qcComplianceTest(SignatureValidationContext svc) {
+        svc.setQualifiedCertificate(false);
+        svc.setSscd(false);
+        try {
+            X509Certificate cert = svc.getSignCertValidation().getChain().get(0);
+            QCStatements qcsExtension = (QCStatements) cert.getExtension(QCStatements.oid);
+            QCStatement[] statements = qcsExtension.getQCStatements();
+            for (QCStatement qcs : statements) {
+                if (qcs.getStatementID().equals(QcEuCompliance.statementID)) {
+                    svc.setQualifiedCertificate(true);
+                }
+                if (qcs.getStatementID().equals(QcEuSSCD.statementID)) {
+                    svc.setSscd(true);
+                }
+            }
+        } catch (Exception ex) {
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2017 Swedish E-identification Board (E-legitimationsnämnden)
+ *  		 
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.tillvaxtverket.ttsigvalws.ttwssigvalidation.sigVerify;
+
+import iaik.x509.X509Certificate;
+import java.nio.ByteBuffer;
+import java.security.KeyStore;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import se.tillvaxtverket.tsltrust.common.iaik.KsCertFactory;
+
+/**
+ * Immutable trust data for one validation policy: the policy root, the
+ * trusted CA certificates issued under the policy and lookup indexes used
+ * for chain building.
+ */
+public final class PolicyTrust {
+
+    private final String policyName;
+    private final String policyDescription;
+    private final X509Certificate rootCert;
+    private final List<X509Certificate> caCerts;
+    private final Map<ByteBuffer, X509Certificate> caByPublicKey;
+    private final Map<Principal, X509Certificate> caBySubject;
+    private KeyStore keyStore;
+
+    /**
+     * Constructor
+     *
+     * @param policyName validation policy name
+     * @param policyDescription validation policy description
+     * @param rootCert the policy root certificate
+     * @param caCerts the CA certificates issued under the policy root
+     */
+    public PolicyTrust(String policyName, String policyDescription, X509Certificate rootCert, List<X509Certificate> caCerts) {
+        this.policyName = policyName;
+        this.policyDescription = policyDescription;
+        this.rootCert = rootCert;
+        this.caCerts = Collections.unmodifiableList(new ArrayList<X509Certificate>(caCerts));
+        this.caByPublicKey = new HashMap<ByteBuffer, X509Certificate>(caCerts.size() * 2);
+        this.caBySubject = new HashMap<Principal, X509Certificate>(caCerts.size() * 2);
+        // The first matching certificate wins, as with a sequential search of the list
+        for (X509Certificate caCert : caCerts) {
+            ByteBuffer keyId = ByteBuffer.wrap(caCert.getPublicKey().getEncoded());
+            if (!caByPublicKey.containsKey(keyId)) {
+                caByPublicKey.put(keyId, caCert);
+            }
+            if (!caBySubject.containsKey(caCert.getSubjectDN())) {
+                caBySubject.put(caCert.getSubjectDN(), caCert);
+            }
+        }
+    }
+
+    /**
+     * Gets the trusted CA certificate holding the same public key as the
+     * target certificate
+     *
+     * @param targetCert target certificate
+     * @return matching CA certificate or null
+     */
+    public X509Certificate getCaByPublicKey(X509Certificate targetCert) {
+        return caByPublicKey.get(ByteBuffer.wrap(targetCert.getPublicKey().getEncoded()));
+    }
+
+    /**
+     * Gets the trusted CA certificate with a subject name matching the issuer
+     * name of the target certificate
+     *
+     * @param targetCert target certificate
+     * @return matching CA certificate or null
+     */
+    public X509Certificate getCaByIssuer(X509Certificate targetCert) {
+        return caBySubject.get(targetCert.getIssuerDN());
+    }
+
+    /**
+     * Key store holding the root under the alias "Root" and the CA
+     * certificates under the aliases "ICA0", "ICA1"... The key store is
+     * created on first use.
+     *
+     * @return key store for this policy
+     * @throws Exception if the key store can not be created
+     */
+    public synchronized KeyStore getKeyStore() throws Exception {
+        if (keyStore == null) {
+            KeyStore ks = KeyStore.getInstance("jks");
+            ks.load(null, null);
+            ks.setCertificateEntry("Root", KsCertFactory.getCertificate(rootCert));
+            for (int i = 0; i < caCerts.size(); i++) {
+                ks.setCertificateEntry("ICA" + String.valueOf(i), KsCertFactory.getCertificate(caCerts.get(i)));
+            }
+            keyStore = ks;
+        }
+        return keyStore;
+    }
+
+    public String getPolicyName() {
+        return policyName;
+    }
+
+    public String getPolicyDescription() {
+        return policyDescription;
+    }
+
+    public X509Certificate getRootCert() {
+        return rootCert;
+    }
+
+    public List<X509Certificate> getCaCerts() {
+        return caCerts;
+    }
+}
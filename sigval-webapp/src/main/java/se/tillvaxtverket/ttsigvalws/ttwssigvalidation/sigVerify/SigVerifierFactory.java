@@ -56,6 +56,14 @@ public class SigVerifierFactory {
             sigVerifier = new XmlSigVerifier(model);
             return sigVerifier;
         }
+        if (docType.equals(DocType.CADES)) {
+            sigVerifier = new CadesSigVerifier(model);
+            return sigVerifier;
+        }
+        if (docType.equals(DocType.ASICS_CADES) || docType.equals(DocType.ASICS_S)) {
+            sigVerifier = new AsicSigVerifier(model);
+            return sigVerifier;
+        }
         return null;
     }
 
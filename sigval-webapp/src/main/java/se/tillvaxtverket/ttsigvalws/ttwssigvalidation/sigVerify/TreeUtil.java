@@ -27,10 +27,13 @@ import iaik.asn1.ObjectID;
 import iaik.x509.X509Certificate;
 import iaik.x509.ocsp.OCSPResponse;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.AbstractMap.SimpleEntry;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -55,6 +58,20 @@ public class TreeUtil {
 
     private static ObjectTree objTree;
     private static String rootKey;
+    private static final int NAME_CACHE_SIZE = 2048;
+    // Parsed name attributes and display names, keyed by the encoded distinguished name
+    private static final Map<ByteBuffer, Set<Entry<ObjectID, String>>> nameAttributeCache = new LinkedHashMap<ByteBuffer, Set<Entry<ObjectID, String>>>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Set<Entry<ObjectID, String>>> eldest) {
+            return size() > NAME_CACHE_SIZE;
+        }
+    };
+    private static final Map<ByteBuffer, String> treeNameCache = new LinkedHashMap<ByteBuffer, String>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ByteBuffer, String> eldest) {
+            return size() > NAME_CACHE_SIZE;
+        }
+    };
 
     public static ObjectTree getTreeNodes(List<SignatureValidationContext> pdfContList, ObjectTree objectTree, boolean orgPath, boolean justCerts) {
         if (pdfContList.isEmpty()) {
@@ -282,7 +299,21 @@ public class TreeUtil {
     }
 
     public static String getTreeName(X509Certificate cert) {
-        Map<ObjectID, String> nameMap = getCertNameAttributes(cert);
+        ByteBuffer key = ByteBuffer.wrap(cert.getSubjectX500Principal().getEncoded());
+        synchronized (treeNameCache) {
+            String treeName = treeNameCache.get(key);
+            if (treeName != null) {
+                return treeName;
+            }
+        }
+        String treeName = getTreeName(getCertNameAttributes(cert));
+        synchronized (treeNameCache) {
+            treeNameCache.put(key, treeName);
+        }
+        return treeName;
+    }
+
+    private static String getTreeName(Map<ObjectID, String> nameMap) {
 
         if (nameMap.containsKey(ObjectID.commonName)) {
             return nameMap.get(ObjectID.commonName);
@@ -390,7 +421,32 @@ public class TreeUtil {
         return getCertNameAttributeSet(distinguishedName);
     }
 
+    /**
+     * Returns the attributes of a distinguished name. Results are cached and
+     * returned as unmodifiable sets.
+     *
+     * @param distinguishedName distinguished name
+     * @return name attributes in display order, or null if the name can not be decoded
+     */
     public static Set<Entry<ObjectID, String>> getCertNameAttributeSet(X500Principal distinguishedName) {
+        ByteBuffer key = ByteBuffer.wrap(distinguishedName.getEncoded());
+        synchronized (nameAttributeCache) {
+            Set<Entry<ObjectID, String>> nameAttributes = nameAttributeCache.get(key);
+            if (nameAttributes != null) {
+                return nameAttributes;
+            }
+        }
+        Set<Entry<ObjectID, String>> nameAttributes = parseCertNameAttributeSet(distinguishedName);
+        if (nameAttributes != null) {
+            nameAttributes = Collections.unmodifiableSet(nameAttributes);
+            synchronized (nameAttributeCache) {
+                nameAttributeCache.put(key, nameAttributes);
+            }
+        }
+        return nameAttributes;
+    }
+
+    private static Set<Entry<ObjectID, String>> parseCertNameAttributeSet(X500Principal distinguishedName) {
         try {
             ASN1 subjectNameAsn1 = new ASN1(distinguishedName.getEncoded());
             int rdnCount = subjectNameAsn1.countComponents();
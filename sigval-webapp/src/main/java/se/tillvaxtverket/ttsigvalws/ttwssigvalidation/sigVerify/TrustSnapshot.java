@@ -0,0 +1,265 @@
+/*
+ * Copyright 2017 Swedish E-identification Board (E-legitimationsnämnden)
+ *  		 
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.tillvaxtverket.ttsigvalws.ttwssigvalidation.sigVerify;
+
+import iaik.x509.X509Certificate;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+import se.tillvaxtverket.tsltrust.common.iaik.KsCertFactory;
+import se.tillvaxtverket.tsltrust.common.utils.general.FileOps;
+
+/**
+ * Compact binary snapshot of the trust cache.
+ * <p>
+ * The snapshot is written by the servlet daemon each time the trust cache is
+ * refreshed and holds the DER encoded root and CA certificates of every
+ * validation policy. Loading it avoids parsing rootlist.xml, the root
+ * certificate extensions and the PKCS#7 files, and building JKS key stores.</p>
+ * <p>
+ * Layout, all integers big endian:</p>
+ * <pre>
+ * int     magic "TTSS"
+ * int     format version
+ * long    creation time
+ * int     source file count, then per source file:
+ *           string name, long length, long last modified
+ * int     policy count, then a policy table per policy:
+ *           string name, int offset of the policy certificate block
+ * per policy certificate block:
+ *           string description, bytes root certificate,
+ *           int CA count, bytes per CA certificate
+ * byte[32] SHA-256 over all preceding bytes
+ * </pre>
+ * <p>
+ * Strings are stored as an int length followed by UTF-8 bytes, and bytes as
+ * an int length followed by the data. The snapshot is stale, and ignored, if
+ * any of the source files it was created from has changed since.</p>
+ */
+public final class TrustSnapshot {
+
+    private static final Logger LOG = Logger.getLogger(TrustSnapshot.class.getName());
+    public static final String SNAPSHOT_FILE_NAME = "trust.snapshot";
+    private static final int MAGIC = 0x54545353;
+    private static final int VERSION = 1;
+    private static final int CHECKSUM_LEN = 32;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private TrustSnapshot() {
+    }
+
+    /**
+     * Loads the trust data from rootlist.xml and the policy PKCS#7 files in
+     * the trust cache directory and writes a new snapshot from it
+     *
+     * @param trustCacheDir the trust cache directory
+     * @return true if the snapshot was written
+     */
+    public static boolean update(File trustCacheDir) {
+        List<File> sourceFiles = new ArrayList<File>();
+        List<PolicyTrust> policies;
+        try {
+            policies = TrustStore.loadPolicies(trustCacheDir, sourceFiles);
+        } catch (Exception ex) {
+            LOG.warning("Unable to load trust data for snapshot: " + ex.getMessage());
+            return false;
+        }
+        if (policies == null) {
+            return false;
+        }
+        return write(trustCacheDir, policies, sourceFiles);
+    }
+
+    /**
+     * Writes a snapshot of the policy trust data to the trust cache directory
+     *
+     * @param trustCacheDir the trust cache directory
+     * @param policies trust data of all validation policies
+     * @param sourceFiles the files the trust data was loaded from
+     * @return true if the snapshot was written
+     */
+    public static boolean write(File trustCacheDir, List<PolicyTrust> policies, List<File> sourceFiles) {
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bos);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(System.currentTimeMillis());
+            out.writeInt(sourceFiles.size());
+            for (File source : sourceFiles) {
+                writeString(out, source.getName());
+                out.writeLong(source.length());
+                out.writeLong(source.lastModified());
+            }
+
+            List<byte[]> blocks = new ArrayList<byte[]>(policies.size());
+            for (PolicyTrust policy : policies) {
+                ByteArrayOutputStream blockBytes = new ByteArrayOutputStream();
+                DataOutputStream block = new DataOutputStream(blockBytes);
+                writeString(block, policy.getPolicyDescription());
+                writeBytes(block, policy.getRootCert().getEncoded());
+                block.writeInt(policy.getCaCerts().size());
+                for (X509Certificate caCert : policy.getCaCerts()) {
+                    writeBytes(block, caCert.getEncoded());
+                }
+                block.flush();
+                blocks.add(blockBytes.toByteArray());
+            }
+
+            // Policy table with the absolute offset of each certificate block
+            int tableLen = 4;
+            for (PolicyTrust policy : policies) {
+                tableLen += 4 + policy.getPolicyName().getBytes(UTF8).length + 4;
+            }
+            int offset = out.size() + tableLen;
+            out.writeInt(policies.size());
+            for (int i = 0; i < policies.size(); i++) {
+                writeString(out, policies.get(i).getPolicyName());
+                out.writeInt(offset);
+                offset += blocks.get(i).length;
+            }
+            for (byte[] block : blocks) {
+                out.write(block);
+            }
+            out.flush();
+            byte[] content = bos.toByteArray();
+            byte[] checksum = MessageDigest.getInstance("SHA-256").digest(content);
+            byte[] snapshot = Arrays.copyOf(content, content.length + CHECKSUM_LEN);
+            System.arraycopy(checksum, 0, snapshot, content.length, CHECKSUM_LEN);
+            return FileOps.saveByteFileAtomic(snapshot, new File(trustCacheDir, SNAPSHOT_FILE_NAME));
+        } catch (Exception ex) {
+            LOG.warning("Unable to write trust snapshot: " + ex.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Loads the snapshot in the trust cache directory
+     *
+     * @param trustCacheDir the trust cache directory
+     * @return the trust data of all validation policies, or null if the
+     * snapshot is missing, corrupt, of an unsupported version or stale
+     */
+    public static List<PolicyTrust> read(File trustCacheDir) {
+        File snapshotFile = new File(trustCacheDir, SNAPSHOT_FILE_NAME);
+        if (!snapshotFile.canRead()) {
+            return null;
+        }
+        try {
+            ByteBuffer buf = map(snapshotFile);
+            int contentLen = buf.limit() - CHECKSUM_LEN;
+            if (contentLen < 8 || buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION) {
+                LOG.info("Ignoring trust snapshot with unknown format");
+                return null;
+            }
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            ByteBuffer content = buf.duplicate();
+            content.limit(contentLen);
+            md.update(content);
+            byte[] checksum = new byte[CHECKSUM_LEN];
+            ByteBuffer trailer = buf.duplicate();
+            trailer.position(contentLen);
+            trailer.get(checksum);
+            if (!MessageDigest.isEqual(md.digest(), checksum)) {
+                LOG.warning("Ignoring trust snapshot with checksum mismatch");
+                return null;
+            }
+
+            buf.position(16);
+            int sourceCount = buf.getInt();
+            for (int i = 0; i < sourceCount; i++) {
+                File source = new File(trustCacheDir, readString(buf));
+                long length = buf.getLong();
+                long lastModified = buf.getLong();
+                if (!source.canRead() || source.length() != length || source.lastModified() != lastModified) {
+                    LOG.info("Ignoring stale trust snapshot, " + source.getName() + " has changed");
+                    return null;
+                }
+            }
+
+            int policyCount = buf.getInt();
+            String[] names = new String[policyCount];
+            int[] offsets = new int[policyCount];
+            for (int i = 0; i < policyCount; i++) {
+                names[i] = readString(buf);
+                offsets[i] = buf.getInt();
+            }
+            List<PolicyTrust> policies = new ArrayList<PolicyTrust>(policyCount);
+            for (int i = 0; i < policyCount; i++) {
+                buf.position(offsets[i]);
+                String description = readString(buf);
+                X509Certificate root = KsCertFactory.getIaikCert(readBytes(buf));
+                int caCount = buf.getInt();
+                List<X509Certificate> caCerts = new ArrayList<X509Certificate>(caCount);
+                for (int j = 0; j < caCount; j++) {
+                    caCerts.add(KsCertFactory.getIaikCert(readBytes(buf)));
+                }
+                policies.add(new PolicyTrust(names[i], description, root, caCerts));
+            }
+            return policies;
+        } catch (Exception ex) {
+            LOG.warning("Unable to read trust snapshot: " + ex.getMessage());
+            return null;
+        }
+    }
+
+    private static ByteBuffer map(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return mapped;
+        } finally {
+            // The mapping remains valid after the channel is closed
+            raf.close();
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        writeBytes(out, (value == null ? "" : value).getBytes(UTF8));
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] value) throws IOException {
+        out.writeInt(value.length);
+        out.write(value);
+    }
+
+    private static String readString(ByteBuffer buf) {
+        return new String(readBytes(buf), UTF8);
+    }
+
+    private static byte[] readBytes(ByteBuffer buf) {
+        int len = buf.getInt();
+        if (len < 0 || len > buf.remaining()) {
+            throw new IllegalArgumentException("Invalid length " + len + " at position " + buf.position());
+        }
+        byte[] value = new byte[len];
+        buf.get(value);
+        return value;
+    }
+}
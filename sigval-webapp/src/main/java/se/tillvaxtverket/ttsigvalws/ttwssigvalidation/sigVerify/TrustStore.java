@@ -26,6 +26,8 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStream;
 import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -36,34 +38,38 @@ import se.tillvaxtverket.tsltrust.common.utils.general.RootInfo;
 import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.config.ConfigData;
 
 /**
- * Class holding and loading trust data from the local trust cache. 
+ * Class holding and loading trust data from the local trust cache. Trust data
+ * is loaded from the binary trust snapshot if a valid snapshot is present,
+ * otherwise from rootlist.xml and the policy PKCS#7 files.
  */
 public final class TrustStore {
 
     private static final Logger LOG = Logger.getLogger(TrustStore.class.getName());
     private List<String> rootNames;
     private List<AaaCertificate> rootCerts;
-    private RootInfo rootInfo;
     private boolean initialized;
     private Map<String, AaaCertificate> rootMap;
     private Map<String, String> policyDescMap;
-    Map<String, KeyStore> keyStoreMap;
-    private final File rootXmlFile;
+    private Map<String, PolicyTrust> policyTrustMap;
     private final String trustCacheDirName;
 
     public TrustStore(ConfigData conf) {
-        this.keyStoreMap = new HashMap<String, KeyStore>();
+        this.policyTrustMap = new HashMap<String, PolicyTrust>();
         this.rootMap = new HashMap<String, AaaCertificate>();
         this.policyDescMap = new HashMap<String, String>();
 
         trustCacheDirName = FileOps.getfileNameString(conf.getDataDirectory(), "trustCache");
 //        trustCacheDirName = conf.getDataDirectory() + "/trustCache";
         File trustCacheDir = new File(trustCacheDirName);
-        rootXmlFile = new File(trustCacheDirName, "rootlist.xml");
         if (trustCacheDir.exists() && conf.isValid()) {
             try {
-                getAvailablePolicyRoots();
-                keyStoreMap = getCAKeyStores();
+                List<PolicyTrust> policies = TrustSnapshot.read(trustCacheDir);
+                if (policies == null) {
+                    policies = loadPolicies(trustCacheDir, null);
+                } else {
+                    LOG.fine("Trust data loaded from trust snapshot");
+                }
+                setPolicies(policies);
             } catch (Exception ex) {
                 initialized = false;
             }
@@ -75,35 +81,51 @@ public final class TrustStore {
 
     }
 
-    private void getAvailablePolicyRoots() {
-
-        rootInfo = new RootInfo(rootXmlFile);
-        if (rootInfo.isInitialized()) {
-            rootNames = rootInfo.getCaNames();
-            rootCerts = rootInfo.getRootCerts();
-            rootMap = rootInfo.getRootMap();
-            policyDescMap = rootInfo.getPolicyDescMap();
+    private void setPolicies(List<PolicyTrust> policies) throws Exception {
+        initialized = false;
+        if (policies == null) {
+            return;
+        }
+        rootNames = new ArrayList<String>();
+        rootCerts = new ArrayList<AaaCertificate>();
+        for (PolicyTrust policy : policies) {
+            AaaCertificate root = new AaaCertificate(policy.getRootCert().getEncoded());
+            rootNames.add(policy.getPolicyName());
+            rootCerts.add(root);
+            rootMap.put(policy.getPolicyName(), root);
+            policyDescMap.put(policy.getPolicyName(), policy.getPolicyDescription());
+            policyTrustMap.put(policy.getPolicyName(), policy);
         }
+        initialized = true;
     }
 
-    private Map<String, KeyStore> getCAKeyStores() throws Exception {
-        initialized = false;
-        Map<String, KeyStore> ksMap = new HashMap<String, KeyStore>();
-
-        if (rootInfo.isInitialized()) {
-            rootNames = rootInfo.getCaNames();
-            rootCerts = rootInfo.getRootCerts();
-        } else {
+    /**
+     * Loads the trust data of all validation policies from rootlist.xml and
+     * the PKCS#7 files referenced by the SIA extension of each policy root.
+     *
+     * @param trustCacheDir the trust cache directory
+     * @param sourceFiles list receiving the files the trust data was loaded
+     * from, or null
+     * @return trust data of all validation policies, or null if rootlist.xml
+     * could not be parsed
+     * @throws Exception on errors reading the PKCS#7 files
+     */
+    static List<PolicyTrust> loadPolicies(File trustCacheDir, List<File> sourceFiles) throws Exception {
+        File rootXmlFile = new File(trustCacheDir, "rootlist.xml");
+        RootInfo rootInfo = new RootInfo(rootXmlFile);
+        if (!rootInfo.isInitialized()) {
             return null;
         }
+        if (sourceFiles != null) {
+            sourceFiles.add(rootXmlFile);
+        }
+        Map<String, AaaCertificate> rootInfoMap = rootInfo.getRootMap();
+        Map<String, String> descMap = rootInfo.getPolicyDescMap();
+        List<PolicyTrust> policies = new ArrayList<PolicyTrust>();
 
-        for (String name : rootNames) {
-            KeyStore ks = null;
-            ks = KeyStore.getInstance("jks");
-            ks.load(null, null);
+        for (String name : rootInfo.getCaNames()) {
             //Load Root
-            X509Certificate root = KsCertFactory.getIaikCert(rootMap.get(name).getEncoded());
-            ks.setCertificateEntry("Root", KsCertFactory.getCertificate(root));
+            X509Certificate root = KsCertFactory.getIaikCert(rootInfoMap.get(name).getEncoded());
 
             //Get caRepository URL from root SIA extension
             SubjectInfoAccess sia = (SubjectInfoAccess) root.getExtension(SubjectInfoAccess.oid);
@@ -112,21 +134,20 @@ public final class TrustStore {
 
             //Get referenced pkcs7 file;
             String fileName = pkcs7Url.substring(pkcs7Url.lastIndexOf("/") + 1);
-            File pkcs7File = new File(trustCacheDirName, fileName);
+            File pkcs7File = new File(trustCacheDir, fileName);
+            X509Certificate[] certs;
             InputStream in = new FileInputStream(pkcs7File);
-            PKCS7CertList p7b = new PKCS7CertList(in);
-            X509Certificate[] certs = p7b.getCertificateList();
-
-
-            for (int i = 0; i < certs.length; i++) {
-                X509Certificate cert = certs[i];
-                String alias = "ICA" + String.valueOf(i);
-                ks.setCertificateEntry(alias, KsCertFactory.getCertificate(cert));
+            try {
+                certs = new PKCS7CertList(in).getCertificateList();
+            } finally {
+                in.close();
+            }
+            if (sourceFiles != null) {
+                sourceFiles.add(pkcs7File);
             }
-            ksMap.put(name, ks);
+            policies.add(new PolicyTrust(name, descMap.get(name), root, Arrays.asList(certs)));
         }
-        initialized = true;
-        return ksMap;
+        return policies;
     }
 
     /**
@@ -167,8 +188,26 @@ public final class TrustStore {
      * @return key store for the named validation policy.
      */
     public KeyStore getKeyStore(String policyName) {
-        if (initialized && keyStoreMap.containsKey(policyName)) {
-            return keyStoreMap.get(policyName);
+        PolicyTrust policyTrust = getPolicyTrust(policyName);
+        if (policyTrust == null) {
+            return null;
+        }
+        try {
+            return policyTrust.getKeyStore();
+        } catch (Exception ex) {
+            LOG.warning("Unable to create key store for policy " + policyName + ": " + ex.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Getter for the trust data of a validation policy
+     * @param policyName The name of the validation policy
+     * @return trust data for the named validation policy, or null if not present
+     */
+    public PolicyTrust getPolicyTrust(String policyName) {
+        if (initialized && policyTrustMap.containsKey(policyName)) {
+            return policyTrustMap.get(policyName);
         } else {
             return null;
         }
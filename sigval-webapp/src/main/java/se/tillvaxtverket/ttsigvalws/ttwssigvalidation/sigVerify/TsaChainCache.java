@@ -0,0 +1,143 @@
+/*
+ * Copyright 2017 Swedish E-identification Board (E-legitimationsnämnden)
+ *  		 
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.tillvaxtverket.ttsigvalws.ttwssigvalidation.sigVerify;
+
+import iaik.x509.X509Certificate;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.cert.CertificateEncodingException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.metrics.SigValMetrics;
+import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.sigVerify.context.CertVerifyContext;
+
+/**
+ * Cache of successful certificate path validations of time stamp authority
+ * certificate chains.
+ * <p>
+ * Almost all time stamps are issued by a small number of TSAs, so the chain
+ * and revocation checking of the TSA certificate is reused for a configurable
+ * time instead of being repeated for every signed document. Results are kept
+ * per validation policy and revocation checking options. Failed validations
+ * are never cached, and a cached validation never outlives any certificate in
+ * the chain. Each caller receives its own copy of the cached context.
+ */
+public class TsaChainCache {
+
+    /** Maximum number of cached chain validations */
+    public static final int MAX_SIZE = 256;
+    private final long cacheTime;
+    private final Map<String, CachedValidation> cache = new LinkedHashMap<String, CachedValidation>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedValidation> eldest) {
+            return size() > MAX_SIZE;
+        }
+    };
+
+    /**
+     * Constructor
+     *
+     * @param cacheTime time in milliseconds a successful validation is reused
+     */
+    public TsaChainCache(long cacheTime) {
+        this.cacheTime = cacheTime;
+    }
+
+    /**
+     * Returns the validation context of a TSA certificate chain, validating
+     * the chain only if no unexpired successful validation is cached.
+     *
+     * @param policyName validation policy
+     * @param certList ordered TSA certificate chain, starting with the TSA certificate
+     * @param certChainVerifier verifier used on cache misses
+     * @param checkAllRev true if all revocation checks are performed
+     * @param preferSpeed true if OCSP is preferred
+     * @return certificate validation context
+     */
+    public CertVerifyContext verifyChain(String policyName, List<X509Certificate> certList, CertChainVerifier certChainVerifier,
+            boolean checkAllRev, boolean preferSpeed) {
+        if (cacheTime <= 0 || certList.isEmpty()) {
+            return certChainVerifier.verifyChain(certList);
+        }
+        String key;
+        try {
+            key = getKey(policyName, certList, checkAllRev, preferSpeed);
+        } catch (Exception ex) {
+            return certChainVerifier.verifyChain(certList);
+        }
+        long now = System.currentTimeMillis();
+        synchronized (cache) {
+            CachedValidation cached = cache.get(key);
+            if (cached != null && cached.expiry > now) {
+                SigValMetrics.cacheHit(SigValMetrics.TSA_CHAIN_CACHE);
+                return new CertVerifyContext(cached.context);
+            }
+        }
+        SigValMetrics.cacheMiss(SigValMetrics.TSA_CHAIN_CACHE);
+        CertVerifyContext context = certChainVerifier.verifyChain(certList);
+        long expiry = Math.min(now + cacheTime, getEarliestNotAfter(certList));
+        if (context.isSigChainVerified() && expiry > now) {
+            synchronized (cache) {
+                cache.put(key, new CachedValidation(new CertVerifyContext(context), expiry));
+            }
+        }
+        return context;
+    }
+
+    /**
+     * Removes all cached validations, e.g. when the trust data is reloaded
+     */
+    public void clear() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    private static String getKey(String policyName, List<X509Certificate> certList, boolean checkAllRev, boolean preferSpeed)
+            throws CertificateEncodingException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (Exception ex) {
+            throw new IllegalStateException(ex);
+        }
+        for (X509Certificate cert : certList) {
+            md.update(cert.getEncoded());
+        }
+        return policyName + "/" + checkAllRev + "/" + preferSpeed + "/" + new BigInteger(1, md.digest()).toString(16);
+    }
+
+    private static long getEarliestNotAfter(List<X509Certificate> certList) {
+        long earliest = Long.MAX_VALUE;
+        for (X509Certificate cert : certList) {
+            earliest = Math.min(earliest, cert.getNotAfter().getTime());
+        }
+        return earliest;
+    }
+
+    private static class CachedValidation {
+
+        private final CertVerifyContext context;
+        private final long expiry;
+
+        CachedValidation(CertVerifyContext context, long expiry) {
+            this.context = context;
+            this.expiry = expiry;
+        }
+    }
+}
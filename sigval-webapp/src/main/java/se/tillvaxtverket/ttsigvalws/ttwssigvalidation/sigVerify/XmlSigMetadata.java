@@ -0,0 +1,198 @@
+/*
+ * Copyright 2017 Swedish E-identification Board (E-legitimationsnämnden)
+ *  		 
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.tillvaxtverket.ttsigvalws.ttwssigvalidation.sigVerify;
+
+import iaik.x509.X509Certificate;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.xml.datatype.DatatypeConfigurationException;
+import javax.xml.datatype.DatatypeFactory;
+import org.bouncycastle.util.encoders.Base64;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import se.tillvaxtverket.tsltrust.common.iaik.KsCertFactory;
+
+/**
+ * Facts about one XML signature, collected from the DOM of the signed
+ * document in a single walk so that the verification and reporting stages
+ * do not need to parse the signature element again.
+ */
+final class XmlSigMetadata {
+
+    static final String XMLDSIG_NS = "http://www.w3.org/2000/09/xmldsig#";
+    private static final DatatypeFactory DATATYPE_FACTORY;
+
+    static {
+        DatatypeFactory factory = null;
+        try {
+            factory = DatatypeFactory.newInstance();
+        } catch (DatatypeConfigurationException ex) {
+        }
+        DATATYPE_FACTORY = factory;
+    }
+
+    private String signatureMethod;
+    private final List<X509Certificate> certificates = new ArrayList<X509Certificate>();
+    private Calendar signingTime;
+
+    private XmlSigMetadata() {
+    }
+
+    /**
+     * Walks the document once and collects the metadata of every signature
+     * element.
+     *
+     * @param doc the signed document
+     * @return map from each signature element to its metadata
+     */
+    static Map<Node, XmlSigMetadata> collect(Document doc) {
+        Map<Node, XmlSigMetadata> sigMap = new IdentityHashMap<Node, XmlSigMetadata>();
+        if (doc == null) {
+            return sigMap;
+        }
+        Node node = doc.getDocumentElement();
+        while (node != null) {
+            Node next = null;
+            if (node.getNodeType() == Node.ELEMENT_NODE) {
+                if (isDsig(node, "Signature")) {
+                    XmlSigMetadata metadata = new XmlSigMetadata();
+                    metadata.parseSignature(node);
+                    sigMap.put(node, metadata);
+                } else {
+                    next = node.getFirstChild();
+                }
+            }
+            // Continue with the next node in document order, skipping signature subtrees
+            while (next == null && node != null) {
+                next = node.getNextSibling();
+                if (next == null) {
+                    node = node.getParentNode();
+                    if (node == null || node.getNodeType() == Node.DOCUMENT_NODE) {
+                        node = null;
+                    }
+                }
+            }
+            node = next;
+        }
+        return sigMap;
+    }
+
+    private void parseSignature(Node sigNode) {
+        for (Node child = sigNode.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (isDsig(child, "SignedInfo")) {
+                parseSignedInfo(child);
+            } else if (isDsig(child, "KeyInfo")) {
+                parseKeyInfo(child);
+            } else if (isDsig(child, "Object")) {
+                findSigningTime(child);
+            }
+        }
+    }
+
+    private void parseSignedInfo(Node signedInfo) {
+        for (Node child = signedInfo.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (isDsig(child, "SignatureMethod")) {
+                signatureMethod = getAttribute(child, "Algorithm");
+            }
+        }
+    }
+
+    private void parseKeyInfo(Node keyInfo) {
+        for (Node child = keyInfo.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (!isDsig(child, "X509Data")) {
+                continue;
+            }
+            for (Node x509Child = child.getFirstChild(); x509Child != null; x509Child = x509Child.getNextSibling()) {
+                if (isDsig(x509Child, "X509Certificate")) {
+                    try {
+                        X509Certificate cert = KsCertFactory.getIaikCert(Base64.decode(x509Child.getTextContent()));
+                        if (cert != null) {
+                            certificates.add(cert);
+                        }
+                    } catch (Exception ex) {
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Looks for a XAdES SigningTime element in a signature Object
+     */
+    private void findSigningTime(Node node) {
+        for (Node child = node.getFirstChild(); child != null && signingTime == null; child = child.getNextSibling()) {
+            if (child.getNodeType() != Node.ELEMENT_NODE) {
+                continue;
+            }
+            if ("SigningTime".equals(getLocalName(child))) {
+                try {
+                    signingTime = DATATYPE_FACTORY.newXMLGregorianCalendar(child.getTextContent().trim()).toGregorianCalendar();
+                } catch (Exception ex) {
+                }
+            } else {
+                findSigningTime(child);
+            }
+        }
+    }
+
+    /**
+     * @return the signature method algorithm URI, or null if not present
+     */
+    String getSignatureMethod() {
+        return signatureMethod;
+    }
+
+    /**
+     * @return the decoded KeyInfo certificates in document order
+     */
+    List<X509Certificate> getCertificates() {
+        return Collections.unmodifiableList(certificates);
+    }
+
+    /**
+     * @return the claimed signing time, or null if the signature has no XAdES signing time
+     */
+    Calendar getSigningTime() {
+        return signingTime;
+    }
+
+    private static boolean isDsig(Node node, String localName) {
+        if (node.getNodeType() != Node.ELEMENT_NODE || !localName.equals(getLocalName(node))) {
+            return false;
+        }
+        String ns = node.getNamespaceURI();
+        return ns == null || XMLDSIG_NS.equals(ns);
+    }
+
+    private static String getLocalName(Node node) {
+        String localName = node.getLocalName();
+        if (localName != null) {
+            return localName;
+        }
+        String name = node.getNodeName();
+        return name.substring(name.indexOf(':') + 1);
+    }
+
+    private static String getAttribute(Node node, String name) {
+        return ((Element) node).hasAttribute(name) ? ((Element) node).getAttribute(name) : null;
+    }
+}
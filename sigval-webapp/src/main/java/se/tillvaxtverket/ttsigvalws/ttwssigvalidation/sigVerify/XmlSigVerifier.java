@@ -18,35 +18,31 @@ package se.tillvaxtverket.ttsigvalws.ttwssigvalidation.sigVerify;
 
 import com.aaasec.lib.crypto.xml.SigVerifyResult;
 import com.aaasec.lib.crypto.xml.XMLSign;
-import com.aaasec.lib.crypto.xml.XmlBeansUtil;
-import com.aaasec.lib.crypto.xml.XmlUtils;
 import iaik.x509.X509Certificate;
 import iaik.x509.extensions.qualified.QCStatements;
 import iaik.x509.extensions.qualified.structures.QCStatement;
 import iaik.x509.extensions.qualified.structures.etsi.QcEuCompliance;
 import iaik.x509.extensions.qualified.structures.etsi.QcEuSSCD;
+import java.io.InputStream;
 import java.security.KeyStore;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import org.apache.xmlbeans.XmlException;
-import org.apache.xmlbeans.XmlObject;
 import org.bouncycastle.asn1.ASN1ObjectIdentifier;
-import org.bouncycastle.util.encoders.Base64;
-import org.w3.x2000.x09.xmldsig.SignatureDocument;
-import org.w3.x2000.x09.xmldsig.SignatureType;
-import org.w3.x2000.x09.xmldsig.SignedInfoType;
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
 import se.tillvaxtverket.tsltrust.common.iaik.KsCertFactory;
 import se.tillvaxtverket.tsltrust.common.utils.general.Algorithms;
+import se.tillvaxtverket.tsltrust.common.utils.general.XmlUtils;
 import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.models.SigValidationBaseModel;
 import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.models.SigValidationModel;
 import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.sigVerify.context.SignatureValidationContext;
 import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.sigVerify.context.TimeStampContext;
+import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.metrics.SigValMetrics;
 import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.statusCheck.CRLChecker;
 
 /**
@@ -76,19 +72,24 @@ public class XmlSigVerifier extends SigVerifier {
         }
         certChainVerifier.setCheckAllRev(checkOcspAndCrl);
         certChainVerifier.setPreferSpeed(prefOcsp);
-        byte[] signedData = model.getSigDocument().getDocBytes();
         Document signedDoc = null;
-        try {
-            signedDoc = XmlUtils.getDocument(signedData);
+        // Parse from a stream over the shared document buffer rather than a copy of the document
+        try (InputStream signedData = model.getSigDocument().getDocInputStream()) {
+            signedDoc = XmlUtils.parse(signedData, true);
         } catch (Exception ex) {
             Logger.getLogger(XmlSigVerifier.class.getName()).log(Level.SEVERE, null, ex);
         }
         if (signedDoc == null) {
             errClose();
             model.setSignVerificationComplete(false);
+            return;
         }
 
+        long start = SigValMetrics.start();
         SigVerifyResult sigResults = XMLSign.verifySignature(signedDoc);
+        SigValMetrics.stop(SigValMetrics.XML_VERIFY, start);
+        // Collect algorithms, certificates and signing times of all signatures in one pass over the DOM
+        Map<Node, XmlSigMetadata> sigMetadata = XmlSigMetadata.collect(signedDoc);
         List<SigVerifyResult.IndivdualSignatureResult> resultList = sigResults.resultList;
         int sigIndex = 0;
         for (SigVerifyResult.IndivdualSignatureResult result : resultList) {
@@ -98,7 +99,8 @@ public class XmlSigVerifier extends SigVerifier {
             svc.setRevision(-1);
             svc.setRevisions(-1);
 
-            String sigAlgName = getSigAlgXmlName(result.thisSignatureNode);
+            XmlSigMetadata metadata = sigMetadata.get(result.thisSignatureNode);
+            String sigAlgName = metadata == null ? null : metadata.getSignatureMethod();
             String sigAlgOid = getSigAlgOid(sigAlgName);
             if (sigAlgOid == null) {
                 svc.setSigValidationError(new String[]{"Unknown algorithm"});
@@ -108,12 +110,17 @@ public class XmlSigVerifier extends SigVerifier {
             svc.setSignatureAlgOID(new ASN1ObjectIdentifier(sigAlgOid));
             svc.setSignatureHashAlgOID(getHash(sigAlgName));
             svc.setTimestamped(false);
+            svc.setSignDate(metadata == null ? null : metadata.getSigningTime());
             TimeStampContext tsCont = null;
             svc.setTstContext(tsCont);
             try {
-                svc.setProvidedChain(getCertList(result));
-//                svc.setProvidedChain(KsCertFactory.getIaikCertList(verifySignature.keyInfo.getCertificates()));
-                svc.setSignCert(KsCertFactory.getIaikCert(result.thisCert));
+                // The signer is the certificate the signature was verified with
+                X509Certificate signerCert = KsCertFactory.getIaikCert(result.thisCert);
+                List<X509Certificate> unorderedCerts = (metadata != null && !metadata.getCertificates().isEmpty())
+                        ? metadata.getCertificates() : getCertList(result);
+                List<X509Certificate> signCerts = KsCertFactory.getOrderedCertList(unorderedCerts, signerCert);
+                svc.setProvidedChain(signCerts.isEmpty() ? new ArrayList<X509Certificate>(unorderedCerts) : signCerts);
+                svc.setSignCert(signerCert);
 
                 // modified code
                 boolean signatureValid = result.thisValid;
@@ -185,20 +192,6 @@ public class XmlSigVerifier extends SigVerifier {
         }
     }
 
-    private String getSigAlgXmlName(Node sigNode) {
-        String sigAlgOid;
-        try {
-            SignatureType sig = SignatureDocument.Factory.parse(sigNode).getSignature();
-            SignedInfoType signedInfo = sig.getSignedInfo();
-            String algorithm = signedInfo.getSignatureMethod().getAlgorithm();
-            return algorithm;
-        } catch (Exception ex) {
-            return null;
-        }
-    }
-
-
-
     private List<X509Certificate> getCertList(SigVerifyResult.IndivdualSignatureResult result) {
         List<X509Certificate> certList = new ArrayList<X509Certificate>();
         List<byte[]> certByteList = result.getCertList();
@@ -49,6 +49,36 @@ public class CertVerifyContext {
     public CertVerifyContext() {
     }
 
+    /**
+     * Creates a copy of a certificate verification context. Lists and nested
+     * contexts are copied so that the copy can be modified and reported on
+     * independently of the source.
+     *
+     * @param source the context to copy
+     */
+    public CertVerifyContext(CertVerifyContext source) {
+        statusCheckMethod = source.statusCheckMethod;
+        crlKeys = new ArrayList<String>(source.crlKeys);
+        ocspUrl = source.ocspUrl;
+        cdpUrl = new ArrayList<String>(source.cdpUrl);
+        qualifiedCert = source.qualifiedCert;
+        ocspVerifyContext = source.ocspVerifyContext == null ? null : new OCSPVerifyContext(source.ocspVerifyContext);
+        issuingCertContext = source.issuingCertContext == null ? null : new CertVerifyContext(source.issuingCertContext);
+        issuedByTa = source.issuedByTa;
+        crlStatusDetermined = source.crlStatusDetermined;
+        noCheck = source.noCheck;
+        revoked = source.revoked;
+        chainsToRoot = source.chainsToRoot;
+        sigChainVerified = source.sigChainVerified;
+        chainVerifyError = source.chainVerifyError;
+        chainVerifyErrorMessage = source.chainVerifyErrorMessage;
+        contextError = source.contextError;
+        expired = source.expired;
+        notValidYet = source.notValidYet;
+        statusCheckTimeOut = source.statusCheckTimeOut;
+        chain = new ArrayList<X509Certificate>(source.chain);
+    }
+
     public void addCdpUrl(String urlString) {
         cdpUrl.add(urlString);
     }
@@ -39,6 +39,24 @@ public class OCSPVerifyContext {
     public OCSPVerifyContext(){                
     }
 
+    /**
+     * Creates a copy of an OCSP verification context, including a copy of the
+     * responder certificate verification context.
+     *
+     * @param source the context to copy
+     */
+    public OCSPVerifyContext(OCSPVerifyContext source) {
+        log = new ArrayList<String>(source.log);
+        exceptionLog = new ArrayList<String>(source.exceptionLog);
+        certVerifyContxt = source.certVerifyContxt == null ? null : new CertVerifyContext(source.certVerifyContxt);
+        ocspCheckOK = source.ocspCheckOK;
+        ocspRevoked = source.ocspRevoked;
+        request = source.request;
+        response = source.response;
+        targetCert = source.targetCert;
+        targetIssuer = source.targetIssuer;
+    }
+
     public List<String> getLog() {
         return log;
     }
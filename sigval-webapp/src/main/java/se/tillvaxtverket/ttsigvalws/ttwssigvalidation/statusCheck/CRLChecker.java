@@ -46,6 +46,7 @@ import se.tillvaxtverket.tsltrust.common.utils.general.GeneralStaticUtils;
 import se.tillvaxtverket.tsltrust.common.utils.core.DbCrlCache;
 import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.config.ConfigData;
 import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.db.CrlCacheTable;
+import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.metrics.SigValMetrics;
 import se.tillvaxtverket.ttsigvalws.ttwssigvalidation.sigVerify.ValidationLogger;
 
 /**
@@ -136,6 +137,11 @@ public class CRLChecker extends ValidationLogger implements ConfigConstants {
                                     
                                 }
                             }
+                            if (cached) {
+                                SigValMetrics.cacheHit(SigValMetrics.CRL_CACHE);
+                            } else {
+                                SigValMetrics.cacheMiss(SigValMetrics.CRL_CACHE);
+                            }
 
                             //Log
                             SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
@@ -147,7 +153,12 @@ public class CRLChecker extends ValidationLogger implements ConfigConstants {
                                 URL url;
                                 try {
                                     url = new URL(uri);
-                                    DerefUrl.downloadFile(url, crlFile);
+                                    long start = SigValMetrics.start();
+                                    try {
+                                        DerefUrl.downloadFile(url, crlFile);
+                                    } finally {
+                                        SigValMetrics.stop(SigValMetrics.CRL_DOWNLOAD, start);
+                                    }
                                     if (crlFile.canRead()) {
                                         crl = KsCertFactory.getCRL(FileOps.readBinaryFile(crlFile));
                                         if (crl != null) {
@@ -169,6 +180,7 @@ public class CRLChecker extends ValidationLogger implements ConfigConstants {
                                             }
                                             
                                         } else {
+                                            SigValMetrics.increment(SigValMetrics.CRL_DOWNLOAD_FAILURES);
                                             logString("Failed downloading CRL");
                                         }
                                     }
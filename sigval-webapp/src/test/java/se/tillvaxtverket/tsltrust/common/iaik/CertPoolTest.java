@@ -0,0 +1,94 @@
+/*
+ * Copyright 2017 Swedish E-identification Board (E-legitimationsnämnden)
+ *  		 
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.tillvaxtverket.tsltrust.common.iaik;
+
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Base64;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the certificate pool
+ */
+public class CertPoolTest {
+
+    private static final String TEST_CERT
+            = "MIIBPDCB46ADAgECAggOhby39pjt7jAKBggqhkjOPQQDAjASMRAwDgYDVQQDEwdU"
+            + "ZXN0IENBMCAXDTI2MTAxOTA4NTU0MVoYDzIxMjYwOTI1MDg1NTQxWjASMRAwDgYD"
+            + "VQQDEwdUZXN0IENBMFkwEwYHKoZIzj0CAQYIKoZIzj0DAQcDQgAEcIPlbNYSXfXw"
+            + "cw4eNGtfWGyQ27w+OEPoPqZjzZPvIM+uw/TXikCym4ZAd0oATj0YYIk1+EnA9Kon"
+            + "0unlrdLGGqMhMB8wHQYDVR0OBBYEFIGWe/x7RB5RwZkXl7Km0hyAQhJQMAoGCCqG"
+            + "SM49BAMCA0gAMEUCIAshBNYXAoro+RC85OyIReKdOSjmXQVAJXSHQw0wvLGgAiEA"
+            + "1Wc6kUkzmoeLtP8ulv4vBcVsdXIbZHxKexciMfMjSF0=";
+    private byte[] certBytes;
+
+    @Before
+    public void setUp() {
+        CertPool.clear();
+        certBytes = Base64.getDecoder().decode(TEST_CERT);
+    }
+
+    @Test
+    public void testSameEncodingReturnsSharedEntry() {
+        CertPool.Entry entry = CertPool.get(certBytes);
+        assertSame(entry, CertPool.get(certBytes.clone()));
+        assertEquals(1, CertPool.size());
+        assertNotSame(entry, CertPool.get(new byte[]{1, 2, 3}));
+        assertEquals(2, CertPool.size());
+    }
+
+    @Test
+    public void testEntryIsNotAffectedByCallerData() {
+        byte[] data = certBytes.clone();
+        CertPool.Entry entry = CertPool.get(data);
+        data[0] = 0;
+        assertTrue(Arrays.equals(certBytes, entry.getEncoded()));
+        entry.getEncoded()[0] = 0;
+        assertTrue(Arrays.equals(certBytes, entry.getEncoded()));
+    }
+
+    @Test
+    public void testJcaCertificateIsParsedOnce() {
+        X509Certificate cert = CertPool.getJcaCert(certBytes);
+        assertNotNull(cert);
+        assertEquals("CN=Test CA", cert.getSubjectX500Principal().getName());
+        assertSame(cert, CertPool.getJcaCert(certBytes.clone()));
+    }
+
+    @Test
+    public void testInvalidCertificate() {
+        assertNull(CertPool.getJcaCert(new byte[]{1, 2, 3}));
+        assertNull(CertPool.getJcaCert(new byte[]{1, 2, 3}));
+        assertNull(CertPool.getJcaCert(null));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEntryIsEvicted() {
+        CertPool.Entry first = CertPool.get(certBytes);
+        CertPool.Entry second = CertPool.get(new byte[]{0});
+        for (int i = 1; i < CertPool.MAX_SIZE; i++) {
+            // Keep the certificate recently used
+            CertPool.get(certBytes);
+            CertPool.get(new byte[]{(byte) i, (byte) (i >> 8), 1});
+        }
+        assertEquals(CertPool.MAX_SIZE, CertPool.size());
+        assertSame(first, CertPool.get(certBytes));
+        assertNotSame(second, CertPool.get(new byte[]{0}));
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2017 Swedish E-identification Board (E-legitimationsnämnden)
+ *  		 
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.tillvaxtverket.ttsigvalws.ttwebservice;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLEncoder;
+import java.util.Base64;
+import java.util.Map;
+import javax.servlet.http.HttpServletResponse;
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of streaming form decoding into uploaded documents
+ */
+public class FormUrlEncodedReaderTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+    private UploadBudget budget;
+    private byte[] docBytes;
+
+    @Before
+    public void setUp() {
+        budget = new UploadBudget(1024 * 1024);
+        docBytes = new byte[5000];
+        for (int i = 0; i < docBytes.length; i++) {
+            docBytes[i] = (byte) (i * 31);
+        }
+    }
+
+    @Test
+    public void testReadFieldsAndDocument() throws Exception {
+        String body = "id=" + urlEncode("doc 1.pdf") + "&data=" + urlEncode(Base64.getEncoder().encodeToString(docBytes))
+                + "&policy=Test+Policy&flag";
+        UploadedDocument document = newDocument(10000);
+        Map<String, String> fields = FormUrlEncodedReader.read(stream(body), "data", document);
+        assertEquals("doc 1.pdf", fields.get("id"));
+        assertEquals("Test Policy", fields.get("policy"));
+        assertEquals("", fields.get("flag"));
+        assertFalse(fields.containsKey("data"));
+        assertEquals(docBytes.length, document.getSize());
+        assertArrayEquals(docBytes, FileUtils.readFileToByteArray(document.getFile()));
+        document.dispose();
+        assertEquals(0, budget.getInUse());
+        assertFalse(document.getFile().exists());
+    }
+
+    @Test
+    public void testInvalidBase64IsRejected() throws Exception {
+        assertRejected("data=AAAA*AAA", 10000, HttpServletResponse.SC_BAD_REQUEST);
+    }
+
+    @Test
+    public void testLineBreaksAreRejected() throws Exception {
+        String encoded = Base64.getMimeEncoder().encodeToString(docBytes);
+        assertTrue(encoded.contains("\r\n"));
+        assertRejected("data=" + urlEncode(encoded), 10000, HttpServletResponse.SC_BAD_REQUEST);
+    }
+
+    @Test
+    public void testInvalidUrlEncodingIsRejected() throws Exception {
+        assertRejected("id=%ZZ&data=AAAA", 10000, HttpServletResponse.SC_BAD_REQUEST);
+    }
+
+    @Test
+    public void testOversizedDocumentIsRejected() throws Exception {
+        assertRejected("data=" + urlEncode(Base64.getEncoder().encodeToString(docBytes)), 1000,
+                HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+    }
+
+    @Test
+    public void testExhaustedBudgetIsRejected() throws Exception {
+        assertTrue(budget.reserve(budget.getLimit()));
+        assertRejected("data=" + urlEncode(Base64.getEncoder().encodeToString(docBytes)), 10000,
+                HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+    }
+
+    @Test
+    public void testLongFieldIsRejected() throws Exception {
+        String value = new String(new char[FormUrlEncodedReader.MAX_FIELD_LENGTH + 1]).replace('\0', 'a');
+        assertRejected("id=" + value, 10000, HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+    }
+
+    @Test
+    public void testReadErrorIsNotReportedAsInvalidData() throws Exception {
+        final InputStream body = stream("data=AAAAAAAA");
+        InputStream failing = new InputStream() {
+            private int count;
+
+            @Override
+            public int read() throws IOException {
+                if (++count > 9) {
+                    throw new IOException("Connection reset");
+                }
+                return body.read();
+            }
+        };
+        UploadedDocument document = newDocument(10000);
+        try {
+            FormUrlEncodedReader.read(failing, "data", document);
+            fail("Read error was not reported");
+        } catch (UploadRejectedException ex) {
+            fail("Read error reported as rejected upload");
+        } catch (IOException ex) {
+            assertEquals("Connection reset", ex.getMessage());
+        } finally {
+            document.dispose();
+        }
+    }
+
+    @Test
+    public void testDecodeBase64() throws Exception {
+        byte[] decoded = readAll(FormUrlEncodedReader.decodeBase64(stream(Base64.getEncoder().encodeToString(docBytes))));
+        assertArrayEquals(docBytes, decoded);
+        try {
+            readAll(FormUrlEncodedReader.decodeBase64(stream("AAAA AAAA")));
+            fail("Blank accepted in Base64 data");
+        } catch (UploadRejectedException ex) {
+            assertEquals(HttpServletResponse.SC_BAD_REQUEST, ex.getStatus());
+        }
+    }
+
+    private void assertRejected(String body, long maxSize, int status) throws IOException {
+        UploadedDocument document = newDocument(maxSize);
+        try {
+            FormUrlEncodedReader.read(stream(body), "data", document);
+            fail("Upload was not rejected");
+        } catch (UploadRejectedException ex) {
+            assertEquals(status, ex.getStatus());
+        } finally {
+            document.dispose();
+        }
+    }
+
+    private UploadedDocument newDocument(long maxSize) throws IOException {
+        return new UploadedDocument(tempFolder.getRoot(), maxSize, budget);
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buf = new byte[1000];
+        int len;
+        while ((len = in.read(buf)) != -1) {
+            bos.write(buf, 0, len);
+        }
+        return bos.toByteArray();
+    }
+
+    private static String urlEncode(String value) throws IOException {
+        return URLEncoder.encode(value, "UTF-8");
+    }
+
+    private static InputStream stream(String body) throws IOException {
+        return new ByteArrayInputStream(body.getBytes("ISO-8859-1"));
+    }
+}
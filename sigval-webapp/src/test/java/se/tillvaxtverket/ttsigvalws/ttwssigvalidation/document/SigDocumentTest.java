@@ -0,0 +1,70 @@
+/*
+ * Copyright 2017 Swedish E-identification Board (E-legitimationsnämnden)
+ *  		 
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.tillvaxtverket.ttsigvalws.ttwssigvalidation.document;
+
+import java.io.File;
+import java.nio.MappedByteBuffer;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of document access for mapped and temporary files
+ */
+public class SigDocumentTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testTemporaryFileIsReadIntoMemory() throws Exception {
+        File file = writeDocument("%PDF-1.4 temporary");
+        SigDocument document = new SigDocument(file, true);
+        assertEquals(DocType.PDF, document.getDocType());
+        assertFalse(document.getDocBuffer() instanceof MappedByteBuffer);
+        assertTrue(file.delete());
+        assertEquals("%PDF-1.4 temporary", new String(document.getDocBytes(), "ISO-8859-1"));
+        assertEquals("%PDF-1.4 temporary", IOUtils.toString(document.getDocInputStream(), "ISO-8859-1"));
+        // The content is held once and not copied for each caller
+        assertSame(document.getDocBytes(), document.getDocBytes());
+    }
+
+    @Test
+    public void testFileIsMapped() throws Exception {
+        File file = writeDocument("%PDF-1.4 mapped");
+        SigDocument document = new SigDocument(file);
+        assertEquals(DocType.PDF, document.getDocType());
+        assertTrue(document.getDocBuffer() instanceof MappedByteBuffer);
+        assertEquals("%PDF-1.4 mapped", new String(document.getDocBytes(), "ISO-8859-1"));
+    }
+
+    @Test
+    public void testMissingTemporaryFile() throws Exception {
+        SigDocument document = new SigDocument(new File(tempFolder.getRoot(), "missing.tmp"), true);
+        assertNull(document.getDocBuffer());
+        assertNull(document.getDocBytes());
+    }
+
+    private File writeDocument(String content) throws Exception {
+        File file = tempFolder.newFile("upload.tmp");
+        FileUtils.writeStringToFile(file, content, "ISO-8859-1");
+        return file;
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2017 Swedish E-identification Board (E-legitimationsnämnden)
+ *  		 
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.tillvaxtverket.ttsigvalws.ttwssigvalidation.pdf;
+
+import java.nio.ByteBuffer;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the time stamp token cache
+ */
+public class TimeStampTokenCacheTest {
+
+    private static int tokenCounter;
+
+    @Test
+    public void testKeyDependsOnTokenContent() {
+        assertEquals(TimeStampTokenCache.getKey(new byte[]{1, 2, 3}), TimeStampTokenCache.getKey(new byte[]{1, 2, 3}));
+        assertFalse(TimeStampTokenCache.getKey(new byte[]{1, 2, 3}).equals(TimeStampTokenCache.getKey(new byte[]{1, 2, 4})));
+        assertEquals(32, TimeStampTokenCache.getKey(new byte[0]).remaining());
+    }
+
+    @Test
+    public void testPutAndGet() {
+        ByteBuffer key = newKey();
+        assertNull(TimeStampTokenCache.get(key));
+        CMSSigVerifyResult result = new CMSSigVerifyResult();
+        TimeStampTokenCache.put(key, null, result);
+        TimeStampTokenCache.Entry entry = TimeStampTokenCache.get(key);
+        assertNotNull(entry);
+        assertSame(result, entry.getSignatureVerification());
+        assertSame(entry, TimeStampTokenCache.get(key));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedTokenIsEvicted() {
+        ByteBuffer first = newKey();
+        ByteBuffer second = newKey();
+        TimeStampTokenCache.put(first, null, new CMSSigVerifyResult());
+        TimeStampTokenCache.put(second, null, new CMSSigVerifyResult());
+        for (int i = 0; i < TimeStampTokenCache.MAX_SIZE - 1; i++) {
+            // Keep the first token recently used
+            assertNotNull(TimeStampTokenCache.get(first));
+            TimeStampTokenCache.put(newKey(), null, new CMSSigVerifyResult());
+        }
+        assertNotNull(TimeStampTokenCache.get(first));
+        assertNull(TimeStampTokenCache.get(second));
+    }
+
+    private static ByteBuffer newKey() {
+        return TimeStampTokenCache.getKey(("token-" + tokenCounter++).getBytes());
+    }
+}
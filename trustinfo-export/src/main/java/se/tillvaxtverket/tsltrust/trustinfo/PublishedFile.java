@@ -0,0 +1,171 @@
+/*
+ * Copyright 2017 Swedish E-identification Board (E-legitimationsnämnden)
+ *  		 
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.tillvaxtverket.tsltrust.trustinfo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Cached information about a published file. Holds the validators used for
+ * conditional requests and the gzip compressed content of the file. Instances
+ * are replaced as soon as the size or modification time of the file changes.
+ */
+class PublishedFile {
+
+    private static final int MAX_GZIP_SIZE = 8 * 1024 * 1024;
+    private static final ConcurrentHashMap<String, PublishedFile> CACHE = new ConcurrentHashMap<String, PublishedFile>();
+    private final File file;
+    private final long lastModified;
+    private final long length;
+    private final String contentHash;
+    private byte[] gzipData;
+    private boolean gzipDone;
+
+    private PublishedFile(File file, long lastModified, long length) throws IOException {
+        this.file = file;
+        this.lastModified = lastModified;
+        this.length = length;
+        this.contentHash = hashFile(file);
+    }
+
+    /**
+     * Returns the information about a published file
+     * @param file the published file
+     * @return information about the current version of the file
+     * @throws IOException if the file can not be read
+     */
+    static PublishedFile get(File file) throws IOException {
+        long lastModified = file.lastModified();
+        long length = file.length();
+        PublishedFile cached = CACHE.get(file.getPath());
+        if (cached != null && cached.lastModified == lastModified && cached.length == length) {
+            return cached;
+        }
+        PublishedFile published = new PublishedFile(file, lastModified, length);
+        CACHE.put(file.getPath(), published);
+        return published;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    long getLastModified() {
+        return lastModified;
+    }
+
+    long getLength() {
+        return length;
+    }
+
+    /**
+     * @return strong entity tag of the uncompressed file content
+     */
+    String getETag() {
+        return "\"" + contentHash + "\"";
+    }
+
+    /**
+     * @return strong entity tag of the gzip compressed file content
+     */
+    String getGzipETag() {
+        return "\"" + contentHash + "-gzip\"";
+    }
+
+    /**
+     * Returns a precompressed sibling file (the file name with the extension ".gz")
+     * if such file exists and is not older than the published file.
+     * @return precompressed file or null if no up to date precompressed file exists
+     */
+    File getGzipFile() {
+        File gzFile = new File(file.getPath() + ".gz");
+        if (gzFile.isFile() && gzFile.canRead() && gzFile.lastModified() >= lastModified) {
+            return gzFile;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the gzip compressed file content. The content is compressed on first
+     * request and only for files of limited size.
+     * @return compressed content or null if the file is too large to be compressed in memory
+     */
+    synchronized byte[] getGzipData() {
+        if (!gzipDone) {
+            gzipDone = true;
+            if (length <= MAX_GZIP_SIZE) {
+                try {
+                    gzipData = compress(file);
+                } catch (IOException ex) {
+                    gzipData = null;
+                }
+            }
+        }
+        return gzipData;
+    }
+
+    private static byte[] compress(File file) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        GZIPOutputStream gzOut = new GZIPOutputStream(bos);
+        FileInputStream inStream = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[8192];
+            int bytesRead;
+            while ((bytesRead = inStream.read(buffer)) != -1) {
+                gzOut.write(buffer, 0, bytesRead);
+            }
+        } finally {
+            inStream.close();
+        }
+        gzOut.close();
+        return bos.toByteArray();
+    }
+
+    private static String hashFile(File file) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IOException(ex);
+        }
+        FileInputStream inStream = new FileInputStream(file);
+        try {
+            FileChannel channel = inStream.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate(8192);
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                md.update(buffer);
+                buffer.clear();
+            }
+        } finally {
+            inStream.close();
+        }
+        StringBuilder b = new StringBuilder();
+        for (byte d : md.digest()) {
+            b.append(String.format("%02x", d & 0xff));
+        }
+        return b.toString();
+    }
+}
@@ -21,6 +21,9 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.logging.Logger;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletContext;
@@ -36,13 +39,21 @@ import javax.servlet.http.HttpServletResponse;
 public class TTExportServlet extends HttpServlet {
 
     private static final Logger LOG = Logger.getLogger(TTExportServlet.class.getName());
+    private static final long[] UNSATISFIABLE_RANGE = new long[0];
     private static String tslTrustPublishLocation, sigServicePublishLocation;
+    private String cacheControl;
 
     @Override
     public void init(ServletConfig sc) throws ServletException {
         super.init(sc);
         tslTrustPublishLocation = sc.getInitParameter("TslTrustPublishLocation");
         sigServicePublishLocation = sc.getInitParameter("SigServicePublishLocation");
+        int maxAge = 60;
+        try {
+            maxAge = Integer.parseInt(sc.getInitParameter("CacheMaxAge"));
+        } catch (Exception ex) {
+        }
+        cacheControl = "public, max-age=" + maxAge + ", must-revalidate";
     }
 
     /**
@@ -65,9 +76,6 @@ public class TTExportServlet extends HttpServlet {
             returnFile(request, response, sigServicePublishLocation);
             return;
         }
-        
-        
-
     }
 
     // <editor-fold defaultstate="collapsed" desc="HttpServlet methods. Click on the + sign on the left to edit the code.">
@@ -85,6 +93,20 @@ public class TTExportServlet extends HttpServlet {
         processRequest(request, response);
     }
 
+    /**
+     * Handles the HTTP <code>HEAD</code> method.
+     *
+     * @param request servlet request
+     * @param response servlet response
+     * @throws ServletException if a servlet-specific error occurs
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    protected void doHead(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        processRequest(request, response);
+    }
+
     /**
      * Handles the HTTP <code>POST</code> method.
      *
@@ -115,11 +137,11 @@ public class TTExportServlet extends HttpServlet {
         String reqFilePath = reqUrl.substring(reqUrl.lastIndexOf(request.getServletPath()) + request.getServletPath().length());
         String filePath = dataLocation + reqFilePath;
         File downloadFile = new File(filePath);
-        if (!downloadFile.canRead()) {
+        if (!downloadFile.isFile() || !downloadFile.canRead() || !isInLocation(downloadFile, dataLocation)) {
             response.sendError(HttpServletResponse.SC_NOT_FOUND);
             return;
         }
-        FileInputStream inStream = new FileInputStream(downloadFile);
+        PublishedFile published = PublishedFile.get(downloadFile);
 
         //LOG.info("Filepath: " + filePath);
         // obtains ServletContext
@@ -133,26 +155,237 @@ public class TTExportServlet extends HttpServlet {
         }
         //LOG.info("MIME type: " + mimeType);
 
+        // Select gzip representation for compressible content unless a byte range is requested
+        boolean compressible = isCompressible(mimeType);
+        File gzipFile = null;
+        byte[] gzipData = null;
+        if (compressible && acceptsGzip(request) && request.getHeader("Range") == null) {
+            gzipFile = published.getGzipFile();
+            if (gzipFile == null) {
+                gzipData = published.getGzipData();
+            }
+        }
+        boolean gzip = gzipFile != null || gzipData != null;
+        String etag = gzip ? published.getGzipETag() : published.getETag();
+
+        // Validators and caching headers
+        response.setHeader("ETag", etag);
+        response.setDateHeader("Last-Modified", published.getLastModified());
+        response.setHeader("Cache-Control", cacheControl);
+        response.setHeader("Accept-Ranges", "bytes");
+        if (compressible) {
+            response.setHeader("Vary", "Accept-Encoding");
+        }
+
+        if (isNotModified(request, published, etag)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
         // modifies response
         response.setContentType(mimeType);
-        response.setContentLength((int) downloadFile.length());
 
         // forces download
         String headerKey = "Content-Disposition";
         String headerValue = String.format("attachment; filename=\"%s\"", downloadFile.getName());
         response.setHeader(headerKey, headerValue);
 
+        boolean head = request.getMethod().equals("HEAD");
+        if (gzip) {
+            response.setHeader("Content-Encoding", "gzip");
+            long gzipLength = gzipFile != null ? gzipFile.length() : gzipData.length;
+            response.setHeader("Content-Length", String.valueOf(gzipLength));
+            if (head) {
+                return;
+            }
+            OutputStream outStream = response.getOutputStream();
+            if (gzipFile != null) {
+                transfer(gzipFile, 0, gzipLength, outStream);
+            } else {
+                outStream.write(gzipData);
+            }
+            outStream.close();
+            return;
+        }
+
+        long length = published.getLength();
+        long start = 0, end = length - 1;
+        long[] range = getRange(request, published);
+        if (range == UNSATISFIABLE_RANGE) {
+            response.setHeader("Content-Range", "bytes */" + length);
+            response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            return;
+        }
+        if (range != null) {
+            start = range[0];
+            end = range[1];
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setHeader("Content-Range", "bytes " + start + "-" + end + "/" + length);
+        }
+        response.setHeader("Content-Length", String.valueOf(end - start + 1));
+        if (head) {
+            return;
+        }
+
         // obtains response's output stream
         OutputStream outStream = response.getOutputStream();
+        transfer(downloadFile, start, end - start + 1, outStream);
+        outStream.close();
+    }
+
+    /**
+     * Checks that a requested file is located inside the publish location
+     */
+    private static boolean isInLocation(File file, String dataLocation) throws IOException {
+        String locationPath = new File(dataLocation).getCanonicalPath();
+        String filePath = file.getCanonicalPath();
+        return filePath.startsWith(locationPath + File.separator);
+    }
+
+    private static boolean isCompressible(String mimeType) {
+        return mimeType.startsWith("text/") || mimeType.endsWith("/xml") || mimeType.endsWith("+xml");
+    }
 
-        byte[] buffer = new byte[4096];
-        int bytesRead = -1;
+    private static boolean acceptsGzip(HttpServletRequest request) {
+        String acceptEncoding = request.getHeader("Accept-Encoding");
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] params = coding.trim().split(";");
+            if (!params[0].trim().equalsIgnoreCase("gzip")) {
+                continue;
+            }
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim().replace(" ", "");
+                if (param.startsWith("q=0") && param.matches("q=0(\\.0*)?")) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
 
-        while ((bytesRead = inStream.read(buffer)) != -1) {
-            outStream.write(buffer, 0, bytesRead);
+    /**
+     * Evaluates the conditional request headers. If-None-Match takes precedence
+     * over If-Modified-Since.
+     */
+    private static boolean isNotModified(HttpServletRequest request, PublishedFile published, String etag) {
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            return matchesETag(ifNoneMatch, etag, true);
         }
+        try {
+            long ifModifiedSince = request.getDateHeader("If-Modified-Since");
+            return ifModifiedSince != -1 && published.getLastModified() / 1000 <= ifModifiedSince / 1000;
+        } catch (IllegalArgumentException ex) {
+            return false;
+        }
+    }
 
-        inStream.close();
-        outStream.close();
+    private static boolean matchesETag(String headerValue, String etag, boolean weak) {
+        for (String tag : headerValue.split(",")) {
+            tag = tag.trim();
+            if (tag.equals("*")) {
+                return true;
+            }
+            if (tag.startsWith("W/")) {
+                if (!weak) {
+                    continue;
+                }
+                tag = tag.substring(2);
+            }
+            if (tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parses a single byte range request. Multiple ranges are not supported and are
+     * answered with the full content.
+     *
+     * @return start and end index of the requested range, null if the full content is
+     * to be returned, or UNSATISFIABLE_RANGE if the range can not be satisfied
+     */
+    private static long[] getRange(HttpServletRequest request, PublishedFile published) {
+        String rangeHeader = request.getHeader("Range");
+        if (rangeHeader == null || !rangeHeader.startsWith("bytes=") || rangeHeader.contains(",")) {
+            return null;
+        }
+        String ifRange = request.getHeader("If-Range");
+        if (ifRange != null) {
+            if (ifRange.trim().startsWith("\"") || ifRange.trim().startsWith("W/")) {
+                if (!matchesETag(ifRange, published.getETag(), false)) {
+                    return null;
+                }
+            } else {
+                try {
+                    if (published.getLastModified() / 1000 != request.getDateHeader("If-Range") / 1000) {
+                        return null;
+                    }
+                } catch (IllegalArgumentException ex) {
+                    return null;
+                }
+            }
+        }
+        long length = published.getLength();
+        String range = rangeHeader.substring(6).trim();
+        int dash = range.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        long start, end;
+        try {
+            String startStr = range.substring(0, dash).trim();
+            String endStr = range.substring(dash + 1).trim();
+            if (startStr.length() == 0) {
+                // Suffix range, the last n bytes
+                long suffix = Long.parseLong(endStr);
+                if (suffix <= 0) {
+                    return UNSATISFIABLE_RANGE;
+                }
+                start = Math.max(0, length - suffix);
+                end = length - 1;
+            } else {
+                start = Long.parseLong(startStr);
+                long last = endStr.length() == 0 ? Long.MAX_VALUE : Long.parseLong(endStr);
+                if (last < start) {
+                    // Syntactically invalid range, ignored
+                    return null;
+                }
+                end = Math.min(last, length - 1);
+            }
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+        if (start >= length) {
+            return UNSATISFIABLE_RANGE;
+        }
+        return new long[]{start, end};
+    }
+
+    /**
+     * Copies a section of a file to the output using the file channel transfer
+     */
+    private static void transfer(File file, long start, long count, OutputStream outStream) throws IOException {
+        FileInputStream inStream = new FileInputStream(file);
+        try {
+            FileChannel channel = inStream.getChannel();
+            WritableByteChannel target = Channels.newChannel(outStream);
+            long position = start;
+            long end = start + count;
+            while (position < end) {
+                long transferred = channel.transferTo(position, end - position, target);
+                if (transferred <= 0) {
+                    break;
+                }
+                position += transferred;
+            }
+        } finally {
+            inStream.close();
+        }
     }
 }